@@ -0,0 +1,135 @@
+package telegrambot.cluster;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import telegrambot.todos.IConnectionSource;
+
+/**
+ * Аренда (lease) с именем в общей базе данных: в каждый момент она принадлежит не более чем одному экземпляру бота.
+ * Владелец продлевает аренду раньше, чем она истечет; аренду, которую никто не продлил, может забрать любой экземпляр.
+ * Срок хранится в миллисекундах эпохи по часам экземпляров, поэтому срок аренды должен быть много больше расхождения
+ * часов (на узлах с NTP - десятки миллисекунд)
+ * @author borodatyidrug
+ *
+ */
+public class DatabaseLease {
+
+	protected static final String CREATE = "CREATE TABLE fa_leases ("
+			+ "name VARCHAR(64) NOT NULL PRIMARY KEY, "
+			+ "owner VARCHAR(256) NOT NULL, "
+			+ "expires_at BIGINT NOT NULL)";
+	protected static final String RENEW = "UPDATE fa_leases SET owner = ?, expires_at = ? "
+			+ "WHERE name = ? AND (owner = ? OR expires_at < ?)";
+	protected static final String INSERT = "INSERT INTO fa_leases (name, owner, expires_at) VALUES (?, ?, ?)";
+	protected static final String RELEASE = "DELETE FROM fa_leases WHERE name = ? AND owner = ?";
+	/**
+	 * Класс SQLSTATE нарушения ограничения целостности: строку аренды одновременно вставил другой экземпляр
+	 */
+	protected static final String INTEGRITY_VIOLATION = "23";
+
+	protected final IConnectionSource connections;
+	protected final String name;
+	protected final String owner;
+	protected final long ttlMillis;
+
+	/**
+	 * Создает аренду
+	 * @param connections Источник соединений с общей базой данных
+	 * @param name Имя аренды
+	 * @param owner Идентификатор этого экземпляра бота
+	 * @param ttlMillis Срок аренды от последнего продления
+	 */
+	public DatabaseLease(IConnectionSource connections, String name, String owner, long ttlMillis) {
+		this.connections = connections;
+		this.name = name;
+		this.owner = owner;
+		this.ttlMillis = ttlMillis;
+	}
+	/**
+	 * Создает таблицу аренд, если ее еще нет
+	 * @throws SQLException
+	 */
+	public void initialize() throws SQLException {
+		try (Connection connection = connections.getConnection()) {
+			if (exists(connection)) {
+				return;
+			}
+			try (Statement statement = connection.createStatement()) {
+				statement.execute(CREATE);
+			} catch (SQLException e) {
+				// таблицу одновременно создал другой экземпляр
+				if (!exists(connection)) {
+					throw e;
+				}
+			}
+		}
+	}
+	/**
+	 * Берет аренду, если она свободна или истекла, или продлевает, если она уже принадлежит этому экземпляру
+	 * @return true, если аренда принадлежит этому экземпляру до now + ttlMillis
+	 * @throws SQLException
+	 */
+	public boolean tryAcquire() throws SQLException {
+		long now = System.currentTimeMillis();
+		try (Connection connection = connections.getConnection()) {
+			try (PreparedStatement renew = connection.prepareStatement(RENEW)) {
+				renew.setString(1, owner);
+				renew.setLong(2, now + ttlMillis);
+				renew.setString(3, name);
+				renew.setString(4, owner);
+				renew.setLong(5, now);
+				if (renew.executeUpdate() > 0) {
+					return true;
+				}
+			}
+			try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+				insert.setString(1, name);
+				insert.setString(2, owner);
+				insert.setLong(3, now + ttlMillis);
+				return insert.executeUpdate() > 0;
+			} catch (SQLException e) {
+				if (e.getSQLState() != null && e.getSQLState().startsWith(INTEGRITY_VIOLATION)) {
+					// аренда есть и принадлежит другому экземпляру
+					return false;
+				}
+				throw e;
+			}
+		}
+	}
+	/**
+	 * Освобождает аренду, если она принадлежит этому экземпляру, чтобы другой экземпляр забрал ее, не дожидаясь срока
+	 * @throws SQLException
+	 */
+	public void release() throws SQLException {
+		try (Connection connection = connections.getConnection();
+				PreparedStatement release = connection.prepareStatement(RELEASE)) {
+			release.setString(1, name);
+			release.setString(2, owner);
+			release.executeUpdate();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	protected static boolean exists(Connection connection) {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeQuery("SELECT 1 FROM fa_leases WHERE 1 = 0").close();
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package telegrambot.cluster;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import telegrambot.metrics.MetricsRegistry;
+
+/**
+ * Выбирает среди экземпляров бота один, который получает обновления Telegram. Telegram отдает поток обновлений бота только
+ * одному получателю (второй длительный опрос получает ошибку 409, webhook - один адрес), поэтому остальные экземпляры
+ * ждут, выполняя только задания Quartz. Владелец потока - держатель аренды в общей базе данных; аренда продлевается
+ * каждую треть своего срока
+ * @author borodatyidrug
+ *
+ */
+public class UpdateStreamOwner {
+
+	protected final DatabaseLease lease;
+	protected final long renewMillis;
+	/**
+	 * Собственный поток продления: в общем планировщике продление ждало бы задания, занявшие его потоки, и аренда могла бы
+	 * истечь
+	 */
+	protected final ScheduledExecutorService renewer;
+	protected volatile boolean owner;
+	protected volatile long renewedAt;
+
+	/**
+	 * Создает выборщика и регистрирует показатель "владеет ли экземпляр потоком обновлений"
+	 * @param lease Аренда потока обновлений
+	 * @param metrics Реестр метрик
+	 */
+	public UpdateStreamOwner(DatabaseLease lease, MetricsRegistry metrics) {
+		this.lease = lease;
+		this.renewMillis = Math.max(1, lease.getTtlMillis() / 3);
+		this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "update-stream-lease");
+			thread.setDaemon(true);
+			return thread;
+		});
+		metrics.gauge("cluster_update_stream_owner", "1, если этот экземпляр бота получает обновления Telegram",
+				() -> owner ? 1 : 0);
+	}
+	/**
+	 * Ждет, пока аренда не достанется этому экземпляру
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		while (!acquire()) {
+			Thread.sleep(renewMillis);
+		}
+	}
+	/**
+	 * Пытается взять аренду один раз
+	 * @return true, если аренда принадлежит этому экземпляру
+	 */
+	public boolean acquire() {
+		try {
+			if (lease.tryAcquire()) {
+				renewedAt = System.currentTimeMillis();
+				owner = true;
+				return true;
+			}
+		} catch (SQLException e) {
+			System.out.println("Не удалось взять аренду " + lease.getName() + ": " + e.getMessage());
+		}
+		return false;
+	}
+	/**
+	 * Начинает продлевать аренду в собственном потоке. Если аренду забрал другой экземпляр или ее не удается продлить так
+	 * долго, что она может истечь до следующей попытки, владение прекращается и вызывается onLost
+	 * @param onLost Вызывается один раз при потере аренды: экземпляр должен перестать получать обновления
+	 * @return Периодическая задача продления
+	 */
+	public ScheduledFuture<?> keep(Runnable onLost) {
+		return renewer.scheduleWithFixedDelay(() -> renew(onLost), renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+	}
+
+	protected void renew(Runnable onLost) {
+		if (!owner) {
+			return;
+		}
+		try {
+			if (lease.tryAcquire()) {
+				renewedAt = System.currentTimeMillis();
+				return;
+			}
+			System.out.println("Аренду " + lease.getName() + " забрал другой экземпляр бота");
+		} catch (SQLException e) {
+			System.out.println("Не удалось продлить аренду " + lease.getName() + ": " + e.getMessage());
+			// еще одна неудачная попытка не должна пережить срок аренды: к ее концу другой экземпляр уже может забрать поток
+			if (System.currentTimeMillis() - renewedAt < lease.getTtlMillis() - 2 * renewMillis) {
+				return;
+			}
+		}
+		owner = false;
+		onLost.run();
+	}
+	/**
+	 * Освобождает аренду при остановке экземпляра
+	 */
+	public void release() {
+		renewer.shutdownNow();
+		if (!owner) {
+			return;
+		}
+		owner = false;
+		try {
+			lease.release();
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	public boolean isOwner() {
+		return owner;
+	}
+}
@@ -1,30 +1,37 @@
 package telegrambot.commands;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import org.jsoup.parser.Parser;
 import org.telegram.telegrambots.extensions.bots.commandbot.commands.BotCommand;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Chat;
 import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.bots.AbsSender;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
-
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.istorage.ISubscriptionStore;
+import telegrambot.istorage.JdbcSubscriptionStore;
+import telegrambot.istorage.JournaledSubscriptionStore;
+import telegrambot.istorage.JournaledSubscriptionStore.FsyncPolicy;
+import telegrambot.metrics.Histogram;
+import telegrambot.outbound.BroadcastScheduler;
+import telegrambot.outbound.IMessageSender;
+import telegrambot.webparsers.DailyContentCache;
+import telegrambot.webparsers.IPageParser;
+import telegrambot.webparsers.JsoupPageFetcher;
+import telegrambot.webparsers.azbykaru.AzbykaDay;
 import telegrambot.webparsers.azbykaru.AzbykaParser;
 
 /**
@@ -33,12 +40,39 @@ import telegrambot.webparsers.azbykaru.AzbykaParser;
  * @author borodatyidrug
  *
  */
-public class AzbykaRu extends BotCommand {
+public class AzbykaRu extends BotCommand implements Closeable {
     
     private final String START = "start";
     private final String STOP = "stop";
     private final String VIEW = "view";
     private final String CONFIG_SUFFIX = "config";
+    /**
+     * Страница "Календарь" портала, блоки которой отправляются в чаты
+     */
+    public static final String DAYS_URL = "https://azbyka.ru/days/";
+    /**
+     * Ключ параметра конфигурации: как разбирать страницу - деревом всей страницы (dom, по-умолчанию) или потоком, копируя
+     * только нужные блоки (streaming). Потоковый разбор упрощенно восстанавливает некорректную разметку, поэтому включается
+     * явно
+     */
+    public static final String PARSER_MODE = "azbykaParserMode";
+    public static final String PARSER_MODE_STREAMING = "streaming";
+    public static final String PARSER_MODE_DOM = "dom";
+    private static final String DEFAULT_PARSER_MODE = PARSER_MODE_DOM;
+    /**
+     * Ключ параметра конфигурации: сколько сообщений одной рассылки может находиться в конвейере исходящих сообщений
+     * одновременно
+     */
+    public static final String BROADCAST_WINDOW = "azbykaBroadcastWindow";
+    private static final String DEFAULT_BROADCAST_WINDOW = Integer.toString(BroadcastScheduler.DEFAULT_WINDOW);
+    /**
+     * Ключи параметров конфигурации журнала подписок: когда изменения сбрасываются на диск (always, interval или never, см.
+     * FsyncPolicy) и интервал сброса в миллисекундах для interval
+     */
+    public static final String FSYNC_POLICY = "azbykaFsyncPolicy";
+    public static final String FSYNC_MILLIS = "azbykaFsyncMillis";
+    private static final String DEFAULT_FSYNC_POLICY = FsyncPolicy.ALWAYS.name();
+    private static final String DEFAULT_FSYNC_MILLIS = Long.toString(JournaledSubscriptionStore.DEFAULT_FSYNC_MILLIS);
     /**
      * Идентификатор аргумента для разового запуска команды
      */
@@ -55,88 +89,147 @@ public class AzbykaRu extends BotCommand {
      */
     private final String rootPath;
     /**
-     * В данной мапе хранятся настройки планировщика задач для отсылки запланированных сообщений для каждого чата
-     * Корневая мапа: ключ - chatId, значение - мапа с конфигом для данного чата
-     * Вложенная мапа: ключ - имя параметра, значение - временной промежуток
+     * В данном хранилище хранятся настройки планировщика задач для отсылки запланированных сообщений для каждого чата:
+     * ключ - chatId, значение - мапа с конфигом для данного чата (ключ - имя параметра, значение - временной промежуток).
+     * Читается из памяти, а изменения дописываются в журнал. Создается при восстановлении расписаний
      */
-    private Map<String, Map<String, String>> configMap;
-    private ObjectMapper mapper;
+    private volatile ISubscriptionStore configMap;
     
     /**
-     * Хранит переданный через конструктор экземпляр планировщика задач
+     * Хранит конвейер исходящих сообщений, через который сообщения отправляются в чаты
+     */
+    private final IMessageSender sender;
+    /**
+     * Время загрузки и разбора страницы портала при сборке одного сообщения
      */
-    private final ScheduledExecutorService scheduler;
+    private final Histogram fetchLatency;
     /**
-     * Хранит объект, отправляющий сообщения в чаты
+     * Блоки страницы "Календарь", разобранные один раз в сутки для всех чатов. Страница меняется раз в день, а отправок в
+     * утренние часы - по одной на каждый подписанный чат
      */
-    private final AbsSender as;
-    private LocalDateTime when;
-    private Runnable task;
+    private final DailyContentCache<AzbykaDay> content;
     /**
-     * Мапа с запланированными планировщиком задачами. Задачи можно отменить, получая их по chatId (ключ)
+     * Рассылка по расписаниям чатов. Чаты с одинаковыми моментами отправки объединены в группу: у группы одно задание в
+     * планировщике, и сообщение собирается один раз на группу
      */
-    private Map<String, ScheduledFuture<?>> futureTasks;
+    private final BroadcastScheduler broadcasts;
     private File file, rootDir;
+    /**
+     * Завершается, когда расписания, сохраненные до перезапуска, восстановлены
+     */
+    private final CompletableFuture<Void> restored;
 
     /**
      * Создает объект "команды"
      * @param identifier Идентификатор команды (суть - имя)
      * @param description Описание команды
-     * @param as Объект, который может посылать сообщения в чаты. Обычно - сам бот
+     * @param sender Конвейер исходящих сообщений, через который команда отправляет сообщения в чаты
      */
-    public AzbykaRu(String identifier, String description, AbsSender as) {
+    public AzbykaRu(String identifier, String description, IMessageSender sender) {
         super(identifier, description);
-        this.as = as;
+        this.sender = sender;
+        this.fetchLatency = FamilyAssistantBot.getMetrics().histogram("azbyka_fetch_seconds",
+        		"Время загрузки и разбора страницы Azbyka.ru при сборке сообщения");
+        // Страница загружается в своем потоке: задания отправки выполняются в общем планировщике, и ожидание загрузки в
+        // его потоке заняло бы его потоки
+        this.content = new DailyContentCache<>(DAYS_URL, new JsoupPageFetcher(),
+        		parser(FamilyAssistantBot.getConfigStorage().getValue(PARSER_MODE, DEFAULT_PARSER_MODE)),
+        		Executors.newSingleThreadExecutor(r -> {
+        			Thread thread = new Thread(r, "azbyka-fetch");
+        			thread.setDaemon(true);
+        			return thread;
+        		}),
+        		LocalDate::now, DailyContentCache.DEFAULT_RETRY_MILLIS, DailyContentCache.DEFAULT_STALE_WAIT_MILLIS,
+        		FamilyAssistantBot.getMetrics());
         // Имя конечной папки для хранения расписания берем из "хранилища конфигураций" в классе бота статическим методом
         rootPath = Paths.get("").toAbsolutePath().toString() + FamilyAssistantBot.getConfigStorage().getValue("azbykaRuPath");
-        mapper = new ObjectMapper();
         // Планировщик достаем статическим методом из объекта бота
-        this.scheduler = FamilyAssistantBot.getScheduler();
-        futureTasks = new HashMap<>();
-        // Создаем корневой каталог с конфигурацией в рабочем каталоге программы, если он несуществует
+        this.broadcasts = new BroadcastScheduler(identifier, FamilyAssistantBot.getScheduler(), sender, this::renderText,
+        		Integer.parseInt(FamilyAssistantBot.getConfigStorage().getValue(BROADCAST_WINDOW, DEFAULT_BROADCAST_WINDOW)),
+        		FamilyAssistantBot.getMetrics());
         rootDir = new File(rootPath);
         file = new File(rootDir, "/" + CONFIG_SUFFIX);
-        if (!rootDir.exists()) {
-        	rootDir.mkdir();
-        }
+        // Конфиг расписаний восстанавливается отдельно, методом restoreSchedules(), параллельно с остальным запуском бота
+        restored = new CompletableFuture<>();
+    }
+    /**
+     * Читает журнал с расписаниями и восстанавливает ранее запланированные задания. Вызывается один раз при запуске бота. До
+     * завершения восстановления вызовы команды ждут его, чтобы не затереть восстанавливаемое расписание. Расписания,
+     * сохраненные прежними версиями целиком в файл config, переносятся в журнал при первом запуске. В режиме кластера
+     * расписания хранятся в общей базе данных, а вызывается метод только экземпляром, получившим поток обновлений: рассылку
+     * выполняет он один
+     */
+    public void restoreSchedules() {
         try {
-			file.createNewFile();
-		} catch (IOException e1) {
-			System.out.println(e1.getMessage());
-		}
-        // Если файл - пуст, то мапа с конфигом создается заново
-        try (FileInputStream fis = new FileInputStream(file)) {
-        	configMap = mapper.readValue(fis, new TypeReference<Map<String, Map<String, String>>>() {});
-			rescheduleTasks();
-		} catch (Exception e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
-			configMap = new HashMap<>();
-		}
+        	configMap = FamilyAssistantBot.isClustered() ? sharedStore() : localStore();
+        	rescheduleTasks();
+        	// Если есть подписанные чаты, то страница загружается сразу: первая отправка не будет ждать сайта
+        	if (configMap.size() > 0) {
+        		content.refresh();
+        	}
+        } catch (Exception e) {
+        	System.out.println(e.getMessage());
+        	e.printStackTrace();
+        } finally {
+        	restored.complete(null);
+        }
+    }
+    /**
+     * Открывает журнал расписаний в локальном каталоге
+     * @return Хранилище расписаний
+     * @throws IOException
+     */
+    protected JournaledSubscriptionStore localStore() throws IOException {
+    	var storage = FamilyAssistantBot.getConfigStorage();
+    	return new JournaledSubscriptionStore(rootDir, file,
+    			FsyncPolicy.valueOf(storage.getValue(FSYNC_POLICY, DEFAULT_FSYNC_POLICY).toUpperCase()),
+    			Long.parseLong(storage.getValue(FSYNC_MILLIS, DEFAULT_FSYNC_MILLIS)),
+    			JournaledSubscriptionStore.DEFAULT_COMPACT_MIN);
+    }
+    /**
+     * Открывает хранилище расписаний в общей базе данных. Когда таблица создается впервые, в нее переносятся расписания
+     * из локального журнала этого экземпляра, если он есть
+     * @return Хранилище расписаний
+     * @throws IOException
+     * @throws SQLException
+     */
+    protected JdbcSubscriptionStore sharedStore() throws IOException, SQLException {
+    	var shared = new JdbcSubscriptionStore(FamilyAssistantBot.taskConnections());
+    	if (shared.initialize() && rootDir.exists()) {
+    		try (var local = localStore()) {
+    			for (var subscription : local.all().entrySet()) {
+    				shared.put(subscription.getKey(), subscription.getValue());
+    			}
+    		}
+    	}
+    	return shared;
+    }
+    /**
+     * Закрывает журнал расписаний: несброшенные изменения сбрасываются на диск
+     */
+    @Override
+    public void close() throws IOException {
+    	if (configMap instanceof Closeable closeable) {
+    		closeable.close();
+    	}
     }
     
     /**
      * Вложенный класс, который используется для создания
-     * задания типа Runnable, которое можно запланировать, передав объекту типа
-     * ScheduledExecutorService. Задание отсылает в чат заранее подготовленное сообщение с распарсенными инф. блоками с Azbyka.ru
+     * задания типа Runnable. Задание отсылает в чат сообщение с распарсенными инф. блоками с Azbyka.ru. Запланированные
+     * отправки выполняет рассылка broadcasts, а это задание - отправку по команде без аргументов
      */
     protected class AzbykaTask implements Runnable {
 
         private final String chatId;
-        private final AbsSender as;
         
-        public AzbykaTask(String chatId, AbsSender as) {
+        public AzbykaTask(String chatId) {
             this.chatId = chatId;
-            this.as = as;
         }
         
         @Override
         public void run() {
-            try {
-                as.execute(sendMessageBuild(chatId));
-            } catch (TelegramApiException ex) {
-                System.out.println(ex.getMessage());
-            }
+            sender.send(sendMessageBuild(chatId));
         }
         
     }
@@ -147,56 +240,66 @@ public class AzbykaRu extends BotCommand {
      * @return Объект сообщения
      */
     protected SendMessage sendMessageBuild(String chatId) {
+    	long start = System.nanoTime();
+    	try {
+    		return buildMessage(chatId);
+    	} finally {
+    		fetchLatency.observeSince(start);
+    	}
+    }
+    /**
+     * Собирает сообщение из содержимого страницы портала. Страница загружается кэшем раз в сутки, а не при каждой отправке
+     * @param chatId Иденитификатор чата
+     * @return Объект сообщения
+     */
+    protected SendMessage buildMessage(String chatId) {
+    	var day = content.get();
     	return SendMessage.builder()
                 .chatId(chatId)
                 .disableWebPagePreview(Boolean.TRUE)
-                .text(new AzbykaParser()
-                        .getQuoteOfDay("https://azbyka.ru/days/")
-                        .getParableOfDay("https://azbyka.ru/days/")
-                        .getFundamentals("https://azbyka.ru/days/")
-                        .getText())
+                .text(day == null ? new AzbykaParser().getText() : day.getText())
                 .build();
     }
     /**
-     * Восстанавливает ранее запланированные задания, если таковые были, считывая расписание из конфигурационной мапы
+     * Собирает текст сообщения рассылки: один раз на всех получателей группы. Загрузку страницы не ждет в потоке
+     * вызывающего - это общий планировщик бота
+     * @return Текст сообщения, когда содержимое страницы за текущий день готово
+     */
+    protected CompletableFuture<String> renderText() {
+    	long start = System.nanoTime();
+    	return content.getAsync().thenApply(day -> {
+    		fetchLatency.observeSince(start);
+    		return day == null ? new AzbykaParser().getText() : day.getText();
+    	});
+    }
+    /**
+     * Возвращает разбор страницы "Календарь": все блоки извлекаются за один проход по странице
+     * @param mode Потоком (streaming) или деревом всей страницы (dom)
+     * @return Разбор страницы
+     */
+    protected static IPageParser<AzbykaDay> parser(String mode) {
+    	if (PARSER_MODE_STREAMING.equalsIgnoreCase(mode)) {
+    		return AzbykaParser::streamDay;
+    	}
+    	return (html, url) -> AzbykaParser.parseDay(Parser.htmlParser().parseInput(html, url));
+    }
+    /**
+     * Восстанавливает ранее запланированные задания, если таковые были, считывая расписание из конфигурационной мапы.
+     * Прошедшие разовые задания не восстанавливаются, периодические - переносятся на ближайшее предстоящее время
      */
     protected void rescheduleTasks() {
-    	if (configMap != null && !configMap.isEmpty()) {
-    		LocalDateTime when, now; // Моменты времени целевой и текущий ("сейчас")
-    		long remains; // Время, оставшееся до момента запуска задания планировщиком
-    		var keySet = configMap.keySet(); // Множество с chatId всех чатов, для которых была запланирована отправка сообщения
-    		for (var k : keySet) {
-    			var currentChatConfig = configMap.get(k); // Мапа с параметрами расписания для текущего чата
-    			var chatId = k; // ID текущего чата
+    	if (configMap != null && configMap.size() > 0) {
+    		var now = LocalDateTime.now();
+    		for (var entry : configMap.all().entrySet()) {
+    			var chatId = entry.getKey(); // ID текущего чата
+    			var currentChatConfig = entry.getValue(); // Мапа с параметрами расписания для текущего чата
+    			var when = LocalDateTime.parse(currentChatConfig.get(WHEN));
     			if (currentChatConfig.get(TYPE).equals(ONE_TIME)) { // Если тип запланированной задачи - одиночная
-    				when = LocalDateTime.parse(currentChatConfig.get(WHEN));
-    				now = LocalDateTime.now();
-    				if (when.isAfter(now)) { // Если запланированные дата-время еще не наступили, то создаем объект задачи и передаем ему сообщение
-    					var task = new AzbykaTask(chatId, as);
-    					remains = now.until(when, ChronoUnit.MINUTES); // считаем задержку в заданных единицах
-    					// помещаем в мапу с запланированными задачами, вызывая планировщик и передавая ему объект задачи. Планировщик
-    					// возвращает объект ScheduledFuture, у которого можно получить информацию о текущем состоянии запланированной задачи
-                        futureTasks.put(chatId, scheduler.schedule(task, remains, TimeUnit.MINUTES));
-    				}
-    				// Если тип запланированной задачи - периодическая
-    			} else if (currentChatConfig.get(TYPE).equals(REPEAT)) {
-    				when = LocalDateTime.parse(currentChatConfig.get(WHEN));
-    				now = LocalDateTime.now();
-    				var period = Long.parseLong(currentChatConfig.get(PERIOD)); // то получаем период повторений в часах
-    				if (when.isBefore(now)) { // если задание по расписанию запланированно на уже ранее наступившую дату
-    					while(when.isBefore(now)) {
-    						when = when.plusHours(period); // то увеличиваем целевую дату на период до тех пор, пока она не станет предстоящей
-    					}
+    				if (when.isAfter(now)) { // и запланированные дата-время еще не наступили
+    					broadcasts.subscribeOnce(chatId, when);
     				}
-					var task = new AzbykaTask(chatId, as);
-					remains = now.until(when, ChronoUnit.MINUTES); // считаем задержку до целевой даты от текущего момента времени
-					futureTasks.put( // планируем задачу
-							chatId, 
-							scheduler.scheduleAtFixedRate(
-									task, 
-									remains, 
-									TimeUnit.HOURS.toMinutes(period), 
-									TimeUnit.MINUTES));
+    			} else if (currentChatConfig.get(TYPE).equals(REPEAT)) { // Если тип запланированной задачи - периодическая
+    				broadcasts.subscribeRepeating(chatId, when, Long.parseLong(currentChatConfig.get(PERIOD)));
     			}
     		}
     	}
@@ -204,10 +307,19 @@ public class AzbykaRu extends BotCommand {
     
     @Override
     public void execute(AbsSender as, User user, Chat chat, String[] args) {
+    	restored.join();
     	var chatId = chat.getId().toString();
+    	if (configMap == null) {
+    		sender.send(SendMessage.builder()
+    				.text("Расписания сейчас недоступны")
+    				.chatId(chatId)
+    				.build());
+    		return;
+    	}
     	// Создаем сообщение со результатом парсинга целевых html-блоков указанных ранее страниц
-        task = new AzbykaTask(chat.getId().toString(), as);
-        try (FileOutputStream fos = new FileOutputStream(file, false)) {
+        var task = new AzbykaTask(chat.getId().toString());
+        LocalDateTime when;
+        try {
             // Если никаких аргументов при вызове не указано, то задание с отправкой сообщения выполняется сразу
             if (args == null || args.length == 0) {
                 task.run();
@@ -215,32 +327,31 @@ public class AzbykaRu extends BotCommand {
             	// Иначе если два аргумента - ONE_TIME и время, то - пытаемся запланировать разовое выполнение задачи
                 if (args.length == 2 && args[0].toLowerCase().equals(ONE_TIME)) {
                 	// Если мапа с конфигом непуста и содержит внутреннюю мапу с конфигом для данного chatId, то
-                	if (!configMap.isEmpty() && configMap.containsKey(chatId)) {
-                		as.execute(SendMessage.builder()
+                	if (configMap.get(chatId) != null) {
+                		sender.send(SendMessage.builder()
                 				.text("Сначала отмените ранее запланированное задание с помощью команды \"" + STOP + "\"")
                 				.chatId(chatId)
                 				.build());
                 		// Если мапа с конфигом не содержит внутреннюю мапу с конфигом для данного chatId, то
-                	} else if (!configMap.containsKey(chatId)) {
+                	} else {
                         when = LocalDateTime.parse(args[1].toLowerCase(), DateTimeFormatter.ofPattern("dd-MM-yyyy-HH-mm"));
                         LocalDateTime now = LocalDateTime.now();
                         if (when.isAfter(now)) {
-                        	long remains = now.until(when, ChronoUnit.MINUTES);
-                            // даем планировщику задачу и полученный ScheduledFuture кладем в мапу запланированных ScheduledFuture'ов по ключу chatId
-                            futureTasks.put(chatId, scheduler.schedule(task, remains, TimeUnit.MINUTES));
-                            // и создаем внутреннюю мапу-конфиг для этой задачи
+                            // создаем внутреннюю мапу-конфиг для этой задачи
                             Map<String, String> currChatEntry = new HashMap<>();
                             currChatEntry.put(TYPE, ONE_TIME);
                             currChatEntry.put(WHEN, when.toString());
-                            // которую помещаем в основную мапу-конфиг по ключу chatId
+                            // которую сохраняем в журнал по ключу chatId
                             configMap.put(chatId, currChatEntry);
+                            // и подписываем чат на разовую рассылку
+                            broadcasts.subscribeOnce(chatId, when);
                             
-                            as.execute(SendMessage.builder()
+                            sender.send(SendMessage.builder()
                             		.text("Задача запланирована разово на " + when.toString())
                             		.chatId(chatId)
                             		.build());
                         } else {
-                        	as.execute(SendMessage.builder()
+                        	sender.send(SendMessage.builder()
                         			.text("Джордж Оруэлл имел в виду совсем не то, когда говорил: \"кто управляет прошлым, тот управляет будущим\"...")
                         			.chatId(chatId)
                         			.build());
@@ -249,72 +360,67 @@ public class AzbykaRu extends BotCommand {
                 	// Иначе если три аргумента - START, dd-MM-yyyy-HH-mm и PERIOD, то
                 } else if (args.length == 3 && args[0].toLowerCase().equals(START)) {
                 	// по аналогии с предыдущим случаем
-                	if (!configMap.isEmpty() && configMap.containsKey(chatId)) {
-                		as.execute(SendMessage.builder()
+                	if (configMap.get(chatId) != null) {
+                		sender.send(SendMessage.builder()
                 				.text("Сначала отмените ранее запланированное задание с помощью команды \"" + STOP + "\"")
                 				.chatId(chatId)
                 				.build());
-                	} else if (!configMap.containsKey(chatId)) {
+                	} else {
                         when = LocalDateTime.parse(args[1].toLowerCase(), DateTimeFormatter.ofPattern("dd-MM-yyyy-HH-mm"));
                         LocalDateTime now = LocalDateTime.now();
                         if (when.isAfter(now)) {
-                        	long remains = now.until(when, ChronoUnit.MINUTES);
                             long period = Long.parseLong(args[2].toLowerCase());
-                            futureTasks.put(
-                            		chatId, 
-                            		scheduler.scheduleAtFixedRate(
-                            				task,
-                            				remains, 
-                            				TimeUnit.HOURS.toMinutes(period), 
-                            				TimeUnit.MINUTES));
+                            if (period <= 0) {
+                            	throw new IllegalArgumentException("Период повторения должен быть положительным: " + period);
+                            }
                             
                             Map<String, String> currChatEntry = new HashMap<>();
                             currChatEntry.put(TYPE, REPEAT);
                             currChatEntry.put(WHEN, when.toString());
                             currChatEntry.put(PERIOD, period + "");
                             configMap.put(chatId, currChatEntry);
+                            broadcasts.subscribeRepeating(chatId, when, period);
                             
-                            as.execute(SendMessage.builder()
+                            sender.send(SendMessage.builder()
                             		.text("Задача запланирована на " + when.toString() + " c периодом повторения " + period + " ч.")
                             		.chatId(chatId)
                             		.build());
                         } else {
-                        	as.execute(SendMessage.builder()
+                        	sender.send(SendMessage.builder()
                         			.text("Джордж Оруэлл имел в виду совсем не то, когда говорил: \"кто управляет прошлым, тот управляет будущим\"...")
                         			.chatId(chatId)
                         			.build());
                         }
                 	}
                 } else if (args.length == 1 && args[0].toLowerCase().equals(STOP)) {
-                    if (futureTasks.containsKey(chatId)) {
-                    	futureTasks.remove(chatId).cancel(true);
-                    	configMap.remove(chatId);
-                    	as.execute(SendMessage.builder()
+                    // разовое задание, уже выполненное, остается в конфиге до отмены
+                    if (configMap.remove(chatId)) {
+                    	broadcasts.unsubscribe(chatId);
+                    	sender.send(SendMessage.builder()
                     			.text("Задача отменена")
                     			.chatId(chatId)
                     			.build());
                     } else {
-                    	as.execute(SendMessage.builder()
+                    	sender.send(SendMessage.builder()
                     			.text("Вы еще не запланировали задачу. Отменять - нечего")
                     			.chatId(chatId)
                     			.build());
                     }
                 } else if (args.length == 1 && args[0].toLowerCase().equals(VIEW)) {
-                	if (!configMap.isEmpty() && configMap.containsKey(chatId)) {
-                		as.execute(SendMessage.builder()
+                	if (configMap.get(chatId) != null) {
+                		sender.send(SendMessage.builder()
                 				.text(configMap.get(chatId).toString())
                 				.chatId(chatId)
                 				.build());
                 	} else {
-                		as.execute(SendMessage.builder()
+                		sender.send(SendMessage.builder()
                 				.text("Задача не запланирована")
                 				.chatId(chatId)
                 				.build());
                 	}
                 }
             }
-            mapper.writeValue(fos, configMap);
-        } catch (IndexOutOfBoundsException | DateTimeParseException | TelegramApiException | IOException ex) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | DateTimeParseException | IOException ex) {
             System.out.println(ex.getMessage());
         }
     }
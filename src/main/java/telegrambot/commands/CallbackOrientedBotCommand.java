@@ -1,29 +1,60 @@
 package telegrambot.commands;
 
+import java.util.concurrent.TimeUnit;
+
 import org.telegram.telegrambots.extensions.bots.commandbot.commands.BotCommand;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.sessions.DialogSession;
+import telegrambot.sessions.ISessionStore;
+import telegrambot.sessions.SessionKey;
+import telegrambot.sessions.SessionStore;
 
 /**
  * Расширяет класс BotCommand, добавляя поле, в которое записывается префикс, соответствующий
  * классу-наследнику. Поле используется наследниками для маркировки callbackData, отправляемых
  * пользователями по нажатию на inline-кнопки, и - для фильтрации обновлений обработчиками этих
- * классов-наследников, если обновление содержит текст callbackData с этим префиксом
+ * классов-наследников, если обновление содержит текст callbackData с этим префиксом.
+ * Состояние диалога каждого пользователя в каждом чате хранится в отдельной сессии, поэтому команда может вести
+ * сколько угодно диалогов одновременно
  * @author borodatyidrug
+ *
+ * @param <S> Тип состояния диалога бот-команды
  */
-public abstract class CallbackOrientedBotCommand extends BotCommand implements ICallbackHandlerCommand {
+public abstract class CallbackOrientedBotCommand<S extends DialogSession> extends BotCommand implements ICallbackHandlerCommand {
+	/**
+	 * Ключи параметров конфигурации хранилища сессий и их значения по-умолчанию
+	 */
+	public static final String SESSION_IDLE_TTL_MINUTES = "sessionIdleTtlMinutes";
+	public static final String SESSION_MAX_COUNT = "sessionMaxCount";
+	protected static final String DEFAULT_SESSION_IDLE_TTL_MINUTES = "30";
+	protected static final String DEFAULT_SESSION_MAX_COUNT = "10000";
+	/**
+	 * Границы префикса callbackData: "Command[" + идентификатор команды + "]"
+	 */
+	public static final String PREFIX_OPEN = "Command[";
+	public static final String PREFIX_CLOSE = "]";
     /**
      * Префикс класса-наследника, добавляемый в callbackData inline-кнопок
      */
     protected final String callbackDataPrefix;
-    protected boolean waitingUpdates;
+    /**
+     * Активные диалоги бот-команды по ключу (пользователь, чат). Наличие сессии означает, что обновления для перехвата и
+     * обработки в этом диалоге ожидаются
+     */
+    protected final ISessionStore<S> sessions;
 
     public CallbackOrientedBotCommand(String commandIdentifier, String description) {
         super(commandIdentifier, description);
-        this.callbackDataPrefix = "Command[" + commandIdentifier + "]"; // Так формируется префикс команды
-        this.waitingUpdates = false; // По-умолчанию обновления для перехвата и обработки НЕ ожидаются до явного вызова команды
+        this.callbackDataPrefix = PREFIX_OPEN + commandIdentifier + PREFIX_CLOSE; // Так формируется префикс команды
+        var config = FamilyAssistantBot.getConfigStorage();
+        this.sessions = new SessionStore<>(
+        		Long.parseLong(config.getValue(SESSION_IDLE_TTL_MINUTES, DEFAULT_SESSION_IDLE_TTL_MINUTES)),
+        		TimeUnit.MINUTES,
+        		Integer.parseInt(config.getValue(SESSION_MAX_COUNT, DEFAULT_SESSION_MAX_COUNT)));
     }
-    
-    
-    
+
     /**
      * Возвращает сгенерированный конструктором префикс для callbackData
      * @return Префикс для callbackData
@@ -31,5 +62,19 @@ public abstract class CallbackOrientedBotCommand extends BotCommand implements I
 	public String getCallbackDataPrefix() {
 	    return callbackDataPrefix;
 	}
-    
+
+	@Override
+	public ISessionStore<S> getSessionStore() {
+		return sessions;
+	}
+
+	@Override
+	public boolean catched(Update update) {
+		if (update.hasCallbackQuery() && (update.getCallbackQuery().getData() == null
+				|| !update.getCallbackQuery().getData().startsWith(callbackDataPrefix))) {
+			return false;
+		}
+		return sessions.get(SessionKey.of(update)) != null;
+	}
+
 }
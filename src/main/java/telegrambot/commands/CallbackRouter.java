@@ -0,0 +1,121 @@
+package telegrambot.commands;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import telegrambot.sessions.DialogSession;
+import telegrambot.sessions.ISessionListener;
+import telegrambot.sessions.SessionKey;
+
+/**
+ * Маршрутизатор "некомандных" обновлений. Вместо того, чтобы опрашивать метод-перехватчик каждой бот-команды, маршрутизатор
+ * один раз разбирает префикс "Command[...]" запроса обратного вызова и находит бот-команду по ее идентификатору, а обычные
+ * сообщения направляет бот-команде, последней открывшей диалог с этим пользователем в этом чате. Индекс активных диалогов
+ * поддерживается в актуальном состоянии через уведомления хранилищ сессий
+ * @author borodatyidrug
+ *
+ */
+public class CallbackRouter {
+	
+	/**
+	 * Бот-команды по идентификатору. Заполняется при запуске бота и далее только читается
+	 */
+	protected final Map<String, ICallbackHandlerCommand> handlers;
+	protected final List<ICallbackHandlerCommand> handlerList;
+	/**
+	 * Открытый диалог: бот-команда и сессия, для которой она ожидает сообщений от пользователя
+	 */
+	protected static class Dialog {
+		
+		protected final ICallbackHandlerCommand handler;
+		protected final DialogSession session;
+		
+		protected Dialog(ICallbackHandlerCommand handler, DialogSession session) {
+			this.handler = handler;
+			this.session = session;
+		}
+	}
+	/**
+	 * Диалог, ожидающий сообщений от пользователя в чате
+	 */
+	protected final Map<SessionKey, Dialog> activeDialogs;
+	
+	public CallbackRouter() {
+		handlers = new HashMap<>();
+		handlerList = new ArrayList<>();
+		activeDialogs = new ConcurrentHashMap<>();
+	}
+	/**
+	 * Регистрирует бот-команду с методом-перехватчиком и подписывается на события ее хранилища сессий
+	 * @param handler Бот-команда
+	 */
+	public void register(ICallbackHandlerCommand handler) {
+		handlers.put(handler.getCommandIdentifier(), handler);
+		handlerList.add(handler);
+		handler.getSessionStore().addListener(new ISessionListener() {
+			
+			@Override
+			public void sessionOpened(DialogSession session) {
+				activeDialogs.put(session.getKey(), new Dialog(handler, session));
+			}
+			
+			@Override
+			public void sessionClosed(DialogSession session) {
+				var key = session.getKey();
+				// уведомление о закрытии может опоздать: диалог убирается, только если в индексе все еще именно эта сессия
+				var dialog = activeDialogs.get(key);
+				if (dialog != null && dialog.session == session && activeDialogs.remove(key, dialog)) {
+					// если с пользователем в этом чате остался открытым другой диалог, сообщения пойдут ему
+					for (var other : handlerList) {
+						var open = other.getSessionStore().peek(key);
+						if (open != null) {
+							activeDialogs.putIfAbsent(key, new Dialog(other, open));
+							break;
+						}
+					}
+				}
+			}
+		});
+	}
+	/**
+	 * Возвращает бот-команду, которая должна обработать обновление
+	 * @param update Обновление, полученное ботом
+	 * @return Бот-команда, или null, если обновление не относится ни к одному активному диалогу
+	 */
+	public ICallbackHandlerCommand route(Update update) {
+		var key = SessionKey.of(update);
+		if (key == null) {
+			return null;
+		}
+		if (update.hasCallbackQuery()) {
+			var handler = handlers.get(parseCommandIdentifier(update.getCallbackQuery().getData()));
+			return handler != null && handler.getSessionStore().contains(key) ? handler : null;
+		}
+		var dialog = activeDialogs.get(key);
+		return dialog == null ? null : dialog.handler;
+	}
+	/**
+	 * Извлекает идентификатор бот-команды из префикса "Command[идентификатор]" данных запроса обратного вызова
+	 * @param callbackData Данные запроса обратного вызова
+	 * @return Идентификатор бот-команды, или null, если префикса нет
+	 */
+	protected String parseCommandIdentifier(String callbackData) {
+		if (callbackData == null || !callbackData.startsWith(CallbackOrientedBotCommand.PREFIX_OPEN)) {
+			return null;
+		}
+		int end = callbackData.indexOf(CallbackOrientedBotCommand.PREFIX_CLOSE, CallbackOrientedBotCommand.PREFIX_OPEN.length());
+		return end < 0 ? null : callbackData.substring(CallbackOrientedBotCommand.PREFIX_OPEN.length(), end);
+	}
+	/**
+	 * Возвращает количество пар (пользователь, чат), у которых есть активный диалог
+	 * @return Количество активных диалогов
+	 */
+	public int activeDialogCount() {
+		return activeDialogs.size();
+	}
+}
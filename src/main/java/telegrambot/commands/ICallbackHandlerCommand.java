@@ -2,6 +2,8 @@ package telegrambot.commands;
 
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
+
+import telegrambot.sessions.ISessionStore;
 /**
  * Интерфейс определяет для класса бот-команды два метода: метод-перехватчик управления и метод, возвращающий результат обработки
  * перехваченного обновления
@@ -21,4 +23,14 @@ public interface ICallbackHandlerCommand {
 	 * @return
 	 */
 	SendMessage getAnswer(Update update);
+	/**
+	 * Возвращает хранилище активных диалогов бот-команды
+	 * @return Хранилище сессий
+	 */
+	ISessionStore<?> getSessionStore();
+	/**
+	 * Возвращает идентификатор бот-команды, по которому маршрутизируются запросы обратного вызова
+	 * @return Идентификатор бот-команды
+	 */
+	String getCommandIdentifier();
 }
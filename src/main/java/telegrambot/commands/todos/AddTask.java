@@ -15,19 +15,21 @@ import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.meta.bots.AbsSender;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import telegrambot.commands.CallbackOrientedBotCommand;
 import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.outbound.IMessageSender;
+import telegrambot.sessions.DialogSession;
+import telegrambot.sessions.SessionKey;
+import telegrambot.todos.IReminder;
 import telegrambot.todos.IReminderEntity;
 import telegrambot.todos.IReminderEntityBuilder;
 import telegrambot.todos.ITask;
 import telegrambot.todos.IncorrectDateTimeException;
-import telegrambot.todos.Reminder;
 import telegrambot.todos.ReminderEntityBuilder;
 import telegrambot.todos.Task;
 
-public class AddTask extends CallbackOrientedBotCommand {
+public class AddTask extends CallbackOrientedBotCommand<AddTask.TaskDialog> {
 	
 	protected final String DEFAULT = "default";
 	/**
@@ -58,8 +60,24 @@ public class AddTask extends CallbackOrientedBotCommand {
 	protected final String TIMES = "times";
 	protected final String INTERVAL = "interval";
 	
+	/**
+	 * Состояние диалога создания задачи одного пользователя в одном чате
+	 */
+	public static class TaskDialog extends DialogSession {
+		
+		protected final ITask currentTask;
+		protected final IReminderEntityBuilder remindBuilder;
+		protected IReminderEntity currentRemind;
+		
+		public TaskDialog(SessionKey key, ITask currentTask) {
+			super(key);
+			this.currentTask = currentTask;
+			this.remindBuilder = new ReminderEntityBuilder();
+		}
+	}
+	
 	protected TelegramLongPollingCommandBot bot;
-	protected String prefix, currentUserId, currentChatId, callback;
+	protected String prefix;
 	/**
 	 * Предопределенные inline-кнопки
 	 */
@@ -70,27 +88,15 @@ public class AddTask extends CallbackOrientedBotCommand {
 	 * Предопределенные inline-клавиатуры
 	 */
 	protected InlineKeyboardMarkup main, scheduling, timeUnits, remindingBefore;
-	protected Update currentUpdate;
-	protected ITask currentTask;
-	protected IReminderEntity currentRemind;
-	protected IReminderEntityBuilder remindBuilder;
 	protected SendMessage mainMenu, blank;
-	protected Reminder reminder;
+	protected IMessageSender sender;
 	
 	public AddTask(String commandIdentifier, String commandDescription, TelegramLongPollingCommandBot bot) {
 		
 		super(commandIdentifier, commandDescription);
 		this.bot = bot;
-		try {
-			reminder = FamilyAssistantBot.getReminder();
-		} catch (SchedulerException e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
-		}
-		remindBuilder = new ReminderEntityBuilder();
-		
+		sender = FamilyAssistantBot.getMessageSender();
 		prefix = getCallbackDataPrefix();
-		callback = "";
 		
 		// Все кнопки
 		name = new InlineKeyboardButton("Имя задачи");
@@ -177,6 +183,15 @@ public class AddTask extends CallbackOrientedBotCommand {
 				.build();
 	}
 	
+	/**
+	 * Возвращает менеджер задач и напоминаний. Quartz подключается к базе данных параллельно с запуском бота, поэтому
+	 * первый вызов может дождаться окончания подключения
+	 * @return Менеджер задач и напоминаний
+	 * @throws SchedulerException
+	 */
+	protected IReminder reminder() throws SchedulerException {
+		return FamilyAssistantBot.getReminder();
+	}
 	/**
 	 * Переводит строковое представление единицы измерения периода времени в ChronoUnit
 	 * @param unit Конвертируемая единица времени
@@ -251,35 +266,25 @@ public class AddTask extends CallbackOrientedBotCommand {
 				.build();
 	}
 	
-	@Override
-	public boolean catched(Update update) {
-		return ((update.hasCallbackQuery() && update.getCallbackQuery().getData().contains(prefix)
-				&& update.getCallbackQuery().getFrom().getId().toString().equals(currentUserId))
-				|| (update.hasMessage() && update.getMessage().getChatId().toString().equals(currentChatId))) && waitingUpdates;
-	}
-	
 	/**
 	 * Обрабатывает вызов после формирования простой задачи и нажатия пользователем кнопки "Готово" и возвращает результат
+	 * @param dialog Состояние диалога
 	 * @return Сообщение с результатом
 	 */
-	protected SendMessage done() {
+	protected SendMessage done(TaskDialog dialog) {
+		var currentTask = dialog.currentTask;
+		var currentChatId = dialog.getChatId();
 		if (currentTask.getName() == null || currentTask.getName().isBlank()) {
-			try {
-				bot.execute(SendMessage.builder()
-						.text("\"Имя\" - обязательное поле для любой задачи. Нельзя создать задачу без имени. "
-								+ "Заполните, пожалуйста, это поле")
-						.chatId(currentChatId)
-						.build());
-			} catch (TelegramApiException e) {
-				System.out.println(e.getMessage());
-				e.printStackTrace();
-			}
+			sender.send(SendMessage.builder()
+					.text("\"Имя\" - обязательное поле для любой задачи. Нельзя создать задачу без имени. "
+							+ "Заполните, пожалуйста, это поле")
+					.chatId(currentChatId)
+					.build());
 			return mainMenu(currentChatId);
 		}
-		waitingUpdates = false; // обновления больше не ожидаются
-		callback = ""; // запрос обратного вызова обнуляем
+		sessions.close(dialog.getKey()); // обновления больше не ожидаются
 		try {
-			reminder.addTask(currentTask);
+			reminder().addTask(currentTask);
 		} catch (IOException | SchedulerException e) {
 			e.printStackTrace();
 			return SendMessage.builder()
@@ -296,14 +301,15 @@ public class AddTask extends CallbackOrientedBotCommand {
 	/**
 	 * Обрабатывает вызов после формирования напоминания или задачи с обозначенным дедлайном и нажатия пользователем кнопки "Готово"
 	 * и возвращает результат
+	 * @param dialog Состояние диалога
 	 * @return Сообщение с результатом
 	 */
-	protected SendMessage doneScheduling() {
-		currentRemind = remindBuilder.fixTaskCreationTime().build();
-		waitingUpdates = false; // обновления больше не ожидаются
-		callback = ""; // запрост обратного вызова обнуляем
+	protected SendMessage doneScheduling(TaskDialog dialog) {
+		var currentChatId = dialog.getChatId();
+		dialog.currentRemind = dialog.remindBuilder.fixTaskCreationTime().build();
+		sessions.close(dialog.getKey()); // обновления больше не ожидаются
 		try {
-			reminder.scheduleRemind(currentRemind);
+			reminder().scheduleRemind(dialog.currentRemind);
 		} catch (IOException | SchedulerException e) {
 			e.printStackTrace();
 			return SendMessage.builder()
@@ -324,29 +330,37 @@ public class AddTask extends CallbackOrientedBotCommand {
 		 * Здесь происходит основной диалог с пользователем посредством обработки запросов обратного вызова, которые получаем или из
 		 * кнопок inline-клавиатур, или принудительно устанавливая необходимый запрос прямо в коде этого метода
 		 */
+		var key = SessionKey.of(update);
+		var dialog = sessions.get(key);
+		if (dialog == null) { // сессия истекла или была вытеснена, пока обновление ожидало обработки
+			return blank(key == null ? "" : key.getChatId());
+		}
+		var currentChatId = dialog.getChatId();
+		var currentTask = dialog.currentTask;
+		var remindBuilder = dialog.remindBuilder;
 		if (update.hasCallbackQuery()) {
-			callback = update.getCallbackQuery().getData().substring(prefix.length());
+			dialog.setCallback(update.getCallbackQuery().getData().substring(prefix.length()));
 		}
+		var callback = dialog.getCallback();
 		switch (callback) {
 		/**
 		 * В начале - обработка обратных вызовов для создания простых задач.
 		 */
 			case CANCEL:
-				waitingUpdates = false;
-				callback = "";
+				sessions.close(key);
 				return SendMessage.builder()
 						.text("Ок, тогда - в следующий раз!")
 						.chatId(currentChatId)
 						.build();
 				
 			case DONE:
-				return done();
+				return done(dialog);
 				
 			case NAME: 
 				// если диалог с пользователем необходимо продолжить, но, при этом, не предполагается на данном шаге отправка в чат
 				// сооббщения с inline-клавиатурой с кнопками, которым можно было бы задать callback, то просто задаем его значение 
 				// принудительно
-				callback = NAME + "-" + EXPECT;
+				dialog.setCallback(NAME + "-" + EXPECT);
 				return SendMessage.builder()
 						.text("Отправьте мне имя вашей задачи")
 						.chatId(currentChatId)
@@ -357,7 +371,7 @@ public class AddTask extends CallbackOrientedBotCommand {
 				return mainMenu(currentChatId);
 				
 			case DESCRIPTION:
-				callback = DESCRIPTION + "-" + EXPECT;
+				dialog.setCallback(DESCRIPTION + "-" + EXPECT);
 				return SendMessage.builder()
 						.text("Отправьте мне описание вашей задачи")
 						.chatId(currentChatId)
@@ -368,7 +382,7 @@ public class AddTask extends CallbackOrientedBotCommand {
 				return mainMenu(currentChatId);
 				
 			case TAGS:
-				callback = TAGS + "-" + EXPECT;
+				dialog.setCallback(TAGS + "-" + EXPECT);
 				return SendMessage.builder()
 						.text("Отправьте мне теги через пробел для вашей задачи")
 						.chatId(currentChatId)
@@ -390,23 +404,18 @@ public class AddTask extends CallbackOrientedBotCommand {
 			 */
 			case SCHEDULE:
 				if (currentTask.getName() == null || currentTask.getName().isBlank()) {
-					try {
-						bot.execute(SendMessage.builder()
-								.text("\"Имя\" - обязательное поле для любой задачи. Нельзя создать задачу без имени. "
-										+ "Заполните, пожалуйста, это поле")
-								.chatId(currentChatId)
-								.build());
-					} catch (TelegramApiException e) {
-						System.out.println(e.getMessage());
-						e.printStackTrace();
-					}
+					sender.send(SendMessage.builder()
+							.text("\"Имя\" - обязательное поле для любой задачи. Нельзя создать задачу без имени. "
+									+ "Заполните, пожалуйста, это поле")
+							.chatId(currentChatId)
+							.build());
 					return mainMenu(currentChatId);
 				}
 				remindBuilder.setTask(currentTask);
 				return schedulingMenu(currentChatId);
 				
 			case SCHEDULE_AT:
-				callback = SCHEDULE_AT + "-" + EXPECT;
+				dialog.setCallback(SCHEDULE_AT + "-" + EXPECT);
 				return SendMessage.builder()
 						.text("Отправьте мне дату и время, на которые вы планируете срок исполнения задачи, в формате "
 								+ "\"дд-ММ-гггг-чч-мм\" (день, месяц, год, час, минута) без кавычек")
@@ -441,7 +450,7 @@ public class AddTask extends CallbackOrientedBotCommand {
 				var offset = REPEAT_BY_UNITS.length() + EXPECT.length() + 2;
 				var extractedChronoUnit = callback.substring(offset);
 				remindBuilder.repeatByIntervalUnits(toChronoUnit(extractedChronoUnit));
-				callback = REPEAT_BY_INTERVAL;
+				dialog.setCallback(REPEAT_BY_INTERVAL);
 				return enterValue(currentChatId);
 				
 			case REPEAT_BY_INTERVAL:
@@ -451,22 +460,17 @@ public class AddTask extends CallbackOrientedBotCommand {
 					remindBuilder.repeatByInterval(inputValue);
 					return schedulingMenu(currentChatId);
 				} catch (IllegalArgumentException e) {
-					try {
-						bot.execute(SendMessage.builder()
-								.text("Неверный формат числа. Введите целое положительное число!")
-								.chatId(currentChatId)
-								.build());
-					} catch (TelegramApiException e1) {
-						System.out.println(e1.getMessage());
-						e1.printStackTrace();
-					}
+					sender.send(SendMessage.builder()
+							.text("Неверный формат числа. Введите целое положительное число!")
+							.chatId(currentChatId)
+							.build());
 				}
 				
 			case REMIND_BEFORE:
 				return remindBeforeMenu(currentChatId);
 				
 			case REMIND_BEFORE + "-" + MINUTE:
-				callback = REMIND_BEFORE + "-" + EXPECT + "-" + MINUTE;
+				dialog.setCallback(REMIND_BEFORE + "-" + EXPECT + "-" + MINUTE);
 				return enterValue(currentChatId);
 				
 			case REMIND_BEFORE + "-" + EXPECT + "-" + MINUTE:
@@ -476,18 +480,13 @@ public class AddTask extends CallbackOrientedBotCommand {
 					remindBuilder.remindBeforeMinutes(inputValue);
 					return remindBeforeMenu(currentChatId);
 				} catch (IllegalArgumentException e) {
-					try {
-						bot.execute(SendMessage.builder()
-								.text("Неверный формат числа. Введите целое положительное число!")
-								.chatId(currentChatId)
-								.build());
-					} catch (TelegramApiException e1) {
-						System.out.println(e1.getMessage());
-						e1.printStackTrace();
-					}
+					sender.send(SendMessage.builder()
+							.text("Неверный формат числа. Введите целое положительное число!")
+							.chatId(currentChatId)
+							.build());
 				}
 			case REMIND_BEFORE + "-" + TIMES:
-				callback = REMIND_BEFORE + "-" + EXPECT + "-" + TIMES;
+				dialog.setCallback(REMIND_BEFORE + "-" + EXPECT + "-" + TIMES);
 				return enterValue(currentChatId);
 				
 			case REMIND_BEFORE + "-" + EXPECT + "-" + TIMES:
@@ -497,19 +496,14 @@ public class AddTask extends CallbackOrientedBotCommand {
 					remindBuilder.remindBeforeTimes(inputValue);
 					return remindBeforeMenu(currentChatId);
 				} catch (IllegalArgumentException e) {
-					try {
-						bot.execute(SendMessage.builder()
-								.text("Неверный формат числа. Введите целое положительное число!")
-								.chatId(currentChatId)
-								.build());
-					} catch (TelegramApiException e1) {
-						System.out.println(e1.getMessage());
-						e1.printStackTrace();
-					}
+					sender.send(SendMessage.builder()
+							.text("Неверный формат числа. Введите целое положительное число!")
+							.chatId(currentChatId)
+							.build());
 				}
 			
 			case REMIND_BEFORE + "-" + INTERVAL:
-				callback = REMIND_BEFORE + "-" + EXPECT + "-" + INTERVAL;
+				dialog.setCallback(REMIND_BEFORE + "-" + EXPECT + "-" + INTERVAL);
 				return enterValue(currentChatId);
 				
 			case REMIND_BEFORE + "-" + EXPECT + "-" + INTERVAL:
@@ -519,54 +513,34 @@ public class AddTask extends CallbackOrientedBotCommand {
 					remindBuilder.remindBeforeInterval(inputValue);
 					return remindBeforeMenu(currentChatId);
 				} catch (IllegalArgumentException e) {
-					try {
-						bot.execute(SendMessage.builder()
-								.text("Неверный формат числа. Введите целое положительное число!")
-								.chatId(currentChatId)
-								.build());
-					} catch (TelegramApiException e1) {
-						System.out.println(e1.getMessage());
-						e1.printStackTrace();
-					}
+					sender.send(SendMessage.builder()
+							.text("Неверный формат числа. Введите целое положительное число!")
+							.chatId(currentChatId)
+							.build());
 				} catch (IncorrectDateTimeException e) {
-					try {
-						bot.execute(SendMessage.builder()
-								.text(e.getMessage())
-								.chatId(currentChatId)
-								.build());
-					} catch (TelegramApiException e1) {
-						System.out.println(e1.getMessage());
-						e1.printStackTrace();
-					}
+					sender.send(SendMessage.builder()
+							.text(e.getMessage())
+							.chatId(currentChatId)
+							.build());
 				}
 				
 			case REMIND_BEFORE + "-" + DEFAULT:
 				remindBuilder.remindBeforeMinutes(15).remindBeforeTimes(1);
-				try {
-					bot.execute(SendMessage.builder()
-							.text("Напоминание настроено по-умолчанию!")
-							.chatId(currentChatId)
-							.build());
-				} catch (TelegramApiException e1) {
-					System.out.println(e1.getMessage());
-					e1.printStackTrace();
-				}
+				sender.send(SendMessage.builder()
+						.text("Напоминание настроено по-умолчанию!")
+						.chatId(currentChatId)
+						.build());
 				return schedulingMenu(currentChatId);
 				
 			case DONE_REMIND_BEFORE:
-				try {
-					bot.execute(SendMessage.builder()
-							.text("Напоминание настроено!")
-							.chatId(currentChatId)
-							.build());
-				} catch (TelegramApiException e1) {
-					System.out.println(e1.getMessage());
-					e1.printStackTrace();
-				}
+				sender.send(SendMessage.builder()
+						.text("Напоминание настроено!")
+						.chatId(currentChatId)
+						.build());
 				return schedulingMenu(currentChatId);
 				
 			case DONE_SCHEDULING:
-				return doneScheduling();
+				return doneScheduling(dialog);
 				
 			default:
 				return blank(currentChatId);
@@ -575,18 +549,13 @@ public class AddTask extends CallbackOrientedBotCommand {
 	
 	@Override
 	public void execute(AbsSender as, User user, Chat chat, String[] strings) {
-		waitingUpdates = true;
-		currentUserId = user.getId().toString();
-		currentChatId = chat.getId().toString();
-		currentTask = new Task();
+		var currentChatId = chat.getId().toString();
+		var currentTask = new Task();
 		currentTask.setChatId(currentChatId);
 		currentTask.setOwner(user);
-		try {
-			as.execute(mainMenu(currentChatId));
-		} catch (TelegramApiException e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
-		}
+		// новая сессия заменяет незавершенный диалог этого пользователя в этом чате, если он был
+		sessions.open(new TaskDialog(new SessionKey(user.getId().toString(), currentChatId), currentTask));
+		sender.send(mainMenu(currentChatId));
 	}
 
 }
@@ -4,6 +4,7 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.quartz.SchedulerException;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Chat;
@@ -13,7 +14,6 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMa
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup.InlineKeyboardMarkupBuilder;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.meta.bots.AbsSender;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -22,11 +22,14 @@ import com.vdurmont.emoji.EmojiParser;
 import telegrambot.commands.CallbackOrientedBotCommand;
 import telegrambot.familyassistant.Emoji;
 import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.outbound.IMessageSender;
+import telegrambot.sessions.DialogSession;
+import telegrambot.sessions.SessionKey;
+import telegrambot.todos.IReminder;
 import telegrambot.todos.IReminderEntity;
 import telegrambot.todos.ITask;
-import telegrambot.todos.Reminder;
 
-public class ListTasks extends CallbackOrientedBotCommand {
+public class ListTasks extends CallbackOrientedBotCommand<ListTasks.ListDialog> {
 	// Константы для построения запросов обратного вызова (CallbackQuery) с inline-кнопок
 	protected final String TIME_FORMAT_PATTERN = "dd-MM-yyyy-HH-mm";
 	protected final String TASK = "task";
@@ -36,29 +39,42 @@ public class ListTasks extends CallbackOrientedBotCommand {
 	protected final String CANCEL = "cancel";
 	protected final String OK = "accepted";
 	
-	protected AbsSender as;
-	protected String prefix, currentUserId, currentChatId, callback;
-	protected Reminder reminder;
-	protected List<ITask> taskList;
-	protected List<IReminderEntity> remindList;
-	protected InlineKeyboardButton complete, cancel, ok;
+	/**
+	 * Состояние диалога просмотра списка задач одного пользователя в одном чате. Номера кнопок в запросах обратного вызова
+	 * ссылаются на позиции в списках, полученных именно этим диалогом
+	 */
+	public static class ListDialog extends DialogSession {
+		
+		protected final List<ITask> taskList;
+		protected final List<IReminderEntity> remindList;
+		
+		public ListDialog(SessionKey key, List<ITask> taskList, List<IReminderEntity> remindList) {
+			super(key);
+			this.taskList = taskList;
+			this.remindList = remindList;
+		}
+	}
+	
+	protected String prefix;
+	protected IMessageSender sender;
 
 	public ListTasks(String commandIdentifier, String description) {
 		super(commandIdentifier, description);
+		sender = FamilyAssistantBot.getMessageSender();
 		prefix = getCallbackDataPrefix();
-		callback = "";
-		try {
-			reminder = FamilyAssistantBot.getReminder();
-		} catch (SchedulerException e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
-		}
-		complete = new InlineKeyboardButton("Завершить");
-		cancel = new InlineKeyboardButton("Отменить");
-		ok = new InlineKeyboardButton("Ок, спасибо!");
 	}
 	
-	protected SendMessage makeTaskListKeyboard(List<ITask> taskList) {
+	/**
+	 * Возвращает менеджер задач и напоминаний. Quartz подключается к базе данных параллельно с запуском бота, поэтому
+	 * первый вызов может дождаться окончания подключения
+	 * @return Менеджер задач и напоминаний
+	 * @throws SchedulerException
+	 */
+	protected IReminder reminder() throws SchedulerException {
+		return FamilyAssistantBot.getReminder();
+	}
+	
+	protected SendMessage makeTaskListKeyboard(List<ITask> taskList, String currentChatId) {
 		
 		InlineKeyboardMarkupBuilder taskListKeyboardBuilder = InlineKeyboardMarkup.builder();
 		
@@ -87,7 +103,7 @@ public class ListTasks extends CallbackOrientedBotCommand {
 		}
 	}
 	
-	protected SendMessage makeRemindListKeyboard(List<IReminderEntity> remindList) {
+	protected SendMessage makeRemindListKeyboard(List<IReminderEntity> remindList, String currentChatId) {
 		
 		InlineKeyboardMarkupBuilder remindListKeyboardBuilder = InlineKeyboardMarkup.builder();
 		
@@ -134,9 +150,13 @@ public class ListTasks extends CallbackOrientedBotCommand {
 		}
 	}
 	
-	protected SendMessage taskActionMenu(int taskNumber) {
+	protected SendMessage taskActionMenu(ListDialog dialog, int taskNumber) {
 		
-		var task = taskList.get(taskNumber);
+		var task = dialog.taskList.get(taskNumber);
+		// кнопки создаются для каждого меню заново: ответы разных диалогов не должны делить изменяемые объекты кнопок
+		var complete = new InlineKeyboardButton("Завершить");
+		var cancel = new InlineKeyboardButton("Отменить");
+		var ok = new InlineKeyboardButton("Ок, спасибо!");
 		complete.setCallbackData(prefix + "-" + TASK + "-" + COMPLETE + "-" + taskNumber);
 		cancel.setCallbackData(prefix + "-" + TASK + "-" + CANCEL + "-" + taskNumber);
 		ok.setCallbackData(prefix + "-" + TASK + "-" + OK);
@@ -148,7 +168,7 @@ public class ListTasks extends CallbackOrientedBotCommand {
 		
 		return SendMessage.builder()
 				.text(taskString)
-				.chatId(currentChatId)
+				.chatId(dialog.getChatId())
 				.replyMarkup(InlineKeyboardMarkup.builder()
 						.keyboardRow(List.of(complete, cancel))
 						.keyboardRow(List.of(ok))
@@ -156,9 +176,12 @@ public class ListTasks extends CallbackOrientedBotCommand {
 				.build();
 	}
 	
-	protected SendMessage remindActionMenu(int remindNumber) {
+	protected SendMessage remindActionMenu(ListDialog dialog, int remindNumber) {
 		
-		var remind = remindList.get(remindNumber);
+		var remind = dialog.remindList.get(remindNumber);
+		var complete = new InlineKeyboardButton("Завершить");
+		var cancel = new InlineKeyboardButton("Отменить");
+		var ok = new InlineKeyboardButton("Ок, спасибо!");
 		complete.setCallbackData(prefix + "-" + REMIND + "-" + COMPLETE + "-" + remindNumber);
 		cancel.setCallbackData(prefix + "-" + REMIND + "-" + CANCEL + "-" + remindNumber);
 		ok.setCallbackData(prefix + "-" + REMIND + "-" + OK);
@@ -176,7 +199,7 @@ public class ListTasks extends CallbackOrientedBotCommand {
 		
 		return SendMessage.builder()
 				.text(remindString)
-				.chatId(currentChatId)
+				.chatId(dialog.getChatId())
 				.replyMarkup(InlineKeyboardMarkup.builder()
 						.keyboardRow(List.of(complete, cancel))
 						.keyboardRow(List.of(ok))
@@ -184,20 +207,24 @@ public class ListTasks extends CallbackOrientedBotCommand {
 				.build();
 	}
 	
-	@Override
-	public boolean catched(Update update) {
-		return ((update.hasCallbackQuery() && update.getCallbackQuery().getData().contains(prefix)
-				&& update.getCallbackQuery().getFrom().getId().toString().equals(currentUserId))
-				|| (update.hasMessage() && update.getMessage().getChatId().toString().equals(currentChatId))) && waitingUpdates;
-	}
-
 	@Override
 	public SendMessage getAnswer(Update update) {
 		String[] split = null;
 		int numberOfTaskOrRemind = 0;
+		var key = SessionKey.of(update);
+		var dialog = sessions.get(key);
+		if (dialog == null) { // сессия истекла или была вытеснена, пока обновление ожидало обработки
+			return SendMessage.builder()
+					.text("")
+					.chatId(key == null ? "" : key.getChatId())
+					.build();
+		}
+		var currentChatId = dialog.getChatId();
+		var taskList = dialog.taskList;
+		var remindList = dialog.remindList;
 		if (update.hasCallbackQuery()) {
-			callback = update.getCallbackQuery().getData().substring(prefix.length());
-			split = callback.split("-");
+			dialog.setCallback(update.getCallbackQuery().getData().substring(prefix.length()));
+			split = dialog.getCallback().split("-");
 			try {
 				numberOfTaskOrRemind = Integer.parseInt(split[split.length - 1]);
 			} catch (NumberFormatException e) {
@@ -205,45 +232,46 @@ public class ListTasks extends CallbackOrientedBotCommand {
 				System.out.println("Значит, это здесь и - не нужно :)");
 			}
 		}
+		var callback = dialog.getCallback();
 		try {
 			if (callback.contains(TASK + "-" + CHECKED)) {
 				
-				return taskActionMenu(numberOfTaskOrRemind);
+				return taskActionMenu(dialog, numberOfTaskOrRemind);
 				
 			} else if (callback.contains(REMIND + "-" + CHECKED)) {
 				
-				return remindActionMenu(numberOfTaskOrRemind);
+				return remindActionMenu(dialog, numberOfTaskOrRemind);
 				
 			} else if (callback.contains(TASK + "-" + COMPLETE)) {
 				
 				var task = taskList.get(numberOfTaskOrRemind);
-				waitingUpdates = false;
+				sessions.close(key);
 				taskList.remove(task);
 				return SendMessage.builder()
 						.text(EmojiParser.parseToUnicode(
-								Emoji.WHITE_CHECK_MARK + "Задача \"" + reminder.completeTask(task).getName()
+								Emoji.WHITE_CHECK_MARK + "Задача \"" + reminder().completeTask(task).getName()
 								+ "\" успешно завершена!"))
 						.chatId(currentChatId)
 						.build();
 			} else if (callback.contains(TASK + "-" + CANCEL)) {
 				
 				var task = taskList.get(numberOfTaskOrRemind);
-				waitingUpdates = false;
+				sessions.close(key);
 				taskList.remove(task);
 				return SendMessage.builder()
 						.text(EmojiParser.parseToUnicode(
-								Emoji.NEGATIVE_SQUARED_CROSS_MARK + " Задача \"" + reminder.completeTask(task).getName()
+								Emoji.NEGATIVE_SQUARED_CROSS_MARK + " Задача \"" + reminder().completeTask(task).getName()
 								+ "\" успешно отменена!"))
 						.chatId(currentChatId)
 						.build();
 			} else if (callback.contains(REMIND + "-" + COMPLETE)) {
 				
 				var remind = remindList.get(numberOfTaskOrRemind);
-				waitingUpdates = false;
+				sessions.close(key);
 				remindList.remove(remind);
 				return SendMessage.builder()
 						.text(EmojiParser.parseToUnicode(
-								Emoji.WHITE_CHECK_MARK + " Задача \"" + reminder.completeTask(remind.getTask()).getName()
+								Emoji.WHITE_CHECK_MARK + " Задача \"" + reminder().completeTask(remind.getTask()).getName()
 								+ "\" успешно завершена!\n" + "Вы потратили " + remind.complete(ChronoUnit.HOURS)
 								+ " на ее выполнение"))
 						.chatId(currentChatId)
@@ -251,21 +279,27 @@ public class ListTasks extends CallbackOrientedBotCommand {
 			} else if (callback.contains(REMIND + "-" + CANCEL)) {
 				
 				var remind = remindList.get(numberOfTaskOrRemind);
-				waitingUpdates = false;
+				sessions.close(key);
 				remindList.remove(remind);
 				return SendMessage.builder()
-						.text(EmojiParser.parseToUnicode(Emoji.NEGATIVE_SQUARED_CROSS_MARK + " Задача \"" + reminder.completeTask(remind.getTask()).getName()
+						.text(EmojiParser.parseToUnicode(Emoji.NEGATIVE_SQUARED_CROSS_MARK + " Задача \"" + reminder().completeTask(remind.getTask()).getName()
 								+ "\" успешно отменена!"))
 						.chatId(currentChatId)
 						.build();
 			} else if (callback.contains(TASK + "-" + OK) || callback.contains(REMIND + "-" + OK)) {
 				
-				waitingUpdates = false;
+				sessions.close(key);
 				return SendMessage.builder()
 						.text(EmojiParser.parseToUnicode(Emoji.OK_HAND + " Отлично! Всегда рад помочь!"))
 						.chatId(currentChatId)
 						.build();
 			}
+		} catch (NoSuchElementException e) {
+			// задачу уже удалили: завершили из другого чата или сработало последнее напоминание
+			return SendMessage.builder()
+					.text("Этой задачи уже нет в вашем списке: она завершена или отменена. Обновить список - /listtask")
+					.chatId(currentChatId)
+					.build();
 		} catch (IllegalArgumentException | SchedulerException e) {
 			System.out.println(e.getMessage());
 			e.printStackTrace();
@@ -279,16 +313,16 @@ public class ListTasks extends CallbackOrientedBotCommand {
 	@Override
 	public void execute(AbsSender absSender, User user, Chat chat, String[] arguments) {
 		
-		as = absSender;
-		waitingUpdates = true;
-		currentUserId = user.getId().toString();
-		currentChatId = chat.getId().toString();
+		var currentUserId = user.getId().toString();
+		var currentChatId = chat.getId().toString();
 		
 		try {
-			taskList = reminder.getTaskList(currentUserId);
-			remindList = reminder.getRemindsList(currentUserId);
-			as.execute(makeTaskListKeyboard(taskList));
-			as.execute(makeRemindListKeyboard(remindList));
+			var dialog = sessions.open(new ListDialog(
+					new SessionKey(currentUserId, currentChatId),
+					reminder().getTaskList(currentUserId),
+					reminder().getRemindsList(currentUserId)));
+			sender.send(makeTaskListKeyboard(dialog.taskList, currentChatId));
+			sender.send(makeRemindListKeyboard(dialog.remindList, currentChatId));
 		} catch (JsonMappingException e) {
 			System.out.println(e.getMessage());
 			e.printStackTrace();
@@ -298,9 +332,6 @@ public class ListTasks extends CallbackOrientedBotCommand {
 		} catch (SchedulerException e) {
 			System.out.println(e.getMessage());
 			e.printStackTrace();
-		} catch (TelegramApiException e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
 		}
 	}
 
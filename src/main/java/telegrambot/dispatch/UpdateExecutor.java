@@ -0,0 +1,223 @@
+package telegrambot.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Исполнитель обновлений: обновления разных чатов обрабатываются параллельно, а обновления одного чата - строго по очереди,
+ * в порядке поступления. У каждого чата, для которого есть необработанные обновления, есть своя очередь ("полоса"), которую
+ * разбирает не более одного потока одновременно. Полоса существует ровно до тех пор, пока в ней есть обновления.
+ * Если среда исполнения поддерживает виртуальные потоки (Java 21+), то каждая полоса разбирается в своем виртуальном потоке,
+ * иначе - в пуле обычных потоков. В обоих случаях количество одновременно обрабатываемых обновлений ограничено.
+ * @author borodatyidrug
+ *
+ */
+public class UpdateExecutor {
+	
+	/**
+	 * Сколько обновлений подряд полоса обрабатывает, прежде чем уступить поток другим полосам
+	 */
+	protected static final int LANE_BATCH = 16;
+	
+	protected final ConcurrentHashMap<String, ArrayDeque<Runnable>> lanes;
+	protected final ExecutorService workers;
+	protected final Semaphore permits;
+	protected final int maxChatQueue;
+	protected final int maxPending;
+	protected final AtomicInteger pending;
+	protected final AtomicLong rejected;
+	protected final boolean virtualThreads;
+	
+	/**
+	 * Создает исполнитель обновлений
+	 * @param maxConcurrency Максимальное количество одновременно обрабатываемых обновлений
+	 * @param maxChatQueue Максимальное количество ожидающих обработки обновлений одного чата
+	 * @param maxPending Максимальное количество ожидающих обработки обновлений всех чатов
+	 */
+	public UpdateExecutor(int maxConcurrency, int maxChatQueue, int maxPending) {
+		if (maxConcurrency <= 0 || maxChatQueue <= 0 || maxPending <= 0) {
+			throw new IllegalArgumentException("Параметры исполнителя обновлений должны быть положительными");
+		}
+		this.lanes = new ConcurrentHashMap<>();
+		this.permits = new Semaphore(maxConcurrency);
+		this.maxChatQueue = maxChatQueue;
+		this.maxPending = maxPending;
+		this.pending = new AtomicInteger();
+		this.rejected = new AtomicLong();
+		ExecutorService virtual = newVirtualThreadExecutor();
+		this.virtualThreads = virtual != null;
+		this.workers = virtual != null ? virtual : Executors.newFixedThreadPool(maxConcurrency, r -> {
+			Thread thread = new Thread(r, "update-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	/**
+	 * Возвращает исполнитель "виртуальный поток на задачу", если среда исполнения его поддерживает. Проект собирается под
+	 * Java 17, поэтому метод ищется во время исполнения
+	 * @return Исполнитель или null
+	 */
+	protected static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+	/**
+	 * Возвращает ключ полосы для обновления: идентификатор чата, а если чата в обновлении нет - идентификатор пользователя
+	 * @param update Обновление
+	 * @return Ключ полосы
+	 */
+	public static String laneKey(Update update) {
+		if (update.hasMessage()) {
+			return update.getMessage().getChatId().toString();
+		} else if (update.hasCallbackQuery()) {
+			var query = update.getCallbackQuery();
+			return query.getMessage() != null ? query.getMessage().getChatId().toString() : query.getFrom().getId().toString();
+		} else if (update.hasEditedMessage()) {
+			return update.getEditedMessage().getChatId().toString();
+		} else if (update.hasMyChatMember()) {
+			return update.getMyChatMember().getChat().getId().toString();
+		} else if (update.hasChatMember()) {
+			return update.getChatMember().getChat().getId().toString();
+		}
+		return "";
+	}
+	/**
+	 * Ставит обработку обновления в очередь его чата
+	 * @param update Обновление
+	 * @param handler Обработчик обновления
+	 * @return false, если очередь чата или общая очередь переполнены и обновление отброшено
+	 */
+	public boolean submit(Update update, Runnable handler) {
+		return submit(laneKey(update), handler);
+	}
+	/**
+	 * Ставит задачу в очередь полосы с заданным ключом
+	 * @param key Ключ полосы
+	 * @param task Задача
+	 * @return false, если очередь полосы или общая очередь переполнены и задача отброшена
+	 */
+	public boolean submit(String key, Runnable task) {
+		if (pending.incrementAndGet() > maxPending) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		boolean[] start = new boolean[1];
+		boolean[] accepted = new boolean[1];
+		lanes.compute(key, (k, lane) -> {
+			if (lane == null) {
+				// полосы нет - значит, ее никто не разбирает: создаем и запускаем разбор
+				lane = new ArrayDeque<>();
+				start[0] = true;
+			}
+			if (lane.size() < maxChatQueue) {
+				lane.add(task);
+				accepted[0] = true;
+			}
+			return lane.isEmpty() ? null : lane;
+		});
+		if (!accepted[0]) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		if (start[0]) {
+			schedule(key);
+		}
+		return true;
+	}
+	
+	protected void schedule(String key) {
+		try {
+			workers.execute(() -> drain(key));
+		} catch (RejectedExecutionException e) {
+			// исполнитель остановлен: необработанные обновления полосы отбрасываются
+			var lane = lanes.remove(key);
+			if (lane != null) {
+				pending.addAndGet(-lane.size());
+			}
+		}
+	}
+	/**
+	 * Разбирает полосу: обрабатывает обновления по одному, пока полоса не опустеет. В пуле обычных потоков после LANE_BATCH
+	 * обновлений полоса заново ставится в очередь пула, чтобы один занятый чат не занимал поток бесконечно
+	 * @param key Ключ полосы
+	 */
+	protected void drain(String key) {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			for (int processed = 0; virtualThreads || processed < LANE_BATCH; processed++) {
+				Runnable next = poll(key);
+				if (next == null) {
+					return;
+				}
+				try {
+					next.run();
+				} catch (RuntimeException e) {
+					System.out.println(e.getMessage());
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			permits.release();
+		}
+		schedule(key);
+	}
+	/**
+	 * Извлекает из полосы очередное обновление. Если полоса пуста, она удаляется
+	 * @param key Ключ полосы
+	 * @return Обновление или null, если полоса опустела
+	 */
+	protected Runnable poll(String key) {
+		Runnable[] next = new Runnable[1];
+		lanes.computeIfPresent(key, (k, lane) -> {
+			next[0] = lane.poll();
+			return lane.isEmpty() && next[0] == null ? null : lane;
+		});
+		if (next[0] != null) {
+			pending.decrementAndGet();
+		}
+		return next[0];
+	}
+	/**
+	 * Возвращает количество ожидающих обработки обновлений
+	 * @return Количество обновлений
+	 */
+	public int pendingCount() {
+		return pending.get();
+	}
+	/**
+	 * Возвращает количество отброшенных из-за переполнения очередей обновлений
+	 * @return Количество обновлений
+	 */
+	public long rejectedCount() {
+		return rejected.get();
+	}
+	/**
+	 * Останавливает исполнитель, давая уже принятым обновлениям время на обработку
+	 * @param timeout Время ожидания
+	 * @param unit Единица измерения времени ожидания
+	 * @throws InterruptedException
+	 */
+	public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		workers.shutdown();
+		workers.awaitTermination(timeout, unit);
+	}
+}
@@ -0,0 +1,195 @@
+package telegrambot.dispatch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Журнал обработанных обновлений. Помнит "водораздел" - наибольший update_id, до которого включительно все обновления
+ * обработаны, - и окно недавно принятых update_id. Обновление с update_id не больше водораздела или из окна - повтор, его
+ * обрабатывать не нужно. Такие повторы приходят после перезапуска бота (Telegram заново выдает обновления, получение которых
+ * не было подтверждено) и при повторной доставке через webhook. Обновления обрабатываются параллельно и завершаются не по
+ * порядку, поэтому водораздел - это обновление, предшествующее самому старому из еще не обработанных. Состояние журнала
+ * сохраняется в файл методом flush(): файл сначала пишется рядом и сбрасывается на диск, затем атомарно заменяет прежний
+ * @author borodatyidrug
+ *
+ */
+public class UpdateJournal {
+
+	protected static final String WATERMARK = "watermark";
+	protected static final String PROCESSED = "processed";
+
+	protected final File file;
+	protected final int window;
+	protected final ObjectMapper mapper;
+	/**
+	 * Недавно принятые update_id в порядке поступления, не больше window штук
+	 */
+	protected final LinkedHashSet<Integer> seen;
+	/**
+	 * Принятые, но еще не обработанные update_id
+	 */
+	protected final TreeSet<Integer> inFlight;
+	/**
+	 * Сохранения выполняются по одному: их вызывают и периодическая задача, и остановка бота
+	 */
+	protected final Object flushLock;
+	/**
+	 * Все update_id не больше этого значения считаются повторами: они либо сохранены в файле как обработанные, либо вытеснены
+	 * из окна
+	 */
+	protected int floor;
+	/**
+	 * Наибольший update_id, вытесненный из окна. Водораздел поднимается до него, но не выше обновления, предшествующего
+	 * самому старому из еще не обработанных
+	 */
+	protected int evicted;
+	protected int highest;
+	protected boolean dirty;
+
+	/**
+	 * Создает журнал и загружает его состояние из файла, если файл есть
+	 * @param file Файл журнала
+	 * @param window Сколько последних update_id помнить для отсева повторов
+	 */
+	public UpdateJournal(File file, int window) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("Окно журнала обновлений должно быть положительным");
+		}
+		this.file = file;
+		this.window = window;
+		this.mapper = new ObjectMapper();
+		this.seen = new LinkedHashSet<>();
+		this.inFlight = new TreeSet<>();
+		this.flushLock = new Object();
+		this.floor = -1;
+		this.evicted = -1;
+		this.highest = -1;
+		if (file.exists() && file.length() > 0) {
+			try {
+				JsonNode state = mapper.readTree(file);
+				floor = state.path(WATERMARK).asInt(-1);
+				for (JsonNode id : state.path(PROCESSED)) {
+					remember(id.asInt());
+				}
+				// обновления между водоразделом и обработанными не были обработаны до остановки: Telegram выдаст их заново,
+				// поэтому водораздел не должен их перескочить
+				highest = floor;
+			} catch (IOException e) {
+				System.out.println("Не удалось прочитать журнал обновлений " + file + ": " + e.getMessage());
+			}
+		}
+	}
+	/**
+	 * Принимает обновление к обработке, если это не повтор
+	 * @param updateId update_id обновления
+	 * @return false, если обновление уже было принято раньше
+	 */
+	public synchronized boolean begin(int updateId) {
+		if (updateId <= floor || seen.contains(updateId) || inFlight.contains(updateId)) {
+			return false;
+		}
+		remember(updateId);
+		inFlight.add(updateId);
+		return true;
+	}
+	/**
+	 * Отмечает принятое обновление как обработанное
+	 * @param updateId update_id обновления
+	 */
+	public synchronized void complete(int updateId) {
+		inFlight.remove(updateId);
+		advanceFloor();
+		dirty = true;
+	}
+	/**
+	 * Забывает принятое обновление, которое так и не было поставлено в обработку, чтобы его повторная доставка не считалась
+	 * повтором
+	 * @param updateId update_id обновления
+	 */
+	public synchronized void abort(int updateId) {
+		inFlight.remove(updateId);
+		seen.remove(updateId);
+		advanceFloor();
+		if (updateId == highest) {
+			highest = floor;
+			for (var id : seen) {
+				highest = Math.max(highest, id);
+			}
+		}
+	}
+	/**
+	 * Возвращает водораздел: наибольший update_id, до которого включительно все принятые обновления обработаны
+	 * @return update_id, или -1, если журнал пуст
+	 */
+	public synchronized int watermark() {
+		return inFlight.isEmpty() ? highest : Math.max(floor, inFlight.first() - 1);
+	}
+	/**
+	 * Сохраняет водораздел и обработанные обновления выше него, если с прошлого сохранения что-то изменилось
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		synchronized (flushLock) {
+			int watermark;
+			var processed = new ArrayList<Integer>();
+			synchronized (this) {
+				if (!dirty) {
+					return;
+				}
+				dirty = false;
+				watermark = watermark();
+				for (var id : seen) {
+					if (id > watermark && !inFlight.contains(id)) {
+						processed.add(id);
+					}
+				}
+			}
+			var state = mapper.createObjectNode();
+			state.put(WATERMARK, watermark);
+			var array = state.putArray(PROCESSED);
+			processed.forEach(array::add);
+			var temp = new File(file.getPath() + ".tmp");
+			try {
+				try (FileOutputStream fos = new FileOutputStream(temp)) {
+					fos.write(mapper.writeValueAsBytes(state));
+					fos.getFD().sync();
+				}
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				synchronized (this) {
+					dirty = true;
+				}
+				throw e;
+			}
+		}
+	}
+
+	protected void remember(int updateId) {
+		seen.add(updateId);
+		highest = Math.max(highest, updateId);
+		if (seen.size() > window) {
+			Iterator<Integer> oldest = seen.iterator();
+			evicted = Math.max(evicted, oldest.next());
+			oldest.remove();
+			advanceFloor();
+		}
+	}
+	/**
+	 * Поднимает водораздел до наибольшего вытесненного из окна update_id, но не дальше еще не обработанных обновлений: иначе
+	 * сохраненный водораздел перескочил бы обновление, которое после перезапуска нужно обработать заново
+	 */
+	protected void advanceFloor() {
+		int limit = inFlight.isEmpty() ? evicted : Math.min(evicted, inFlight.first() - 1);
+		floor = Math.max(floor, limit);
+	}
+}
@@ -1,21 +1,171 @@
 package telegrambot.familyassistant;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.quartz.SchedulerException;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.generics.LongPollingBot;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import telegrambot.cluster.DatabaseLease;
+import telegrambot.cluster.UpdateStreamOwner;
+import telegrambot.istorage.IConfigStorage;
+import telegrambot.metrics.MetricsServer;
+import telegrambot.webhook.WebhookServer;
+
 public class FamilyAssistant {
-    
+	/**
+	 * Ключи параметров конфигурации способа получения обновлений и их значения по-умолчанию. updatesMode: "polling" - длительный
+	 * опрос, "webhook" - Telegram сам присылает обновления на webhookUrl + webhookPath, который встроенный HTTP-сервер слушает на
+	 * порту webhookPort
+	 */
+	public static final String UPDATES_MODE = "updatesMode";
+	public static final String WEBHOOK_URL = "webhookUrl";
+	public static final String WEBHOOK_PATH = "webhookPath";
+	public static final String WEBHOOK_PORT = "webhookPort";
+	public static final String WEBHOOK_THREADS = "webhookThreads";
+	public static final String POLLING = "polling";
+	public static final String WEBHOOK = "webhook";
+	private static final String DEFAULT_WEBHOOK_PATH = "/telegram";
+	private static final String DEFAULT_WEBHOOK_PORT = "8443";
+	private static final String DEFAULT_WEBHOOK_THREADS = "4";
+	/**
+	 * Ключи параметров конфигурации HTTP-сервера метрик и их значения по-умолчанию. По-умолчанию сервер слушает только
+	 * локальный адрес, метрики доступны по http://metricsHost:metricsPort/metrics
+	 */
+	public static final String METRICS_ENABLED = "metricsEnabled";
+	public static final String METRICS_HOST = "metricsHost";
+	public static final String METRICS_PORT = "metricsPort";
+	private static final String DEFAULT_METRICS_ENABLED = "true";
+	private static final String DEFAULT_METRICS_HOST = "127.0.0.1";
+	private static final String DEFAULT_METRICS_PORT = "9404";
+	/**
+	 * Ключи параметров конфигурации кластера и их значения по-умолчанию: срок аренды потока обновлений в секундах и
+	 * идентификатор экземпляра бота (по-умолчанию - имя хоста и номер процесса)
+	 */
+	public static final String UPDATES_LEASE_SECONDS = "updatesLeaseSeconds";
+	public static final String CLUSTER_NODE_ID = "clusterNodeId";
+	private static final String DEFAULT_UPDATES_LEASE_SECONDS = "30";
+	protected static final String UPDATES_LEASE = "telegram-updates";
+	/**
+	 * Код завершения экземпляра, потерявшего поток обновлений
+	 */
+	protected static final int EXIT_UPDATES_LEASE_LOST = 3;
+
 	public static final LongPollingBot bot = new FamilyAssistantBot();
-	
-    public static void main(String[] args) throws IOException {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
         try {
-            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(bot);
-        } catch (TelegramApiException e) {
+        	IConfigStorage config = FamilyAssistantBot.getConfigStorage();
+        	if (Boolean.parseBoolean(config.getValue(METRICS_ENABLED, DEFAULT_METRICS_ENABLED))) {
+        		startMetrics(config);
+        	}
+        	if (FamilyAssistantBot.isClustered()) {
+        		// до получения аренды экземпляр только выполняет задания Quartz
+        		acquireUpdateStream(config);
+        	}
+        	if (WEBHOOK.equals(config.getValue(UPDATES_MODE, POLLING))) {
+        		startWebhook(config);
+        	} else {
+        		TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+        		botsApi.registerBot(bot);
+        	}
+        	// Бот уже принимает обновления. Фазы, которые еще идут (Quartz, расписания AzbykaRu), попадут в отчет по завершении
+        	var startup = ((FamilyAssistantBot) bot).getStartup();
+        	System.out.println("Бот принимает обновления через " + startup.elapsedMillis() + " мс после начала запуска");
+        	startup.whenAll().whenComplete((result, e) -> System.out.println(startup.report()));
+        } catch (TelegramApiException | SchedulerException | SQLException e) {
             e.printStackTrace();
         }
     }
+    /**
+     * Ждет, пока этот экземпляр бота не станет владельцем потока обновлений Telegram, начинает продлевать аренду и
+     * восстанавливает расписания рассылок, которые выполняет только владелец. Экземпляр, потерявший аренду, завершается:
+     * остановка сессии длительного опроса закрывает бота (onClosing), а перезапущенный экземпляр снова ждет аренду
+     * @param config Хранилище конфигурации
+     * @throws SchedulerException Если не удалось создать планировщик задач
+     * @throws SQLException Если не удалось создать таблицу аренд
+     * @throws InterruptedException
+     */
+    protected static void acquireUpdateStream(IConfigStorage config) throws SchedulerException, SQLException,
+    		InterruptedException {
+    	// источник данных хранилища задач регистрируется при создании планировщика
+    	FamilyAssistantBot.getReminder();
+    	var lease = new DatabaseLease(FamilyAssistantBot.taskConnections(), UPDATES_LEASE, nodeId(config),
+    			TimeUnit.SECONDS.toMillis(Long.parseLong(config.getValue(UPDATES_LEASE_SECONDS, DEFAULT_UPDATES_LEASE_SECONDS))));
+    	lease.initialize();
+    	var owner = new UpdateStreamOwner(lease, FamilyAssistantBot.getMetrics());
+    	System.out.println("Экземпляр " + lease.getOwner() + " ждет аренду потока обновлений");
+    	owner.await();
+    	System.out.println("Экземпляр " + lease.getOwner() + " получает обновления Telegram");
+    	owner.keep(() -> {
+    		System.out.println("Экземпляр " + lease.getOwner() + " потерял поток обновлений и завершается");
+    		System.exit(EXIT_UPDATES_LEASE_LOST);
+    	});
+    	Runtime.getRuntime().addShutdownHook(new Thread(owner::release));
+    	((FamilyAssistantBot) bot).restoreSchedules();
+    }
+    /**
+     * Возвращает идентификатор экземпляра бота из конфигурации, а если он не задан - имя хоста и номер процесса
+     * @param config Хранилище конфигурации
+     * @return Идентификатор экземпляра
+     */
+    protected static String nodeId(IConfigStorage config) {
+    	var nodeId = config.getValue(CLUSTER_NODE_ID, null);
+    	if (nodeId != null) {
+    		return nodeId;
+    	}
+    	String host;
+    	try {
+    		host = InetAddress.getLocalHost().getHostName();
+    	} catch (UnknownHostException e) {
+    		host = "localhost";
+    	}
+    	return host + "-" + ProcessHandle.current().pid();
+    }
+    /**
+     * Запускает HTTP-сервер, отдающий метрики бота в текстовом формате Prometheus
+     * @param config Хранилище конфигурации
+     * @throws IOException Если порт занят
+     */
+    protected static void startMetrics(IConfigStorage config) throws IOException {
+    	var server = new MetricsServer(
+    			config.getValue(METRICS_HOST, DEFAULT_METRICS_HOST),
+    			Integer.parseInt(config.getValue(METRICS_PORT, DEFAULT_METRICS_PORT)),
+    			FamilyAssistantBot.getMetrics());
+    	server.start();
+    	Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+    /**
+     * Запускает встроенный HTTP-сервер и сообщает Telegram адрес, на который нужно присылать обновления. Обновления, принятые
+     * сервером, проходят тот же путь, что и полученные длительным опросом: исполнитель обновлений, реестр команд и
+     * processNonCommandUpdate
+     * @param config Хранилище конфигурации
+     * @throws IOException Если порт занят
+     * @throws TelegramApiException Если Telegram не принял адрес webhook
+     */
+    protected static void startWebhook(IConfigStorage config) throws IOException, TelegramApiException {
+    	var familyAssistantBot = (FamilyAssistantBot) bot;
+    	var path = config.getValue(WEBHOOK_PATH, DEFAULT_WEBHOOK_PATH);
+    	var server = new WebhookServer(
+    			Integer.parseInt(config.getValue(WEBHOOK_PORT, DEFAULT_WEBHOOK_PORT)),
+    			path,
+    			Integer.parseInt(config.getValue(WEBHOOK_THREADS, DEFAULT_WEBHOOK_THREADS)),
+    			familyAssistantBot::submitUpdate);
+    	server.start();
+    	Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+    		server.stop(1);
+    		familyAssistantBot.onClosing();
+    	}));
+    	familyAssistantBot.execute(SetWebhook.builder()
+    			.url(config.getValue(WEBHOOK_URL) + path)
+    			.allowedUpdates(FamilyAssistantBot.ALLOWED_UPDATES)
+    			.build());
+    }
 }
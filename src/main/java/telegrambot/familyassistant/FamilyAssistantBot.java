@@ -1,26 +1,55 @@
 package telegrambot.familyassistant;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.sql.DriverManager;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import org.quartz.SchedulerException;
+import org.quartz.utils.DBConnectionManager;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.extensions.bots.commandbot.TelegramLongPollingCommandBot;
 import org.telegram.telegrambots.extensions.bots.commandbot.commands.IBotCommand;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updates.GetUpdates;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.telegram.telegrambots.meta.bots.AbsSender;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
 
 import telegrambot.commands.ICallbackHandlerCommand;
 import telegrambot.commands.AzbykaRu;
+import telegrambot.commands.CallbackRouter;
 import telegrambot.commands.todos.AddTask;
 import telegrambot.commands.todos.ListTasks;
+import telegrambot.dispatch.UpdateExecutor;
+import telegrambot.dispatch.UpdateJournal;
 import telegrambot.istorage.FileConfigStorage;
 import telegrambot.istorage.IConfigStorage;
+import telegrambot.metrics.Counter;
+import telegrambot.metrics.Histogram;
+import telegrambot.metrics.MetricsRegistry;
+import telegrambot.outbound.IMessageSender;
+import telegrambot.outbound.MessageSender;
+import telegrambot.outbound.NotificationCoalescer;
+import telegrambot.todos.IConnectionSource;
+import telegrambot.todos.JdbcTaskRepository;
+import telegrambot.todos.MisfireRecovery;
+import telegrambot.todos.IReminder;
+import telegrambot.todos.QuartzCluster;
 import telegrambot.todos.Reminder;
+import telegrambot.todos.SchedulerProfile;
+import telegrambot.todos.WheelReminder;
 
 /**
  * Telegram-бот на основе технологии "длительного опроса" (дословно). Выполняет команды. Умеет отправлять в чат пользователя по запросу
@@ -38,15 +67,126 @@ import telegrambot.todos.Reminder;
 public class FamilyAssistantBot extends TelegramLongPollingCommandBot {
     
 	public static final String DATE_TIME_FORMAT = "dd-MM-yyyy-HH-mm";
-	private final String CONFIG = "/config";
+	private static final String CONFIG = "/config";
     private final String botToken;
     /**
      * Размер пула потоков планировщика задач
      */
     private static final int SCHEDULER_POOL_SIZE = 2;
-    protected static IConfigStorage configStorage;
-    protected static Reminder reminder;
-    protected static ScheduledExecutorService scheduler;
+    /**
+     * Ключи параметров конфигурации исполнителя обновлений и их значения по-умолчанию
+     */
+    public static final String UPDATE_MAX_CONCURRENCY = "updateMaxConcurrency";
+    public static final String UPDATE_MAX_CHAT_QUEUE = "updateMaxChatQueue";
+    public static final String UPDATE_MAX_PENDING = "updateMaxPending";
+    private static final String DEFAULT_UPDATE_MAX_CONCURRENCY = "64";
+    private static final String DEFAULT_UPDATE_MAX_CHAT_QUEUE = "100";
+    private static final String DEFAULT_UPDATE_MAX_PENDING = "10000";
+    /**
+     * Ключи параметров конфигурации журнала обработанных обновлений и их значения по-умолчанию: путь к файлу журнала
+     * относительно рабочего каталога и количество последних update_id, которые помнит журнал для отсева повторов
+     */
+    public static final String UPDATE_JOURNAL_PATH = "updateJournalPath";
+    public static final String UPDATE_DEDUP_WINDOW = "updateDedupWindow";
+    private static final String DEFAULT_UPDATE_JOURNAL_PATH = "/updateJournal";
+    private static final String DEFAULT_UPDATE_DEDUP_WINDOW = "10000";
+    /**
+     * Типы обновлений, которые бот обрабатывает. Остальные (редактирование сообщений, сообщения каналов, опросы и т.д.)
+     * Telegram боту не присылает
+     */
+    public static final List<String> ALLOWED_UPDATES = List.of("message", "callback_query");
+    /**
+     * Ключи параметров конфигурации конвейера исходящих сообщений и их значения по-умолчанию. Значения по-умолчанию
+     * соответствуют ограничениям Telegram Bot API: около 30 сообщений в секунду на бота и около одного сообщения в секунду в чат
+     */
+    public static final String OUTBOUND_GLOBAL_RATE = "outboundGlobalRate";
+    public static final String OUTBOUND_CHAT_RATE = "outboundChatRate";
+    public static final String OUTBOUND_CHAT_BURST = "outboundChatBurst";
+    public static final String OUTBOUND_WORKERS = "outboundWorkers";
+    public static final String OUTBOUND_MAX_ATTEMPTS = "outboundMaxAttempts";
+    public static final String OUTBOUND_MAX_PENDING = "outboundMaxPending";
+    private static final String DEFAULT_OUTBOUND_GLOBAL_RATE = "30";
+    private static final String DEFAULT_OUTBOUND_CHAT_RATE = "1";
+    private static final String DEFAULT_OUTBOUND_CHAT_BURST = "3";
+    private static final String DEFAULT_OUTBOUND_WORKERS = "8";
+    private static final String DEFAULT_OUTBOUND_MAX_ATTEMPTS = "5";
+    private static final String DEFAULT_OUTBOUND_MAX_PENDING = "100000";
+    /**
+     * Ключи параметров конфигурации сборки уведомлений напоминаний в одно сообщение на чат: длина окна в миллисекундах
+     * (0 - отправлять каждое уведомление сразу) и наибольшая длина собранного сообщения
+     */
+    public static final String NOTIFY_COALESCE_MILLIS = "notifyCoalesceMillis";
+    public static final String NOTIFY_MAX_LENGTH = "notifyMaxLength";
+    private static final String DEFAULT_NOTIFY_COALESCE_MILLIS = "2000";
+    private static final String DEFAULT_NOTIFY_MAX_LENGTH = Integer.toString(NotificationCoalescer.TELEGRAM_MAX_LENGTH);
+    /**
+     * Ключи параметров конфигурации восстановления после простоя: сколько сообщений о пропущенных напоминаниях отправлять
+     * в секунду и со скольких просроченных триггеров начинать восстановление (меньшее отставание выполняет Quartz)
+     */
+    public static final String MISFIRE_RECOVERY_RATE = "misfireRecoveryRate";
+    public static final String MISFIRE_RECOVERY_BACKLOG = "misfireRecoveryBacklog";
+    private static final String DEFAULT_MISFIRE_RECOVERY_RATE = "5";
+    private static final String DEFAULT_MISFIRE_RECOVERY_BACKLOG = "20";
+    /**
+     * Ключ параметра конфигурации с путем к файлу настроек Quartz относительно рабочего каталога и его значение по-умолчанию
+     */
+    public static final String QUARTZ_PROPERTIES = "quartzPropertiesPath";
+    private static final String DEFAULT_QUARTZ_PROPERTIES = "/src/main/java/telegrambot/todos/quartz.properties";
+    /**
+     * Ключ параметра конфигурации: профиль планировщика задач (STANDARD или HIGH_THROUGHPUT), см. SchedulerProfile
+     */
+    public static final String QUARTZ_PROFILE = "quartzProfile";
+    private static final String DEFAULT_QUARTZ_PROFILE = SchedulerProfile.STANDARD.name();
+    /**
+     * Ключ параметра конфигурации: для скольких пользователей планировщик задач хранит разобранные списки задач и напоминаний
+     */
+    public static final String REMINDER_CACHE_USERS = "reminderCacheUsers";
+    private static final String DEFAULT_REMINDER_CACHE_USERS = Integer.toString(Reminder.DEFAULT_CACHE_USERS);
+    /**
+     * Ключи параметров конфигурации хранилища задач. По-умолчанию хранилище пользуется пулом соединений источника данных
+     * Quartz с именем taskDataSource, т.е. той же базой данных. Если задан taskDatabaseUrl, то соединения открываются
+     * по этому адресу JDBC (например, со встраиваемой базой данных)
+     */
+    public static final String TASK_DATA_SOURCE = "taskDataSource";
+    public static final String TASK_DATABASE_URL = "taskDatabaseUrl";
+    public static final String TASK_DATABASE_USER = "taskDatabaseUser";
+    public static final String TASK_DATABASE_PASSWORD = "taskDatabasePassword";
+    private static final String DEFAULT_TASK_DATA_SOURCE = "family_assistant_bot_db";
+    /**
+     * Ключ параметра конфигурации: планировщик задач - quartz (Reminder на Quartz и базе данных) или wheel (WheelReminder:
+     * колесо таймеров в памяти с журналом на локальном диске, без базы данных)
+     */
+    public static final String REMINDER_ENGINE = "reminderEngine";
+    public static final String REMINDER_ENGINE_QUARTZ = "quartz";
+    public static final String REMINDER_ENGINE_WHEEL = "wheel";
+    /**
+     * Ключи параметров конфигурации WheelReminder: каталог журнала и снимка относительно рабочего каталога и через сколько
+     * записей журнала писать снимок
+     */
+    public static final String WHEEL_REMINDER_PATH = "wheelReminderPath";
+    public static final String WHEEL_SNAPSHOT_EVERY = "wheelSnapshotEvery";
+    private static final String DEFAULT_REMINDER_ENGINE = REMINDER_ENGINE_QUARTZ;
+    private static final String DEFAULT_WHEEL_REMINDER_PATH = "/reminders";
+    private static final String DEFAULT_WHEEL_SNAPSHOT_EVERY = Integer.toString(WheelReminder.DEFAULT_SNAPSHOT_EVERY);
+    /**
+     * Ключи параметров конфигурации режима кластера: clustered - работают несколько экземпляров бота с общей базой данных
+     * (Quartz в режиме кластера, обновления Telegram получает один экземпляр), clusterCheckinMillis - как часто экземпляр
+     * отмечается в хранилище заданий Quartz
+     */
+    public static final String CLUSTERED = "clustered";
+    public static final String CLUSTER_CHECKIN_MILLIS = "clusterCheckinMillis";
+    private static final String DEFAULT_CLUSTERED = "false";
+    private static final String DEFAULT_CLUSTER_CHECKIN_MILLIS = Long.toString(QuartzCluster.DEFAULT_CHECKIN_MILLIS);
+    /**
+     * Синглтоны создаются лениво и могут впервые запрашиваться из разных потоков (фазы запуска, обработчики обновлений,
+     * потоки Quartz), поэтому поля - volatile, а создание - под блокировкой класса
+     */
+    protected static volatile IConfigStorage configStorage;
+    protected static volatile CompletableFuture<IReminder> reminder;
+    protected static volatile ScheduledExecutorService scheduler;
+    protected static volatile MessageSender messageSender;
+    protected static volatile NotificationCoalescer notifier;
+    protected static volatile MetricsRegistry metrics;
     // Получаем рабочий каталог, из которого было запущено приложение
     protected final static String workingDir = Paths.get("").toAbsolutePath().toString();
     protected final AzbykaRu azbykaRu;
@@ -56,28 +196,220 @@ public class FamilyAssistantBot extends TelegramLongPollingCommandBot {
      * бот-команда может обработать
      */
     protected List<ICallbackHandlerCommand> handleableCommandList;
+    /**
+     * Направляет каждое "некомандное" обновление ровно одной бот-команде из handleableCommandList
+     */
+    protected final CallbackRouter callbackRouter;
+    /**
+     * Обрабатывает обновления разных чатов параллельно, сохраняя порядок обработки обновлений внутри одного чата
+     */
+    protected final UpdateExecutor updateExecutor;
+    /**
+     * Помнит, какие обновления уже обработаны, чтобы после перезапуска или повторной доставки не обрабатывать их снова
+     */
+    protected final UpdateJournal updateJournal;
+    /**
+     * Фазы запуска бота и их длительности
+     */
+    protected final StartupSequence startup;
+    /**
+     * Гистограммы времени обработки обновлений по идентификаторам бот-команд. Заполняется в конструкторе и дальше только
+     * читается, поэтому обработчики обновлений не обращаются к реестру метрик. Обновления, не относящиеся ни к одной
+     * команде, учитываются в гистограмме с меткой "other"
+     */
+    protected final Map<String, Histogram> handlingLatency;
+    protected final Histogram otherHandlingLatency;
+    protected final Histogram queueLatency;
+    protected final Counter callbacksRouted;
+    protected final Counter callbacksDropped;
+    protected final Counter duplicateUpdates;
+    protected final Counter rejectedUpdates;
     
     public FamilyAssistantBot() {
-        super();
         // Bot-token берем из соответствующей переменной окружения, которую нужно предварительно создать и присвоить ей значение
-        this.botToken = System.getenv("BD_FAMILY_ASSISTANT_BOT_TOKEN");
-        try {
-			getConfigStorage().readConfig(workingDir + CONFIG);
-		} catch (IOException e) {
-			System.out.println("Файл конфигурации не найден по этому пути: " + workingDir);
-			System.exit(1);
-		}
+        this(new DefaultBotOptions(), System.getenv("BD_FAMILY_ASSISTANT_BOT_TOKEN"), workingDir + CONFIG);
+    }
+    /**
+     * Создает бота с заданными параметрами подключения и файлом конфигурации. Позволяет, например, направить запросы бота к
+     * локальной заглушке Telegram Bot API при нагрузочном тестировании
+     * @param options Параметры подключения к Telegram Bot API, в т.ч. - его адрес
+     * @param botToken Bot-token
+     * @param configPath Путь к файлу конфигурации
+     */
+    public FamilyAssistantBot(DefaultBotOptions options, String botToken, String configPath) {
+        super(options);
+        this.botToken = botToken;
+        options.setAllowedUpdates(ALLOWED_UPDATES);
+        startup = new StartupSequence(getMetrics());
+        startup.run("config", () -> {
+        	try {
+        		getConfigStorage().readConfig(configPath);
+        	} catch (IOException e) {
+        		System.out.println("Файл конфигурации не найден по этому пути: " + configPath);
+        		System.exit(1);
+        	}
+        });
+        // Конвейер исходящих сообщений создается до бот-команд, так как команды получают его в своих конструкторах, и до
+        // планировщика задач: восстановление после простоя отправляет через него пропущенные напоминания
+        messageSender = new MessageSender(
+        		this,
+        		Double.parseDouble(getConfigStorage().getValue(OUTBOUND_GLOBAL_RATE, DEFAULT_OUTBOUND_GLOBAL_RATE)),
+        		Double.parseDouble(getConfigStorage().getValue(OUTBOUND_CHAT_RATE, DEFAULT_OUTBOUND_CHAT_RATE)),
+        		Double.parseDouble(getConfigStorage().getValue(OUTBOUND_CHAT_BURST, DEFAULT_OUTBOUND_CHAT_BURST)),
+        		Integer.parseInt(getConfigStorage().getValue(OUTBOUND_WORKERS, DEFAULT_OUTBOUND_WORKERS)),
+        		Integer.parseInt(getConfigStorage().getValue(OUTBOUND_MAX_ATTEMPTS, DEFAULT_OUTBOUND_MAX_ATTEMPTS)),
+        		Integer.parseInt(getConfigStorage().getValue(OUTBOUND_MAX_PENDING, DEFAULT_OUTBOUND_MAX_PENDING)),
+        		getMetrics());
+        notifier = new NotificationCoalescer(
+        		messageSender,
+        		getScheduler(),
+        		Long.parseLong(getConfigStorage().getValue(NOTIFY_COALESCE_MILLIS, DEFAULT_NOTIFY_COALESCE_MILLIS)),
+        		Integer.parseInt(getConfigStorage().getValue(NOTIFY_MAX_LENGTH, DEFAULT_NOTIFY_MAX_LENGTH)),
+        		getMetrics());
+        // Quartz подключается к базе данных в своем потоке. Бот начинает принимать обновления, не дожидаясь подключения:
+        // его ждут только команды, работающие с задачами и напоминаниями
+        startReminder();
+        updateExecutor = new UpdateExecutor(
+        		Integer.parseInt(getConfigStorage().getValue(UPDATE_MAX_CONCURRENCY, DEFAULT_UPDATE_MAX_CONCURRENCY)),
+        		Integer.parseInt(getConfigStorage().getValue(UPDATE_MAX_CHAT_QUEUE, DEFAULT_UPDATE_MAX_CHAT_QUEUE)),
+        		Integer.parseInt(getConfigStorage().getValue(UPDATE_MAX_PENDING, DEFAULT_UPDATE_MAX_PENDING)));
+        updateJournal = new UpdateJournal(
+        		new File(workingDir + getConfigStorage().getValue(UPDATE_JOURNAL_PATH, DEFAULT_UPDATE_JOURNAL_PATH)),
+        		Integer.parseInt(getConfigStorage().getValue(UPDATE_DEDUP_WINDOW, DEFAULT_UPDATE_DEDUP_WINDOW)));
         // Создаем и добавляем в список объекты комманд типа ICallbackHandlerCommand (команды с методом-перехватчиком)
         handleableCommandList = new ArrayList<>();
-        handleableCommandList.add(new AddTask("newtask", "Создать новую задачу в списке ваших задач", this));
-        handleableCommandList.add(new ListTasks("listtask", "Посмотреть список ваших задач"));
+        callbackRouter = new CallbackRouter();
         // Объекты команд без метода-перехватчика
-        azbykaRu = new AzbykaRu("azbyka", "Цитата дня на православном сайте Azbyka.ru", this);
-        // Регистрируем команды
-        register(azbykaRu);
-        for (ICallbackHandlerCommand c : handleableCommandList) {
-        	register((IBotCommand) c);
+        azbykaRu = new AzbykaRu("azbyka", "Цитата дня на православном сайте Azbyka.ru", messageSender);
+        startup.run("commands", () -> {
+        	handleableCommandList.add(new AddTask("newtask", "Создать новую задачу в списке ваших задач", this));
+        	handleableCommandList.add(new ListTasks("listtask", "Посмотреть список ваших задач"));
+        	// Регистрируем команды
+        	register(azbykaRu);
+        	for (ICallbackHandlerCommand c : handleableCommandList) {
+        		register((IBotCommand) c);
+        		callbackRouter.register(c);
+        	}
+        });
+        // Расписания AzbykaRu восстанавливаются из файла параллельно с остальным запуском. В кластере рассылку выполняет
+        // только владелец потока обновлений: он восстанавливает их из общей базы, получив аренду
+        if (!isClustered()) {
+        	restoreSchedules();
         }
+        handlingLatency = new HashMap<>();
+        otherHandlingLatency = registerMetrics();
+        queueLatency = getMetrics().histogram("bot_update_queue_seconds",
+        		"Время ожидания обновления в очереди чата исполнителя обновлений");
+        callbacksRouted = getMetrics().counter("bot_callbacks_routed_total",
+        		"Некомандные обновления, переданные бот-команде с активным диалогом");
+        callbacksDropped = getMetrics().counter("bot_callbacks_dropped_total",
+        		"Некомандные обновления, не относящиеся ни к одному активному диалогу");
+        duplicateUpdates = getMetrics().counter("bot_updates_duplicate_total",
+        		"Повторно полученные обновления, которые уже были обработаны");
+        rejectedUpdates = getMetrics().counter("bot_updates_rejected_total",
+        		"Обновления, отброшенные из-за переполнения очередей");
+        // Брошенные на полпути диалоги удаляются из хранилищ сессий, даже если в эти хранилища давно никто не обращался
+        getScheduler().scheduleWithFixedDelay(this::evictExpiredSessions, 1, 1, TimeUnit.MINUTES);
+        getScheduler().scheduleWithFixedDelay(this::flushUpdateJournal, 1, 1, TimeUnit.SECONDS);
+    }
+    /**
+     * Начинает восстановление расписаний рассылок AzbykaRu. Вызывается один раз: при запуске, а в режиме кластера - когда
+     * экземпляр получил поток обновлений
+     */
+    public void restoreSchedules() {
+    	startup.start("azbyka", () -> {
+    		azbykaRu.restoreSchedules();
+    		return null;
+    	});
+    }
+    /**
+     * Сохраняет журнал обработанных обновлений
+     */
+    protected void flushUpdateJournal() {
+    	try {
+			updateJournal.flush();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			e.printStackTrace();
+		}
+    }
+    /**
+     * Вызывается при регистрации бота для длительного опроса, перед запуском сессии. Кроме удаления webhook подтверждает
+     * Telegram получение всех обновлений до водораздела журнала: иначе после перезапуска сессия начала бы с самого старого
+     * неподтвержденного обновления и получила бы заново все, что уже обработано
+     */
+    @Override
+    public void clearWebhook() throws TelegramApiRequestException {
+    	super.clearWebhook();
+    	int watermark = updateJournal.watermark();
+    	if (watermark < 0) {
+    		return;
+    	}
+    	try {
+    		// обновление watermark + 1 и следующие за ним этот запрос не подтверждает: их получит сессия
+			execute(GetUpdates.builder()
+					.offset(watermark + 1)
+					.limit(1)
+					.timeout(0)
+					.allowedUpdates(ALLOWED_UPDATES)
+					.build());
+		} catch (TelegramApiException e) {
+			System.out.println("Не удалось подтвердить обработанные обновления: " + e.getMessage());
+		}
+    }
+    /**
+     * Регистрирует метрики обработки обновлений и показатели состояния бота
+     * @return Гистограмма времени обработки обновлений, не относящихся ни к одной бот-команде
+     */
+    protected Histogram registerMetrics() {
+    	var name = "bot_update_handling_seconds";
+    	var help = "Время обработки обновления бот-командой, от начала обработки до постановки ответа в очередь отправки";
+    	handlingLatency.put(azbykaRu.getCommandIdentifier(),
+    			getMetrics().histogram(name, help, "command", azbykaRu.getCommandIdentifier()));
+    	for (ICallbackHandlerCommand c : handleableCommandList) {
+    		handlingLatency.put(c.getCommandIdentifier(), getMetrics().histogram(name, help, "command", c.getCommandIdentifier()));
+    		getMetrics().gauge("bot_sessions", "Открытые диалоговые сессии бот-команды", c.getSessionStore()::size,
+    				"command", c.getCommandIdentifier());
+    	}
+    	getMetrics().gauge("bot_active_dialogs", "Пары (пользователь, чат) с активным диалогом",
+    			callbackRouter::activeDialogCount);
+    	getMetrics().gauge("bot_updates_pending", "Обновления в очередях исполнителя обновлений",
+    			updateExecutor::pendingCount);
+    	return getMetrics().histogram(name, help, "command", "other");
+    }
+    /**
+     * Возвращает гистограмму времени обработки бот-команды
+     * @param identifier Идентификатор бот-команды, или null, если обновление не относится ни к одной бот-команде
+     * @return Гистограмма
+     */
+    protected Histogram handlingLatencyOf(String identifier) {
+    	var histogram = identifier == null ? null : handlingLatency.get(identifier);
+    	return histogram == null ? otherHandlingLatency : histogram;
+    }
+    /**
+     * Извлекает идентификатор бот-команды из вызова "/command", "/command@botname" или "/command аргументы"
+     * @param update Обновление с вызовом бот-команды
+     * @return Идентификатор бот-команды
+     */
+    protected static String commandIdentifier(Update update) {
+    	var text = update.getMessage().getText();
+    	int end = text.length();
+    	for (int i = 1; i < text.length(); i++) {
+    		char ch = text.charAt(i);
+    		if (ch == ' ' || ch == '@' || ch == '\n') {
+    			end = i;
+    			break;
+    		}
+    	}
+    	return text.substring(1, end);
+    }
+    /**
+     * Удаляет истекшие диалоговые сессии всех бот-команд с методом-перехватчиком
+     */
+    protected void evictExpiredSessions() {
+    	for (ICallbackHandlerCommand c : handleableCommandList) {
+    		c.getSessionStore().evictExpired();
+    	}
     }
     /**
      * Возвращает рабочий каталог приложения
@@ -92,20 +424,137 @@ public class FamilyAssistantBot extends TelegramLongPollingCommandBot {
      */
     public static ScheduledExecutorService getScheduler( ) {
     	if (scheduler == null) {
-    		scheduler = Executors.newScheduledThreadPool(SCHEDULER_POOL_SIZE);
+    		synchronized (FamilyAssistantBot.class) {
+    			if (scheduler == null) {
+    				scheduler = Executors.newScheduledThreadPool(SCHEDULER_POOL_SIZE);
+    			}
+    		}
     	}
     	return scheduler;
     }
+    /**
+     * Возвращает конвейер исходящих сообщений, один общий для всего приложения. Все сообщения в чаты отправляются через него,
+     * с соблюдением ограничений частоты отправки Telegram Bot API
+     * @return Конвейер-синглтон
+     */
+    public static IMessageSender getMessageSender() {
+    	return messageSender;
+    }
+    /**
+     * Возвращает получателя уведомлений напоминаний, одного общего для всего приложения. Уведомления одного чата, пришедшие
+     * почти одновременно, он отправляет через конвейер исходящих сообщений одним сообщением
+     * @return Получатель уведомлений: идентификатор чата и текст
+     */
+    public static NotificationCoalescer getNotifier() {
+    	return notifier;
+    }
+    /**
+     * Возвращает реестр метрик, один общий для всего приложения. Метрики из него отдаются по HTTP в текстовом формате
+     * Prometheus
+     * @return Реестр-синглтон
+     */
+    public static MetricsRegistry getMetrics() {
+    	if (metrics == null) {
+    		synchronized (FamilyAssistantBot.class) {
+    			if (metrics == null) {
+    				metrics = new MetricsRegistry();
+    			}
+    		}
+    	}
+    	return metrics;
+    }
     /**
      * Возвращает планировщик задач для остальных команд, один общий объект-обертка (фасад) над библиотекой Quartz для всего приложения
      * @return Планировщик-синглтон
-     * @throws SchedulerException
+     * @throws SchedulerException Если планировщик не удалось создать, в т.ч. в фазе запуска
      */
-    public static Reminder getReminder() throws SchedulerException {
-        if (reminder == null) {
-            reminder = new Reminder((AbsSender) FamilyAssistant.bot);
-        }
-        return reminder;
+    public static IReminder getReminder() throws SchedulerException {
+    	if (reminder == null) {
+    		synchronized (FamilyAssistantBot.class) {
+    			if (reminder == null) {
+    				reminder = CompletableFuture.completedFuture(newReminder());
+    			}
+    		}
+    	}
+    	try {
+    		return reminder.join();
+    	} catch (CompletionException | CancellationException e) {
+    		// команды обрабатывают только SchedulerException: ошибку фазы запуска отдаем им в этом виде
+    		var cause = e.getCause() == null ? e : e.getCause();
+    		if (cause instanceof SchedulerException schedulerException) {
+    			throw schedulerException;
+    		}
+    		throw new SchedulerException("Планировщик задач не запущен: " + cause.getMessage(), cause);
+    	}
+    }
+    /**
+     * Начинает создание планировщика задач в отдельной фазе запуска, если он еще не создан
+     */
+    protected void startReminder() {
+    	synchronized (FamilyAssistantBot.class) {
+    		if (reminder == null) {
+    			reminder = startup.start(getConfigStorage().getValue(REMINDER_ENGINE, DEFAULT_REMINDER_ENGINE),
+    					FamilyAssistantBot::newReminder);
+    		}
+    	}
+    }
+
+    protected static IReminder newReminder() throws SchedulerException {
+    	var config = getConfigStorage();
+    	if (REMINDER_ENGINE_WHEEL.equals(config.getValue(REMINDER_ENGINE, DEFAULT_REMINDER_ENGINE))) {
+    		if (isClustered()) {
+    			throw new SchedulerException("WheelReminder хранит напоминания на локальном диске и не работает в кластере");
+    		}
+    		try {
+    			return new WheelReminder(new File(workingDir + config.getValue(WHEEL_REMINDER_PATH, DEFAULT_WHEEL_REMINDER_PATH)),
+    					WheelReminder.DEFAULT_TICK_MILLIS,
+    					Integer.parseInt(config.getValue(WHEEL_SNAPSHOT_EVERY, DEFAULT_WHEEL_SNAPSHOT_EVERY)),
+    					(chatId, text) -> getNotifier().accept(chatId, text));
+    		} catch (IOException e) {
+    			throw new SchedulerException("Не удалось восстановить напоминания из журнала", e);
+    		}
+    	}
+    	return new Reminder(workingDir + getConfigStorage().getValue(QUARTZ_PROPERTIES, DEFAULT_QUARTZ_PROPERTIES),
+    			SchedulerProfile.valueOf(getConfigStorage().getValue(QUARTZ_PROFILE, DEFAULT_QUARTZ_PROFILE).toUpperCase()),
+    			isClustered() ? new QuartzCluster(Long.parseLong(
+    					config.getValue(CLUSTER_CHECKIN_MILLIS, DEFAULT_CLUSTER_CHECKIN_MILLIS))) : null,
+    			// в кластере пропущенное выполняет экземпляр, первым захвативший триггер, - восстанавливать нечего
+    			isClustered() ? null : new MisfireRecovery(getScheduler(),
+    					Double.parseDouble(config.getValue(MISFIRE_RECOVERY_RATE, DEFAULT_MISFIRE_RECOVERY_RATE)),
+    					Integer.parseInt(config.getValue(MISFIRE_RECOVERY_BACKLOG, DEFAULT_MISFIRE_RECOVERY_BACKLOG)),
+    					(chatId, text) -> getNotifier().accept(chatId, text), getMetrics()),
+    			Integer.parseInt(getConfigStorage().getValue(REMINDER_CACHE_USERS, DEFAULT_REMINDER_CACHE_USERS)),
+    			new JdbcTaskRepository(taskConnections()));
+    }
+    /**
+     * Возвращает true, если экземпляр бота работает в кластере из нескольких экземпляров с общей базой данных
+     * @return Режим кластера
+     */
+    public static boolean isClustered() {
+    	return Boolean.parseBoolean(getConfigStorage().getValue(CLUSTERED, DEFAULT_CLUSTERED));
+    }
+    /**
+     * Возвращает источник соединений хранилища задач согласно конфигурации
+     * @return Источник соединений
+     */
+    public static IConnectionSource taskConnections() {
+    	var config = getConfigStorage();
+    	var url = config.getValue(TASK_DATABASE_URL, null);
+    	if (url != null) {
+    		var user = config.getValue(TASK_DATABASE_USER, null);
+    		var password = config.getValue(TASK_DATABASE_PASSWORD, null);
+    		return () -> DriverManager.getConnection(url, user, password);
+    	}
+    	// источник данных Quartz регистрируется при создании планировщика, т.е. до первого обращения к хранилищу
+    	var dataSource = config.getValue(TASK_DATA_SOURCE, DEFAULT_TASK_DATA_SOURCE);
+    	return () -> DBConnectionManager.getInstance().getConnection(dataSource);
+    }
+    /**
+     * Возвращает последовательность запуска бота: фазы, их длительности и результаты
+     * @return Последовательность запуска
+     */
+    public StartupSequence getStartup() {
+    	return startup;
     }
     /**
      * Возвращает объект-хранилище конфигурации приложения. Естественно, хранилище конфигурации - одно на все приложение. Соответственно,
@@ -114,7 +563,11 @@ public class FamilyAssistantBot extends TelegramLongPollingCommandBot {
      */
     public static IConfigStorage getConfigStorage() {
     	if (configStorage == null) {
-    		configStorage = new FileConfigStorage();
+    		synchronized (FamilyAssistantBot.class) {
+    			if (configStorage == null) {
+    				configStorage = new FileConfigStorage();
+    			}
+    		}
     	}
     	return configStorage;
     }
@@ -129,31 +582,130 @@ public class FamilyAssistantBot extends TelegramLongPollingCommandBot {
         return "@bd_FamilyAssistantBot";
     }
     
+    /**
+     * Пачка обновлений, полученная сессией длительного опроса, не обрабатывается последовательно в потоке сессии, а раздается
+     * по очередям чатов исполнителя обновлений. Вызов бот-команды затем проходит обычный путь onUpdateReceived через реестр
+     * команд, остальные обновления передаются бот-команде, найденной маршрутизатором
+     */
+    @Override
+    public void onUpdatesReceived(List<Update> updates) {
+    	for (Update update : updates) {
+    		if (!submitUpdate(update)) {
+    			System.out.println("Очередь обновлений переполнена, обновление " + update.getUpdateId() + " отброшено");
+    		}
+    	}
+    }
+    /**
+     * Ставит обновление в очередь его чата у исполнителя обновлений. Через этот метод проходят обновления, полученные как
+     * длительным опросом, так и через webhook. Обновления, которые журнал уже видел, отбрасываются
+     * @param update Обновление
+     * @return false, если очередь переполнена и обновление не принято
+     */
+    public boolean submitUpdate(Update update) {
+    	int updateId = update.getUpdateId();
+    	if (!updateJournal.begin(updateId)) {
+    		// обновление уже обработано или обрабатывается: для Telegram оно принято
+    		duplicateUpdates.inc();
+    		return true;
+    	}
+    	long submittedAt = System.nanoTime();
+    	boolean accepted = updateExecutor.submit(update, () -> {
+    		long startedAt = System.nanoTime();
+    		queueLatency.observeNanos(startedAt - submittedAt);
+    		try {
+    			if (update.hasMessage() && update.getMessage().isCommand()) {
+    				var histogram = handlingLatencyOf(commandIdentifier(update));
+    				try {
+    					onUpdateReceived(update);
+    				} finally {
+    					histogram.observeSince(startedAt);
+    				}
+    			} else {
+    				// обновление маршрутизируется один раз: найденная бот-команда выбирает гистограмму и обрабатывает обновление
+    				var c = callbackRouter.route(update);
+    				var histogram = handlingLatencyOf(c == null ? null : c.getCommandIdentifier());
+    				try {
+    					answer(update, c);
+    				} finally {
+    					histogram.observeSince(startedAt);
+    				}
+    			}
+    		} finally {
+    			updateJournal.complete(updateId);
+    		}
+    	});
+    	if (!accepted) {
+    		rejectedUpdates.inc();
+    		updateJournal.abort(updateId);
+    	}
+    	return accepted;
+    }
+    
+    @Override
+    public void onClosing() {
+    	super.onClosing();
+    	try {
+			updateExecutor.shutdown(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+    	flushUpdateJournal();
+    	closeReminder();
+    	try {
+    		azbykaRu.close();
+    	} catch (IOException e) {
+    		System.out.println(e.getMessage());
+    		e.printStackTrace();
+    	}
+    	notifier.flushAll();
+    	messageSender.shutdown();
+    }
+    /**
+     * Закрывает планировщик задач, если он это умеет: WheelReminder при закрытии пишет снимок напоминаний
+     */
+    protected void closeReminder() {
+    	var current = reminder;
+    	if (current == null || !current.isDone() || current.isCompletedExceptionally()) {
+    		return;
+    	}
+    	if (current.join() instanceof Closeable closeable) {
+    		try {
+    			closeable.close();
+    		} catch (IOException e) {
+    			System.out.println(e.getMessage());
+    			e.printStackTrace();
+    		}
+    	}
+    }
+    
     @Override
     public void processNonCommandUpdate(Update update) {
-		try {
-			/**
-			 * Основная работа приложения происходит через этот метод. Метод позволяет организовать диалог с пользователем посредством
-			 * использования объектов команд с методом-перехватчиком "некомандных" обновлений, т.е. - обновлений, которые не представляют
-			 * собой вызов команды бота типа "/command" или "/command@botname". Такой диалог начинается после вызова команды, когда
-			 * отдельный управляющий объект, которому команда делегирует обработку запросов, или сам объект бот-команды обрабатывают
-			 * запросы обратного вызова (CallbackQuery)
-			 */
-			for (ICallbackHandlerCommand c : handleableCommandList) {
-				if (c.catched(update)) { // если объект бот-команды сообщает через метод-перехватчик, что данное обновление содержит 
-					// запрос обратного вызова, который он ожидает и готов обработать, то управление передается методу бот-команды,
-					// который это обновление обрабатывает (самостоятельно, или - делегируя) и возвращает результат, содержащий ответное
-					// сообщение
-					SendMessage answer = c.getAnswer(update);
-					if (!answer.getText().isBlank()) { // если сообщение вернулось непустое, то бот выполняет соответстующий метод (SendMessage)
-						// (согласно терминологии, принятой разработчиком данной библиотеки для telegram bot API)
-						execute(answer);
-					}
-				}
+		/**
+		 * Основная работа приложения происходит через этот метод. Метод позволяет организовать диалог с пользователем посредством
+		 * использования объектов команд с методом-перехватчиком "некомандных" обновлений, т.е. - обновлений, которые не представляют
+		 * собой вызов команды бота типа "/command" или "/command@botname". Такой диалог начинается после вызова команды, когда
+		 * отдельный управляющий объект, которому команда делегирует обработку запросов, или сам объект бот-команды обрабатывают
+		 * запросы обратного вызова (CallbackQuery)
+		 */
+		answer(update, callbackRouter.route(update));
+    }
+    /**
+     * Передает "некомандное" обновление бот-команде, найденной маршрутизатором, и ставит ее ответ в очередь исходящих
+     * @param update Обновление
+     * @param c Бот-команда, или null, если обновление не относится ни к одному активному диалогу
+     */
+    protected void answer(Update update, ICallbackHandlerCommand c) {
+		if (c == null) {
+			callbacksDropped.inc();
+		} else { // если маршрутизатор нашел бот-команду, у которой открыт диалог, к которому относится данное обновление,
+			// то управление передается методу бот-команды, который это обновление обрабатывает (самостоятельно, или - делегируя)
+			// и возвращает результат, содержащий ответное сообщение
+			callbacksRouted.inc();
+			SendMessage answer = c.getAnswer(update);
+			if (!answer.getText().isBlank()) { // если сообщение вернулось непустое, то оно ставится в очередь конвейера исходящих
+				// сообщений, который выполняет соответстующий метод (SendMessage) с соблюдением ограничений частоты отправки
+				messageSender.send(answer);
 			}
-		} catch (TelegramApiException e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
 		}
     }
     
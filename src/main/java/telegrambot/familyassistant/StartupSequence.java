@@ -0,0 +1,131 @@
+package telegrambot.familyassistant;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import telegrambot.metrics.MetricsRegistry;
+
+/**
+ * Последовательность запуска приложения, разбитая на фазы. Независимые фазы (подключение Quartz к базе данных, восстановление
+ * расписаний AzbykaRu) выполняются параллельно в собственных потоках, а бот начинает принимать обновления, не дожидаясь их:
+ * код, которому нужен результат фазы, ждет только его. Длительность каждой фазы записывается в метрики и выводится в отчет
+ * @author borodatyidrug
+ *
+ */
+public class StartupSequence {
+
+	/**
+	 * Завершенная фаза: имя и длительность
+	 */
+	protected static class Phase {
+
+		protected final String name;
+		protected final long nanos;
+		protected final boolean failed;
+
+		protected Phase(String name, long nanos, boolean failed) {
+			this.name = name;
+			this.nanos = nanos;
+			this.failed = failed;
+		}
+	}
+
+	protected final long startedAt;
+	protected final MetricsRegistry metrics;
+	protected final List<Phase> completed;
+	protected final List<CompletableFuture<?>> running;
+
+	/**
+	 * Создает последовательность запуска. Отсчет времени запуска начинается с этого момента
+	 * @param metrics Реестр метрик, в котором регистрируются длительности фаз
+	 */
+	public StartupSequence(MetricsRegistry metrics) {
+		this.startedAt = System.nanoTime();
+		this.metrics = metrics;
+		this.completed = new CopyOnWriteArrayList<>();
+		this.running = new CopyOnWriteArrayList<>();
+	}
+	/**
+	 * Выполняет фазу в вызывающем потоке
+	 * @param name Имя фазы
+	 * @param action Действие
+	 */
+	public void run(String name, Runnable action) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			action.run();
+			failed = false;
+		} finally {
+			record(name, System.nanoTime() - start, failed);
+		}
+	}
+	/**
+	 * Запускает фазу в отдельном потоке и сразу возвращает управление
+	 * @param <T> Тип результата фазы
+	 * @param name Имя фазы
+	 * @param action Действие
+	 * @return Результат фазы, который будет получен по ее завершении
+	 */
+	public <T> CompletableFuture<T> start(String name, Callable<T> action) {
+		CompletableFuture<T> result = CompletableFuture.supplyAsync(() -> {
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				T value = action.call();
+				failed = false;
+				return value;
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			} finally {
+				record(name, System.nanoTime() - start, failed);
+			}
+		}, r -> {
+			Thread thread = new Thread(r, "startup-" + name);
+			thread.setDaemon(true);
+			thread.start();
+		});
+		running.add(result);
+		return result;
+	}
+
+	protected void record(String name, long nanos, boolean failed) {
+		completed.add(new Phase(name, nanos, failed));
+		metrics.gauge("bot_startup_phase_seconds", "Длительность фазы запуска", () -> nanos / 1e9, "phase", name);
+	}
+	/**
+	 * Возвращает результат, который будет получен, когда завершатся все запущенные к этому моменту фазы
+	 * @return Результат
+	 */
+	public CompletableFuture<Void> whenAll() {
+		return CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0]));
+	}
+	/**
+	 * Возвращает время, прошедшее с начала запуска
+	 * @return Миллисекунды
+	 */
+	public long elapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+	}
+	/**
+	 * Возвращает отчет о завершенных фазах в порядке их завершения
+	 * @return Текст отчета
+	 */
+	public String report() {
+		var sb = new StringBuilder("Запуск, фазы:");
+		for (var phase : completed) {
+			sb.append("\n  ").append(phase.name).append(": ").append(TimeUnit.NANOSECONDS.toMillis(phase.nanos)).append(" мс");
+			if (phase.failed) {
+				sb.append(" (ошибка)");
+			}
+		}
+		sb.append("\nВсего с начала запуска: ").append(elapsedMillis()).append(" мс");
+		return sb.toString();
+	}
+}
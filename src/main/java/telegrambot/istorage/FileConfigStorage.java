@@ -12,7 +12,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class FileConfigStorage implements IConfigStorage {
 
-	protected Map<String, String> configMap;
+	protected volatile Map<String, String> configMap;
 	protected ObjectMapper mapper;
 	
 	public FileConfigStorage() {
@@ -40,4 +40,13 @@ public class FileConfigStorage implements IConfigStorage {
 		}
 	}
 
+	@Override
+	public String getValue(String key, String defaultValue) {
+		if (configMap != null && configMap.get(key) != null) {
+			return configMap.get(key);
+		} else {
+			return defaultValue;
+		}
+	}
+
 }
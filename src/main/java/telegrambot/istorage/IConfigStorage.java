@@ -36,4 +36,11 @@ public interface IConfigStorage {
      * @throws IllegalArgumentException
      */
     String getValue(String key) throws IllegalArgumentException;
+    /**
+     * Возвращает значение параметра конфигурации по его имени, или значение по-умолчанию, если такого параметра в конфигурации нет
+     * @param key Имя-ключ параметра конфигурации
+     * @param defaultValue Значение по-умолчанию
+     * @return Значение параметра конфигурации
+     */
+    String getValue(String key, String defaultValue);
 }
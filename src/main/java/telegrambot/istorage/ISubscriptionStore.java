@@ -0,0 +1,42 @@
+package telegrambot.istorage;
+
+import java.io.IOException;
+import java.util.Map;
+/**
+ * Интерфейс определяет методы хранилища подписок чатов на рассылку: каждому чату соответствует не больше одной подписки -
+ * мапа с параметрами ее расписания. Чтение - из памяти, изменение сохраняется до возврата из метода
+ * @author borodatyidrug
+ *
+ */
+public interface ISubscriptionStore {
+	/**
+	 * Возвращает подписку чата
+	 * @param chatId Идентификатор чата
+	 * @return Неизменяемая мапа с параметрами подписки, или null, если чат не подписан
+	 */
+	Map<String, String> get(String chatId);
+	/**
+	 * Возвращает все подписки
+	 * @return Мапа: ключ - идентификатор чата, значение - параметры подписки
+	 */
+	Map<String, Map<String, String>> all();
+	/**
+	 * Сохраняет подписку чата, заменяя прежнюю
+	 * @param chatId Идентификатор чата
+	 * @param subscription Параметры подписки
+	 * @throws IOException
+	 */
+	void put(String chatId, Map<String, String> subscription) throws IOException;
+	/**
+	 * Удаляет подписку чата
+	 * @param chatId Идентификатор чата
+	 * @return true - чат был подписан
+	 * @throws IOException
+	 */
+	boolean remove(String chatId) throws IOException;
+	/**
+	 * Возвращает количество подписок
+	 * @return Количество подписок
+	 */
+	int size();
+}
@@ -0,0 +1,151 @@
+package telegrambot.istorage;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import telegrambot.todos.IConnectionSource;
+
+/**
+ * Хранилище подписок в общей базе данных, для режима кластера: подписки переживают смену экземпляра бота, владеющего
+ * потоком обновлений. Подписка - строка таблицы fa_subscriptions с параметрами в JSON. Все подписки читаются в память при
+ * создании хранилища, чтение - из памяти, изменение записывается в базу до возврата из метода. Изменяет подписки только
+ * экземпляр, владеющий потоком обновлений, поэтому прочитанное при его запуске не устаревает
+ * @author borodatyidrug
+ *
+ */
+public class JdbcSubscriptionStore implements ISubscriptionStore {
+
+	protected static final String CREATE = "CREATE TABLE fa_subscriptions ("
+			+ "chat_id VARCHAR(32) NOT NULL PRIMARY KEY, "
+			+ "subscription VARCHAR(1024) NOT NULL)";
+	protected static final String SELECT = "SELECT chat_id, subscription FROM fa_subscriptions";
+	protected static final String INSERT = "INSERT INTO fa_subscriptions (chat_id, subscription) VALUES (?, ?)";
+	protected static final String DELETE = "DELETE FROM fa_subscriptions WHERE chat_id = ?";
+
+	protected final IConnectionSource connections;
+	protected final ObjectMapper mapper;
+	protected final Map<String, Map<String, String>> index;
+
+	/**
+	 * Создает хранилище. Перед использованием таблицу нужно создать методом initialize()
+	 * @param connections Источник соединений с общей базой данных
+	 */
+	public JdbcSubscriptionStore(IConnectionSource connections) {
+		this.connections = connections;
+		this.mapper = new ObjectMapper();
+		this.index = new ConcurrentHashMap<>();
+	}
+	/**
+	 * Создает таблицу, если ее еще нет, и читает подписки
+	 * @return true, если таблица создана этим вызовом, т.е. хранилище - новое
+	 * @throws SQLException
+	 * @throws IOException Если параметры подписки в базе не удалось разобрать
+	 */
+	public boolean initialize() throws SQLException, IOException {
+		boolean created = false;
+		try (Connection connection = connections.getConnection()) {
+			if (!exists(connection)) {
+				try (Statement statement = connection.createStatement()) {
+					statement.execute(CREATE);
+					created = true;
+				} catch (SQLException e) {
+					// таблицу одновременно создал другой экземпляр
+					if (!exists(connection)) {
+						throw e;
+					}
+				}
+			}
+			try (Statement statement = connection.createStatement();
+					ResultSet rows = statement.executeQuery(SELECT)) {
+				while (rows.next()) {
+					index.put(rows.getString("chat_id"), Collections.unmodifiableMap(mapper.readValue(
+							rows.getString("subscription"), new TypeReference<HashMap<String, String>>() {})));
+				}
+			}
+		}
+		return created;
+	}
+
+	protected static boolean exists(Connection connection) {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeQuery("SELECT 1 FROM fa_subscriptions WHERE 1 = 0").close();
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public Map<String, String> get(String chatId) {
+		return index.get(chatId);
+	}
+
+	@Override
+	public Map<String, Map<String, String>> all() {
+		return Collections.unmodifiableMap(index);
+	}
+
+	@Override
+	public synchronized void put(String chatId, Map<String, String> subscription) throws IOException {
+		String json;
+		try {
+			json = mapper.writeValueAsString(subscription);
+		} catch (JsonProcessingException e) {
+			throw new IOException("Не удалось записать подписку чата " + chatId, e);
+		}
+		try (Connection connection = connections.getConnection()) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try (PreparedStatement delete = connection.prepareStatement(DELETE);
+					PreparedStatement insert = connection.prepareStatement(INSERT)) {
+				delete.setString(1, chatId);
+				delete.executeUpdate();
+				insert.setString(1, chatId);
+				insert.setString(2, json);
+				insert.executeUpdate();
+				connection.commit();
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		} catch (SQLException e) {
+			throw new IOException("Не удалось сохранить подписку чата " + chatId, e);
+		}
+		index.put(chatId, Collections.unmodifiableMap(new HashMap<>(subscription)));
+	}
+
+	@Override
+	public synchronized boolean remove(String chatId) throws IOException {
+		if (!index.containsKey(chatId)) {
+			return false;
+		}
+		try (Connection connection = connections.getConnection();
+				PreparedStatement delete = connection.prepareStatement(DELETE)) {
+			delete.setString(1, chatId);
+			delete.executeUpdate();
+		} catch (SQLException e) {
+			throw new IOException("Не удалось удалить подписку чата " + chatId, e);
+		}
+		index.remove(chatId);
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+}
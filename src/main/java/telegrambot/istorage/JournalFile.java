@@ -0,0 +1,203 @@
+package telegrambot.istorage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Файл журнала из строк JSON, открытый на дозапись. Общий для журналов подписок и напоминаний. Помнит длину файла до конца
+ * последней целой строки: если запись оборвалась на середине строки, то обрывок отрезается, иначе следующая запись
+ * склеилась бы с ним, и чтение журнала при запуске оборвалось бы на этой строке, потеряв все последующие записи
+ * @author borodatyidrug
+ *
+ */
+public class JournalFile implements Closeable {
+
+	protected final FileOutputStream out;
+	/**
+	 * Длина файла до конца последней целой строки
+	 */
+	protected long length;
+	/**
+	 * Запись оборвалась, и обрывок еще не удалось отрезать: его нужно отрезать перед следующей записью
+	 */
+	protected boolean torn;
+
+	/**
+	 * Создает журнал поверх открытого на дозапись файла
+	 * @param out Поток дозаписи в файл журнала
+	 * @param length Длина файла до конца последней целой строки
+	 */
+	public JournalFile(FileOutputStream out, long length) {
+		this.out = out;
+		this.length = length;
+	}
+	/**
+	 * Читает строки журнала и передает их записи по порядку. Чтение останавливается на первой строке, которая не
+	 * разбирается как JSON, - так обрывается журнал при сбое во время записи
+	 * @param file Файл журнала; если его нет, то записей нет
+	 * @param mapper Преобразователь JSON
+	 * @param apply Получатель записей
+	 * @return Длина файла до конца последней целой записи
+	 * @throws IOException
+	 */
+	public static long read(File file, ObjectMapper mapper, Consumer<JsonNode> apply) throws IOException {
+		long valid = 0;
+		if (!file.exists()) {
+			return valid;
+		}
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			byte[] line;
+			long offset = 0;
+			while ((line = readLine(in)) != null) {
+				offset += line.length + 1;
+				JsonNode record;
+				try {
+					record = mapper.readTree(line);
+				} catch (JsonProcessingException e) {
+					System.out.println("Журнал " + file + " обрывается на позиции " + valid + ": " + e.getMessage());
+					break;
+				}
+				valid = offset;
+				apply.accept(record);
+			}
+		}
+		return valid;
+	}
+	/**
+	 * Отрезает от файла журнала недописанный хвост и открывает файл на дозапись
+	 * @param file Файл журнала; если его нет, то он создается
+	 * @param valid Длина файла до конца последней целой записи, которую вернул read()
+	 * @return Журнал
+	 * @throws IOException
+	 */
+	public static JournalFile open(File file, long valid) throws IOException {
+		if (file.exists()) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				if (raf.length() > valid) {
+					raf.setLength(valid);
+				}
+			}
+		}
+		return new JournalFile(new FileOutputStream(file, true), valid);
+	}
+	/**
+	 * Создает пустой журнал, а если файл уже есть - очищает его, и сбрасывает файл на диск
+	 * @param file Файл журнала
+	 * @return Журнал
+	 * @throws IOException
+	 */
+	public static JournalFile create(File file) throws IOException {
+		var out = new FileOutputStream(file, false);
+		try {
+			out.getChannel().force(true);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		return new JournalFile(out, 0);
+	}
+	/**
+	 * Дописывает строки в журнал одной записью в файл: при сбое бота они либо дописаны, либо обрываются и отбрасываются при
+	 * чтении. Если записать не удалось, то файл обрезается до конца предыдущих строк
+	 * @param lines Строки, каждая заканчивается '\n'
+	 * @param force Сбросить ли строки на диск до возврата
+	 * @throws IOException
+	 */
+	public void append(ByteArrayOutputStream lines, boolean force) throws IOException {
+		if (torn) {
+			cutTail();
+		}
+		try {
+			lines.writeTo(out);
+			if (force) {
+				force();
+			}
+		} catch (IOException e) {
+			torn = true;
+			try {
+				cutTail();
+			} catch (IOException e1) {
+				e.addSuppressed(e1);
+			}
+			throw e;
+		}
+		length += lines.size();
+	}
+	/**
+	 * Отрезает от файла все, что записано после последней целой строки
+	 * @throws IOException
+	 */
+	protected void cutTail() throws IOException {
+		var channel = out.getChannel();
+		if (channel.size() > length) {
+			channel.truncate(length);
+			channel.force(true);
+		}
+		torn = false;
+	}
+	/**
+	 * Сбрасывает на диск дописанные строки
+	 * @throws IOException
+	 */
+	public void force() throws IOException {
+		out.getChannel().force(false);
+	}
+	/**
+	 * Возвращает длину журнала до конца последней целой строки
+	 * @return Длина в байтах
+	 */
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+	/**
+	 * Сбрасывает на диск каталог, чтобы переименование файла в нем пережило сбой питания. Если каталог нельзя открыть как
+	 * файл (так в Windows), то сброс пропускается
+	 * @param dir Каталог
+	 * @throws IOException Если каталог открыт, но сбросить его не удалось
+	 */
+	public static void syncDirectory(File dir) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try (channel) {
+			channel.force(true);
+		}
+	}
+	/**
+	 * Читает строку до '\n'
+	 * @return Байты строки без '\n'; у недописанной последней строки '\n' нет, и она не засчитывается; null в конце файла
+	 */
+	public static byte[] readLine(InputStream in) throws IOException {
+		var line = new ByteArrayOutputStream(256);
+		int b;
+		while ((b = in.read()) != -1) {
+			if (b == '\n') {
+				return line.toByteArray();
+			}
+			line.write(b);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,404 @@
+package telegrambot.istorage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Хранилище подписок в виде журнала. Подписки читаются из мапы в памяти, а каждое изменение дописывается в конец журнала
+ * строкой JSON (событие start или stop с порядковым номером seq), так что стоимость записи не зависит от числа подписок.
+ * Журнал состоит из сегментов subscriptions.N.log. Когда записей после прошлого снимка становится не меньше, чем подписок
+ * (и не меньше compactMin), журнал переходит на новый сегмент, а снимок всех подписок пишется в фоне: рядом, со сбросом на
+ * диск, с атомарной заменой прежнего. Только после этого удаляются сегменты, которые он покрывает. При запуске читается
+ * снимок, а затем сегменты по порядку - записи с номерами больше номера снимка, поэтому сбой на любом шаге сжатия ничего не
+ * теряет и не повторяет. Недописанная при сбое последняя строка журнала отбрасывается. Когда изменение сбрасывается на
+ * диск, определяет FsyncPolicy
+ * @author borodatyidrug
+ *
+ */
+public class JournaledSubscriptionStore implements ISubscriptionStore, Closeable {
+
+	/**
+	 * Когда изменения сбрасываются на диск
+	 */
+	public enum FsyncPolicy {
+		/**
+		 * До возврата из метода изменения: изменение не теряется при сбое питания
+		 */
+		ALWAYS,
+		/**
+		 * В фоне, раз в fsyncMillis: при сбое питания теряются изменения последнего интервала
+		 */
+		INTERVAL,
+		/**
+		 * Когда решит операционная система: изменение переживает сбой бота, но не сбой питания
+		 */
+		NEVER
+	}
+
+	public static final String SNAPSHOT_FILE = "subscriptions.snapshot";
+	public static final int DEFAULT_COMPACT_MIN = 1000;
+	public static final long DEFAULT_FSYNC_MILLIS = 1000;
+	protected static final String SEGMENT_PREFIX = "subscriptions.";
+	protected static final String SEGMENT_SUFFIX = ".log";
+	protected static final String SEQ = "seq";
+	protected static final String OP = "op";
+	protected static final String OP_START = "start";
+	protected static final String OP_STOP = "stop";
+	protected static final String CHAT = "chat";
+	protected static final String SUBSCRIPTION = "subscription";
+
+	protected final File dir;
+	protected final File snapshotFile;
+	protected final ObjectMapper mapper;
+	protected final FsyncPolicy policy;
+	protected final int compactMin;
+	protected final Map<String, Map<String, String>> index;
+	protected final ScheduledExecutorService background;
+	/**
+	 * Текущий сегмент журнала
+	 */
+	protected JournalFile log;
+	/**
+	 * Номер текущего сегмента журнала
+	 */
+	protected long segment;
+	protected long seq;
+	protected int sinceSnapshot;
+	protected boolean dirty;
+	protected boolean compacting;
+
+	/**
+	 * Создает хранилище и восстанавливает подписки из снимка и журнала. Если их еще нет, то подписки переносятся из файла
+	 * legacy, в который прежние версии записывали все подписки целиком
+	 * @param dir Каталог журнала и снимка
+	 * @param legacy Файл с подписками прежних версий (JSON-мапа: идентификатор чата - параметры подписки), или null
+	 * @param policy Когда изменения сбрасываются на диск
+	 * @param fsyncMillis Интервал сброса на диск для FsyncPolicy.INTERVAL
+	 * @param compactMin Меньше стольких записей после прошлого снимка журнал не сжимается
+	 * @throws IOException Если журнал или снимок не удалось прочитать
+	 */
+	public JournaledSubscriptionStore(File dir, File legacy, FsyncPolicy policy, long fsyncMillis, int compactMin)
+			throws IOException {
+		dir.mkdirs();
+		this.dir = dir;
+		this.snapshotFile = new File(dir, SNAPSHOT_FILE);
+		this.mapper = new ObjectMapper();
+		this.policy = policy;
+		this.compactMin = compactMin;
+		this.index = new ConcurrentHashMap<>();
+		this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "subscription-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long started = System.nanoTime();
+		synchronized (this) {
+			boolean found = replay();
+			if (!found && legacy != null && legacy.exists() && legacy.length() > 0) {
+				importLegacy(legacy);
+			}
+		}
+		System.out.println("Подписки восстановлены из " + dir + ": " + index.size() + " за "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " мс");
+		if (policy == FsyncPolicy.INTERVAL) {
+			background.scheduleWithFixedDelay(this::sync, fsyncMillis, fsyncMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public Map<String, String> get(String chatId) {
+		return index.get(chatId);
+	}
+
+	@Override
+	public Map<String, Map<String, String>> all() {
+		return Collections.unmodifiableMap(index);
+	}
+
+	@Override
+	public synchronized void put(String chatId, Map<String, String> subscription) throws IOException {
+		var record = mapper.createObjectNode();
+		record.put(OP, OP_START);
+		record.put(CHAT, chatId);
+		record.set(SUBSCRIPTION, mapper.valueToTree(subscription));
+		append(record);
+		index.put(chatId, Collections.unmodifiableMap(new HashMap<>(subscription)));
+		compactIfDue();
+	}
+
+	@Override
+	public synchronized boolean remove(String chatId) throws IOException {
+		if (!index.containsKey(chatId)) {
+			return false;
+		}
+		var record = mapper.createObjectNode();
+		record.put(OP, OP_STOP);
+		record.put(CHAT, chatId);
+		append(record);
+		index.remove(chatId);
+		compactIfDue();
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+	/**
+	 * Читает снимок и сегменты журнала и открывает последний сегмент для записи
+	 * @return true - снимок или журнал были
+	 * @throws IOException
+	 */
+	protected boolean replay() throws IOException {
+		long snapshotSeq = 0;
+		boolean found = false;
+		if (snapshotFile.exists()) {
+			found = true;
+			try (InputStream in = new BufferedInputStream(new FileInputStream(snapshotFile))) {
+				byte[] line;
+				boolean header = true;
+				while ((line = JournalFile.readLine(in)) != null) {
+					var record = mapper.readTree(line);
+					if (header) {
+						snapshotSeq = record.path(SEQ).asLong();
+						header = false;
+					} else {
+						apply(record);
+					}
+				}
+			}
+		}
+		seq = snapshotSeq;
+		long covered = snapshotSeq;
+		var segments = segments();
+		long valid = 0;
+		for (var number : segments) {
+			found = true;
+			valid = JournalFile.read(segmentFile(number), mapper, record -> {
+				long recordSeq = record.path(SEQ).asLong();
+				if (recordSeq > covered) {
+					apply(record);
+					seq = Math.max(seq, recordSeq);
+					sinceSnapshot++;
+				}
+			});
+		}
+		// недописанный хвост отрезается только у последнего сегмента: в него журнал пишется дальше
+		segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+		log = JournalFile.open(segmentFile(segment), valid);
+		return found;
+	}
+	/**
+	 * Применяет запись журнала или снимка к мапе подписок
+	 * @param record Запись
+	 */
+	protected void apply(JsonNode record) {
+		var chatId = record.path(CHAT).asText();
+		if (OP_STOP.equals(record.path(OP).asText())) {
+			index.remove(chatId);
+		} else {
+			Map<String, String> subscription = mapper.convertValue(record.path(SUBSCRIPTION),
+					new TypeReference<Map<String, String>>() {});
+			index.put(chatId, Collections.unmodifiableMap(subscription));
+		}
+	}
+	/**
+	 * Переносит подписки из файла прежних версий и сразу пишет их снимок. Файл переименовывается: дальше подписки хранятся
+	 * только в журнале
+	 * @param legacy Файл с подписками прежних версий
+	 * @throws IOException
+	 */
+	protected void importLegacy(File legacy) throws IOException {
+		Map<String, Map<String, String>> subscriptions = mapper.readValue(legacy,
+				new TypeReference<Map<String, Map<String, String>>>() {});
+		for (var entry : subscriptions.entrySet()) {
+			index.put(entry.getKey(), Collections.unmodifiableMap(new HashMap<>(entry.getValue())));
+		}
+		writeSnapshot(seq, segment);
+		Files.move(legacy.toPath(), new File(legacy.getPath() + ".imported").toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	/**
+	 * Дописывает запись в текущий сегмент журнала и, если этого требует FsyncPolicy, сбрасывает ее на диск. Если записать
+	 * не удалось, то сегмент обрезается до конца предыдущей записи
+	 * @param record Запись; номер seq проставляется журналом
+	 * @throws IOException
+	 */
+	protected void append(ObjectNode record) throws IOException {
+		record.put(SEQ, seq + 1);
+		var bytes = new ByteArrayOutputStream(256);
+		bytes.write(mapper.writeValueAsBytes(record));
+		bytes.write('\n');
+		log.append(bytes, policy == FsyncPolicy.ALWAYS);
+		if (policy != FsyncPolicy.ALWAYS) {
+			dirty = true;
+		}
+		seq++;
+		sinceSnapshot++;
+	}
+	/**
+	 * Если записей после прошлого снимка набралось не меньше, чем подписок, то переводит журнал на новый сегмент и
+	 * запускает запись снимка в фоне. Вызывается под блокировкой хранилища, после изменения мапы подписок
+	 * @throws IOException
+	 */
+	protected void compactIfDue() throws IOException {
+		if (compacting || sinceSnapshot < Math.max(compactMin, index.size())) {
+			return;
+		}
+		// сегменты до нового - все записи с номерами не больше seq - покроет снимок
+		sync();
+		log.close();
+		long covered = seq;
+		segment++;
+		log = JournalFile.open(segmentFile(segment), 0);
+		sinceSnapshot = 0;
+		compacting = true;
+		long upTo = segment;
+		try {
+			background.execute(() -> compact(covered, upTo));
+		} catch (RuntimeException e) {
+			// хранилище закрывается: прежние сегменты останутся до следующего запуска
+			compacting = false;
+		}
+	}
+	/**
+	 * Пишет снимок и удаляет покрытые им сегменты. Выполняется в фоне, пока журнал пишется в новый сегмент. Мапа подписок
+	 * читается без блокировки, поэтому в снимок могут попасть и более поздние изменения; они же есть в новом сегменте с
+	 * номерами больше covered, и их повторное применение при чтении дает то же состояние
+	 * @param covered Номер последней записи, которую покрывает снимок
+	 * @param upTo Сегменты с меньшими номерами удаляются
+	 */
+	protected void compact(long covered, long upTo) {
+		try {
+			writeSnapshot(covered, upTo);
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Не удалось сжать журнал подписок " + dir + ": " + e.getMessage());
+			e.printStackTrace();
+		} finally {
+			synchronized (this) {
+				compacting = false;
+			}
+		}
+	}
+	/**
+	 * Пишет снимок всех подписок рядом, сбрасывает его на диск, атомарно заменяет им прежний и удаляет покрытые сегменты.
+	 * Сегменты удаляются только после сброса на диск каталога: до этого после сбоя питания в каталоге мог бы оказаться
+	 * прежний снимок, но уже без сегментов
+	 * @param covered Номер последней записи, которую покрывает снимок
+	 * @param upTo Сегменты с меньшими номерами удаляются
+	 * @throws IOException
+	 */
+	protected void writeSnapshot(long covered, long upTo) throws IOException {
+		var header = mapper.createObjectNode();
+		header.put(SEQ, covered);
+		var temp = new File(snapshotFile.getPath() + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(temp);
+				BufferedOutputStream out = new BufferedOutputStream(fos, 1 << 16)) {
+			out.write(mapper.writeValueAsBytes(header));
+			out.write('\n');
+			for (var entry : index.entrySet()) {
+				var record = mapper.createObjectNode();
+				record.put(OP, OP_START);
+				record.put(CHAT, entry.getKey());
+				record.set(SUBSCRIPTION, mapper.valueToTree(entry.getValue()));
+				out.write(mapper.writeValueAsBytes(record));
+				out.write('\n');
+			}
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		JournalFile.syncDirectory(dir);
+		for (var number : segments()) {
+			if (number < upTo) {
+				segmentFile(number).delete();
+			}
+		}
+	}
+	/**
+	 * Сбрасывает на диск записи, которые еще не сброшены
+	 */
+	protected synchronized void sync() {
+		if (!dirty) {
+			return;
+		}
+		try {
+			log.force();
+			dirty = false;
+		} catch (IOException e) {
+			System.out.println("Не удалось сбросить журнал подписок на диск: " + e.getMessage());
+		}
+	}
+	/**
+	 * Возвращает номера сегментов журнала по возрастанию
+	 * @return Номера сегментов
+	 */
+	protected List<Long> segments() {
+		List<Long> numbers = new ArrayList<>();
+		var files = dir.listFiles();
+		if (files == null) {
+			return numbers;
+		}
+		for (var file : files) {
+			var name = file.getName();
+			if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+				try {
+					numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// чужой файл
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	protected File segmentFile(long number) {
+		return new File(dir, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+	}
+	/**
+	 * Возвращает число записей журнала после последнего снимка
+	 * @return Число записей
+	 */
+	public synchronized int sinceSnapshot() {
+		return sinceSnapshot;
+	}
+	/**
+	 * Сбрасывает журнал на диск, дожидается идущего сжатия и закрывает журнал
+	 */
+	@Override
+	public void close() throws IOException {
+		background.shutdown();
+		try {
+			background.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			sync();
+			log.close();
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package telegrambot.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Монотонно растущий счетчик. Увеличение - без блокировок: LongAdder распределяет запись по ячейкам, поэтому потоки,
+ * одновременно увеличивающие один счетчик, не конкурируют за одну строку кэша
+ * @author borodatyidrug
+ *
+ */
+public class Counter {
+
+	protected final LongAdder value = new LongAdder();
+
+	public void inc() {
+		value.increment();
+	}
+
+	public void add(long n) {
+		value.add(n);
+	}
+
+	public long get() {
+		return value.sum();
+	}
+}
@@ -0,0 +1,75 @@
+package telegrambot.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей с фиксированными границами корзин. Запись - без блокировок и без выделения памяти: поиск
+ * корзины и увеличение двух LongAdder. Корзины хранятся не накопительно, накопительные значения для формата Prometheus
+ * считаются при чтении
+ * @author borodatyidrug
+ *
+ */
+public class Histogram {
+
+	/**
+	 * Границы корзин по-умолчанию в секундах: от миллисекунды до десяти секунд
+	 */
+	public static final double[] DEFAULT_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+	protected final double[] bounds;
+	protected final long[] boundsNanos;
+	/**
+	 * Последняя корзина - для значений больше всех границ (+Inf)
+	 */
+	protected final LongAdder[] buckets;
+	protected final LongAdder sumNanos;
+
+	/**
+	 * Создает гистограмму
+	 * @param bounds Верхние границы корзин в секундах, по возрастанию
+	 */
+	public Histogram(double[] bounds) {
+		this.bounds = bounds.clone();
+		this.boundsNanos = new long[bounds.length];
+		for (int i = 0; i < bounds.length; i++) {
+			boundsNanos[i] = (long) (bounds[i] * 1e9);
+		}
+		this.buckets = new LongAdder[bounds.length + 1];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+		this.sumNanos = new LongAdder();
+	}
+	/**
+	 * Учитывает одно значение
+	 * @param nanos Длительность в наносекундах
+	 */
+	public void observeNanos(long nanos) {
+		int i = 0;
+		while (i < boundsNanos.length && nanos > boundsNanos[i]) {
+			i++;
+		}
+		buckets[i].increment();
+		sumNanos.add(nanos);
+	}
+
+	public void observe(long duration, TimeUnit unit) {
+		observeNanos(unit.toNanos(duration));
+	}
+	/**
+	 * Учитывает время, прошедшее с момента start
+	 * @param start Момент начала, полученный System.nanoTime()
+	 */
+	public void observeSince(long start) {
+		observeNanos(System.nanoTime() - start);
+	}
+
+	public long count() {
+		long count = 0;
+		for (var bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,157 @@
+package telegrambot.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Реестр метрик приложения. Метрики регистрируются один раз (при создании компонентов), а затем компоненты работают
+ * с полученными объектами Counter и Histogram напрямую, не обращаясь к реестру. Поэтому блокировка реестра нужна только
+ * при регистрации и при выгрузке в текстовом формате Prometheus
+ * @author borodatyidrug
+ *
+ */
+public class MetricsRegistry {
+
+	/**
+	 * Семейство метрик с одним именем и разными значениями меток
+	 */
+	protected static class Family {
+
+		protected final String name;
+		protected final String help;
+		protected final String type;
+		protected final Map<String, Object> children;
+
+		protected Family(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.children = new LinkedHashMap<>();
+		}
+	}
+
+	protected final Map<String, Family> families;
+
+	public MetricsRegistry() {
+		families = new LinkedHashMap<>();
+	}
+	/**
+	 * Возвращает счетчик с заданным именем и метками, создавая его при первом обращении
+	 * @param name Имя метрики
+	 * @param help Описание метрики
+	 * @param labels Пары "имя метки", "значение метки"
+	 * @return Счетчик
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter) child(name, help, "counter", labels, Counter::new);
+	}
+	/**
+	 * Возвращает гистограмму длительностей с границами корзин по-умолчанию
+	 * @param name Имя метрики, по соглашению Prometheus - с суффиксом _seconds
+	 * @param help Описание метрики
+	 * @param labels Пары "имя метки", "значение метки"
+	 * @return Гистограмма
+	 */
+	public Histogram histogram(String name, String help, String... labels) {
+		return histogram(name, help, Histogram.DEFAULT_BUCKETS, labels);
+	}
+
+	public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+		return (Histogram) child(name, help, "histogram", labels, () -> new Histogram(buckets));
+	}
+	/**
+	 * Регистрирует показатель, значение которого считывается в момент выгрузки
+	 * @param name Имя метрики
+	 * @param help Описание метрики
+	 * @param value Источник значения
+	 * @param labels Пары "имя метки", "значение метки"
+	 */
+	public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+		child(name, help, "gauge", labels, () -> value);
+	}
+
+	protected synchronized Object child(String name, String help, String type, String[] labels,
+			Supplier<Object> factory) {
+		var family = families.computeIfAbsent(name, k -> new Family(name, help, type));
+		if (!family.type.equals(type)) {
+			throw new IllegalArgumentException("Метрика " + name + " уже зарегистрирована с типом " + family.type);
+		}
+		return family.children.computeIfAbsent(formatLabels(labels), k -> factory.get());
+	}
+
+	protected static String formatLabels(String[] labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Метки задаются парами: имя, значение");
+		}
+		if (labels.length == 0) {
+			return "";
+		}
+		var sb = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			sb.append(i == 0 ? "" : ",").append(labels[i]).append("=\"")
+					.append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+		}
+		return sb.toString();
+	}
+	/**
+	 * Выгружает все метрики в текстовом формате Prometheus (text/plain; version=0.0.4)
+	 * @return Текст выгрузки
+	 */
+	public String scrape() {
+		List<Family> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<>(families.values());
+		}
+		var sb = new StringBuilder(4096);
+		for (var family : snapshot) {
+			List<Map.Entry<String, Object>> children;
+			synchronized (this) {
+				children = new ArrayList<>(family.children.entrySet());
+			}
+			sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+			for (var child : children) {
+				var labels = child.getKey();
+				var metric = child.getValue();
+				if (metric instanceof Counter) {
+					sample(sb, family.name, labels, ((Counter) metric).get());
+				} else if (metric instanceof DoubleSupplier) {
+					sample(sb, family.name, labels, ((DoubleSupplier) metric).getAsDouble());
+				} else {
+					writeHistogram(sb, family.name, labels, (Histogram) metric);
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	protected void writeHistogram(StringBuilder sb, String name, String labels, Histogram histogram) {
+		var prefix = labels.isEmpty() ? "" : labels + ",";
+		long cumulative = 0;
+		for (int i = 0; i < histogram.buckets.length; i++) {
+			cumulative += histogram.buckets[i].sum();
+			var le = i < histogram.bounds.length ? Double.toString(histogram.bounds[i]) : "+Inf";
+			sample(sb, name + "_bucket", prefix + "le=\"" + le + "\"", cumulative);
+		}
+		sample(sb, name + "_sum", labels, histogram.sumNanos.sum() / 1e9);
+		sample(sb, name + "_count", labels, cumulative);
+	}
+
+	protected void sample(StringBuilder sb, String name, String labels, double value) {
+		sb.append(name);
+		if (!labels.isEmpty()) {
+			sb.append('{').append(labels).append('}');
+		}
+		sb.append(' ');
+		if (value == Math.rint(value) && !Double.isInfinite(value)) {
+			sb.append((long) value);
+		} else {
+			sb.append(value);
+		}
+		sb.append('\n');
+	}
+}
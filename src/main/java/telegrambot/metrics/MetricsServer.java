@@ -0,0 +1,59 @@
+package telegrambot.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Небольшой HTTP-сервер, отдающий метрики по адресу /metrics в текстовом формате Prometheus. Запросы обрабатываются
+ * одним потоком сервера: выгрузка редкая и дешевая
+ * @author borodatyidrug
+ *
+ */
+public class MetricsServer {
+
+	protected static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	protected final HttpServer server;
+	protected final MetricsRegistry registry;
+
+	/**
+	 * Создает сервер. Сервер не принимает запросы до вызова start()
+	 * @param host Адрес, на котором сервер принимает запросы. Обычно - 127.0.0.1, чтобы метрики не были видны извне
+	 * @param port Порт
+	 * @param registry Реестр метрик
+	 * @throws IOException Если порт занят
+	 */
+	public MetricsServer(String host, int port, MetricsRegistry registry) throws IOException {
+		this.registry = registry;
+		this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		this.server.createContext("/metrics", this::handle);
+	}
+
+	protected void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			var body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,380 @@
+package telegrambot.outbound;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import telegrambot.metrics.Counter;
+import telegrambot.metrics.Histogram;
+import telegrambot.metrics.MetricsRegistry;
+
+/**
+ * Рассылка одного и того же сообщения подписанным чатам по расписанию. Подписки группируются по моментам срабатывания:
+ * разовые - по моменту, периодические - по периоду и сдвигу внутри периода, так что все подписки группы срабатывают
+ * одновременно. У группы одно задание в планировщике, сколько бы чатов в ней ни было. При срабатывании текст сообщения
+ * собирается один раз на группу и асинхронно: поток планировщика не ждет, например, загрузки страницы. Сообщения передаются
+ * конвейеру исходящих сообщений порциями: в конвейере находится не больше window сообщений рассылки одновременно,
+ * следующее отправляется по завершении предыдущего. Поэтому ни потоки планировщика, ни очередь конвейера рассылкой не
+ * заняты, а ход каждой рассылки виден в ее объекте Broadcast и в метриках
+ * @author borodatyidrug
+ *
+ */
+public class BroadcastScheduler {
+
+	public static final int DEFAULT_WINDOW = 100;
+
+	/**
+	 * Группа подписок с общими моментами срабатывания
+	 */
+	protected class Group implements Runnable {
+
+		protected final String key;
+		/**
+		 * Период повторения в миллисекундах, 0 - разовая группа
+		 */
+		protected final long periodMillis;
+		/**
+		 * Чаты группы и моменты, начиная с которых они получают сообщения
+		 */
+		protected final Map<String, Long> members = new HashMap<>();
+		/**
+		 * Ближайшее срабатывание группы
+		 */
+		protected long nextFire;
+		protected ScheduledFuture<?> future;
+
+		protected Group(String key, long periodMillis, long nextFire) {
+			this.key = key;
+			this.periodMillis = periodMillis;
+			this.nextFire = nextFire;
+		}
+
+		@Override
+		public void run() {
+			List<String> chats = new ArrayList<>();
+			synchronized (BroadcastScheduler.this) {
+				long fire = nextFire;
+				for (var member : members.entrySet()) {
+					// подписка, добавленная в группу после ее срабатывания с более ранним моментом начала, ждет своего
+					if (member.getValue() <= fire) {
+						chats.add(member.getKey());
+					}
+				}
+				if (periodMillis == 0) {
+					for (var chatId : members.keySet()) {
+						byChat.remove(chatId);
+					}
+					groups.remove(key);
+				} else {
+					nextFire += periodMillis;
+				}
+			}
+			if (!chats.isEmpty()) {
+				CompletableFuture<Broadcast> started;
+				try {
+					started = start(key, chats);
+				} catch (RuntimeException e) {
+					// исключение отменило бы все следующие срабатывания периодической группы
+					started = CompletableFuture.failedFuture(e);
+				}
+				started.whenComplete((broadcast, e) -> {
+					if (e != null) {
+						System.out.println("Рассылка " + key + " не начата: " + e.getMessage());
+						e.printStackTrace();
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Одна рассылка: получатели, собранный текст и ход отправки
+	 */
+	public class Broadcast {
+
+		protected final String group;
+		protected final List<String> chats;
+		protected final String text;
+		protected final long started;
+		protected int next;
+		protected final AtomicInteger inFlight = new AtomicInteger();
+		protected final AtomicInteger pumping = new AtomicInteger();
+		protected final AtomicInteger sent = new AtomicInteger();
+		protected final AtomicInteger failed = new AtomicInteger();
+		protected final CompletableFuture<Broadcast> done = new CompletableFuture<>();
+
+		protected Broadcast(String group, List<String> chats, String text) {
+			this.group = group;
+			this.chats = chats;
+			this.text = text;
+			this.started = System.nanoTime();
+		}
+		/**
+		 * Передает конвейеру следующие сообщения, пока их в конвейере меньше window. Вызывается из разных потоков -
+		 * при запуске и по завершении каждой отправки, - но сообщения передает только один поток за раз
+		 */
+		protected void pump() {
+			if (pumping.getAndIncrement() != 0) {
+				return;
+			}
+			do {
+				while (next < chats.size() && inFlight.get() < window) {
+					var chatId = chats.get(next++);
+					inFlight.incrementAndGet();
+					CompletableFuture<?> result;
+					try {
+						result = sender.send(SendMessage.builder()
+								.chatId(chatId)
+								.disableWebPagePreview(Boolean.TRUE)
+								.text(text)
+								.build());
+					} catch (RuntimeException e) {
+						result = CompletableFuture.failedFuture(e);
+					}
+					result.whenComplete((message, e) -> completed(e == null));
+				}
+			} while (pumping.decrementAndGet() != 0);
+		}
+
+		protected void completed(boolean success) {
+			if (success) {
+				sent.incrementAndGet();
+				sentTotal.inc();
+			} else {
+				failed.incrementAndGet();
+				failedTotal.inc();
+			}
+			inFlight.decrementAndGet();
+			if (sent.get() + failed.get() == chats.size()) {
+				finish();
+			} else {
+				pump();
+			}
+		}
+
+		protected void finish() {
+			duration.observeSince(started);
+			active.remove(this);
+			System.out.println("Рассылка " + group + ": отправлено " + sent.get() + " из " + chats.size() + ", ошибок "
+					+ failed.get() + ", за " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started) + " с");
+			done.complete(this);
+		}
+		/**
+		 * Возвращает количество получателей рассылки
+		 * @return Количество чатов
+		 */
+		public int getTotal() {
+			return chats.size();
+		}
+		/**
+		 * Возвращает количество успешно отправленных сообщений
+		 * @return Количество сообщений
+		 */
+		public int getSent() {
+			return sent.get();
+		}
+		/**
+		 * Возвращает количество сообщений, которые не удалось отправить
+		 * @return Количество сообщений
+		 */
+		public int getFailed() {
+			return failed.get();
+		}
+		/**
+		 * Возвращает количество сообщений, отправка которых еще не завершена
+		 * @return Количество сообщений
+		 */
+		public int getRemaining() {
+			return chats.size() - sent.get() - failed.get();
+		}
+		/**
+		 * Возвращает завершение рассылки
+		 * @return Завершается, когда отправка всех сообщений рассылки завершена
+		 */
+		public CompletableFuture<Broadcast> getDone() {
+			return done;
+		}
+	}
+
+	protected final String name;
+	protected final ScheduledExecutorService scheduler;
+	protected final IMessageSender sender;
+	protected final Supplier<CompletableFuture<String>> render;
+	protected final int window;
+	protected final ZoneId zone;
+	protected final Map<String, Group> groups;
+	protected final Map<String, Group> byChat;
+	protected final Set<Broadcast> active;
+	protected final Counter renders;
+	protected final Counter sentTotal;
+	protected final Counter failedTotal;
+	protected final Histogram duration;
+
+	/**
+	 * Создает рассылку
+	 * @param name Имя рассылки в метриках и журнале
+	 * @param scheduler Планировщик, в потоке которого срабатывают группы
+	 * @param sender Конвейер исходящих сообщений
+	 * @param render Начинает сборку текста сообщения; вызывается один раз на срабатывание группы и не должен занимать поток
+	 * планировщика ожиданием
+	 * @param window Сколько сообщений одной рассылки может находиться в конвейере одновременно
+	 * @param metrics Реестр метрик
+	 */
+	public BroadcastScheduler(String name, ScheduledExecutorService scheduler, IMessageSender sender,
+			Supplier<CompletableFuture<String>> render, int window, MetricsRegistry metrics) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("Окно рассылки должно быть положительным");
+		}
+		this.name = name;
+		this.scheduler = scheduler;
+		this.sender = sender;
+		this.render = render;
+		this.window = window;
+		this.zone = ZoneId.systemDefault();
+		this.groups = new HashMap<>();
+		this.byChat = new HashMap<>();
+		this.active = ConcurrentHashMap.newKeySet();
+		this.renders = metrics.counter("broadcast_renders_total", "Сборки текста сообщения рассылки, по одной на срабатывание группы",
+				"broadcast", name);
+		var messages = "broadcast_messages_total";
+		var help = "Сообщения рассылки: отправленные и неотправленные";
+		this.sentTotal = metrics.counter(messages, help, "broadcast", name, "result", "sent");
+		this.failedTotal = metrics.counter(messages, help, "broadcast", name, "result", "failed");
+		this.duration = metrics.histogram("broadcast_seconds", "Длительность рассылки от срабатывания группы до последней отправки",
+				new double[] {1, 5, 15, 60, 300, 900, 1800, 3600}, "broadcast", name);
+		metrics.gauge("broadcast_subscriptions", "Подписанные на рассылку чаты", this::subscriptions, "broadcast", name);
+		metrics.gauge("broadcast_groups", "Группы подписок с общими моментами срабатывания", this::groupCount, "broadcast", name);
+		metrics.gauge("broadcast_remaining", "Сообщения идущих рассылок, отправка которых не завершена", this::remaining,
+				"broadcast", name);
+	}
+	/**
+	 * Подписывает чат на разовую рассылку
+	 * @param chatId Идентификатор чата
+	 * @param when Момент рассылки
+	 */
+	public void subscribeOnce(String chatId, LocalDateTime when) {
+		long at = epochMillis(when);
+		subscribe(chatId, "once@" + when, 0, at);
+	}
+	/**
+	 * Подписывает чат на периодическую рассылку. Если момент первой рассылки уже прошел, то первой будет ближайшая
+	 * предстоящая по расписанию
+	 * @param chatId Идентификатор чата
+	 * @param when Момент первой рассылки
+	 * @param periodHours Период повторения, часы
+	 */
+	public void subscribeRepeating(String chatId, LocalDateTime when, long periodHours) {
+		long period = TimeUnit.HOURS.toMillis(periodHours);
+		if (period <= 0) {
+			throw new IllegalArgumentException("Период рассылки должен быть положительным");
+		}
+		long at = epochMillis(when);
+		long now = System.currentTimeMillis();
+		if (at < now) {
+			at += ((now - at) / period + 1) * period;
+		}
+		subscribe(chatId, "every" + periodHours + "h@" + Math.floorMod(at, period), period, at);
+	}
+
+	/**
+	 * Добавляет чат в группу key, создавая и планируя группу, если ее нет
+	 * @param chatId Идентификатор чата
+	 * @param key Группа
+	 * @param period Период повторения в миллисекундах, 0 - разовая рассылка
+	 * @param at Первая рассылка для этого чата; у существующей группы ближайшее срабатывание может быть раньше
+	 */
+	protected synchronized void subscribe(String chatId, String key, long period, long at) {
+		unsubscribe(chatId);
+		var group = groups.get(key);
+		if (group == null) {
+			group = new Group(key, period, at);
+			groups.put(key, group);
+			long delay = Math.max(0, at - System.currentTimeMillis());
+			group.future = period == 0 ? scheduler.schedule(group, delay, TimeUnit.MILLISECONDS)
+					: scheduler.scheduleAtFixedRate(group, delay, period, TimeUnit.MILLISECONDS);
+		}
+		group.members.put(chatId, at);
+		byChat.put(chatId, group);
+	}
+	/**
+	 * Отписывает чат от рассылки. Задание группы отменяется, когда в ней не остается чатов
+	 * @param chatId Идентификатор чата
+	 * @return true - чат был подписан
+	 */
+	public synchronized boolean unsubscribe(String chatId) {
+		var group = byChat.remove(chatId);
+		if (group == null) {
+			return false;
+		}
+		group.members.remove(chatId);
+		if (group.members.isEmpty()) {
+			group.future.cancel(false);
+			groups.remove(group.key);
+		}
+		return true;
+	}
+	/**
+	 * Собирает текст и начинает рассылку по его готовности
+	 * @param group Имя группы
+	 * @param chats Получатели
+	 * @return Завершается начатой рассылкой, или исключением, если текст собрать не удалось
+	 */
+	protected CompletableFuture<Broadcast> start(String group, List<String> chats) {
+		renders.inc();
+		return render.get().thenApply(text -> {
+			var broadcast = new Broadcast(group, chats, text);
+			active.add(broadcast);
+			broadcast.pump();
+			return broadcast;
+		});
+	}
+
+	protected long epochMillis(LocalDateTime when) {
+		return when.atZone(zone).toInstant().toEpochMilli();
+	}
+	/**
+	 * Возвращает количество подписанных чатов
+	 * @return Количество чатов
+	 */
+	public synchronized int subscriptions() {
+		return byChat.size();
+	}
+	/**
+	 * Возвращает количество групп подписок
+	 * @return Количество групп
+	 */
+	public synchronized int groupCount() {
+		return groups.size();
+	}
+	/**
+	 * Возвращает идущие рассылки
+	 * @return Рассылки, отправка которых не завершена
+	 */
+	public List<Broadcast> active() {
+		return new ArrayList<>(active);
+	}
+	/**
+	 * Возвращает количество сообщений идущих рассылок, отправка которых не завершена
+	 * @return Количество сообщений
+	 */
+	public int remaining() {
+		int remaining = 0;
+		for (var broadcast : active) {
+			remaining += broadcast.getRemaining();
+		}
+		return remaining;
+	}
+}
@@ -0,0 +1,30 @@
+package telegrambot.outbound;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+/**
+ * Интерфейс определяет методы неблокирующей отправки запросов к Telegram Bot API. Вызывающий поток только ставит запрос
+ * в очередь и сразу возвращается, а запрос выполняется позже, с соблюдением ограничений Telegram на частоту отправки
+ * @author borodatyidrug
+ *
+ */
+public interface IMessageSender {
+	/**
+	 * Ставит сообщение в очередь отправки его чата
+	 * @param message Сообщение
+	 * @return Результат отправки
+	 */
+	CompletableFuture<Message> send(SendMessage message);
+	/**
+	 * Ставит произвольный запрос, адресованный чату, в очередь отправки этого чата
+	 * @param <T> Тип результата запроса
+	 * @param chatId Идентификатор чата
+	 * @param method Запрос
+	 * @return Результат выполнения запроса
+	 */
+	<T extends Serializable> CompletableFuture<T> send(String chatId, BotApiMethod<T> method);
+}
@@ -0,0 +1,341 @@
+package telegrambot.outbound;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import telegrambot.metrics.Counter;
+import telegrambot.metrics.Histogram;
+import telegrambot.metrics.MetricsRegistry;
+
+/**
+ * Конвейер исходящих запросов к Telegram Bot API с ограничением частоты отправки. У каждого чата своя очередь запросов и свое
+ * ведро с жетонами, кроме того, есть общее ведро на все чаты. Поток-диспетчер выбирает из очереди готовности чат, которому
+ * можно отправить очередной запрос, и передает запрос пулу потоков-отправителей. Запросы одного чата отправляются строго
+ * по очереди: следующий - только после завершения предыдущего. Ответ 429 (Too Many Requests) приостанавливает очередь чата
+ * на указанное сервером время retry_after, прочие временные ошибки повторяются с экспоненциально растущей паузой
+ * @author borodatyidrug
+ *
+ */
+public class MessageSender implements IMessageSender {
+	
+	protected static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+	protected static final long BASE_BACKOFF_MILLIS = 500;
+	protected static final long MAX_BACKOFF_MILLIS = 30_000;
+	
+	/**
+	 * Запрос, ожидающий отправки, вместе с результатом и номером попытки
+	 */
+	protected static class Outgoing<T extends Serializable> {
+		
+		protected final BotApiMethod<T> method;
+		protected final CompletableFuture<T> result;
+		protected final long enqueuedAt;
+		protected int attempt;
+		
+		protected Outgoing(BotApiMethod<T> method) {
+			this.method = method;
+			this.result = new CompletableFuture<>();
+			this.enqueuedAt = System.nanoTime();
+		}
+	}
+	/**
+	 * Очередь запросов одного чата. active = true, пока чат стоит в очереди готовности или его запрос отправляется
+	 */
+	protected static class ChatQueue {
+		
+		protected final String chatId;
+		protected final ArrayDeque<Outgoing<?>> queue;
+		protected final TokenBucket bucket;
+		protected boolean active;
+		
+		protected ChatQueue(String chatId, TokenBucket bucket) {
+			this.chatId = chatId;
+			this.queue = new ArrayDeque<>();
+			this.bucket = bucket;
+		}
+	}
+	/**
+	 * Элемент очереди готовности: чат, который можно обслужить не раньше заданного момента
+	 */
+	protected static class Ready implements Delayed {
+		
+		protected final ChatQueue chat;
+		protected final long at;
+		
+		protected Ready(ChatQueue chat, long at) {
+			this.chat = chat;
+			this.at = at;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(at - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(at, ((Ready) o).at);
+		}
+	}
+	
+	protected final AbsSender as;
+	protected final ConcurrentHashMap<String, ChatQueue> chats;
+	protected final DelayQueue<Ready> ready;
+	protected final TokenBucket globalBucket;
+	protected final double chatBurst;
+	protected final double chatRate;
+	protected final int maxAttempts;
+	protected final int maxPending;
+	protected final AtomicInteger pending;
+	protected final ExecutorService workers;
+	protected final Thread dispatcher;
+	protected volatile boolean running;
+	protected final Histogram sendLatency;
+	protected final Histogram deliveryLatency;
+	protected final Counter rateLimited;
+	protected final Counter clientErrors;
+	protected final Counter serverErrors;
+	protected final Counter rejected;
+	
+	/**
+	 * Создает конвейер и запускает поток-диспетчер
+	 * @param as Объект, выполняющий запросы к Telegram Bot API. Обычно - сам бот
+	 * @param globalRate Сколько запросов в секунду можно отправить во все чаты вместе
+	 * @param chatRate Сколько запросов в секунду можно отправить в один чат
+	 * @param chatBurst Сколько запросов подряд можно отправить в один чат без паузы
+	 * @param workerCount Количество потоков-отправителей
+	 * @param maxAttempts Максимальное количество попыток отправки одного запроса
+	 * @param maxPending Максимальное количество запросов в очередях всех чатов
+	 * @param metrics Реестр метрик, в котором конвейер регистрирует задержки и ошибки отправки
+	 */
+	public MessageSender(AbsSender as, double globalRate, double chatRate, double chatBurst, int workerCount, int maxAttempts,
+			int maxPending, MetricsRegistry metrics) {
+		this.as = as;
+		this.chats = new ConcurrentHashMap<>();
+		this.ready = new DelayQueue<>();
+		this.globalBucket = new TokenBucket(globalRate, globalRate, System.nanoTime());
+		this.chatRate = chatRate;
+		this.chatBurst = chatBurst;
+		this.maxAttempts = maxAttempts;
+		this.maxPending = maxPending;
+		this.pending = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+			Thread thread = new Thread(r, "outbound-sender");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.sendLatency = metrics.histogram("outbound_send_seconds", "Длительность одного запроса к Telegram Bot API");
+		this.deliveryLatency = metrics.histogram("outbound_delivery_seconds",
+				"Время от постановки запроса в очередь до его успешной отправки, включая ожидание жетонов и повторы");
+		var errors = "outbound_send_errors_total";
+		var errorsHelp = "Неудачные попытки отправки по причинам";
+		this.rateLimited = metrics.counter(errors, errorsHelp, "reason", "rate_limited");
+		this.clientErrors = metrics.counter(errors, errorsHelp, "reason", "client");
+		this.serverErrors = metrics.counter(errors, errorsHelp, "reason", "server");
+		this.rejected = metrics.counter(errors, errorsHelp, "reason", "rejected");
+		metrics.gauge("outbound_pending", "Запросы, ожидающие отправки", this::pendingCount);
+		this.running = true;
+		this.dispatcher = new Thread(this::dispatch, "outbound-dispatcher");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	@Override
+	public CompletableFuture<Message> send(SendMessage message) {
+		return send(message.getChatId(), message);
+	}
+
+	@Override
+	public <T extends Serializable> CompletableFuture<T> send(String chatId, BotApiMethod<T> method) {
+		var outgoing = new Outgoing<T>(method);
+		if (!running || pending.incrementAndGet() > maxPending) {
+			if (running) {
+				pending.decrementAndGet();
+			}
+			rejected.inc();
+			outgoing.result.completeExceptionally(new RejectedExecutionException("Очередь исходящих сообщений переполнена"));
+			return outgoing.result;
+		}
+		chats.compute(chatId, (k, chat) -> {
+			if (chat == null) {
+				chat = new ChatQueue(chatId, new TokenBucket(chatBurst, chatRate, System.nanoTime()));
+			}
+			synchronized (chat) {
+				chat.queue.add(outgoing);
+				if (!chat.active) {
+					chat.active = true;
+					ready.add(new Ready(chat, System.nanoTime()));
+				}
+			}
+			return chat;
+		});
+		return outgoing.result;
+	}
+	/**
+	 * Цикл потока-диспетчера. Ведра с жетонами трогает только этот поток
+	 */
+	protected void dispatch() {
+		long lastSweep = System.nanoTime();
+		while (running) {
+			Ready next;
+			try {
+				next = ready.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (now - lastSweep > SWEEP_INTERVAL_NANOS) {
+				sweep(now);
+				lastSweep = now;
+			}
+			if (next == null) {
+				continue;
+			}
+			var chat = next.chat;
+			long delay = Math.max(globalBucket.delay(now), chat.bucket.delay(now));
+			if (delay > 0) {
+				ready.add(new Ready(chat, now + delay));
+				continue;
+			}
+			Outgoing<?> outgoing;
+			synchronized (chat) {
+				outgoing = chat.queue.poll();
+				if (outgoing == null) {
+					chat.active = false;
+					continue;
+				}
+			}
+			globalBucket.take();
+			chat.bucket.take();
+			try {
+				workers.execute(() -> execute(chat, outgoing));
+			} catch (RejectedExecutionException e) {
+				outgoing.result.completeExceptionally(e);
+				return;
+			}
+		}
+	}
+	/**
+	 * Выполняет запрос в потоке-отправителе и решает судьбу очереди чата: следующий запрос, пауза или повтор
+	 * @param chat Очередь чата
+	 * @param outgoing Запрос
+	 */
+	protected <T extends Serializable> void execute(ChatQueue chat, Outgoing<T> outgoing) {
+		long resumeAt = System.nanoTime();
+		try {
+			T result = as.execute(outgoing.method);
+			long now = System.nanoTime();
+			sendLatency.observeNanos(now - resumeAt);
+			deliveryLatency.observeNanos(now - outgoing.enqueuedAt);
+			pending.decrementAndGet();
+			outgoing.result.complete(result);
+		} catch (TelegramApiException e) {
+			sendLatency.observeSince(resumeAt);
+			countError(e);
+			long retryIn = retryDelayMillis(e, ++outgoing.attempt);
+			if (retryIn < 0) {
+				pending.decrementAndGet();
+				System.out.println("Не удалось отправить запрос в чат " + chat.chatId + ": " + e.getMessage());
+				outgoing.result.completeExceptionally(e);
+			} else {
+				resumeAt += TimeUnit.MILLISECONDS.toNanos(retryIn);
+				synchronized (chat) {
+					chat.queue.addFirst(outgoing);
+				}
+			}
+		} catch (RuntimeException e) {
+			pending.decrementAndGet();
+			outgoing.result.completeExceptionally(e);
+		}
+		synchronized (chat) {
+			if (chat.queue.isEmpty()) {
+				chat.active = false;
+			} else {
+				ready.add(new Ready(chat, resumeAt));
+			}
+		}
+	}
+	/**
+	 * Учитывает неудачную попытку отправки в счетчике ее причины
+	 * @param e Ошибка отправки
+	 */
+	protected void countError(TelegramApiException e) {
+		Integer code = e instanceof TelegramApiRequestException ? ((TelegramApiRequestException) e).getErrorCode() : null;
+		if (code != null && code == 429) {
+			rateLimited.inc();
+		} else if (code != null && code >= 400 && code < 500) {
+			clientErrors.inc();
+		} else {
+			serverErrors.inc();
+		}
+	}
+	/**
+	 * Возвращает паузу перед повторной попыткой отправки
+	 * @param e Ошибка отправки
+	 * @param attempt Номер неудавшейся попытки
+	 * @return Пауза в миллисекундах, или -1, если повторять запрос не нужно
+	 */
+	protected long retryDelayMillis(TelegramApiException e, int attempt) {
+		if (attempt >= maxAttempts) {
+			return -1;
+		}
+		if (e instanceof TelegramApiRequestException) {
+			var requestException = (TelegramApiRequestException) e;
+			var code = requestException.getErrorCode();
+			if (code != null && code == 429) {
+				var parameters = requestException.getParameters();
+				if (parameters != null && parameters.getRetryAfter() != null) {
+					return TimeUnit.SECONDS.toMillis(parameters.getRetryAfter());
+				}
+			} else if (code != null && code >= 400 && code < 500) {
+				// ошибка в самом запросе: повтор ничего не изменит
+				return -1;
+			}
+		}
+		return Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+	}
+	/**
+	 * Удаляет очереди чатов, которые давно ничего не отправляли
+	 * @param now Текущий момент времени в наносекундах
+	 */
+	protected void sweep(long now) {
+		for (var chatId : chats.keySet()) {
+			chats.computeIfPresent(chatId, (k, chat) -> {
+				synchronized (chat) {
+					return !chat.active && chat.queue.isEmpty() && chat.bucket.isFull(now) ? null : chat;
+				}
+			});
+		}
+	}
+	/**
+	 * Возвращает количество запросов, ожидающих отправки
+	 * @return Количество запросов
+	 */
+	public int pendingCount() {
+		return pending.get();
+	}
+	/**
+	 * Останавливает конвейер. Запросы, оставшиеся в очередях, не отправляются
+	 */
+	public void shutdown() {
+		running = false;
+		dispatcher.interrupt();
+		workers.shutdown();
+	}
+}
@@ -0,0 +1,148 @@
+package telegrambot.outbound;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import telegrambot.metrics.Counter;
+import telegrambot.metrics.MetricsRegistry;
+
+/**
+ * Ступень между напоминаниями и конвейером исходящих сообщений, собирающая уведомления одного чата в одно сообщение. Первое
+ * уведомление чата открывает окно длиной windowMillis; уведомления, пришедшие в это окно, отправляются одним сообщением,
+ * разделенные пустой строкой. Сообщение не длиннее maxLength: уведомление, с которым оно стало бы длиннее, отправляет
+ * накопленное сразу и открывает новое окно. Напоминания часто приходятся на одну минуту (несколько дел "на 9:00"), а
+ * в семейном чате их получают все, так что в окно попадают десятки уведомлений, а из ведра с жетонами чата уходит один.
+ * При windowMillis <= 0 уведомления отправляются сразу, по одному
+ * @author borodatyidrug
+ *
+ */
+public class NotificationCoalescer implements BiConsumer<String, String> {
+	/**
+	 * Ограничение Telegram Bot API на длину текста сообщения
+	 */
+	public static final int TELEGRAM_MAX_LENGTH = 4096;
+	protected static final String SEPARATOR = "\n\n";
+
+	/**
+	 * Уведомления чата, ожидающие конца окна
+	 */
+	protected static class Batch {
+
+		protected final List<String> texts = new ArrayList<>();
+		protected int length;
+
+		protected Batch(String text) {
+			texts.add(text);
+			length = text.length();
+		}
+
+		protected boolean fits(String text, int maxLength) {
+			return length + SEPARATOR.length() + text.length() <= maxLength;
+		}
+
+		protected void add(String text) {
+			texts.add(text);
+			length += SEPARATOR.length() + text.length();
+		}
+	}
+
+	protected final IMessageSender sender;
+	protected final ScheduledExecutorService scheduler;
+	protected final long windowMillis;
+	protected final int maxLength;
+	protected final ConcurrentHashMap<String, Batch> batches;
+	protected final Counter notifications;
+	protected final Counter messages;
+
+	/**
+	 * Создает ступень
+	 * @param sender Конвейер исходящих сообщений
+	 * @param scheduler Планировщик, в потоке которого окна закрываются и сообщения ставятся в очередь конвейера
+	 * @param windowMillis Длина окна в миллисекундах, 0 - не собирать уведомления
+	 * @param maxLength Наибольшая длина собранного сообщения
+	 * @param metrics Реестр метрик
+	 */
+	public NotificationCoalescer(IMessageSender sender, ScheduledExecutorService scheduler, long windowMillis, int maxLength,
+			MetricsRegistry metrics) {
+		this.sender = sender;
+		this.scheduler = scheduler;
+		this.windowMillis = windowMillis;
+		this.maxLength = maxLength;
+		this.batches = new ConcurrentHashMap<>();
+		this.notifications = metrics.counter("outbound_notifications_total", "Уведомления напоминаний, поступившие на отправку");
+		this.messages = metrics.counter("outbound_notification_messages_total",
+				"Сообщения, в которые собраны уведомления напоминаний");
+		metrics.gauge("outbound_notification_chats", "Чаты с уведомлениями, ожидающими конца окна", batches::size);
+	}
+	/**
+	 * Принимает уведомление для чата. Поток вызывающего не ждет ни окна, ни отправки
+	 * @param chatId Идентификатор чата
+	 * @param text Текст уведомления
+	 */
+	@Override
+	public void accept(String chatId, String text) {
+		notifications.inc();
+		if (windowMillis <= 0) {
+			send(chatId, List.of(text));
+			return;
+		}
+		Batch[] full = new Batch[1];
+		Batch[] opened = new Batch[1];
+		batches.compute(chatId, (k, batch) -> {
+			if (batch != null && batch.fits(text, maxLength)) {
+				batch.add(text);
+				return batch;
+			}
+			full[0] = batch;
+			opened[0] = new Batch(text);
+			return opened[0];
+		});
+		if (full[0] != null) {
+			send(chatId, full[0].texts);
+		}
+		if (opened[0] != null) {
+			try {
+				scheduler.schedule(() -> flush(chatId, opened[0]), windowMillis, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// планировщик остановлен: ждать конца окна некому
+				flush(chatId, opened[0]);
+			}
+		}
+	}
+	/**
+	 * Закрывает окно чата: отправляет накопленное, если это окно еще не отправлено из-за переполнения
+	 * @param chatId Идентификатор чата
+	 * @param batch Уведомления окна
+	 */
+	protected void flush(String chatId, Batch batch) {
+		if (batches.remove(chatId, batch)) {
+			send(chatId, batch.texts);
+		}
+	}
+	/**
+	 * Отправляет все накопленное, не дожидаясь конца окон. Вызывается при остановке бота
+	 */
+	public void flushAll() {
+		for (var chatId : batches.keySet()) {
+			var batch = batches.remove(chatId);
+			if (batch != null) {
+				send(chatId, batch.texts);
+			}
+		}
+	}
+
+	protected void send(String chatId, List<String> texts) {
+		messages.inc();
+		sender.send(SendMessage.builder()
+				.chatId(chatId)
+				.text(texts.size() == 1 ? texts.get(0) : String.join(SEPARATOR, texts))
+				.build());
+	}
+}
@@ -0,0 +1,61 @@
+package telegrambot.outbound;
+/**
+ * Ведро с жетонами (token bucket): вмещает не более capacity жетонов и пополняется со скоростью rate жетонов в секунду.
+ * Класс не потокобезопасен: ведрами пользуется только поток-диспетчер исходящих сообщений
+ * @author borodatyidrug
+ *
+ */
+public class TokenBucket {
+	
+	protected final double capacity;
+	protected final double tokensPerNano;
+	protected double tokens;
+	protected long lastRefill;
+	
+	/**
+	 * Создает полное ведро
+	 * @param capacity Вместимость ведра (допустимый всплеск)
+	 * @param ratePerSecond Скорость пополнения, жетонов в секунду
+	 * @param now Текущий момент времени в наносекундах
+	 */
+	public TokenBucket(double capacity, double ratePerSecond, long now) {
+		if (capacity < 1 || ratePerSecond <= 0) {
+			throw new IllegalArgumentException("Вместимость ведра должна быть не меньше 1, а скорость пополнения - положительной");
+		}
+		this.capacity = capacity;
+		this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+		this.tokens = capacity;
+		this.lastRefill = now;
+	}
+	
+	protected void refill(long now) {
+		if (now > lastRefill) {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+			lastRefill = now;
+		}
+	}
+	/**
+	 * Возвращает, сколько наносекунд осталось ждать до появления жетона, не забирая его
+	 * @param now Текущий момент времени в наносекундах
+	 * @return 0, если жетон есть
+	 */
+	public long delay(long now) {
+		refill(now);
+		return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+	}
+	/**
+	 * Забирает жетон. Вызывается после того, как delay() вернул 0
+	 */
+	public void take() {
+		tokens -= 1;
+	}
+	/**
+	 * Возвращает true, если ведро полное, т.е. им давно не пользовались
+	 * @param now Текущий момент времени в наносекундах
+	 * @return true, если ведро полное
+	 */
+	public boolean isFull(long now) {
+		refill(now);
+		return tokens >= capacity;
+	}
+}
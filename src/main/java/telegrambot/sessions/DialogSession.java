@@ -0,0 +1,40 @@
+package telegrambot.sessions;
+/**
+ * Базовое состояние диалога пользователя с бот-командой. Бот-команды расширяют этот класс, добавляя поля, необходимые
+ * для конкретного диалога
+ * @author borodatyidrug
+ *
+ */
+public class DialogSession {
+	
+	protected final SessionKey key;
+	/**
+	 * Текущий запрос обратного вызова (шаг диалога)
+	 */
+	protected String callback;
+	
+	public DialogSession(SessionKey key) {
+		this.key = key;
+		this.callback = "";
+	}
+	
+	public SessionKey getKey() {
+		return key;
+	}
+	
+	public String getUserId() {
+		return key.getUserId();
+	}
+	
+	public String getChatId() {
+		return key.getChatId();
+	}
+	
+	public String getCallback() {
+		return callback;
+	}
+	
+	public void setCallback(String callback) {
+		this.callback = callback;
+	}
+}
@@ -0,0 +1,20 @@
+package telegrambot.sessions;
+/**
+ * Слушатель событий хранилища сессий. Уведомления приходят вне блокировки хранилища, поэтому слушатель может обращаться
+ * к любым хранилищам сессий. По той же причине уведомление о закрытии может прийти уже после открытия новой сессии с тем же
+ * ключом: слушатель отличает сессии по самому объекту сессии, а не по ключу
+ * @author borodatyidrug
+ *
+ */
+public interface ISessionListener {
+	/**
+	 * Вызывается после открытия сессии
+	 * @param session Открытая сессия
+	 */
+	void sessionOpened(DialogSession session);
+	/**
+	 * Вызывается после закрытия сессии, в том числе - после удаления истекшей или вытесненной сессии
+	 * @param session Закрытая сессия
+	 */
+	void sessionClosed(DialogSession session);
+}
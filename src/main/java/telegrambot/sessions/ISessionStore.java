@@ -0,0 +1,54 @@
+package telegrambot.sessions;
+/**
+ * Интерфейс определяет набор методов хранилища диалоговых сессий бот-команд
+ * @author borodatyidrug
+ *
+ * @param <S> Тип состояния диалога
+ */
+public interface ISessionStore<S extends DialogSession> {
+	/**
+	 * Открывает новую сессию, заменяя ранее открытую по тому же ключу
+	 * @param session Состояние диалога
+	 * @return Открытая сессия
+	 */
+	S open(S session);
+	/**
+	 * Возвращает активную сессию и продлевает время ее жизни
+	 * @param key Ключ сессии
+	 * @return Сессия, или null, если сессии нет или она истекла
+	 */
+	S get(SessionKey key);
+	/**
+	 * Закрывает сессию
+	 * @param key Ключ сессии
+	 * @return Закрытая сессия, или null, если сессии не было
+	 */
+	S close(SessionKey key);
+	/**
+	 * Возвращает активную сессию, не продлевая время ее жизни
+	 * @param key Ключ сессии
+	 * @return Сессия, или null, если сессии нет или она истекла
+	 */
+	S peek(SessionKey key);
+	/**
+	 * Проверяет наличие активной сессии, не продлевая время ее жизни
+	 * @param key Ключ сессии
+	 * @return true, если сессия есть
+	 */
+	boolean contains(SessionKey key);
+	/**
+	 * Удаляет сессии, простаивающие дольше заданного времени
+	 * @return Количество удаленных сессий
+	 */
+	int evictExpired();
+	/**
+	 * Возвращает количество активных сессий
+	 * @return Количество сессий
+	 */
+	int size();
+	/**
+	 * Добавляет слушателя событий открытия и закрытия сессий
+	 * @param listener Слушатель
+	 */
+	void addListener(ISessionListener listener);
+}
@@ -0,0 +1,68 @@
+package telegrambot.sessions;
+
+import java.util.Objects;
+import org.telegram.telegrambots.meta.api.objects.Update;
+/**
+ * Ключ диалоговой сессии: пара (ID пользователя, ID чата). Один и тот же пользователь может одновременно вести диалоги с ботом
+ * в разных чатах, а в одном групповом чате диалоги могут вести сразу несколько пользователей
+ * @author borodatyidrug
+ *
+ */
+public final class SessionKey {
+
+	private final String userId;
+	private final String chatId;
+	
+	public SessionKey(String userId, String chatId) {
+		this.userId = userId;
+		this.chatId = chatId;
+	}
+	/**
+	 * Извлекает ключ сессии из обновления: из запроса обратного вызова (CallbackQuery) или из сообщения
+	 * @param update Обновление, полученное ботом
+	 * @return Ключ сессии, или null, если обновление не содержит ни пользователя, ни чата
+	 */
+	public static SessionKey of(Update update) {
+		if (update.hasCallbackQuery()) {
+			var query = update.getCallbackQuery();
+			// у сообщений, отправленных в inline-режиме, объекта сообщения нет
+			if (query.getFrom() != null && query.getMessage() != null) {
+				return new SessionKey(query.getFrom().getId().toString(), query.getMessage().getChatId().toString());
+			}
+		} else if (update.hasMessage()) {
+			var message = update.getMessage();
+			if (message.getFrom() != null) {
+				return new SessionKey(message.getFrom().getId().toString(), message.getChatId().toString());
+			}
+		}
+		return null;
+	}
+	
+	public String getUserId() {
+		return userId;
+	}
+	
+	public String getChatId() {
+		return chatId;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * userId.hashCode() + chatId.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		SessionKey other = (SessionKey) obj;
+		return Objects.equals(userId, other.userId) && Objects.equals(chatId, other.chatId);
+	}
+	
+	@Override
+	public String toString() {
+		return userId + "@" + chatId;
+	}
+}
@@ -0,0 +1,197 @@
+package telegrambot.sessions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+/**
+ * Хранилище диалоговых сессий в памяти с ограничением по времени простоя и по количеству сессий. Сессии хранятся в LinkedHashMap,
+ * и при обращении сессия переставляется в конец, поэтому самые давно использованные сессии всегда находятся в начале: истекшие
+ * сессии удаляются с головы списка, не перебирая все хранилище, а при превышении размера вытесняется самая давно использованная
+ * сессия
+ * @author borodatyidrug
+ *
+ * @param <S> Тип состояния диалога
+ */
+public class SessionStore<S extends DialogSession> implements ISessionStore<S> {
+	
+	/**
+	 * Сессия вместе с моментом последнего обращения к ней
+	 */
+	protected static class Entry<S> {
+		
+		protected final S session;
+		protected long lastAccess;
+		
+		protected Entry(S session, long lastAccess) {
+			this.session = session;
+			this.lastAccess = lastAccess;
+		}
+	}
+	
+	protected final long idleTtlMillis;
+	protected final int maxSize;
+	protected final LinkedHashMap<SessionKey, Entry<S>> sessions;
+	protected final List<ISessionListener> listeners;
+	/**
+	 * Сессии, удаленные под блокировкой. Слушатели уведомляются о них уже после снятия блокировки
+	 */
+	protected final List<S> removed;
+
+	/**
+	 * Создает хранилище сессий
+	 * @param idleTtl Время простоя, после которого сессия считается брошенной и удаляется
+	 * @param unit Единица измерения времени простоя
+	 * @param maxSize Максимальное количество одновременно хранимых сессий
+	 */
+	public SessionStore(long idleTtl, TimeUnit unit, int maxSize) {
+		if (idleTtl <= 0 || maxSize <= 0) {
+			throw new IllegalArgumentException("Время жизни и максимальное количество сессий должны быть положительными");
+		}
+		this.idleTtlMillis = unit.toMillis(idleTtl);
+		this.maxSize = maxSize;
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.removed = new ArrayList<>();
+		// порядок доступа поддерживается вручную: в режиме accessOrder перестановку делал бы и get() из peek(), не продлевающего
+		// жизнь сессии, и истекшая сессия могла бы оказаться за неистекшей, где ее не найдет purge()
+		this.sessions = new LinkedHashMap<>() {
+			
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<SessionKey, Entry<S>> eldest) {
+				if (size() > SessionStore.this.maxSize) {
+					removed.add(eldest.getValue().session);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public S open(S session) {
+		List<S> closed;
+		synchronized (this) {
+			var now = now();
+			purge(now);
+			var previous = sessions.remove(session.getKey());
+			sessions.put(session.getKey(), new Entry<>(session, now));
+			if (previous != null) {
+				removed.add(previous.session);
+			}
+			closed = drainRemoved();
+		}
+		fireClosed(closed);
+		for (var listener : listeners) {
+			listener.sessionOpened(session);
+		}
+		return session;
+	}
+
+	@Override
+	public S get(SessionKey key) {
+		if (key == null) {
+			return null;
+		}
+		S session = null;
+		List<S> closed;
+		synchronized (this) {
+			var now = now();
+			purge(now);
+			var entry = sessions.remove(key);
+			if (entry != null) {
+				entry.lastAccess = now;
+				sessions.put(key, entry);
+				session = entry.session;
+			}
+			closed = drainRemoved();
+		}
+		fireClosed(closed);
+		return session;
+	}
+
+	@Override
+	public S close(SessionKey key) {
+		Entry<S> entry;
+		synchronized (this) {
+			entry = sessions.remove(key);
+		}
+		if (entry == null) {
+			return null;
+		}
+		fireClosed(List.of(entry.session));
+		return entry.session;
+	}
+
+	@Override
+	public synchronized S peek(SessionKey key) {
+		var entry = sessions.get(key);
+		return entry != null && now() - entry.lastAccess < idleTtlMillis ? entry.session : null;
+	}
+
+	@Override
+	public boolean contains(SessionKey key) {
+		return peek(key) != null;
+	}
+
+	@Override
+	public int evictExpired() {
+		List<S> closed;
+		synchronized (this) {
+			purge(now());
+			closed = drainRemoved();
+		}
+		fireClosed(closed);
+		return closed.size();
+	}
+
+	@Override
+	public synchronized int size() {
+		return sessions.size();
+	}
+
+	@Override
+	public void addListener(ISessionListener listener) {
+		listeners.add(listener);
+	}
+	/**
+	 * Удаляет истекшие сессии с головы списка, пока не встретится неистекшая
+	 * @param now Текущий момент времени
+	 */
+	protected void purge(long now) {
+		Iterator<Map.Entry<SessionKey, Entry<S>>> iterator = sessions.entrySet().iterator();
+		while (iterator.hasNext()) {
+			var next = iterator.next();
+			if (now - next.getValue().lastAccess < idleTtlMillis) {
+				break;
+			}
+			iterator.remove();
+			removed.add(next.getValue().session);
+		}
+	}
+	
+	protected List<S> drainRemoved() {
+		if (removed.isEmpty()) {
+			return List.of();
+		}
+		var drained = new ArrayList<>(removed);
+		removed.clear();
+		return drained;
+	}
+	
+	protected void fireClosed(List<S> closed) {
+		for (var session : closed) {
+			for (var listener : listeners) {
+				listener.sessionClosed(session);
+			}
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package telegrambot.todos;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Источник соединений с базой данных хранилища задач. Соединение закрывается вызывающим кодом
+ * @author borodatyidrug
+ *
+ */
+@FunctionalInterface
+public interface IConnectionSource {
+
+	Connection getConnection() throws SQLException;
+}
@@ -1,6 +1,7 @@
 package telegrambot.todos;
 
 import java.time.temporal.ChronoUnit;
+import java.util.Collection;
 import java.util.List;
 import org.quartz.SchedulerException;
 
@@ -27,6 +28,22 @@ public interface IReminder {
 	 * @throws JsonProcessingException
 	 */
 	void scheduleRemind(IReminderEntity reminderEntity) throws SchedulerException, JsonProcessingException;
+	/**
+	 * Добавляет в планировщик несколько простых задач одной операцией. Задача владельца с тем же именем заменяется, как и в
+	 * addTask()
+	 * @param tasks Задачи
+	 * @throws SchedulerException
+	 * @throws JsonProcessingException
+	 */
+	void addTasks(Collection<ITask> tasks) throws SchedulerException, JsonProcessingException;
+	/**
+	 * Добавляет в планировщик несколько напоминаний одной операцией: либо планируются все, либо ни одно. Если хотя бы одно
+	 * напоминание уже запланировано или повторяется в наборе, ничего не планируется
+	 * @param reminderEntities Напоминания или задачи с обозначенным дедлайном
+	 * @throws SchedulerException
+	 * @throws JsonProcessingException
+	 */
+	void scheduleReminds(Collection<IReminderEntity> reminderEntities) throws SchedulerException, JsonProcessingException;
 	/**
 	 * Возвращает актуальный список простых задач из планировщика Quartz
 	 * @param userId ID пользователя, для которого возвращается список его задач
@@ -60,4 +77,22 @@ public interface IReminder {
 	 * @throws SchedulerException
 	 */
 	IReminderEntity completeTask(IReminderEntity reminderEntity, ChronoUnit unit) throws SchedulerException;
+	/**
+	 * Удаляет из планировщика несколько задач одной операцией: простые задачи, напоминания и задачи с обозначенным дедлайном.
+	 * Задача определяется владельцем и именем; задачи, которых в планировщике нет, пропускаются. Операция не атомарна, если
+	 * задания напоминаний и задачи хранятся раздельно: при сбое часть напоминаний может быть уже снята, а задачи еще
+	 * оставаться в списке. Повторный вызов с теми же задачами завершает удаление
+	 * @param tasks Удаляемые задачи
+	 * @return Задачи, которые были удалены
+	 * @throws SchedulerException
+	 */
+	List<ITask> completeTasks(Collection<ITask> tasks) throws SchedulerException;
+	/**
+	 * Удаляет из планировщика все задачи пользователя с заданным тегом одной операцией
+	 * @param userId ID пользователя
+	 * @param tag Тег
+	 * @return Удаленные задачи
+	 * @throws SchedulerException
+	 */
+	List<ITask> completeTasksByTag(String userId, String tag) throws SchedulerException;
 }
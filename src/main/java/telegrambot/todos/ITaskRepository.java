@@ -0,0 +1,85 @@
+package telegrambot.todos;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Хранилище задач и напоминаний с явной реляционной схемой. Планировщик Quartz хранит в своих заданиях только идентификатор
+ * записи хранилища, а списки задач пользователя, выборки по тегу и сортировка по дедлайну выполняются запросами к хранилищу
+ * @author borodatyidrug
+ *
+ */
+public interface ITaskRepository {
+	/**
+	 * Создает таблицы и индексы, если их еще нет
+	 * @return true, если таблицы созданы этим вызовом, т.е. хранилище - новое
+	 * @throws SQLException
+	 */
+	boolean initialize() throws SQLException;
+	/**
+	 * Сохраняет задачу, заменяя задачу владельца с тем же именем, если такая есть
+	 * @param task Задача
+	 * @param remind Параметры напоминания, или null, если задача - простая, без дедлайна
+	 * @return Идентификатор записи
+	 * @throws SQLException
+	 */
+	long save(ITask task, IReminderEntity remind) throws SQLException;
+	/**
+	 * Сохраняет несколько задач в одной транзакции пакетными запросами, заменяя задачи владельцев с теми же именами
+	 * @param tasks Задачи
+	 * @param reminds Параметры напоминаний в порядке задач; null вместо списка или элемента - простая задача
+	 * @return Идентификаторы записей в порядке задач
+	 * @throws SQLException
+	 */
+	long[] saveAll(List<ITask> tasks, List<IReminderEntity> reminds) throws SQLException;
+	/**
+	 * Возвращает все задачи владельца, в т.ч. задачи с дедлайном, упорядоченные по имени
+	 * @param ownerId Идентификатор владельца (пользователя)
+	 * @return Список задач
+	 * @throws SQLException
+	 */
+	List<ITask> findTasks(String ownerId) throws SQLException;
+	/**
+	 * Возвращает задачи владельца с дедлайном, упорядоченные по дедлайну
+	 * @param ownerId Идентификатор владельца (пользователя)
+	 * @return Список напоминаний
+	 * @throws SQLException
+	 */
+	List<IReminderEntity> findReminds(String ownerId) throws SQLException;
+	/**
+	 * Возвращает задачи владельца с заданным тегом, упорядоченные по имени
+	 * @param ownerId Идентификатор владельца (пользователя)
+	 * @param tag Тег
+	 * @return Список задач
+	 * @throws SQLException
+	 */
+	List<ITask> findTasksByTag(String ownerId, String tag) throws SQLException;
+	/**
+	 * Удаляет задачу владельца
+	 * @param ownerId Идентификатор владельца (пользователя)
+	 * @param name Имя задачи
+	 * @return false, если такой задачи нет
+	 * @throws SQLException
+	 */
+	boolean delete(String ownerId, String name) throws SQLException;
+	/**
+	 * Удаляет задачу по идентификатору записи
+	 * @param id Идентификатор записи
+	 * @return false, если такой записи нет
+	 * @throws SQLException
+	 */
+	boolean delete(long id) throws SQLException;
+	/**
+	 * Удаляет задачи по идентификаторам записей в одной транзакции пакетным запросом
+	 * @param ids Идентификаторы записей
+	 * @throws SQLException
+	 */
+	void deleteAll(long[] ids) throws SQLException;
+	/**
+	 * Удаляет несколько задач в одной транзакции пакетным запросом
+	 * @param tasks Задачи; задача определяется владельцем и именем
+	 * @return Для каждой задачи - была ли она удалена
+	 * @throws SQLException
+	 */
+	boolean[] deleteAll(List<ITask> tasks) throws SQLException;
+}
@@ -0,0 +1,395 @@
+package telegrambot.todos;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.telegram.telegrambots.meta.api.objects.User;
+
+import telegrambot.familyassistant.FamilyAssistantBot;
+
+/**
+ * Хранилище задач в реляционной базе данных. Схема переносима между PostgreSQL (рабочая база) и встраиваемой H2 (тесты).
+ * Задача - строка таблицы fa_tasks, теги - строки fa_task_tags. Индексы: уникальный (владелец, имя) - он же индекс по
+ * владельцу, (владелец, дедлайн) для списка напоминаний, чат, дедлайн и тег
+ * @author borodatyidrug
+ *
+ */
+public class JdbcTaskRepository implements ITaskRepository {
+
+	protected static final String[] SCHEMA = {
+			"CREATE TABLE fa_tasks ("
+					+ "id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+					+ "owner_id VARCHAR(32) NOT NULL, "
+					+ "owner_first_name VARCHAR(256), "
+					+ "owner_last_name VARCHAR(256), "
+					+ "owner_username VARCHAR(256), "
+					+ "owner_language VARCHAR(16), "
+					+ "chat_id VARCHAR(32) NOT NULL, "
+					+ "name VARCHAR(1024) NOT NULL, "
+					+ "description VARCHAR(4096), "
+					+ "deadline TIMESTAMP, "
+					+ "repeat_interval INTEGER DEFAULT 0 NOT NULL, "
+					+ "repeat_unit VARCHAR(16), "
+					+ "minutes_before INTEGER DEFAULT 0 NOT NULL, "
+					+ "remind_times INTEGER DEFAULT 0 NOT NULL, "
+					+ "remind_times_interval INTEGER DEFAULT 0 NOT NULL, "
+					+ "created_at TIMESTAMP, "
+					+ "CONSTRAINT fa_tasks_owner_name UNIQUE (owner_id, name))",
+			"CREATE TABLE fa_task_tags ("
+					+ "task_id BIGINT NOT NULL REFERENCES fa_tasks (id) ON DELETE CASCADE, "
+					+ "tag VARCHAR(256) NOT NULL, "
+					+ "PRIMARY KEY (task_id, tag))",
+			"CREATE INDEX fa_tasks_owner_deadline ON fa_tasks (owner_id, deadline)",
+			"CREATE INDEX fa_tasks_chat ON fa_tasks (chat_id)",
+			"CREATE INDEX fa_tasks_deadline ON fa_tasks (deadline)",
+			"CREATE INDEX fa_task_tags_tag ON fa_task_tags (tag)"
+	};
+	protected static final String COLUMNS = "t.id, t.owner_id, t.owner_first_name, t.owner_last_name, t.owner_username, "
+			+ "t.owner_language, t.chat_id, t.name, t.description, t.deadline, t.repeat_interval, t.repeat_unit, "
+			+ "t.minutes_before, t.remind_times, t.remind_times_interval, t.created_at, g.tag";
+	protected static final String SELECT = "SELECT " + COLUMNS + " FROM fa_tasks t LEFT JOIN fa_task_tags g ON g.task_id = t.id ";
+	protected static final String FIND_TASKS = SELECT + "WHERE t.owner_id = ? ORDER BY t.name, t.id";
+	protected static final String FIND_REMINDS = SELECT + "WHERE t.owner_id = ? AND t.deadline IS NOT NULL "
+			+ "ORDER BY t.deadline, t.id";
+	protected static final String FIND_BY_TAG = SELECT + "WHERE t.owner_id = ? AND t.id IN "
+			+ "(SELECT task_id FROM fa_task_tags WHERE tag = ?) ORDER BY t.name, t.id";
+	protected static final String INSERT = "INSERT INTO fa_tasks (owner_id, owner_first_name, owner_last_name, owner_username, "
+			+ "owner_language, chat_id, name, description, deadline, repeat_interval, repeat_unit, minutes_before, remind_times, "
+			+ "remind_times_interval, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	protected static final String INSERT_TAG = "INSERT INTO fa_task_tags (task_id, tag) VALUES (?, ?)";
+	protected static final String DELETE = "DELETE FROM fa_tasks WHERE owner_id = ? AND name = ?";
+	protected static final String DELETE_BY_ID = "DELETE FROM fa_tasks WHERE id = ?";
+
+	protected final IConnectionSource connections;
+	protected final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT);
+
+	/**
+	 * Создает хранилище
+	 * @param connections Источник соединений с базой данных
+	 */
+	public JdbcTaskRepository(IConnectionSource connections) {
+		this.connections = connections;
+	}
+
+	@Override
+	public boolean initialize() throws SQLException {
+		try (Connection connection = connections.getConnection()) {
+			if (exists(connection)) {
+				return false;
+			}
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try (Statement statement = connection.createStatement()) {
+				for (var ddl : SCHEMA) {
+					statement.execute(ddl);
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				// в кластере таблицы одновременно создает и другой экземпляр бота: тогда хранилище уже не новое
+				if (exists(connection)) {
+					return false;
+				}
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+			return true;
+		}
+	}
+
+	protected static boolean exists(Connection connection) {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeQuery("SELECT 1 FROM fa_tasks WHERE 1 = 0").close();
+			return true;
+		} catch (SQLException e) {
+			// таблицы нет - хранилище новое
+			return false;
+		}
+	}
+
+	@Override
+	public long save(ITask task, IReminderEntity remind) throws SQLException {
+		return saveAll(List.of(task), Collections.singletonList(remind))[0];
+	}
+
+	@Override
+	public long[] saveAll(List<ITask> tasks, List<IReminderEntity> reminds) throws SQLException {
+		long[] ids = new long[tasks.size()];
+		if (tasks.isEmpty()) {
+			return ids;
+		}
+		// задача, которую в том же наборе заменяет следующая с тем же владельцем и именем, не вставляется
+		Map<String, Integer> last = new HashMap<>();
+		for (int i = 0; i < tasks.size(); i++) {
+			last.put(key(tasks.get(i)), i);
+		}
+		try (Connection connection = connections.getConnection()) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try {
+				try (PreparedStatement delete = connection.prepareStatement(DELETE)) {
+					for (int i = 0; i < tasks.size(); i++) {
+						if (last.get(key(tasks.get(i))) == i) {
+							delete.setString(1, tasks.get(i).getOwner().getId().toString());
+							delete.setString(2, tasks.get(i).getName());
+							delete.addBatch();
+						}
+					}
+					delete.executeBatch();
+				}
+				try (PreparedStatement insert = connection.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS)) {
+					for (int i = 0; i < tasks.size(); i++) {
+						if (last.get(key(tasks.get(i))) == i) {
+							bind(insert, tasks.get(i), reminds == null ? null : reminds.get(i));
+							insert.addBatch();
+						}
+					}
+					insert.executeBatch();
+					try (ResultSet keys = insert.getGeneratedKeys()) {
+						for (int i = 0; i < tasks.size(); i++) {
+							if (last.get(key(tasks.get(i))) == i) {
+								if (!keys.next()) {
+									throw new SQLException("Драйвер вернул не все идентификаторы вставленных задач");
+								}
+								ids[i] = keys.getLong(1);
+							}
+						}
+					}
+				}
+				boolean tags = false;
+				try (PreparedStatement insertTag = connection.prepareStatement(INSERT_TAG)) {
+					for (int i = 0; i < tasks.size(); i++) {
+						var task = tasks.get(i);
+						int index = last.get(key(task));
+						ids[i] = ids[index];
+						if (index == i && task.getTags() != null) {
+							for (var tag : task.getTags()) {
+								insertTag.setLong(1, ids[i]);
+								insertTag.setString(2, tag);
+								insertTag.addBatch();
+								tags = true;
+							}
+						}
+					}
+					if (tags) {
+						insertTag.executeBatch();
+					}
+				}
+				connection.commit();
+				return ids;
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+	}
+	/**
+	 * Заполняет параметры запроса INSERT
+	 * @param insert Запрос
+	 * @param task Задача
+	 * @param remind Параметры напоминания, или null, если задача - простая
+	 * @throws SQLException
+	 */
+	protected void bind(PreparedStatement insert, ITask task, IReminderEntity remind) throws SQLException {
+		var owner = task.getOwner();
+		insert.setString(1, owner.getId().toString());
+		insert.setString(2, owner.getFirstName());
+		insert.setString(3, owner.getLastName());
+		insert.setString(4, owner.getUserName());
+		insert.setString(5, owner.getLanguageCode());
+		insert.setString(6, task.getChatId());
+		insert.setString(7, task.getName());
+		insert.setString(8, task.getDescription());
+		if (remind != null) {
+			insert.setObject(9, LocalDateTime.parse(remind.getScheduledTime(), formatter));
+			insert.setInt(10, remind.getRepeatInterval());
+			insert.setString(11, remind.getRepeatIntervalUnit() == null ? null : remind.getRepeatIntervalUnit().name());
+			insert.setInt(12, remind.getMinutesBefore());
+			insert.setInt(13, remind.getRemindTimes());
+			insert.setInt(14, remind.getRemindTimesInterval());
+			if (remind.getTaskCreationTime() == null) {
+				insert.setNull(15, Types.TIMESTAMP);
+			} else {
+				insert.setObject(15, LocalDateTime.parse(remind.getTaskCreationTime(), formatter));
+			}
+		} else {
+			insert.setNull(9, Types.TIMESTAMP);
+			insert.setInt(10, 0);
+			insert.setNull(11, Types.VARCHAR);
+			insert.setInt(12, 0);
+			insert.setInt(13, 0);
+			insert.setInt(14, 0);
+			insert.setNull(15, Types.TIMESTAMP);
+		}
+	}
+
+	protected static String key(ITask task) {
+		return task.getOwner().getId() + "/" + task.getName();
+	}
+
+	@Override
+	public List<ITask> findTasks(String ownerId) throws SQLException {
+		List<ITask> tasks = new ArrayList<>();
+		for (var remind : query(FIND_TASKS, ownerId)) {
+			tasks.add(remind.getTask());
+		}
+		return tasks;
+	}
+
+	@Override
+	public List<IReminderEntity> findReminds(String ownerId) throws SQLException {
+		return query(FIND_REMINDS, ownerId);
+	}
+
+	@Override
+	public List<ITask> findTasksByTag(String ownerId, String tag) throws SQLException {
+		List<ITask> tasks = new ArrayList<>();
+		for (var remind : query(FIND_BY_TAG, ownerId, tag)) {
+			tasks.add(remind.getTask());
+		}
+		return tasks;
+	}
+
+	@Override
+	public boolean delete(String ownerId, String name) throws SQLException {
+		try (Connection connection = connections.getConnection();
+				PreparedStatement delete = connection.prepareStatement(DELETE)) {
+			delete.setString(1, ownerId);
+			delete.setString(2, name);
+			return delete.executeUpdate() > 0;
+		}
+	}
+
+	@Override
+	public boolean delete(long id) throws SQLException {
+		try (Connection connection = connections.getConnection();
+				PreparedStatement delete = connection.prepareStatement(DELETE_BY_ID)) {
+			delete.setLong(1, id);
+			return delete.executeUpdate() > 0;
+		}
+	}
+
+	@Override
+	public void deleteAll(long[] ids) throws SQLException {
+		if (ids.length == 0) {
+			return;
+		}
+		try (Connection connection = connections.getConnection()) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try (PreparedStatement delete = connection.prepareStatement(DELETE_BY_ID)) {
+				for (long id : ids) {
+					delete.setLong(1, id);
+					delete.addBatch();
+				}
+				delete.executeBatch();
+				connection.commit();
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+	}
+
+	@Override
+	public boolean[] deleteAll(List<ITask> tasks) throws SQLException {
+		boolean[] deleted = new boolean[tasks.size()];
+		if (tasks.isEmpty()) {
+			return deleted;
+		}
+		try (Connection connection = connections.getConnection()) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try (PreparedStatement delete = connection.prepareStatement(DELETE)) {
+				for (var task : tasks) {
+					delete.setString(1, task.getOwner().getId().toString());
+					delete.setString(2, task.getName());
+					delete.addBatch();
+				}
+				int[] counts = delete.executeBatch();
+				connection.commit();
+				for (int i = 0; i < counts.length; i++) {
+					// SUCCESS_NO_INFO: драйвер не сообщает число строк, строка считается удаленной
+					deleted[i] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+				}
+				return deleted;
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+	}
+	/**
+	 * Выполняет запрос и собирает строки с одинаковым id (по строке на тег) в одну задачу
+	 * @param sql Запрос, выбирающий COLUMNS
+	 * @param parameters Параметры запроса
+	 * @return Задачи, обернутые в параметры напоминания: у простых задач scheduledTime == null
+	 * @throws SQLException
+	 */
+	protected List<IReminderEntity> query(String sql, String... parameters) throws SQLException {
+		List<IReminderEntity> result = new ArrayList<>();
+		try (Connection connection = connections.getConnection();
+				PreparedStatement select = connection.prepareStatement(sql)) {
+			for (int i = 0; i < parameters.length; i++) {
+				select.setString(i + 1, parameters[i]);
+			}
+			try (ResultSet rows = select.executeQuery()) {
+				long lastId = -1;
+				IReminderEntity current = null;
+				while (rows.next()) {
+					long id = rows.getLong("id");
+					if (current == null || id != lastId) {
+						current = read(rows);
+						result.add(current);
+						lastId = id;
+					}
+					var tag = rows.getString("tag");
+					if (tag != null) {
+						current.getTask().getTags().add(tag);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	protected IReminderEntity read(ResultSet rows) throws SQLException {
+		var ownerId = rows.getString("owner_id");
+		var owner = new User(Long.parseLong(ownerId), rows.getString("owner_first_name"), false,
+				rows.getString("owner_last_name"), rows.getString("owner_username"), rows.getString("owner_language"),
+				null, null, null);
+		var task = new Task(rows.getString("chat_id"), owner, rows.getString("name"), rows.getString("description"),
+				new HashSet<>());
+		var deadline = rows.getObject("deadline", LocalDateTime.class);
+		var createdAt = rows.getObject("created_at", LocalDateTime.class);
+		var unit = rows.getString("repeat_unit");
+		return new ReminderEntity(task,
+				deadline == null ? null : deadline.format(formatter),
+				rows.getInt("repeat_interval"),
+				unit == null ? null : ChronoUnit.valueOf(unit),
+				rows.getInt("minutes_before"),
+				rows.getInt("remind_times"),
+				rows.getInt("remind_times_interval"),
+				createdAt == null ? null : createdAt.format(formatter));
+	}
+}
@@ -0,0 +1,134 @@
+package telegrambot.todos;
+
+import java.util.LinkedHashSet;
+
+import org.telegram.telegrambots.meta.api.objects.User;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Компактные данные задания Quartz: одна копия задачи с идентификатором владельца вместо всего объекта User, и ничего
+ * больше. Текст сообщения не хранится, а строится в момент срабатывания задания методом render(). Данные - JSON с короткими
+ * ключами и номером версии формата "v", чтобы будущие версии могли читать задания, запланированные прежними
+ * @author borodatyidrug
+ *
+ */
+public class JobPayload {
+	/**
+	 * Текущая версия формата
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * Виды заданий: сообщение о наступившем дедлайне и напоминание о его приближении
+	 */
+	public static final String DEADLINE = "d";
+	public static final String REMIND_BEFORE = "b";
+
+	protected static final String V = "v";
+	protected static final String KIND = "k";
+	protected static final String ID = "id";
+	protected static final String OWNER = "o";
+	protected static final String CHAT = "c";
+	protected static final String NAME = "n";
+	protected static final String DESCRIPTION = "d";
+	protected static final String TAGS = "t";
+	protected static final String DEADLINE_TIME = "at";
+
+	protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+	protected final String kind;
+	protected final long taskId;
+	protected final IReminderEntity remind;
+
+	/**
+	 * Создает данные задания
+	 * @param kind Вид задания: DEADLINE или REMIND_BEFORE
+	 * @param taskId Идентификатор записи хранилища задач
+	 * @param remind Напоминание или задача с обозначенным дедлайном
+	 */
+	public JobPayload(String kind, long taskId, IReminderEntity remind) {
+		if (!DEADLINE.equals(kind) && !REMIND_BEFORE.equals(kind)) {
+			throw new IllegalArgumentException("Неизвестный вид задания: " + kind);
+		}
+		this.kind = kind;
+		this.taskId = taskId;
+		this.remind = remind;
+	}
+	/**
+	 * Кодирует данные задания в строку для JobDataMap
+	 * @return Строка с данными задания
+	 */
+	public String encode() {
+		var task = remind.getTask();
+		var node = MAPPER.createObjectNode();
+		node.put(V, VERSION);
+		node.put(KIND, kind);
+		node.put(ID, taskId);
+		node.put(OWNER, task.getOwner().getId());
+		node.put(CHAT, task.getChatId());
+		node.put(NAME, task.getName());
+		node.put(DESCRIPTION, task.getDescription());
+		var tags = node.putArray(TAGS);
+		if (task.getTags() != null) {
+			task.getTags().forEach(tags::add);
+		}
+		node.put(DEADLINE_TIME, remind.getScheduledTime());
+		return node.toString();
+	}
+	/**
+	 * Раскодирует данные задания
+	 * @param encoded Строка, полученная методом encode() этой или прежней версии
+	 * @return Данные задания
+	 * @throws JsonProcessingException Если строка - не данные задания
+	 * @throws IllegalArgumentException Если данные записаны более новой версией формата
+	 */
+	public static JobPayload decode(String encoded) throws JsonProcessingException {
+		JsonNode node = MAPPER.readTree(encoded);
+		int version = node.path(V).asInt(0);
+		if (version < 1 || version > VERSION) {
+			throw new IllegalArgumentException("Неподдерживаемая версия данных задания: " + version);
+		}
+		// из владельца нужен только идентификатор, а имя у User обязательно
+		var owner = new User(node.path(OWNER).asLong(), "", false, null, null, null, null, null, null);
+		var tags = new LinkedHashSet<String>();
+		node.path(TAGS).forEach(tag -> tags.add(tag.asText()));
+		var task = new Task(node.path(CHAT).asText(), owner, node.path(NAME).asText(),
+				node.path(DESCRIPTION).isNull() ? null : node.path(DESCRIPTION).asText(), tags);
+		var remind = new ReminderEntity(task, node.path(DEADLINE_TIME).asText(), 0, null, 0, 0, 0, null);
+		return new JobPayload(node.path(KIND).asText(), node.path(ID).asLong(), remind);
+	}
+	/**
+	 * Строит текст сообщения, которое отправляется при срабатывании задания
+	 * @return Текст сообщения
+	 */
+	public String render() {
+		return render(kind);
+	}
+	/**
+	 * Строит текст сообщения заданного вида. Задание с триггером по плану напоминания (ReminderPlanTrigger) отправляет и
+	 * напоминания о приближении дедлайна, и сам дедлайн: вид сообщения определяет сработавший триггер
+	 * @param kind Вид сообщения: DEADLINE или REMIND_BEFORE
+	 * @return Текст сообщения
+	 */
+	public String render(String kind) {
+		return REMIND_BEFORE.equals(kind) ? TaskMessages.remindBeforeDeadline(remind) : TaskMessages.deadline(remind);
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public long getTaskId() {
+		return taskId;
+	}
+
+	public String getChatId() {
+		return remind.getTask().getChatId();
+	}
+
+	public IReminderEntity getRemind() {
+		return remind;
+	}
+}
@@ -0,0 +1,259 @@
+package telegrambot.todos;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.quartz.JobDetail;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger.TriggerState;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.impl.triggers.SimpleTriggerImpl;
+import org.quartz.spi.OperableTrigger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import telegrambot.metrics.MetricsRegistry;
+
+/**
+ * Восстановление после простоя. Если за время простоя накопилось много пропущенных срабатываний, то Quartz при запуске
+ * выполнил бы их все сразу: потоки планировщика заняты, а всплеск сообщений упирается в ограничения Telegram. Вместо
+ * этого до запуска планировщика каждый просроченный триггер переводится на первое срабатывание после текущего момента, а
+ * все его пропущенные срабатывания (у периодического напоминания их может быть много) превращаются в одно сообщение
+ * "пропущено". Эти сообщения отправляются с заданной частотой, начиная с самых просроченных. Небольшой отставание
+ * (меньше minBacklog триггеров) остается Quartz: он выполнит пропущенное по правилам пропуска срабатываний триггеров
+ * @author borodatyidrug
+ *
+ */
+public class MisfireRecovery {
+
+	public static final double DEFAULT_RATE = 5;
+	public static final int DEFAULT_MIN_BACKLOG = 20;
+	/**
+	 * Больше стольких пропущенных срабатываний одного триггера не пересчитываются по одному
+	 */
+	protected static final int MAX_COUNTED = 1000;
+
+	/**
+	 * Пропущенное напоминание: чат, сообщение последнего пропущенного срабатывания, первое пропущенное срабатывание и
+	 * число пропущенных
+	 */
+	protected static class Missed implements Comparable<Missed> {
+
+		protected final String chatId;
+		protected final String message;
+		protected final long firstMissed;
+		protected final int times;
+
+		protected Missed(String chatId, String message, long firstMissed, int times) {
+			this.chatId = chatId;
+			this.message = message;
+			this.firstMissed = firstMissed;
+			this.times = times;
+		}
+
+		@Override
+		public int compareTo(Missed o) {
+			return Long.compare(firstMissed, o.firstMissed);
+		}
+	}
+
+	protected final ScheduledExecutorService executor;
+	protected final double ratePerSecond;
+	protected final int minBacklog;
+	protected final BiConsumer<String, String> sink;
+	protected final PriorityQueue<Missed> queue;
+	protected ScheduledFuture<?> drain;
+
+	/**
+	 * Создает восстановление
+	 * @param executor Планировщик, в потоке которого отправляются сообщения о пропущенном
+	 * @param ratePerSecond Сколько сообщений о пропущенном отправлять в секунду
+	 * @param minBacklog Со скольких просроченных триггеров начинается восстановление
+	 * @param sink Получатель сообщений: идентификатор чата и текст
+	 * @param metrics Реестр метрик
+	 */
+	public MisfireRecovery(ScheduledExecutorService executor, double ratePerSecond, int minBacklog,
+			BiConsumer<String, String> sink, MetricsRegistry metrics) {
+		if (ratePerSecond <= 0) {
+			throw new IllegalArgumentException("Частота отправки сообщений о пропущенном должна быть положительной");
+		}
+		this.executor = executor;
+		this.ratePerSecond = ratePerSecond;
+		this.minBacklog = minBacklog;
+		this.sink = sink;
+		this.queue = new PriorityQueue<>();
+		metrics.gauge("reminder_recovery_pending", "Сообщения о напоминаниях, пропущенных за время простоя, ждущие отправки",
+				this::pending);
+	}
+	/**
+	 * Ищет просроченные триггеры и, если их не меньше minBacklog, переводит их на первое срабатывание после текущего момента
+	 * и ставит сообщения о пропущенном в очередь. Вызывается до запуска планировщика
+	 * @param scheduler Планировщик, еще не запущенный
+	 * @param repository Хранилище задач: из него удаляются задачи, напоминания которых больше не сработают
+	 * @param misfireThresholdMillis Порог пропуска срабатывания планировщика: опоздавшее меньше, чем на него, - не пропущено
+	 * @return Сколько триггеров восстановлено, 0 - восстановление не понадобилось
+	 * @throws SchedulerException
+	 */
+	public int recover(Scheduler scheduler, ITaskRepository repository, long misfireThresholdMillis)
+			throws SchedulerException {
+		long now = System.currentTimeMillis();
+		List<OperableTrigger> overdue = new ArrayList<>();
+		for (var group : scheduler.getTriggerGroupNames()) {
+			for (var key : scheduler.getTriggerKeys(GroupMatcher.triggerGroupEquals(group))) {
+				var trigger = (OperableTrigger) scheduler.getTrigger(key);
+				if (trigger != null && trigger.getNextFireTime() != null
+						&& trigger.getNextFireTime().getTime() < now - misfireThresholdMillis
+						&& scheduler.getTriggerState(key) != TriggerState.PAUSED) {
+					overdue.add(trigger);
+				}
+			}
+		}
+		if (overdue.isEmpty() || overdue.size() < minBacklog) {
+			return 0;
+		}
+		List<Missed> missed = new ArrayList<>(overdue.size());
+		for (var trigger : overdue) {
+			var notice = advance(scheduler, repository, trigger, now);
+			if (notice != null) {
+				missed.add(notice);
+			}
+		}
+		synchronized (queue) {
+			queue.addAll(missed);
+			if (drain == null || drain.isDone()) {
+				long periodMicros = Math.max(1, (long) (1_000_000 / ratePerSecond));
+				drain = executor.scheduleAtFixedRate(this::sendNext, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+			}
+		}
+		System.out.println("Восстановление после простоя: просроченных триггеров " + overdue.size()
+				+ ", сообщений о пропущенном " + missed.size());
+		return overdue.size();
+	}
+	/**
+	 * Переводит триггер на первое срабатывание после текущего момента, пересчитывая пропущенные. Триггер, у которого
+	 * срабатываний не осталось, снимается вместе с задачей в хранилище, как после его последнего срабатывания
+	 * @param scheduler Планировщик
+	 * @param repository Хранилище задач
+	 * @param trigger Просроченный триггер
+	 * @param now Текущий момент
+	 * @return Пропущенное напоминание, или null, если у задания нет данных для сообщения
+	 * @throws SchedulerException
+	 */
+	protected Missed advance(Scheduler scheduler, ITaskRepository repository, OperableTrigger trigger, long now)
+			throws SchedulerException {
+		var next = (OperableTrigger) trigger.clone();
+		long firstMissed = next.getNextFireTime().getTime();
+		String kind = null;
+		int times = 0;
+		while (next.getNextFireTime() != null && next.getNextFireTime().getTime() <= now && times < MAX_COUNTED) {
+			next.triggered(null);
+			times++;
+			if (next instanceof ReminderPlanTrigger plan) {
+				kind = plan.getFiredKind();
+			}
+		}
+		if (next.getNextFireTime() != null && next.getNextFireTime().getTime() <= now) {
+			next.setNextFireTime(next.getFireTimeAfter(new Date(now)));
+		}
+		var job = scheduler.getJobDetail(trigger.getJobKey());
+		if (next.getNextFireTime() == null) {
+			scheduler.unscheduleJob(trigger.getKey());
+			if (job != null) {
+				forget(repository, job);
+			}
+		} else {
+			// у триггеров прежних версий с ограниченным числом повторов остаются только неотправленные повторы
+			if (next instanceof SimpleTriggerImpl simple && simple.getRepeatCount() != SimpleTrigger.REPEAT_INDEFINITELY) {
+				simple.setRepeatCount(Math.max(0, simple.getRepeatCount() - simple.getTimesTriggered()));
+				simple.setTimesTriggered(0);
+			}
+			next.setStartTime(next.getNextFireTime());
+			scheduler.rescheduleJob(trigger.getKey(), next);
+		}
+		return job == null ? null : missed(job, kind, firstMissed, times);
+	}
+	/**
+	 * Удаляет из хранилища задачу, дедлайн которой напоминало задание
+	 * @param repository Хранилище задач
+	 * @param job Задание, триггер которого больше не сработает
+	 */
+	protected void forget(ITaskRepository repository, JobDetail job) {
+		var jobDataMap = job.getJobDataMap();
+		if (!jobDataMap.containsKey(Reminder.PAYLOAD)) {
+			return;
+		}
+		try {
+			var payload = JobPayload.decode(jobDataMap.getString(Reminder.PAYLOAD));
+			// задание "напомнить заранее" прежней версии кончается раньше дедлайна своей задачи
+			if (JobPayload.DEADLINE.equals(payload.getKind())) {
+				repository.delete(payload.getTaskId());
+			}
+		} catch (JsonProcessingException | IllegalArgumentException | SQLException e) {
+			System.out.println("Не удалось удалить задачу задания " + job.getKey() + ": " + e.getMessage());
+		}
+	}
+	/**
+	 * Строит пропущенное напоминание по данным задания
+	 * @param job Задание
+	 * @param kind Вид последнего пропущенного срабатывания или null, если его знает только задание
+	 * @param firstMissed Первое пропущенное срабатывание
+	 * @param times Сколько срабатываний пропущено
+	 * @return Пропущенное напоминание, или null, если у задания нет данных для сообщения
+	 */
+	protected Missed missed(JobDetail job, String kind, long firstMissed, int times) {
+		var jobDataMap = job.getJobDataMap();
+		if (jobDataMap.containsKey(Reminder.PAYLOAD)) {
+			try {
+				var payload = JobPayload.decode(jobDataMap.getString(Reminder.PAYLOAD));
+				return new Missed(payload.getChatId(), kind == null ? payload.render() : payload.render(kind), firstMissed,
+						times);
+			} catch (JsonProcessingException | IllegalArgumentException e) {
+				System.out.println("Не удалось прочитать данные задания " + job.getKey() + ": " + e.getMessage());
+				return null;
+			}
+		}
+		if (jobDataMap.containsKey(Reminder.SEND_MESSAGE)) {
+			// задание запланировано прежней версией: текст сообщения построен заранее
+			return new Missed(jobDataMap.getString(Reminder.TASK_CHAT_ID), jobDataMap.getString(Reminder.SEND_MESSAGE),
+					firstMissed, times);
+		}
+		return null;
+	}
+	/**
+	 * Отправляет очередное сообщение о пропущенном. Когда очередь пуста, отправка останавливается
+	 */
+	protected void sendNext() {
+		Missed missed;
+		synchronized (queue) {
+			missed = queue.poll();
+			if (missed == null) {
+				drain.cancel(false);
+				return;
+			}
+		}
+		try {
+			sink.accept(missed.chatId, TaskMessages.missed(missed.message, missed.times));
+		} catch (RuntimeException e) {
+			// исключение остановило бы периодическую отправку всех остальных сообщений
+			System.out.println("Не удалось отправить сообщение о пропущенном напоминании: " + e.getMessage());
+		}
+	}
+	/**
+	 * Возвращает число сообщений о пропущенном, ждущих отправки
+	 * @return Число сообщений
+	 */
+	public int pending() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+}
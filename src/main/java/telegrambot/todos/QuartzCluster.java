@@ -0,0 +1,59 @@
+package telegrambot.todos;
+
+import java.util.Properties;
+
+import org.quartz.SchedulerException;
+
+/**
+ * Настройки кластера Quartz: несколько экземпляров бота с одним именем планировщика работают с общим JDBC-хранилищем
+ * заданий. Каждый экземпляр получает сгенерированный идентификатор (AUTO - имя хоста и время запуска) и периодически
+ * отмечается в хранилище. Триггер забирается под блокировкой строки в базе данных, поэтому каждое задание выполняет ровно
+ * один экземпляр, а свободные экземпляры забирают триггеры раньше занятых. Задания экземпляра, который перестал
+ * отмечаться, другие экземпляры восстанавливают (requestRecovery)
+ * @author borodatyidrug
+ *
+ */
+public class QuartzCluster {
+
+	public static final long DEFAULT_CHECKIN_MILLIS = 7500;
+
+	protected static final String INSTANCE_ID = "org.quartz.scheduler.instanceId";
+	protected static final String IS_CLUSTERED = "org.quartz.jobStore.isClustered";
+	protected static final String CHECKIN_INTERVAL = "org.quartz.jobStore.clusterCheckinInterval";
+	protected static final String AUTO = "AUTO";
+
+	protected final long checkinMillis;
+
+	/**
+	 * Создает настройки кластера
+	 * @param checkinMillis Как часто экземпляр отмечается в хранилище. Экземпляр, не отмечавшийся дольше этого интервала
+	 * (с небольшим запасом), считается упавшим
+	 */
+	public QuartzCluster(long checkinMillis) {
+		this.checkinMillis = checkinMillis;
+	}
+	/**
+	 * Возвращает копию настроек, переведенных в режим кластера
+	 * @param properties Настройки Quartz
+	 * @return Настройки для StdSchedulerFactory
+	 * @throws SchedulerException Если хранилище заданий - не JDBC: хранилище в памяти у каждого экземпляра свое
+	 */
+	public Properties apply(Properties properties) throws SchedulerException {
+		if (!SchedulerProfile.isJdbcJobStore(properties.getProperty(SchedulerProfile.JOB_STORE_CLASS))) {
+			throw new SchedulerException("Кластеру Quartz нужно общее JDBC-хранилище заданий, а задано "
+					+ properties.getProperty(SchedulerProfile.JOB_STORE_CLASS));
+		}
+		var result = new Properties();
+		result.putAll(properties);
+		result.setProperty(INSTANCE_ID, AUTO);
+		result.setProperty(IS_CLUSTERED, "true");
+		result.setProperty(CHECKIN_INTERVAL, Long.toString(checkinMillis));
+		// пачки триггеров разных экземпляров не должны пересекаться
+		result.setProperty(SchedulerProfile.ACQUIRE_WITHIN_LOCK, "true");
+		return result;
+	}
+
+	public long getCheckinMillis() {
+		return checkinMillis;
+	}
+}
@@ -1,40 +1,49 @@
 package telegrambot.todos;
 
 import static org.quartz.JobBuilder.*;
-import static org.quartz.SimpleScheduleBuilder.*;
-import static org.quartz.CronScheduleBuilder.*;
 import static org.quartz.TriggerBuilder.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.TimeUnit;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.quartz.DateBuilder;
-import org.quartz.JobBuilder;
 import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
 import org.quartz.JobKey;
+import org.quartz.ObjectAlreadyExistsException;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.SchedulerFactory;
 import org.quartz.Trigger;
-import org.quartz.TriggerBuilder;
+import org.quartz.Trigger.CompletedExecutionInstruction;
 import org.quartz.impl.StdSchedulerFactory;
 import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.listeners.TriggerListenerSupport;
 import org.quartz.utils.Key;
-import org.telegram.telegrambots.meta.bots.AbsSender;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.vdurmont.emoji.EmojiParser;
 
-import telegrambot.familyassistant.Emoji;
 import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.metrics.Counter;
 /**
  * Класс-обертка (фасад), "прослойка" между бот-командами и классами фреймворка Quartz. Фасад - потому, что весь мощный, гибкий и
  * разнообразный функционал скрывается за ограниченным набором методов класса. Позволяет планировать задачи и напоминания, удалять их,
@@ -47,47 +56,297 @@ public class Reminder implements IReminder {
 	/**
 	 * Набор строковых констант для формирования данных JobDetail и JobDetailMap планировщика задач
 	 */
+	protected static final String REMIND_PREFIX = "remindBefore";
+	protected static final String TRIGGER_PREFIX = "trigger";
+	/**
+	 * Ключ компактных данных задания (JobPayload)
+	 */
+	protected static final String PAYLOAD = "payload";
+	/**
+	 * Ключи прежних форматов JobDataMap: готовый текст сообщения, чат, теги, идентификатор записи хранилища и задача с
+	 * напоминанием в виде JSON. Новые задания их не содержат; задания, запланированные прежними версиями, читаются по ним
+	 */
 	protected static final String TAGS = "tags";
 	protected static final String TASK_CHAT_ID = "chatId";
 	protected static final String SEND_MESSAGE = "sendmessage";
-	protected static final String REMIND_PREFIX = "remindBefore";
-	protected static final String TRIGGER_PREFIX = "trigger";
+	protected static final String TASK_ID = "taskid";
 	protected static final String TASK_JSON = "taskjson";
 	protected static final String REMIND_JSON = "remindjson";
+	/**
+	 * Для скольких пользователей по-умолчанию хранятся разобранные списки задач и напоминаний
+	 */
+	public static final int DEFAULT_CACHE_USERS = 1000;
+	/**
+	 * Порог пропуска срабатывания в настройках Quartz и его значение по-умолчанию
+	 */
+	protected static final String MISFIRE_THRESHOLD = "org.quartz.jobStore.misfireThreshold";
+	protected static final String DEFAULT_MISFIRE_THRESHOLD = "60000";
 	
-	protected static final String QUARTZ_PROPERTIES_PATH = "/src/main/java/telegrambot/todos/quartz.properties";
+	/**
+	 * Удаляет из хранилища задачу напоминания после последнего срабатывания его триггера: иначе выполненное разовое
+	 * напоминание навсегда оставалось бы в списках пользователя и занимало бы свое имя. Задание без триггеров Quartz удаляет
+	 * сам
+	 */
+	protected class FiredRemindCleaner extends TriggerListenerSupport {
+
+		@Override
+		public String getName() {
+			return "fired-remind-cleaner";
+		}
+
+		@Override
+		public void triggerComplete(Trigger trigger, JobExecutionContext context,
+				CompletedExecutionInstruction triggerInstructionCode) {
+			var jobDataMap = context.getJobDetail().getJobDataMap();
+			if (trigger.mayFireAgain() || !jobDataMap.containsKey(PAYLOAD)) {
+				return;
+			}
+			try {
+				var payload = JobPayload.decode(jobDataMap.getString(PAYLOAD));
+				// задание "напомнить заранее" прежней версии кончается раньше дедлайна своей задачи
+				if (JobPayload.DEADLINE.equals(payload.getKind())) {
+					repository.delete(payload.getTaskId());
+				}
+			} catch (JsonProcessingException | IllegalArgumentException | SQLException e) {
+				System.out.println(e.getMessage());
+				e.printStackTrace();
+			} finally {
+				invalidate(context.getJobDetail().getKey().getGroup());
+			}
+		}
+	}
+
+	/**
+	 * Разобранные списки задач и напоминаний одного пользователя. Списки неизменяемые: наружу отдаются их копии
+	 */
+	protected static class UserLists {
+		
+		protected final List<ITask> tasks;
+		protected final List<IReminderEntity> reminds;
+		
+		protected UserLists(List<ITask> tasks, List<IReminderEntity> reminds) {
+			this.tasks = Collections.unmodifiableList(tasks);
+			this.reminds = Collections.unmodifiableList(reminds);
+		}
+	}
 	
 	protected SchedulerFactory schedulerFactory;
 	protected Scheduler scheduler;
 	protected final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT);
 	protected GroupMatcher<Key<?>> groupMatcher;
 	protected ObjectMapper mapper;
+	/**
+	 * Хранилище задач и напоминаний. В заданиях Quartz - только идентификатор записи хранилища
+	 */
+	protected final ITaskRepository repository;
+	/**
+	 * Кэш разобранных списков задач и напоминаний по userId с вытеснением давно не запрашиваемых пользователей. Без кэша
+	 * каждый запрос списка - это getJobKeys и по одному getJobDetail на задание (с JobStoreTX - по запросу к базе данных на
+	 * каждое) и разбор JSON каждого задания. Запись пользователя удаляется любым методом, меняющим его задания
+	 */
+	protected final Map<String, UserLists> cache;
+	/**
+	 * Кэшировать ли списки. В кластере триггер срабатывает на любом экземпляре и удаляет выполненное напоминание, а кэш
+	 * сбрасывается только на нем: другие экземпляры показывали бы удаленное напоминание, поэтому в кластере списки всегда
+	 * читаются из хранилища
+	 */
+	protected final boolean caching;
+	/**
+	 * Увеличивается при каждом удалении записи из кэша. Список, загрузка которого началась до удаления, в кэш не кладется:
+	 * он мог быть прочитан до изменения заданий
+	 */
+	protected final AtomicLong epoch;
+	protected final Counter cacheHits;
+	protected final Counter cacheMisses;
 	
-	public Reminder(AbsSender as) {
+	/**
+	 * Создает и запускает планировщик. Если хранилище задач - новое, то переносит в него задачи, которые прежние версии
+	 * хранили в JobDataMap заданий Quartz
+	 * @param propertiesPath Путь к файлу с настройками Quartz
+	 * @param cacheUsers Для скольких пользователей хранить разобранные списки задач и напоминаний
+	 * @param repository Хранилище задач и напоминаний
+	 * @throws SchedulerException Если планировщик не удалось создать и запустить или перенести в хранилище задачи
+	 */
+	public Reminder(String propertiesPath, int cacheUsers, ITaskRepository repository) throws SchedulerException {
+		this(propertiesPath, SchedulerProfile.STANDARD, cacheUsers, repository);
+	}
+	/**
+	 * Создает и запускает планировщик с настройками из файла, поправленными профилем. Если хранилище задач - новое, то
+	 * переносит в него задачи, которые прежние версии хранили в JobDataMap заданий Quartz
+	 * @param propertiesPath Путь к файлу с настройками Quartz
+	 * @param profile Профиль планировщика
+	 * @param cacheUsers Для скольких пользователей хранить разобранные списки задач и напоминаний
+	 * @param repository Хранилище задач и напоминаний
+	 * @throws SchedulerException Если планировщик не удалось создать и запустить или перенести в хранилище задачи
+	 */
+	public Reminder(String propertiesPath, SchedulerProfile profile, int cacheUsers, ITaskRepository repository)
+			throws SchedulerException {
+		this(propertiesPath, profile, null, cacheUsers, repository);
+	}
+	/**
+	 * Создает и запускает планировщик с настройками из файла, поправленными профилем и, если задан кластер, переведенными
+	 * в режим кластера. Если хранилище задач - новое, то переносит в него задачи, которые прежние версии хранили в
+	 * JobDataMap заданий Quartz
+	 * @param propertiesPath Путь к файлу с настройками Quartz
+	 * @param profile Профиль планировщика
+	 * @param cluster Настройки кластера, или null, если экземпляр бота - единственный
+	 * @param cacheUsers Для скольких пользователей хранить разобранные списки задач и напоминаний
+	 * @param repository Хранилище задач и напоминаний
+	 * @throws SchedulerException Если планировщик не удалось создать и запустить или перенести в хранилище задачи
+	 */
+	public Reminder(String propertiesPath, SchedulerProfile profile, QuartzCluster cluster, int cacheUsers,
+			ITaskRepository repository) throws SchedulerException {
+		this(propertiesPath, profile, cluster, null, cacheUsers, repository);
+	}
+	/**
+	 * Создает и запускает планировщик с настройками из файла, поправленными профилем и, если задан кластер, переведенными
+	 * в режим кластера. Если задано восстановление после простоя, то до запуска планировщика переводит просроченные
+	 * триггеры на будущее, а пропущенные напоминания отдает восстановлению. Если хранилище задач - новое, то переносит в
+	 * него задачи, которые прежние версии хранили в JobDataMap заданий Quartz
+	 * @param propertiesPath Путь к файлу с настройками Quartz
+	 * @param profile Профиль планировщика
+	 * @param cluster Настройки кластера, или null, если экземпляр бота - единственный
+	 * @param recovery Восстановление после простоя, или null, если пропущенное выполняет Quartz
+	 * @param cacheUsers Для скольких пользователей хранить разобранные списки задач и напоминаний
+	 * @param repository Хранилище задач и напоминаний
+	 * @throws SchedulerException Если планировщик не удалось создать и запустить или перенести в хранилище задачи: бот
+	 * без напоминаний не должен молча продолжать работу
+	 */
+	public Reminder(String propertiesPath, SchedulerProfile profile, QuartzCluster cluster, MisfireRecovery recovery,
+			int cacheUsers, ITaskRepository repository) throws SchedulerException {
+		this.repository = repository;
+		caching = cluster == null;
+		cache = new LinkedHashMap<>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, UserLists> eldest) {
+				return size() > cacheUsers;
+			}
+		};
+		epoch = new AtomicLong();
+		var requests = "reminder_cache_requests_total";
+		var help = "Запросы списков задач и напоминаний пользователя: из кэша и с загрузкой из хранилища задач";
+		cacheHits = FamilyAssistantBot.getMetrics().counter(requests, help, "result", "hit");
+		cacheMisses = FamilyAssistantBot.getMetrics().counter(requests, help, "result", "miss");
 		mapper = new ObjectMapper();
 		try {
-			// для настройки параметров планировщика фабрика читает файл с настройками
-			schedulerFactory = new StdSchedulerFactory(FamilyAssistantBot.getWorkingDir() + QUARTZ_PROPERTIES_PATH);
+			// настройки планировщика читаются из файла и поправляются профилем и режимом кластера; JDBC-хранилище
+			// записывает триггеры напоминаний своим делегатом
+			var properties = ReminderPlanTriggerPersistenceDelegate.register(profile.apply(loadProperties(propertiesPath)));
+			schedulerFactory = new StdSchedulerFactory(cluster == null ? properties : cluster.apply(properties));
 			scheduler = schedulerFactory.getScheduler();
+			scheduler.getListenerManager().addTriggerListener(new FiredRemindCleaner());
+			if (recovery != null) {
+				recovery.recover(scheduler, repository,
+						Long.parseLong(properties.getProperty(MISFIRE_THRESHOLD, DEFAULT_MISFIRE_THRESHOLD)));
+			}
 			scheduler.start();
+			if (repository.initialize()) {
+				migrateJobData();
+			}
+		} catch (SQLException e) {
+			abortStart();
+			throw new SchedulerException("Не удалось подготовить хранилище задач: " + e.getMessage(), e);
+		} catch (JsonProcessingException e) {
+			abortStart();
+			throw new SchedulerException("Не удалось перенести задачи в хранилище задач: " + e.getMessage(), e);
 		} catch (SchedulerException e) {
-		System.out.println(e.getMessage());
+			abortStart();
+			throw e;
+		}
+	}
+	/**
+	 * Останавливает планировщик, запуск которого не удался: его потоки не дали бы завершиться приложению
+	 */
+	protected void abortStart() {
+		if (scheduler == null) {
+			return;
+		}
+		try {
+			scheduler.shutdown(false);
+		} catch (SchedulerException e) {
+			System.out.println(e.getMessage());
 			e.printStackTrace();
 		}
 	}
+	/**
+	 * Читает настройки Quartz из файла, а если файла нет - из ресурса с тем же именем, как это делает StdSchedulerFactory
+	 * @param propertiesPath Путь к файлу с настройками Quartz
+	 * @return Настройки
+	 * @throws SchedulerException
+	 */
+	protected static Properties loadProperties(String propertiesPath) throws SchedulerException {
+		var properties = new Properties();
+		var file = new File(propertiesPath);
+		try (InputStream in = file.exists() ? new FileInputStream(file)
+				: Reminder.class.getClassLoader().getResourceAsStream(propertiesPath)) {
+			if (in == null) {
+				throw new SchedulerException("Файл с настройками Quartz не найден: " + propertiesPath);
+			}
+			properties.load(in);
+		} catch (IOException e) {
+			throw new SchedulerException("Не удалось прочитать настройки Quartz из " + propertiesPath, e);
+		}
+		return properties;
+	}
+	/**
+	 * Переносит задачи и напоминания из JSON в JobDataMap заданий Quartz в хранилище задач. Задания простых задач удаляются:
+	 * Quartz они больше не нужны. Данные заданий напоминаний (и заданий "напомнить заранее") заменяются компактными, триггеры
+	 * остаются прежними
+	 * @throws SchedulerException
+	 * @throws JsonProcessingException
+	 * @throws SQLException
+	 */
+	protected void migrateJobData() throws SchedulerException, JsonProcessingException, SQLException {
+		int migrated = 0;
+		for (var group : scheduler.getJobGroupNames()) {
+			for (var key : scheduler.getJobKeys(GroupMatcher.jobGroupEquals(group))) {
+				var jobDetail = scheduler.getJobDetail(key);
+				if (jobDetail == null || !jobDetail.getJobDataMap().containsKey(TASK_JSON)) {
+					continue;
+				}
+				var jobDataMap = jobDetail.getJobDataMap();
+				if (jobDataMap.containsKey(REMIND_JSON)) {
+					IReminderEntity remind = mapper.readValue(jobDataMap.getString(REMIND_JSON),
+							new TypeReference<IReminderEntity>() {});
+					long id = repository.save(remind.getTask(), remind);
+					replacePayload(jobDetail, new JobPayload(JobPayload.DEADLINE, id, remind));
+					var before = scheduler.getJobDetail(new JobKey(REMIND_PREFIX + "-" + key.getName(), group));
+					if (before != null) {
+						replacePayload(before, new JobPayload(JobPayload.REMIND_BEFORE, id, remind));
+					}
+				} else {
+					repository.save(mapper.readValue(jobDataMap.getString(TASK_JSON), new TypeReference<ITask>() {}), null);
+					scheduler.deleteJob(key);
+				}
+				migrated++;
+			}
+		}
+		if (migrated > 0) {
+			System.out.println("Перенесено в хранилище задач: " + migrated);
+		}
+	}
+	/**
+	 * Заменяет данные задания прежнего формата компактными, оставляя триггеры задания прежними
+	 * @param jobDetail Задание
+	 * @param payload Компактные данные задания
+	 * @throws SchedulerException
+	 */
+	protected void replacePayload(JobDetail jobDetail, JobPayload payload) throws SchedulerException {
+		var jobDataMap = jobDetail.getJobDataMap();
+		jobDataMap.clear();
+		jobDataMap.put(PAYLOAD, payload.encode());
+		scheduler.addJob(jobDetail, true, true);
+	}
 	/**
 	 * Формирует и возвращает текст сообщения напоминания о приближении дедлайна запланированной задачи
 	 * @param remindEntity Напоминание или задача с обозначенным дедлайном
 	 * @return Сообщения напоминания о приближении дедлайна запланированной задачи
 	 */
 	protected String buildRemindMessageBeforeDeadline(IReminderEntity remindEntity) {
-		return EmojiParser.parseToUnicode(
-				Emoji.BELL + " " + "Напоминаю вам о приближении дедлайна вашей задачи:\n"
-				+ Emoji.PUSHPIN + " " + remindEntity.getTask().getName().toUpperCase() + "\n"
-				+ Emoji.MEMO + " " + remindEntity.getTask().getDescription() + "\n" + "Теги: "
-				+ remindEntity.getTask().getTags().toString() + "\n"
-				+ Emoji.DATE + " " + "Дедлайн задачи: "
-				+ remindEntity.getScheduledTime());
+		return TaskMessages.remindBeforeDeadline(remindEntity);
 	}
 	/**
 	 * Формирует и возвращает текст сообщения о наступившем дедлайне запланированной задачи
@@ -95,31 +354,19 @@ public class Reminder implements IReminder {
 	 * @return Сообщение о наступившем дедлайне запланированной задачи
 	 */
 	protected String buildDeadlineMessage(IReminderEntity remindEntity) {
-		return EmojiParser.parseToUnicode(
-				Emoji.BELL + " " + "Наступил дедлайн для вашей задачи:\n"
-				+ Emoji.PUSHPIN + " " + remindEntity.getTask().getName().toUpperCase() + "\n"
-				+ Emoji.MEMO + " " + remindEntity.getTask().getDescription() + "\n" + "Теги: "
-				+ remindEntity.getTask().getTags().toString() + "\n"
-				+ Emoji.DATE + " " + "Дедлайн задачи: "
-				+ remindEntity.getScheduledTime());
+		return TaskMessages.deadline(remindEntity);
 	}
 
 	@Override
 	public void addTask(ITask task) throws SchedulerException, JsonProcessingException {
-		var userId = task.getOwner().getId().toString();
-		var chatId = task.getChatId();
-		var taskName = task.getName();
-		var tags = task.getTags();
-		var jobBuilder = newJob(ScheduledJob.class)
-				.withIdentity(taskName, userId)
-				.storeDurably()
-				.usingJobData(TASK_CHAT_ID, chatId)
-				.usingJobData(SEND_MESSAGE, buildTaskMessage(task))
-				.usingJobData(TASK_JSON, mapper.writeValueAsString(task));
-		if (tags != null && !tags.isEmpty()) {
-			jobBuilder.usingJobData(TAGS, tags.toString());
+		// простая задача без дедлайна ничего не планирует, поэтому Quartz о ней не знает
+		try {
+			repository.save(task, null);
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось сохранить задачу в хранилище задач", e);
+		} finally {
+			invalidate(task.getOwner().getId().toString());
 		}
-		scheduler.addJob(jobBuilder.build(), true);
 	}
 	
 	/**
@@ -128,140 +375,229 @@ public class Reminder implements IReminder {
 	 * @return Сообщение с описанием простой задачи
 	 */
 	protected String buildTaskMessage(ITask task) {
-		return EmojiParser.parseToUnicode(Emoji.PUSHPIN + " " + task.getName().toUpperCase() + "\n"
-				+ Emoji.MEMO + " " + task.getDescription() + "\n" + "Теги: "
-				+ task.getTags().toString());
+		return TaskMessages.task(task);
 	}
 
 	@Override
 	public void scheduleRemind(IReminderEntity reminderEntity) throws SchedulerException, JsonProcessingException {
-		
-		TriggerBuilder<Trigger> triggerBuilder;
-		JobBuilder jobBuilder = newJob();
-		String cronWhen;
-		JobDetail job, remind;
-		Trigger trigger;
-		
-		var userId = reminderEntity.getTask().getOwner().getId().toString();
-		var chatId = reminderEntity.getTask().getChatId();
-		var taskName = reminderEntity.getTask().getName();
-		var tags = reminderEntity.getTask().getTags();
-		var when = LocalDateTime.parse(reminderEntity.getScheduledTime(), formatter);
-		var whenToDate = DateBuilder.dateOf(when.getHour(), when.getMinute(), 0, when.getDayOfMonth(), when.getMonthValue(), when.getYear());
-		var period = reminderEntity.getRepeatInterval();
-		var periodUnits = reminderEntity.getRepeatIntervalUnit();
-		var minutesBefore = reminderEntity.getMinutesBefore();
-		var minutesBeforeTimes = reminderEntity.getRemindTimes();
-		var minutesBeforeTimesInterval = reminderEntity.getRemindTimesInterval();
-		
-		jobBuilder = newJob(ScheduledJob.class)
-				.withIdentity(taskName, userId)
-				.requestRecovery(true)
-				.usingJobData(TASK_CHAT_ID, chatId)
-				.usingJobData(SEND_MESSAGE, buildDeadlineMessage(reminderEntity))
-				.usingJobData(TASK_JSON, mapper.writeValueAsString(reminderEntity.getTask()))
-				.usingJobData(REMIND_JSON, mapper.writeValueAsString(reminderEntity));
-		
-		if (tags != null && !tags.isEmpty()) {
-			jobBuilder.usingJobData(TAGS, tags.toString());
+		try {
+			scheduleJobs(reminderEntity);
+		} finally {
+			invalidate(reminderEntity.getTask().getOwner().getId().toString());
 		}
-		
-		triggerBuilder = newTrigger()
-				.withIdentity(TRIGGER_PREFIX + "-" + taskName, userId)
-				.startAt(whenToDate);
-		// Если задача - разовая, непериодическая
-		if (period == 0) {
-			job = jobBuilder.build();
-			trigger = triggerBuilder.build();
-			scheduler.scheduleJob(job, trigger);
-			// Если задача - периодическая
-		} else if (period > 0) {
-			// Если период задан в годах
-			if (periodUnits == ChronoUnit.YEARS) {
-				cronWhen = "0 " + when.getMinute() + " " + when.getHour() + " " + when.getDayOfMonth() + " " + when.getMonthValue()
-				+ " ? " + when.getYear() + "/" + period;
-				trigger = triggerBuilder.withSchedule(cronSchedule(cronWhen)
-						.withMisfireHandlingInstructionFireAndProceed())
-						.build();
-				job = jobBuilder.build();
-				scheduler.scheduleJob(job, trigger);
-				// Если - в остальных единицах
-			} else {
-				period = (int) TimeUnit.of(periodUnits).toMinutes(period);
-				job = jobBuilder.build();
-				trigger = triggerBuilder
-						.withSchedule(simpleSchedule()
-								.withIntervalInMinutes(period)
-								.withMisfireHandlingInstructionFireNow()
-						.repeatForever())
-						.build();
-				scheduler.scheduleJob(job, trigger);
+	}
+	@Override
+	public void addTasks(Collection<ITask> tasks) throws SchedulerException, JsonProcessingException {
+		List<ITask> list = new ArrayList<>(tasks);
+		try {
+			repository.saveAll(list, null);
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось сохранить задачи в хранилище задач", e);
+		} finally {
+			owners(list).forEach(this::invalidate);
+		}
+	}
+
+	@Override
+	public void scheduleReminds(Collection<IReminderEntity> reminderEntities) throws SchedulerException, JsonProcessingException {
+		List<IReminderEntity> reminds = new ArrayList<>(reminderEntities);
+		List<ITask> tasks = new ArrayList<>(reminds.size());
+		reminds.forEach(remind -> tasks.add(remind.getTask()));
+		try {
+			scheduleAllJobs(reminds, tasks);
+		} finally {
+			owners(tasks).forEach(this::invalidate);
+		}
+	}
+	/**
+	 * Сохраняет напоминания в хранилище одним пакетом и планирует их задания одной транзакцией планировщика
+	 * @param reminds Напоминания
+	 * @param tasks Их задачи, в том же порядке
+	 * @throws SchedulerException
+	 */
+	protected void scheduleAllJobs(List<IReminderEntity> reminds, List<ITask> tasks) throws SchedulerException {
+		if (reminds.isEmpty()) {
+			return;
+		}
+		// занятые имена - по хранилищу задач (у простых задач заданий Quartz нет), один запрос на владельца: иначе
+		// сохранение заменило бы задачу с тем же именем
+		Set<String> taken = new HashSet<>();
+		try {
+			for (var userId : owners(tasks)) {
+				for (var task : repository.findTasks(userId)) {
+					taken.add(key(task));
+				}
 			}
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось прочитать задачи из хранилища задач", e);
 		}
-		// Если задано напоминание несколько раз с заданным интервалом напоминаний за заданное кол-во минут до наступления дедлайна
-		if (minutesBefore > 0) {
-			var before = when.minusMinutes(minutesBefore);
-			var beforeToDate = DateBuilder.dateOf(before.getHour(), before.getMinute(), 0, before.getDayOfMonth(), before.getMonthValue(), before.getYear());
-			jobBuilder = newJob(ScheduledJob.class)
-					.withIdentity(REMIND_PREFIX + "-" + taskName, userId)
-					.requestRecovery()
-					.usingJobData(TASK_CHAT_ID, chatId)
-					.usingJobData(SEND_MESSAGE, buildRemindMessageBeforeDeadline(reminderEntity));
-			if (tags != null && !tags.isEmpty()) {
-				jobBuilder.usingJobData(TAGS, tags.toString());
+		for (var task : tasks) {
+			if (!taken.add(key(task))) {
+				throw new ObjectAlreadyExistsException("Задача \"" + task.getName() + "\" уже запланирована");
 			}
-			remind = jobBuilder.build();
-			if ( minutesBeforeTimes == 1) {
-				scheduler.scheduleJob(remind, newTrigger()
-						.withIdentity(TRIGGER_PREFIX + "-" + REMIND_PREFIX + "-" + taskName, userId)
-						.startAt(beforeToDate)
-						.build());
-			} else if (minutesBeforeTimes > 1 && minutesBeforeTimesInterval > 0) {
-				scheduler.scheduleJob(remind, newTrigger()
-						.withIdentity(TRIGGER_PREFIX + "-" + REMIND_PREFIX + "-" + taskName, userId)
-						.startAt(beforeToDate)
-						.withSchedule(simpleSchedule()
-								.withIntervalInMinutes(minutesBeforeTimesInterval)
-								.withRepeatCount(minutesBeforeTimes))
-						.build());
+		}
+		long[] ids;
+		try {
+			ids = repository.saveAll(tasks, reminds);
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось сохранить напоминания в хранилище задач", e);
+		}
+		Map<JobDetail, Set<? extends Trigger>> jobs = new LinkedHashMap<>();
+		try {
+			for (int i = 0; i < reminds.size(); i++) {
+				buildJobs(reminds.get(i), ids[i], jobs);
+			}
+			scheduler.scheduleJobs(jobs, false);
+		} catch (SchedulerException | RuntimeException e) {
+			// scheduleJobs либо сохраняет все задания, либо ни одного: убрать нужно только записи, вставленные этим вызовом
+			try {
+				repository.deleteAll(ids);
+			} catch (SQLException e1) {
+				System.out.println(e1.getMessage());
 			}
+			throw e;
 		}
 	}
-
-	@Override
-	public List<ITask> getTaskList(String userId) throws SchedulerException, JsonMappingException, JsonProcessingException {
-		List<ITask> taskList = new ArrayList<>();
-		for (var k : scheduler.getJobKeys(GroupMatcher.groupEquals(userId))) {
-			JobDetail jobDetail = scheduler.getJobDetail(k);
-			if (!jobDetail.getKey().getName().contains(REMIND_PREFIX)) {
-				JobDataMap jobDataMap = jobDetail.getJobDataMap();
-				if (jobDataMap.containsKey(TASK_JSON)) {
-					taskList.add(mapper.readValue(jobDataMap.getString(TASK_JSON), new TypeReference<ITask>() {}));
+	/**
+	 * Создает задание и триггеры для напоминания или задачи с обозначенным дедлайном
+	 * @param reminderEntity Напоминание или задача с обозначенным дедлайном
+	 * @throws SchedulerException
+	 * @throws JsonProcessingException
+	 */
+	protected void scheduleJobs(IReminderEntity reminderEntity) throws SchedulerException, JsonProcessingException {
+		var userId = reminderEntity.getTask().getOwner().getId().toString();
+		var taskName = reminderEntity.getTask().getName();
+		// задача с таким именем уже есть (у простых задач заданий Quartz нет): сохранение заменило бы ее
+		try {
+			for (var task : repository.findTasks(userId)) {
+				if (task.getName().equals(taskName)) {
+					throw new ObjectAlreadyExistsException("Задача \"" + taskName + "\" уже запланирована");
 				}
 			}
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось прочитать задачи из хранилища задач", e);
+		}
+		long taskId;
+		try {
+			taskId = repository.save(reminderEntity.getTask(), reminderEntity);
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось сохранить напоминание в хранилище задач", e);
+		}
+		try {
+			scheduleTriggers(reminderEntity, taskId);
+		} catch (SchedulerException | RuntimeException e) {
+			// без заданий Quartz запись хранилища - напоминание, которое никогда не сработает. scheduleJobs либо сохраняет
+			// задание, либо нет, а задание с тем же именем, из-за которого он мог отказать, - не наше
+			try {
+				repository.delete(taskId);
+			} catch (SQLException e1) {
+				System.out.println(e1.getMessage());
+			}
+			throw e;
 		}
-		return taskList;
+	}
+	/**
+	 * Создает задание и триггеры Quartz для напоминания, уже сохраненного в хранилище, одной транзакцией планировщика
+	 * @param reminderEntity Напоминание или задача с обозначенным дедлайном
+	 * @param taskId Идентификатор записи хранилища
+	 * @throws SchedulerException
+	 */
+	protected void scheduleTriggers(IReminderEntity reminderEntity, long taskId) throws SchedulerException {
+		Map<JobDetail, Set<? extends Trigger>> jobs = new LinkedHashMap<>();
+		buildJobs(reminderEntity, taskId, jobs);
+		scheduler.scheduleJobs(jobs, false);
+	}
+	/**
+	 * Строит задание напоминания с единственным триггером по плану напоминания (ReminderPlanTrigger), не планируя их.
+	 * Напоминания о приближении дедлайна, дедлайн и его повторы - срабатывания одного триггера: какое сообщение отправить,
+	 * задание узнает у сработавшего триггера
+	 * @param reminderEntity Напоминание или задача с обозначенным дедлайном
+	 * @param taskId Идентификатор записи хранилища
+	 * @param jobs Задания с триггерами, куда добавляется построенное
+	 */
+	protected void buildJobs(IReminderEntity reminderEntity, long taskId, Map<JobDetail, Set<? extends Trigger>> jobs) {
+		var userId = reminderEntity.getTask().getOwner().getId().toString();
+		var taskName = reminderEntity.getTask().getName();
+		var when = LocalDateTime.parse(reminderEntity.getScheduledTime(), formatter);
+		var job = newJob(ScheduledJob.class)
+				.withIdentity(taskName, userId)
+				.requestRecovery(true)
+				.usingJobData(PAYLOAD, new JobPayload(JobPayload.DEADLINE, taskId, reminderEntity).encode())
+				.build();
+		var trigger = newTrigger()
+				.withIdentity(TRIGGER_PREFIX + "-" + taskName, userId)
+				.startAt(ReminderPlanTrigger.firstFireTime(reminderEntity, when))
+				.withSchedule(ReminderPlanTrigger.planSchedule(reminderEntity, when))
+				.build();
+		jobs.put(job, Set.of(trigger));
+	}
+
+	@Override
+	public List<ITask> getTaskList(String userId) throws SchedulerException, JsonMappingException, JsonProcessingException {
+		return new ArrayList<>(lists(userId).tasks);
 	}
 	
 	@Override
 	public List<IReminderEntity> getRemindsList(String userId) throws SchedulerException, JsonMappingException, JsonProcessingException {
-		List<IReminderEntity> remindList = new ArrayList<>();
-		for (var k : scheduler.getJobKeys(GroupMatcher.groupEquals(userId))) {
-			JobDetail jobDetail = scheduler.getJobDetail(k);
-			if (!jobDetail.getKey().getName().contains(REMIND_PREFIX)) {
-				JobDataMap jobDataMap = jobDetail.getJobDataMap();
-				if (jobDataMap.containsKey(REMIND_JSON)) {
-					remindList.add(mapper.readValue(jobDataMap.getString(REMIND_JSON), new TypeReference<IReminderEntity>() {}));
-				}
+		return new ArrayList<>(lists(userId).reminds);
+	}
+	/**
+	 * Возвращает списки задач и напоминаний пользователя из кэша, а если их там нет - загружает и кладет в кэш
+	 * @param userId Идентификатор пользователя
+	 * @return Списки задач и напоминаний
+	 * @throws SchedulerException
+	 * @throws JsonProcessingException
+	 */
+	protected UserLists lists(String userId) throws SchedulerException, JsonProcessingException {
+		if (!caching) {
+			return load(userId);
+		}
+		UserLists lists;
+		synchronized (cache) {
+			lists = cache.get(userId);
+		}
+		if (lists != null) {
+			cacheHits.inc();
+			return lists;
+		}
+		cacheMisses.inc();
+		long loadedAt = epoch.get();
+		lists = load(userId);
+		synchronized (cache) {
+			if (epoch.get() == loadedAt) {
+				cache.put(userId, lists);
 			}
 		}
-		return remindList;
+		return lists;
+	}
+	/**
+	 * Загружает из хранилища задачи и напоминания пользователя: два запроса по индексу владельца
+	 * @param userId Идентификатор пользователя
+	 * @return Списки задач и напоминаний
+	 * @throws SchedulerException
+	 * @throws JsonProcessingException
+	 */
+	protected UserLists load(String userId) throws SchedulerException, JsonProcessingException {
+		try {
+			return new UserLists(repository.findTasks(userId), repository.findReminds(userId));
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось прочитать задачи из хранилища задач", e);
+		}
+	}
+	/**
+	 * Удаляет из кэша списки пользователя. Вызывается после любого изменения его заданий
+	 * @param userId Идентификатор пользователя
+	 */
+	protected void invalidate(String userId) {
+		synchronized (cache) {
+			epoch.incrementAndGet();
+			cache.remove(userId);
+		}
 	}
 	
 	@Override
 	public ITask completeTask(ITask task) throws SchedulerException {
-		JobKey key = new JobKey(task.getName(), task.getOwner().getId().toString());
-		if (scheduler.deleteJob(key)) {
+		if (delete(task)) {
 			return task;
 		} else {
 			throw new NoSuchElementException("В списке задач такой задачи не обнаружено");
@@ -270,13 +606,86 @@ public class Reminder implements IReminder {
 	
 	@Override
 	public IReminderEntity completeTask(IReminderEntity reminderEntity, ChronoUnit unit) throws SchedulerException {
-		ITask task = reminderEntity.getTask();
-		JobKey key = new JobKey(task.getName(), task.getOwner().getId().toString());
-		if (scheduler.deleteJob(key)) {
+		if (delete(reminderEntity.getTask())) {
 			reminderEntity.complete(unit);
 			return reminderEntity;
 		} else {
 			throw new NoSuchElementException("В списке задач такой задачи не обнаружено");
 		}
 	}
+	/**
+	 * Удаляет задание задачи из Quartz (и задание напоминания перед дедлайном, если его запланировала прежняя версия), а
+	 * затем - задачу из хранилища. Сбой между ними оставляет задачу в списке без напоминаний, и повторное удаление ее
+	 * завершает; в обратном порядке осталось бы напоминание о задаче, которой нет в списке
+	 * @param task Задача
+	 * @return false, если такой задачи не было
+	 * @throws SchedulerException
+	 */
+	protected boolean delete(ITask task) throws SchedulerException {
+		var userId = task.getOwner().getId().toString();
+		try {
+			boolean deleted = scheduler.deleteJob(new JobKey(task.getName(), userId));
+			scheduler.deleteJob(new JobKey(REMIND_PREFIX + "-" + task.getName(), userId));
+			deleted |= repository.delete(userId, task.getName());
+			return deleted;
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось удалить задачу из хранилища задач", e);
+		} finally {
+			invalidate(userId);
+		}
+	}
+
+	@Override
+	public List<ITask> completeTasks(Collection<ITask> tasks) throws SchedulerException {
+		List<ITask> list = new ArrayList<>(tasks);
+		List<JobKey> keys = new ArrayList<>(list.size() * 2);
+		for (var task : list) {
+			var userId = task.getOwner().getId().toString();
+			keys.add(new JobKey(task.getName(), userId));
+			keys.add(new JobKey(REMIND_PREFIX + "-" + task.getName(), userId));
+		}
+		try {
+			// задания - раньше задач, как в delete(): сбой между ними оставляет в списке задачи без напоминаний
+			scheduler.deleteJobs(keys);
+			boolean[] deleted = repository.deleteAll(list);
+			List<ITask> completed = new ArrayList<>();
+			for (int i = 0; i < deleted.length; i++) {
+				if (deleted[i]) {
+					completed.add(list.get(i));
+				}
+			}
+			return completed;
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось удалить задачи из хранилища задач", e);
+		} finally {
+			owners(list).forEach(this::invalidate);
+		}
+	}
+
+	@Override
+	public List<ITask> completeTasksByTag(String userId, String tag) throws SchedulerException {
+		try {
+			return completeTasks(repository.findTasksByTag(userId, tag));
+		} catch (SQLException e) {
+			throw new SchedulerException("Не удалось прочитать задачи из хранилища задач", e);
+		}
+	}
+	/**
+	 * Возвращает ключ задачи: владелец и имя
+	 * @param task Задача
+	 * @return Ключ
+	 */
+	protected static String key(ITask task) {
+		return task.getOwner().getId() + "/" + task.getName();
+	}
+	/**
+	 * Возвращает идентификаторы владельцев задач
+	 * @param tasks Задачи
+	 * @return Идентификаторы пользователей без повторов
+	 */
+	protected static Set<String> owners(Collection<ITask> tasks) {
+		Set<String> owners = new HashSet<>();
+		tasks.forEach(task -> owners.add(task.getOwner().getId().toString()));
+		return owners;
+	}
 }
@@ -0,0 +1,164 @@
+package telegrambot.todos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import telegrambot.istorage.JournalFile;
+
+/**
+ * Журнал упреждающей записи (write-ahead log) и снимок состояния для WheelReminder. Каждое изменение дописывается в конец
+ * журнала строкой JSON с порядковым номером "seq" и сбрасывается на диск до того, как изменение считается выполненным.
+ * Время от времени владелец пишет снимок всего состояния: снимок пишется рядом, сбрасывается на диск и атомарно заменяет
+ * прежний, после чего журнал начинается заново. При запуске читается снимок, а затем записи журнала с номерами больше
+ * номера снимка, так что сбой между записью снимка и очисткой журнала ничего не повторяет. Недописанная при сбое последняя
+ * строка журнала отбрасывается, а после неудачной записи журнал обрезается до конца последней целой строки
+ * @author borodatyidrug
+ *
+ */
+public class ReminderLog implements Closeable {
+
+	public static final String LOG_FILE = "reminders.log";
+	public static final String SNAPSHOT_FILE = "reminders.snapshot";
+	protected static final String SEQ = "seq";
+
+	protected final File dir;
+	protected final File logFile;
+	protected final File snapshotFile;
+	protected final ObjectMapper mapper;
+	protected JournalFile log;
+	protected long seq;
+	protected int sinceSnapshot;
+
+	/**
+	 * Создает журнал в заданном каталоге. Перед первой записью журнал нужно прочитать методом replay()
+	 * @param dir Каталог журнала и снимка
+	 * @param mapper Преобразователь JSON
+	 */
+	public ReminderLog(File dir, ObjectMapper mapper) {
+		dir.mkdirs();
+		this.dir = dir;
+		this.logFile = new File(dir, LOG_FILE);
+		this.snapshotFile = new File(dir, SNAPSHOT_FILE);
+		this.mapper = mapper;
+	}
+	/**
+	 * Читает снимок и журнал и передает их записи по порядку. Первая запись снимка - заголовок с его номером и данными
+	 * владельца; следом - записи состояния, затем - записи журнала
+	 * @param apply Получатель записей
+	 * @throws IOException
+	 */
+	public void replay(Consumer<JsonNode> apply) throws IOException {
+		long snapshotSeq = 0;
+		if (snapshotFile.exists()) {
+			try (InputStream in = new BufferedInputStream(new FileInputStream(snapshotFile))) {
+				byte[] line;
+				boolean header = true;
+				while ((line = JournalFile.readLine(in)) != null) {
+					var record = mapper.readTree(line);
+					if (header) {
+						snapshotSeq = record.path(SEQ).asLong();
+						header = false;
+					}
+					apply.accept(record);
+				}
+			}
+		}
+		seq = snapshotSeq;
+		long covered = snapshotSeq;
+		long valid = JournalFile.read(logFile, mapper, record -> {
+			long recordSeq = record.path(SEQ).asLong();
+			if (recordSeq > covered) {
+				apply.accept(record);
+				seq = Math.max(seq, recordSeq);
+				sinceSnapshot++;
+			}
+		});
+		log = JournalFile.open(logFile, valid);
+	}
+	/**
+	 * Дописывает запись в журнал и сбрасывает ее на диск
+	 * @param record Запись; номер seq проставляется журналом
+	 * @throws IOException
+	 */
+	public void append(ObjectNode record) throws IOException {
+		append(List.of(record));
+	}
+	/**
+	 * Дописывает записи в журнал и сбрасывает их на диск один раз на все. Если записать не удалось, то ни одна из записей
+	 * в журнале не остается
+	 * @param records Записи; номера seq проставляются журналом
+	 * @throws IOException
+	 */
+	public void append(List<ObjectNode> records) throws IOException {
+		if (records.isEmpty()) {
+			return;
+		}
+		var bytes = new ByteArrayOutputStream(256 * records.size());
+		long next = seq;
+		for (var record : records) {
+			record.put(SEQ, ++next);
+			bytes.write(mapper.writeValueAsBytes(record));
+			bytes.write('\n');
+		}
+		log.append(bytes, true);
+		seq = next;
+		sinceSnapshot += records.size();
+	}
+	/**
+	 * Записывает снимок состояния и начинает журнал заново. Журнал очищается только после сброса на диск каталога: до
+	 * этого после сбоя питания в каталоге мог бы оказаться прежний снимок, но уже с пустым журналом
+	 * @param header Заголовок снимка; номер seq проставляется журналом
+	 * @param records Записи состояния
+	 * @throws IOException
+	 */
+	public void snapshot(ObjectNode header, Iterator<ObjectNode> records) throws IOException {
+		header.put(SEQ, seq);
+		var temp = new File(snapshotFile.getPath() + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(temp);
+				BufferedOutputStream out = new BufferedOutputStream(fos, 1 << 16)) {
+			out.write(mapper.writeValueAsBytes(header));
+			out.write('\n');
+			while (records.hasNext()) {
+				out.write(mapper.writeValueAsBytes(records.next()));
+				out.write('\n');
+			}
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		JournalFile.syncDirectory(dir);
+		log.close();
+		log = JournalFile.create(logFile);
+		sinceSnapshot = 0;
+	}
+	/**
+	 * Возвращает число записей журнала после последнего снимка
+	 * @return Число записей
+	 */
+	public int sinceSnapshot() {
+		return sinceSnapshot;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (log != null) {
+			log.close();
+		}
+	}
+}
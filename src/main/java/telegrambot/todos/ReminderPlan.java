@@ -0,0 +1,252 @@
+package telegrambot.todos;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * План срабатываний одного напоминания: напоминания о приближении дедлайна, сам дедлайн и его повторы. План ничего не
+ * хранит, кроме настроек напоминания, и вычисляет любое следующее срабатывание за O(1), поэтому одному заданию Quartz
+ * достаточно одного триггера (ReminderPlanTrigger) вместо задания дедлайна и задания "напомнить заранее" с их триггерами.
+ * - Дедлайны: when, when + период, when + 2 периода, ... Минуты и часы - фиксированной длины, как у SimpleTrigger, а дни,
+ * недели, месяцы и годы прибавляются по календарю: дедлайн приходится на то же время суток, а 31 января + месяц - на 28
+ * или 29 февраля.
+ * - Напоминания заранее - только перед первым дедлайном: при remindTimes == 1 - одно за minutesBefore минут, при
+ * remindTimes > 1 и интервале > 0 - remindTimes + 1 раз с интервалом, начиная за minutesBefore минут, но только до
+ * дедлайна: напоминание, которое пришлось бы на дедлайн или после него, не отправляется
+ * @author borodatyidrug
+ *
+ */
+public class ReminderPlan {
+
+	/**
+	 * Срабатывание плана: момент и вид сообщения (JobPayload.DEADLINE или JobPayload.REMIND_BEFORE)
+	 */
+	public static class Fire {
+
+		protected final long millis;
+		protected final String kind;
+
+		protected Fire(long millis, String kind) {
+			this.millis = millis;
+			this.kind = kind;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public String getKind() {
+			return kind;
+		}
+
+		@Override
+		public String toString() {
+			return kind + "@" + Instant.ofEpochMilli(millis);
+		}
+	}
+
+	protected static final long MINUTE_MILLIS = 60_000;
+
+	protected final LocalDateTime deadline;
+	protected final ZoneId zone;
+	protected final int repeatInterval;
+	protected final ChronoUnit repeatUnit;
+	/**
+	 * Первый дедлайн и шаг повтора фиксированной длины (0 - календарный шаг или повтора нет)
+	 */
+	protected final long first;
+	protected final long step;
+	/**
+	 * Первое напоминание заранее, интервал между напоминаниями и их число
+	 */
+	protected final long firstNudge;
+	protected final long nudgeStep;
+	protected final int nudges;
+
+	/**
+	 * Создает план
+	 * @param deadline Первый дедлайн
+	 * @param zone Часовой пояс, в котором задан дедлайн
+	 * @param repeatInterval Период повтора дедлайна, 0 - без повтора
+	 * @param repeatUnit Единицы периода
+	 * @param minutesBefore За сколько минут до дедлайна напомнить впервые, 0 - не напоминать
+	 * @param remindTimes Сколько раз напомнить
+	 * @param remindInterval Интервал между напоминаниями в минутах
+	 */
+	public ReminderPlan(LocalDateTime deadline, ZoneId zone, int repeatInterval, ChronoUnit repeatUnit, int minutesBefore,
+			int remindTimes, int remindInterval) {
+		this.deadline = deadline;
+		this.zone = zone;
+		this.repeatInterval = repeatUnit == null ? 0 : Math.max(0, repeatInterval);
+		this.repeatUnit = repeatUnit;
+		this.first = toMillis(deadline);
+		this.step = this.repeatInterval > 0 && !repeatUnit.isDurationEstimated()
+				? repeatUnit.getDuration().multipliedBy(this.repeatInterval).toMillis() : 0;
+		this.firstNudge = first - minutesBefore * MINUTE_MILLIS;
+		this.nudgeStep = remindTimes > 1 ? remindInterval * MINUTE_MILLIS : 0;
+		int count = 0;
+		if (minutesBefore > 0) {
+			if (remindTimes == 1) {
+				count = 1;
+			} else if (remindTimes > 1 && remindInterval > 0) {
+				// как у прежнего триггера с withRepeatCount(remindTimes): первое напоминание и remindTimes повторов
+				count = remindTimes + 1;
+			}
+		}
+		// напоминания "заранее" не доходят до дедлайна
+		if (count > 1) {
+			count = (int) Math.min(count, (first - firstNudge - 1) / nudgeStep + 1);
+		}
+		this.nudges = count;
+	}
+	/**
+	 * Создает план напоминания в часовом поясе системы, как его вводит пользователь
+	 * @param remind Напоминание или задача с обозначенным дедлайном
+	 * @param deadline Разобранный срок напоминания
+	 * @return План
+	 */
+	public static ReminderPlan of(IReminderEntity remind, LocalDateTime deadline) {
+		return new ReminderPlan(deadline, ZoneId.systemDefault(), remind.getRepeatInterval(), remind.getRepeatIntervalUnit(),
+				remind.getMinutesBefore(), remind.getRemindTimes(), remind.getRemindTimesInterval());
+	}
+	/**
+	 * Возвращает первое срабатывание плана
+	 * @return Срабатывание
+	 */
+	public Fire first() {
+		return nudges > 0 ? new Fire(firstNudge, JobPayload.REMIND_BEFORE) : new Fire(first, JobPayload.DEADLINE);
+	}
+	/**
+	 * Возвращает первое срабатывание строго после заданного момента
+	 * @param after Миллисекунды эпохи
+	 * @return Срабатывание или null, если план исчерпан
+	 */
+	public Fire next(long after) {
+		long d = deadlineAfter(after);
+		long n = nudgeAfter(after);
+		if (d < 0 && n < 0) {
+			return null;
+		}
+		if (n < 0 || (d >= 0 && d <= n)) {
+			return new Fire(d, JobPayload.DEADLINE);
+		}
+		return new Fire(n, JobPayload.REMIND_BEFORE);
+	}
+	/**
+	 * Возвращает последнее срабатывание не позже заданного момента: какое сообщение отправить, если все пропущенные
+	 * срабатывания схлопываются в одно
+	 * @param notAfter Миллисекунды эпохи
+	 * @return Срабатывание или null, если до этого момента план не срабатывает
+	 */
+	public Fire latest(long notAfter) {
+		long d = deadlineNotAfter(notAfter);
+		long n = nudgeNotAfter(notAfter);
+		if (d < 0 && n < 0) {
+			return null;
+		}
+		if (d >= n) {
+			return new Fire(d, JobPayload.DEADLINE);
+		}
+		return new Fire(n, JobPayload.REMIND_BEFORE);
+	}
+	/**
+	 * Возвращает последнее срабатывание плана
+	 * @return Срабатывание или null, если дедлайн повторяется без конца
+	 */
+	public Fire last() {
+		return repeatInterval > 0 ? null : new Fire(first, JobPayload.DEADLINE);
+	}
+
+	protected long deadlineAfter(long after) {
+		if (first > after) {
+			return first;
+		}
+		if (repeatInterval == 0) {
+			return -1;
+		}
+		if (step > 0) {
+			return first + (Math.floorDiv(after - first, step) + 1) * step;
+		}
+		return occurrence(index(after) + 1);
+	}
+
+	protected long deadlineNotAfter(long notAfter) {
+		if (first > notAfter) {
+			return -1;
+		}
+		if (repeatInterval == 0) {
+			return first;
+		}
+		if (step > 0) {
+			return first + Math.floorDiv(notAfter - first, step) * step;
+		}
+		return occurrence(index(notAfter));
+	}
+	/**
+	 * Номер последнего дедлайна с календарным шагом не позже заданного момента. Номер оценивается по средней длине единицы
+	 * и уточняется в обе стороны на один-два шага
+	 * @param notAfter Миллисекунды эпохи, не раньше первого дедлайна
+	 * @return Номер повтора, 0 - первый дедлайн
+	 */
+	protected long index(long notAfter) {
+		long estimated = repeatUnit.getDuration().multipliedBy(repeatInterval).toMillis();
+		long k = (notAfter - first) / estimated;
+		while (k > 0 && occurrence(k) > notAfter) {
+			k--;
+		}
+		while (occurrence(k + 1) <= notAfter) {
+			k++;
+		}
+		return k;
+	}
+
+	protected long nudgeAfter(long after) {
+		if (nudges == 0) {
+			return -1;
+		}
+		if (firstNudge > after) {
+			return firstNudge;
+		}
+		if (nudgeStep == 0) {
+			return -1;
+		}
+		long i = Math.floorDiv(after - firstNudge, nudgeStep) + 1;
+		return i < nudges ? nudge(i) : -1;
+	}
+
+	protected long nudgeNotAfter(long notAfter) {
+		if (nudges == 0 || firstNudge > notAfter) {
+			return -1;
+		}
+		if (nudgeStep == 0) {
+			return firstNudge;
+		}
+		return nudge(Math.min(nudges - 1, Math.floorDiv(notAfter - firstNudge, nudgeStep)));
+	}
+
+	protected long nudge(long i) {
+		return firstNudge + i * nudgeStep;
+	}
+
+	protected long occurrence(long k) {
+		return k == 0 ? first : toMillis(deadline.plus(k * repeatInterval, repeatUnit));
+	}
+
+	protected long toMillis(LocalDateTime time) {
+		return time.atZone(zone).toInstant().toEpochMilli();
+	}
+
+	public LocalDateTime getDeadline() {
+		return deadline;
+	}
+
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	public int getNudges() {
+		return nudges;
+	}
+}
@@ -0,0 +1,344 @@
+package telegrambot.todos;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+import org.quartz.Calendar;
+import org.quartz.ScheduleBuilder;
+import org.quartz.impl.triggers.AbstractTrigger;
+import org.quartz.spi.MutableTrigger;
+
+/**
+ * Триггер, срабатывающий по плану напоминания (ReminderPlan): напоминания о приближении дедлайна, дедлайн и его повторы -
+ * одно задание и один триггер вместо двух заданий с двумя триггерами. Какое сообщение отправить, задание узнает у
+ * сработавшего триггера методом getFiredKind(). Кроме настроек плана, триггер хранит только вид следующего срабатывания.
+ * Пропуск срабатываний (MISFIRE_INSTRUCTION_SMART_POLICY, он же MISFIRE_INSTRUCTION_FIRE_ONCE_NOW): все пропущенные
+ * срабатывания схлопываются в одно немедленное с видом последнего пропущенного, затем план продолжается с текущего момента.
+ * В JDBC-хранилище триггер записывается делегатом ReminderPlanTriggerPersistenceDelegate
+ * @author borodatyidrug
+ *
+ */
+public class ReminderPlanTrigger extends AbstractTrigger<ReminderPlanTrigger> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Сработать один раз немедленно, с видом последнего пропущенного срабатывания
+	 */
+	public static final int MISFIRE_INSTRUCTION_FIRE_ONCE_NOW = 1;
+	/**
+	 * Пропустить все пропущенные срабатывания и дождаться следующего по плану
+	 */
+	public static final int MISFIRE_INSTRUCTION_DO_NOTHING = 2;
+	/**
+	 * Сколько подряд исключенных календарем срабатываний пропускать, прежде чем считать план исчерпанным
+	 */
+	protected static final int MAX_EXCLUDED = 1000;
+
+	/**
+	 * Построитель расписания для TriggerBuilder.withSchedule(): настройки плана напоминания
+	 */
+	public static class PlanScheduleBuilder extends ScheduleBuilder<ReminderPlanTrigger> {
+
+		protected final long deadlineMillis;
+		protected final String timeZone;
+		protected final int repeatInterval;
+		protected final ChronoUnit repeatUnit;
+		protected final int minutesBefore;
+		protected final int remindTimes;
+		protected final int remindInterval;
+		protected int misfireInstruction = MISFIRE_INSTRUCTION_SMART_POLICY;
+
+		protected PlanScheduleBuilder(long deadlineMillis, String timeZone, int repeatInterval, ChronoUnit repeatUnit,
+				int minutesBefore, int remindTimes, int remindInterval) {
+			this.deadlineMillis = deadlineMillis;
+			this.timeZone = timeZone;
+			this.repeatInterval = repeatInterval;
+			this.repeatUnit = repeatUnit;
+			this.minutesBefore = minutesBefore;
+			this.remindTimes = remindTimes;
+			this.remindInterval = remindInterval;
+		}
+		/**
+		 * Пропущенные срабатывания не отправляются, триггер ждет следующего по плану
+		 * @return Этот построитель
+		 */
+		public PlanScheduleBuilder withMisfireHandlingInstructionDoNothing() {
+			misfireInstruction = MISFIRE_INSTRUCTION_DO_NOTHING;
+			return this;
+		}
+
+		@Override
+		protected MutableTrigger build() {
+			var trigger = new ReminderPlanTrigger(deadlineMillis, timeZone, repeatInterval, repeatUnit, minutesBefore,
+					remindTimes, remindInterval);
+			trigger.setMisfireInstruction(misfireInstruction);
+			return trigger;
+		}
+	}
+
+	protected final long deadlineMillis;
+	protected final String timeZone;
+	protected final int repeatInterval;
+	protected final ChronoUnit repeatUnit;
+	protected final int minutesBefore;
+	protected final int remindTimes;
+	protected final int remindInterval;
+	protected Date startTime;
+	protected Date endTime;
+	protected Date nextFireTime;
+	protected Date previousFireTime;
+	/**
+	 * Вид следующего срабатывания и вид срабатывания, которое выполняется сейчас
+	 */
+	protected String nextKind;
+	protected String firedKind;
+	protected transient ReminderPlan plan;
+
+	/**
+	 * Создает триггер
+	 * @param deadlineMillis Первый дедлайн, миллисекунды эпохи
+	 * @param timeZone Часовой пояс, в котором пользователь задал дедлайн
+	 * @param repeatInterval Период повтора дедлайна, 0 - без повтора
+	 * @param repeatUnit Единицы периода, null - без повтора
+	 * @param minutesBefore За сколько минут до дедлайна напомнить впервые, 0 - не напоминать
+	 * @param remindTimes Сколько раз напомнить
+	 * @param remindInterval Интервал между напоминаниями в минутах
+	 */
+	public ReminderPlanTrigger(long deadlineMillis, String timeZone, int repeatInterval, ChronoUnit repeatUnit,
+			int minutesBefore, int remindTimes, int remindInterval) {
+		this.deadlineMillis = deadlineMillis;
+		this.timeZone = timeZone;
+		this.repeatInterval = repeatInterval;
+		this.repeatUnit = repeatUnit;
+		this.minutesBefore = minutesBefore;
+		this.remindTimes = remindTimes;
+		this.remindInterval = remindInterval;
+	}
+	/**
+	 * Возвращает первое срабатывание плана напоминания: момент, с которого Reminder начинает триггер
+	 * @param remind Напоминание или задача с обозначенным дедлайном
+	 * @param deadline Разобранный срок напоминания
+	 * @return Момент первого срабатывания
+	 */
+	public static Date firstFireTime(IReminderEntity remind, LocalDateTime deadline) {
+		return new Date(ReminderPlan.of(remind, deadline).first().getMillis());
+	}
+	/**
+	 * Возвращает расписание по плану напоминания в часовом поясе системы
+	 * @param remind Напоминание или задача с обозначенным дедлайном
+	 * @param deadline Разобранный срок напоминания
+	 * @return Построитель расписания для TriggerBuilder.withSchedule()
+	 */
+	public static PlanScheduleBuilder planSchedule(IReminderEntity remind, LocalDateTime deadline) {
+		var zone = ZoneId.systemDefault();
+		return new PlanScheduleBuilder(deadline.atZone(zone).toInstant().toEpochMilli(), zone.getId(),
+				remind.getRepeatInterval(), remind.getRepeatIntervalUnit(), remind.getMinutesBefore(),
+				remind.getRemindTimes(), remind.getRemindTimesInterval());
+	}
+	/**
+	 * Возвращает план напоминания, по которому срабатывает триггер
+	 * @return План
+	 */
+	public ReminderPlan getPlan() {
+		if (plan == null) {
+			var zone = ZoneId.of(timeZone);
+			plan = new ReminderPlan(LocalDateTime.ofInstant(Instant.ofEpochMilli(deadlineMillis), zone), zone, repeatInterval,
+					repeatUnit, minutesBefore, remindTimes, remindInterval);
+		}
+		return plan;
+	}
+
+	/**
+	 * Вычисляет первое срабатывание плана не раньше startTime. Reminder задает startTime равным первому срабатыванию плана,
+	 * даже если оно в прошлом: тогда оно пропущено и отправится сразу. При восстановлении после простоя (MisfireRecovery)
+	 * startTime - текущий момент, и все, что было до него, пропускается
+	 */
+	@Override
+	public Date computeFirstFireTime(Calendar calendar) {
+		var fire = getPlan().first();
+		if (startTime != null && fire.getMillis() < startTime.getTime()) {
+			fire = getPlan().next(startTime.getTime() - 1);
+		}
+		setNext(included(fire, calendar));
+		return nextFireTime;
+	}
+
+	@Override
+	public void triggered(Calendar calendar) {
+		previousFireTime = nextFireTime;
+		firedKind = nextKind;
+		setNext(nextFireTime == null ? null : included(getPlan().next(nextFireTime.getTime()), calendar));
+	}
+
+	@Override
+	public void updateAfterMisfire(Calendar calendar) {
+		int instruction = getMisfireInstruction();
+		if (instruction == MISFIRE_INSTRUCTION_IGNORE_MISFIRE_POLICY) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (instruction == MISFIRE_INSTRUCTION_DO_NOTHING) {
+			setNext(included(getPlan().next(now), calendar));
+			return;
+		}
+		// все пропущенное - одно сообщение того вида, что пропущен последним
+		var missed = getPlan().latest(now);
+		if (missed != null) {
+			nextKind = missed.getKind();
+		}
+		nextFireTime = new Date(now);
+	}
+
+	@Override
+	public void updateWithNewCalendar(Calendar calendar, long misfireThreshold) {
+		var fire = included(previousFireTime == null ? getPlan().first() : getPlan().next(previousFireTime.getTime()),
+				calendar);
+		long now = System.currentTimeMillis();
+		// пропущенное из-за смены календаря не отправляется задним числом
+		while (fire != null && fire.getMillis() < now - misfireThreshold) {
+			fire = included(getPlan().next(fire.getMillis()), calendar);
+		}
+		setNext(fire);
+	}
+
+	@Override
+	public Date getFireTimeAfter(Date afterTime) {
+		var fire = getPlan().next(afterTime == null ? System.currentTimeMillis() : afterTime.getTime());
+		return fire == null ? null : new Date(fire.getMillis());
+	}
+
+	@Override
+	public Date getFinalFireTime() {
+		var fire = getPlan().last();
+		return fire == null ? null : new Date(fire.getMillis());
+	}
+
+	@Override
+	public boolean mayFireAgain() {
+		return nextFireTime != null;
+	}
+
+	@Override
+	protected boolean validateMisfireInstruction(int misfireInstruction) {
+		return misfireInstruction >= MISFIRE_INSTRUCTION_IGNORE_MISFIRE_POLICY
+				&& misfireInstruction <= MISFIRE_INSTRUCTION_DO_NOTHING;
+	}
+
+	@Override
+	public ScheduleBuilder<ReminderPlanTrigger> getScheduleBuilder() {
+		var builder = new PlanScheduleBuilder(deadlineMillis, timeZone, repeatInterval, repeatUnit, minutesBefore,
+				remindTimes, remindInterval);
+		builder.misfireInstruction = getMisfireInstruction();
+		return builder;
+	}
+	/**
+	 * Пропускает срабатывания, исключенные календарем
+	 * @param fire Срабатывание плана
+	 * @param calendar Календарь триггера или null
+	 * @return Первое не исключенное срабатывание начиная с fire, или null
+	 */
+	protected ReminderPlan.Fire included(ReminderPlan.Fire fire, Calendar calendar) {
+		for (int i = 0; fire != null && calendar != null && !calendar.isTimeIncluded(fire.getMillis()); i++) {
+			fire = i < MAX_EXCLUDED ? getPlan().next(fire.getMillis()) : null;
+		}
+		return fire;
+	}
+
+	protected void setNext(ReminderPlan.Fire fire) {
+		nextFireTime = fire == null ? null : new Date(fire.getMillis());
+		nextKind = fire == null ? null : fire.getKind();
+	}
+
+	@Override
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	@Override
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
+	@Override
+	public Date getEndTime() {
+		return endTime;
+	}
+
+	@Override
+	public void setEndTime(Date endTime) {
+		this.endTime = endTime;
+	}
+
+	@Override
+	public Date getNextFireTime() {
+		return nextFireTime;
+	}
+
+	@Override
+	public void setNextFireTime(Date nextFireTime) {
+		this.nextFireTime = nextFireTime;
+	}
+
+	@Override
+	public Date getPreviousFireTime() {
+		return previousFireTime;
+	}
+
+	@Override
+	public void setPreviousFireTime(Date previousFireTime) {
+		this.previousFireTime = previousFireTime;
+	}
+	/**
+	 * Возвращает вид следующего срабатывания
+	 * @return JobPayload.DEADLINE или JobPayload.REMIND_BEFORE, null - план исчерпан
+	 */
+	public String getNextKind() {
+		return nextKind;
+	}
+	/**
+	 * Восстанавливает вид следующего срабатывания: вызывается JDBC-хранилищем при чтении триггера
+	 * @param nextKind JobPayload.DEADLINE или JobPayload.REMIND_BEFORE
+	 */
+	public void setNextKind(String nextKind) {
+		this.nextKind = nextKind;
+	}
+	/**
+	 * Возвращает вид срабатывания, ради которого выполняется задание
+	 * @return JobPayload.DEADLINE или JobPayload.REMIND_BEFORE, null - триггер еще не срабатывал
+	 */
+	public String getFiredKind() {
+		return firedKind;
+	}
+
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	public String getTimeZone() {
+		return timeZone;
+	}
+
+	public int getRepeatInterval() {
+		return repeatInterval;
+	}
+
+	public ChronoUnit getRepeatUnit() {
+		return repeatUnit;
+	}
+
+	public int getMinutesBefore() {
+		return minutesBefore;
+	}
+
+	public int getRemindTimes() {
+		return remindTimes;
+	}
+
+	public int getRemindInterval() {
+		return remindInterval;
+	}
+}
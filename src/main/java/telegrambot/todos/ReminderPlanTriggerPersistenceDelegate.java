@@ -0,0 +1,103 @@
+package telegrambot.todos;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Properties;
+
+import org.quartz.impl.jdbcjobstore.SimplePropertiesTriggerPersistenceDelegateSupport;
+import org.quartz.impl.jdbcjobstore.SimplePropertiesTriggerProperties;
+import org.quartz.spi.OperableTrigger;
+
+/**
+ * Записывает ReminderPlanTrigger в JDBC-хранилище Quartz одной строкой таблицы QRTZ_SIMPROP_TRIGGERS (плюс общая строка
+ * QRTZ_TRIGGERS, как у любого триггера): string1 - единицы периода, string2 - вид следующего срабатывания, string3 -
+ * первый дедлайн с часовым поясом (ZonedDateTime), int1 - период, int2 - за сколько минут напомнить, long1 - сколько раз
+ * напомнить, long2 - интервал напоминаний. Дедлайн - строкой, а не миллисекундами в long: Quartz 2.3 читает столбцы
+ * LONG_PROP через getInt(). Без делегата JDBC-хранилище сериализовало бы триггер целиком в QRTZ_BLOB_TRIGGERS.
+ * Делегат подключается настройкой org.quartz.jobStore.driverDelegateInitString (см. register())
+ * @author borodatyidrug
+ *
+ */
+public class ReminderPlanTriggerPersistenceDelegate extends SimplePropertiesTriggerPersistenceDelegateSupport {
+	/**
+	 * Тип триггера в столбце TRIGGER_TYPE (не длиннее 8 символов)
+	 */
+	public static final String TYPE = "REMPLAN";
+
+	protected static final String DRIVER_DELEGATE_INIT = "org.quartz.jobStore.driverDelegateInitString";
+	protected static final String DELEGATE_CLASSES = "triggerPersistenceDelegateClasses";
+
+	/**
+	 * Возвращает копию настроек Quartz с подключенным делегатом, если хранилище заданий - JDBC
+	 * @param properties Настройки Quartz
+	 * @return Настройки для StdSchedulerFactory
+	 */
+	public static Properties register(Properties properties) {
+		if (!SchedulerProfile.isJdbcJobStore(properties.getProperty(SchedulerProfile.JOB_STORE_CLASS))) {
+			return properties;
+		}
+		var result = new Properties();
+		result.putAll(properties);
+		var init = properties.getProperty(DRIVER_DELEGATE_INIT, "").trim();
+		var delegate = ReminderPlanTriggerPersistenceDelegate.class.getName();
+		if (init.contains(delegate)) {
+			return result;
+		}
+		// настройки строки инициализации разделяются "|", классы делегатов - запятой
+		var settings = new StringBuilder();
+		boolean added = false;
+		for (var setting : init.isEmpty() ? new String[0] : init.split("\\|")) {
+			if (settings.length() > 0) {
+				settings.append('|');
+			}
+			if (setting.trim().startsWith(DELEGATE_CLASSES + "=")) {
+				settings.append(setting.trim()).append(',').append(delegate);
+				added = true;
+			} else {
+				settings.append(setting);
+			}
+		}
+		if (!added) {
+			settings.append(settings.length() > 0 ? "|" : "").append(DELEGATE_CLASSES).append('=').append(delegate);
+		}
+		result.setProperty(DRIVER_DELEGATE_INIT, settings.toString());
+		return result;
+	}
+
+	@Override
+	public boolean canHandleTriggerType(OperableTrigger trigger) {
+		return trigger instanceof ReminderPlanTrigger;
+	}
+
+	@Override
+	public String getHandledTriggerTypeDiscriminator() {
+		return TYPE;
+	}
+
+	@Override
+	protected SimplePropertiesTriggerProperties getTriggerProperties(OperableTrigger trigger) {
+		var plan = (ReminderPlanTrigger) trigger;
+		var properties = new SimplePropertiesTriggerProperties();
+		properties.setString1(plan.getRepeatUnit() == null ? null : plan.getRepeatUnit().name());
+		properties.setString2(plan.getNextKind());
+		properties.setString3(ZonedDateTime.ofInstant(Instant.ofEpochMilli(plan.getDeadlineMillis()),
+				ZoneId.of(plan.getTimeZone())).toString());
+		properties.setInt1(plan.getRepeatInterval());
+		properties.setInt2(plan.getMinutesBefore());
+		properties.setLong1(plan.getRemindTimes());
+		properties.setLong2(plan.getRemindInterval());
+		return properties;
+	}
+
+	@Override
+	protected TriggerPropertyBundle getTriggerPropertyBundle(SimplePropertiesTriggerProperties properties) {
+		var deadline = ZonedDateTime.parse(properties.getString3());
+		var builder = new ReminderPlanTrigger.PlanScheduleBuilder(deadline.toInstant().toEpochMilli(),
+				deadline.getZone().getId(), properties.getInt1(),
+				properties.getString1() == null ? null : ChronoUnit.valueOf(properties.getString1()), properties.getInt2(),
+				(int) properties.getLong1(), (int) properties.getLong2());
+		return new TriggerPropertyBundle(builder, new String[] {"nextKind"}, new Object[] {properties.getString2()});
+	}
+}
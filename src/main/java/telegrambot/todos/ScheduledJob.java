@@ -1,44 +1,63 @@
 package telegrambot.todos;
 
+import java.util.concurrent.TimeUnit;
+
 import org.quartz.Job;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.bots.AbsSender;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.quartz.JobExecutionException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
 
-import telegrambot.familyassistant.FamilyAssistant;
+import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.metrics.Histogram;
 /**
  * Класс-задача ("Работа"), единственное предназначение которой - отправить в нужный телеграм-чат сообщение, которое строится
- * объектом класса при вызове метода execute(). Сообщение собирается на основе данных из JobDataMap, получаемый из контекста.
+ * объектом класса при вызове метода execute(). Сообщение собирается на основе данных из JobDataMap, получаемый из контекста:
+ * компактных данных задания (JobPayload), а у заданий, запланированных прежними версиями, - готового текста сообщения.
  * В свою очередь, JobDataMap заполняется на этапе построения объектов JobDetail в иных очевидных местах
  * @author borodatyidrug
  *
  */
 public class ScheduledJob implements Job {
+	/**
+	 * Опоздание запуска задачи относительно запланированного момента. Растет, когда потоков Quartz не хватает или
+	 * хранилище задач не успевает выдавать триггеры
+	 */
+	protected static final Histogram FIRE_LAG = FamilyAssistantBot.getMetrics().histogram("quartz_job_fire_lag_seconds",
+			"Опоздание запуска задачи Quartz относительно запланированного момента");
 
 	public ScheduledJob() {
 	}
 
 	@Override
-	public void execute(JobExecutionContext context) {
-		// ключи
-		String taskChatId = "chatId";
-		String sendMessage = "sendmessage";
-		// ссылка на экземпляр бота
-		AbsSender as = (AbsSender) FamilyAssistant.bot;
-		
+	public void execute(JobExecutionContext context) throws JobExecutionException {
+		if (context.getScheduledFireTime() != null) {
+			FIRE_LAG.observe(Math.max(0, context.getFireTime().getTime() - context.getScheduledFireTime().getTime()),
+					TimeUnit.MILLISECONDS);
+		}
 		JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
-		try {
-			System.out.println(jobDataMap.getString(sendMessage));
-			as.execute(SendMessage.builder()
-					.text(jobDataMap.getString(sendMessage))
-					.chatId(jobDataMap.getString(taskChatId))
-					.build());
-		} catch (TelegramApiException e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
+		String chatId;
+		String text;
+		if (jobDataMap.containsKey(Reminder.PAYLOAD)) {
+			try {
+				var payload = JobPayload.decode(jobDataMap.getString(Reminder.PAYLOAD));
+				chatId = payload.getChatId();
+				// у задания с планом напоминания вид сообщения - вид срабатывания триггера, у прежних заданий - их собственный
+				text = context.getTrigger() instanceof ReminderPlanTrigger plan && plan.getFiredKind() != null
+						? payload.render(plan.getFiredKind()) : payload.render();
+			} catch (JsonProcessingException | IllegalArgumentException e) {
+				throw new JobExecutionException("Не удалось прочитать данные задания " + context.getJobDetail().getKey(), e);
+			}
+		} else {
+			// задание запланировано прежней версией: текст сообщения построен заранее
+			chatId = jobDataMap.getString(Reminder.TASK_CHAT_ID);
+			text = jobDataMap.getString(Reminder.SEND_MESSAGE);
 		}
+		System.out.println(text);
+		// уведомление собирается с другими уведомлениями чата и ставится в очередь конвейера исходящих сообщений, поток
+		// Quartz не ждет ни окна сборки, ни ответа Telegram Bot API
+		FamilyAssistantBot.getNotifier().accept(chatId, text);
 	}
 
 }
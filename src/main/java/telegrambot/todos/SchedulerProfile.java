@@ -0,0 +1,107 @@
+package telegrambot.todos;
+
+import java.util.Properties;
+
+import org.quartz.impl.jdbcjobstore.JobStoreSupport;
+
+/**
+ * Профиль планировщика Quartz: поправки, которые Reminder вносит в настройки из файла quartz.properties перед созданием
+ * планировщика
+ * @author borodatyidrug
+ *
+ */
+public enum SchedulerProfile {
+	/**
+	 * Настройки из файла без изменений
+	 */
+	STANDARD {
+		@Override
+		protected void tune(Properties properties, int processors) {
+		}
+	},
+	/**
+	 * Профиль для всплесков напоминаний, приходящихся на одну минуту. С настройками по-умолчанию Quartz забирает из хранилища
+	 * по одному триггеру за транзакцию и выполняет задания пятью потоками, так что сотни напоминаний одной минуты уходят с
+	 * опозданием. Этот профиль:
+	 * - задает число потоков по числу процессоров: задания почти не нагружают процессор, а ждут базу данных и очередь
+	 * исходящих сообщений, поэтому потоков в несколько раз больше, чем процессоров;
+	 * - забирает триггеры пачками до числа потоков, в т.ч. те, что сработают в ближайшие FIRE_AHEAD_MILLIS;
+	 * - для JDBC-хранилища заданий забирает пачку под блокировкой (иначе пачки нескольких потоков могут пересечься) и
+	 * подключается к базе данных через пул соединений HikariCP с числом соединений не меньше потоков + 3
+	 */
+	HIGH_THROUGHPUT {
+		@Override
+		protected void tune(Properties properties, int processors) {
+			int threads = threadCount(processors);
+			properties.setProperty(THREAD_COUNT, Integer.toString(threads));
+			properties.setProperty(BATCH_MAX_COUNT, Integer.toString(threads));
+			properties.setProperty(BATCH_FIRE_AHEAD, Long.toString(FIRE_AHEAD_MILLIS));
+			if (!isJdbcJobStore(properties.getProperty(JOB_STORE_CLASS))) {
+				return;
+			}
+			properties.setProperty(ACQUIRE_WITHIN_LOCK, "true");
+			var dataSource = properties.getProperty(JOB_STORE_DATA_SOURCE);
+			if (dataSource == null) {
+				return;
+			}
+			var prefix = DATA_SOURCE_PREFIX + dataSource + ".";
+			// источник данных, заданный через JNDI или собственный ConnectionProvider, не трогаем
+			if (properties.getProperty(prefix + "jndiURL") != null
+					|| properties.getProperty(prefix + "connectionProvider.class") != null) {
+				return;
+			}
+			properties.setProperty(prefix + "provider", "hikaricp");
+			int connections = Math.max(threads + 3, Integer.parseInt(properties.getProperty(prefix + "maxConnections", "0")));
+			properties.setProperty(prefix + "maxConnections", Integer.toString(connections));
+		}
+	};
+
+	protected static final String THREAD_COUNT = "org.quartz.threadPool.threadCount";
+	protected static final String BATCH_MAX_COUNT = "org.quartz.scheduler.batchTriggerAcquisitionMaxCount";
+	protected static final String BATCH_FIRE_AHEAD = "org.quartz.scheduler.batchTriggerAcquisitionFireAheadTimeWindow";
+	protected static final String JOB_STORE_CLASS = "org.quartz.jobStore.class";
+	protected static final String JOB_STORE_DATA_SOURCE = "org.quartz.jobStore.dataSource";
+	protected static final String ACQUIRE_WITHIN_LOCK = "org.quartz.jobStore.acquireTriggersWithinLock";
+	protected static final String DATA_SOURCE_PREFIX = "org.quartz.dataSource.";
+	/**
+	 * На сколько вперед забираются триггеры в пачку. Напоминания планируются с точностью до минуты, поэтому всплеск
+	 * приходится на одно мгновение, и окна в секунду хватает, чтобы забрать его целиком
+	 */
+	public static final long FIRE_AHEAD_MILLIS = 1000;
+	protected static final int THREADS_PER_PROCESSOR = 4;
+	protected static final int MIN_THREADS = 8;
+	protected static final int MAX_THREADS = 64;
+
+	/**
+	 * Возвращает копию настроек с поправками профиля
+	 * @param properties Настройки из файла quartz.properties
+	 * @return Настройки для StdSchedulerFactory
+	 */
+	public Properties apply(Properties properties) {
+		var result = new Properties();
+		result.putAll(properties);
+		tune(result, Runtime.getRuntime().availableProcessors());
+		return result;
+	}
+
+	protected abstract void tune(Properties properties, int processors);
+	/**
+	 * Возвращает число потоков планировщика для заданного числа процессоров
+	 * @param processors Число процессоров
+	 * @return Число потоков
+	 */
+	public static int threadCount(int processors) {
+		return Math.max(MIN_THREADS, Math.min(MAX_THREADS, processors * THREADS_PER_PROCESSOR));
+	}
+
+	protected static boolean isJdbcJobStore(String className) {
+		if (className == null) {
+			return false;
+		}
+		try {
+			return JobStoreSupport.class.isAssignableFrom(Class.forName(className.trim()));
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+}
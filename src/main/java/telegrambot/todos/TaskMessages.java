@@ -0,0 +1,66 @@
+package telegrambot.todos;
+
+import com.vdurmont.emoji.EmojiParser;
+
+import telegrambot.familyassistant.Emoji;
+
+/**
+ * Тексты сообщений о задачах и напоминаниях. Сообщения напоминаний строятся в момент срабатывания задания Quartz, а не при
+ * его планировании, поэтому построение вынесено из Reminder и доступно заданию
+ * @author borodatyidrug
+ *
+ */
+public final class TaskMessages {
+
+	private TaskMessages() {
+	}
+	/**
+	 * Формирует и возвращает текст сообщения напоминания о приближении дедлайна запланированной задачи
+	 * @param remindEntity Напоминание или задача с обозначенным дедлайном
+	 * @return Сообщения напоминания о приближении дедлайна запланированной задачи
+	 */
+	public static String remindBeforeDeadline(IReminderEntity remindEntity) {
+		return EmojiParser.parseToUnicode(
+				Emoji.BELL + " " + "Напоминаю вам о приближении дедлайна вашей задачи:\n"
+				+ Emoji.PUSHPIN + " " + remindEntity.getTask().getName().toUpperCase() + "\n"
+				+ Emoji.MEMO + " " + remindEntity.getTask().getDescription() + "\n" + "Теги: "
+				+ remindEntity.getTask().getTags().toString() + "\n"
+				+ Emoji.DATE + " " + "Дедлайн задачи: "
+				+ remindEntity.getScheduledTime());
+	}
+	/**
+	 * Формирует и возвращает текст сообщения о наступившем дедлайне запланированной задачи
+	 * @param remindEntity Напоминание или задача с обозначенным дедлайном
+	 * @return Сообщение о наступившем дедлайне запланированной задачи
+	 */
+	public static String deadline(IReminderEntity remindEntity) {
+		return EmojiParser.parseToUnicode(
+				Emoji.BELL + " " + "Наступил дедлайн для вашей задачи:\n"
+				+ Emoji.PUSHPIN + " " + remindEntity.getTask().getName().toUpperCase() + "\n"
+				+ Emoji.MEMO + " " + remindEntity.getTask().getDescription() + "\n" + "Теги: "
+				+ remindEntity.getTask().getTags().toString() + "\n"
+				+ Emoji.DATE + " " + "Дедлайн задачи: "
+				+ remindEntity.getScheduledTime());
+	}
+	/**
+	 * Формирует и возвращает текст сообщения о напоминании, пропущенном, пока бот не работал. Все пропущенные срабатывания
+	 * одного напоминания - одно такое сообщение
+	 * @param message Сообщение последнего пропущенного срабатывания
+	 * @param times Сколько раз напоминание должно было сработать
+	 * @return Сообщение о пропущенном напоминании
+	 */
+	public static String missed(String message, int times) {
+		return EmojiParser.parseToUnicode(Emoji.NO_ENTRY + " " + "Пока бот не работал, напоминание было пропущено"
+				+ (times > 1 ? " (" + times + " раз)" : "") + ":\n" + message);
+	}
+	/**
+	 * Формирует и возвращает текст сообщения с описанием простой задачи
+	 * @param task Простая задача
+	 * @return Сообщение с описанием простой задачи
+	 */
+	public static String task(ITask task) {
+		return EmojiParser.parseToUnicode(Emoji.PUSHPIN + " " + task.getName().toUpperCase() + "\n"
+				+ Emoji.MEMO + " " + task.getDescription() + "\n" + "Теги: "
+				+ task.getTags().toString());
+	}
+}
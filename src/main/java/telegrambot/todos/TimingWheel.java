@@ -0,0 +1,202 @@
+package telegrambot.todos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Иерархическое колесо таймеров. Время делится на такты по tickMillis; уровень 0 - SLOTS ячеек по такту, каждый следующий
+ * уровень - SLOTS ячеек, каждая в SLOTS раз шире ячейки предыдущего уровня. Таймер кладется в ячейку того уровня, на котором
+ * помещается его срок, а когда время доходит до этой ячейки, таймеры из нее перекладываются уровнем ниже, пока не окажутся
+ * на уровне 0 и не сработают. Ячейка - двусвязный список, поэтому и постановка таймера, и его отмена занимают O(1) при любом
+ * числе таймеров; advance() тратит O(1) на такт плюс работу по сработавшим и перекладываемым таймерам.
+ * Класс не потокобезопасен: вызовы синхронизирует владелец колеса
+ * @author borodatyidrug
+ *
+ * @param <T> Тип значения таймера
+ */
+public class TimingWheel<T> {
+
+	protected static final int BITS = 6;
+	protected static final int SLOTS = 1 << BITS;
+	protected static final int MASK = SLOTS - 1;
+	/**
+	 * Уровней достаточно, чтобы покрыть 64^6 тактов: при такте в секунду - больше двух тысяч лет
+	 */
+	protected static final int LEVELS = 6;
+
+	/**
+	 * Таймер колеса. Возвращается методом schedule() и нужен только для отмены
+	 * @param <T> Тип значения таймера
+	 */
+	public static class Timer<T> {
+
+		protected final long tick;
+		protected final T value;
+		protected Timer<T> prev;
+		protected Timer<T> next;
+		protected Timer<T>[] slots;
+		protected int slot;
+
+		protected Timer(long tick, T value) {
+			this.tick = tick;
+			this.value = value;
+		}
+
+		public T getValue() {
+			return value;
+		}
+		/**
+		 * Возвращает момент срабатывания таймера, округленный вверх до такта
+		 * @param tickMillis Длина такта колеса
+		 * @return Миллисекунды эпохи
+		 */
+		public long getDeadlineMillis(long tickMillis) {
+			return tick * tickMillis;
+		}
+
+		public boolean isPending() {
+			return slots != null;
+		}
+	}
+
+	protected final long tickMillis;
+	protected final Timer<T>[][] wheels;
+	protected long currentTick;
+	protected int size;
+
+	/**
+	 * Создает колесо
+	 * @param tickMillis Длина такта в миллисекундах: точность срабатывания таймеров
+	 * @param nowMillis Текущее время, миллисекунды эпохи
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long tickMillis, long nowMillis) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("Такт колеса должен быть положительным");
+		}
+		this.tickMillis = tickMillis;
+		this.wheels = (Timer<T>[][]) new Timer<?>[LEVELS][SLOTS];
+		this.currentTick = nowMillis / tickMillis;
+	}
+	/**
+	 * Ставит таймер. Таймер с уже прошедшим сроком сработает на следующем такте
+	 * @param deadlineMillis Момент срабатывания, миллисекунды эпохи
+	 * @param value Значение таймера
+	 * @return Таймер
+	 */
+	public Timer<T> schedule(long deadlineMillis, T value) {
+		// такт, не раньше которого наступает срок: таймер не срабатывает раньше срока
+		long tick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+		var timer = new Timer<T>(tick, value);
+		place(timer, currentTick + 1);
+		size++;
+		return timer;
+	}
+	/**
+	 * Отменяет таймер
+	 * @param timer Таймер
+	 * @return false, если таймер уже сработал или отменен
+	 */
+	public boolean cancel(Timer<T> timer) {
+		if (timer == null || timer.slots == null) {
+			return false;
+		}
+		unlink(timer);
+		size--;
+		return true;
+	}
+	/**
+	 * Продвигает колесо до заданного момента и возвращает значения сработавших таймеров в порядке их сроков (с точностью до
+	 * такта)
+	 * @param nowMillis Текущее время, миллисекунды эпохи
+	 * @return Значения сработавших таймеров
+	 */
+	public List<T> advance(long nowMillis) {
+		List<T> expired = new ArrayList<>();
+		long target = nowMillis / tickMillis;
+		while (currentTick < target) {
+			currentTick++;
+			// ячейки верхних уровней, до которых дошло время, перекладываются на нижние уровни; таймеры этого такта попадают
+			// в ячейку уровня 0, которая разбирается следом
+			for (int level = 1; level < LEVELS && (currentTick & ((1L << (BITS * level)) - 1)) == 0; level++) {
+				cascade(level, (int) ((currentTick >>> (BITS * level)) & MASK));
+			}
+			var slots = wheels[0];
+			int index = (int) (currentTick & MASK);
+			var timer = slots[index];
+			slots[index] = null;
+			while (timer != null) {
+				var next = timer.next;
+				timer.prev = null;
+				timer.next = null;
+				timer.slots = null;
+				size--;
+				expired.add(timer.value);
+				timer = next;
+			}
+		}
+		return expired;
+	}
+	/**
+	 * Возвращает число ожидающих таймеров
+	 * @return Число таймеров
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+	protected void cascade(int level, int index) {
+		var slots = wheels[level];
+		var timer = slots[index];
+		slots[index] = null;
+		while (timer != null) {
+			var next = timer.next;
+			timer.prev = null;
+			timer.next = null;
+			timer.slots = null;
+			place(timer, currentTick);
+			timer = next;
+		}
+	}
+
+	protected void place(Timer<T> timer, long earliestTick) {
+		long tick = Math.max(timer.tick, earliestTick);
+		long delta = tick - currentTick;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+			level++;
+		}
+		if (level == LEVELS - 1) {
+			// срок дальше, чем охватывает колесо: таймер ждет на верхнем уровне и перекладывается, когда до него дойдет время
+			tick = Math.min(tick, currentTick + (1L << (BITS * LEVELS)) - 1);
+		}
+		int index = (int) ((tick >>> (BITS * level)) & MASK);
+		var slots = wheels[level];
+		timer.slots = slots;
+		timer.slot = index;
+		timer.prev = null;
+		timer.next = slots[index];
+		if (slots[index] != null) {
+			slots[index].prev = timer;
+		}
+		slots[index] = timer;
+	}
+
+	protected void unlink(Timer<T> timer) {
+		if (timer.prev != null) {
+			timer.prev.next = timer.next;
+		} else {
+			timer.slots[timer.slot] = timer.next;
+		}
+		if (timer.next != null) {
+			timer.next.prev = timer.prev;
+		}
+		timer.prev = null;
+		timer.next = null;
+		timer.slots = null;
+	}
+}
@@ -0,0 +1,645 @@
+package telegrambot.todos;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.quartz.ObjectAlreadyExistsException;
+import org.quartz.SchedulerException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.metrics.Histogram;
+
+/**
+ * Планировщик задач и напоминаний без базы данных, для развертывания на одном узле. Напоминания ждут своего срока в
+ * иерархическом колесе таймеров (TimingWheel) в памяти: постановка и отмена - O(1) при любом их числе. Сохранность
+ * обеспечивает журнал упреждающей записи со снимками (ReminderLog) в локальном каталоге: каждое изменение, в т.ч. каждое
+ * срабатывание, сначала записывается в журнал, а при запуске снимок и журнал воспроизводятся. Срабатывания вычисляет
+ * тот же план (ReminderPlan), что и триггер Reminder на Quartz: дни, недели, месяцы и годы повтора прибавляются по
+ * календарю, напоминания заранее не доходят до дедлайна. У напоминания один таймер - на следующее срабатывание плана.
+ * Срабатывания, пропущенные, пока бот был остановлен, схлопываются в одно сообщение о последнем из них сразу после
+ * запуска. Напоминание, у которого срабатываний больше нет, удаляется из списков пользователя
+ * @author borodatyidrug
+ *
+ */
+public class WheelReminder implements IReminder, Closeable {
+
+	public static final long DEFAULT_TICK_MILLIS = 1000;
+	public static final int DEFAULT_SNAPSHOT_EVERY = 100000;
+
+	protected static final String OP = "op";
+	protected static final String OP_TASK = "task";
+	protected static final String OP_REMIND = "remind";
+	protected static final String OP_DELETE = "delete";
+	protected static final String OP_FIRED = "fired";
+	protected static final String ID = "id";
+	protected static final String NEXT_ID = "nextId";
+	protected static final String OWNER = "owner";
+	protected static final String NAME = "name";
+	protected static final String KIND = "kind";
+	protected static final String AT = "at";
+	protected static final String NEXT_FIRE = "nextFire";
+	/**
+	 * Состояние расписания в снимке прежней версии: следующий дедлайн и число отправленных напоминаний перед ним
+	 */
+	protected static final String NEXT = "next";
+	protected static final String BEFORE_FIRED = "beforeFired";
+	/**
+	 * Виды срабатываний: дедлайн и напоминание перед ним
+	 */
+	protected static final String DEADLINE = JobPayload.DEADLINE;
+	protected static final String REMIND_BEFORE = JobPayload.REMIND_BEFORE;
+
+	/**
+	 * Задача пользователя с состоянием ее расписания
+	 */
+	protected static class Entry {
+
+		protected final long id;
+		protected final ITask task;
+		/**
+		 * Параметры напоминания и план его срабатываний, или null у простой задачи
+		 */
+		protected final IReminderEntity remind;
+		protected final ReminderPlan plan;
+		protected final long deadlineMillis;
+		/**
+		 * Следующее срабатывание, или null, если срабатываний больше нет
+		 */
+		protected ReminderPlan.Fire next;
+		protected TimingWheel.Timer<Firing> timer;
+
+		protected Entry(long id, ITask task, IReminderEntity remind, ReminderPlan plan, long deadlineMillis) {
+			this.id = id;
+			this.task = task;
+			this.remind = remind;
+			this.plan = plan;
+			this.deadlineMillis = deadlineMillis;
+		}
+	}
+	/**
+	 * Значение таймера: какая задача и какое ее срабатывание
+	 */
+	protected static class Firing {
+
+		protected final Entry entry;
+		protected final String kind;
+		protected final long scheduledMillis;
+
+		protected Firing(Entry entry, String kind, long scheduledMillis) {
+			this.entry = entry;
+			this.kind = kind;
+			this.scheduledMillis = scheduledMillis;
+		}
+	}
+
+	protected final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT);
+	protected final ZoneId zone;
+	protected final ObjectMapper mapper;
+	protected final ReminderLog log;
+	protected final int snapshotEvery;
+	protected final TimingWheel<Firing> wheel;
+	protected final BiConsumer<String, String> sink;
+	protected final Map<String, TreeMap<String, Entry>> byOwner;
+	protected final Map<Long, Entry> byId;
+	protected final Histogram fireLag;
+	protected final ScheduledExecutorService ticker;
+	protected long nextId;
+
+	/**
+	 * Создает планировщик, восстанавливает задачи из снимка и журнала и начинает отсчет времени
+	 * @param dir Каталог журнала и снимка
+	 * @param tickMillis Точность срабатывания
+	 * @param snapshotEvery Через сколько записей журнала писать снимок
+	 * @param sink Получатель сообщений: идентификатор чата и текст
+	 * @throws IOException Если журнал или снимок не удалось прочитать
+	 */
+	public WheelReminder(File dir, long tickMillis, int snapshotEvery, BiConsumer<String, String> sink) throws IOException {
+		this.zone = ZoneId.systemDefault();
+		this.mapper = new ObjectMapper();
+		this.log = new ReminderLog(dir, mapper);
+		this.snapshotEvery = snapshotEvery;
+		this.wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis());
+		this.sink = sink;
+		this.byOwner = new HashMap<>();
+		this.byId = new HashMap<>();
+		this.nextId = 1;
+		var metrics = FamilyAssistantBot.getMetrics();
+		this.fireLag = metrics.histogram("wheel_fire_lag_seconds", "Опоздание срабатывания напоминания относительно срока");
+		metrics.gauge("wheel_timers_pending", "Таймеры напоминаний, ожидающие срока", this::pending);
+		long started = System.nanoTime();
+		synchronized (this) {
+			log.replay(this::apply);
+			for (var entry : new ArrayList<>(byId.values())) {
+				// журнал прежней версии: срабатывания записаны, а удаление исчерпанного напоминания - нет
+				if (entry.remind != null && entry.next == null) {
+					remove(entry.task.getOwner().getId().toString(), entry.task.getName());
+				} else {
+					arm(entry);
+				}
+			}
+		}
+		System.out.println("Напоминания восстановлены из " + dir + ": задач " + byId.size() + ", таймеров " + pending() + " за "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " мс");
+		this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "wheel-reminder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ticker.scheduleAtFixedRate(() -> {
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				// исключение остановило бы периодическую задачу, а с ней - все напоминания
+				System.out.println(e.getMessage());
+				e.printStackTrace();
+			}
+		}, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void addTask(ITask task) throws SchedulerException, JsonProcessingException {
+		var entry = new Entry(nextId, task, null, null, -1);
+		var record = record(OP_TASK, entry);
+		record.set(OP_TASK, mapper.valueToTree(task));
+		write(record);
+		nextId++;
+		put(entry);
+		snapshotIfDue();
+	}
+
+	@Override
+	public synchronized void scheduleRemind(IReminderEntity reminderEntity) throws SchedulerException, JsonProcessingException {
+		var task = reminderEntity.getTask();
+		var existing = find(task.getOwner().getId().toString(), task.getName());
+		if (existing != null && existing.remind != null) {
+			throw new ObjectAlreadyExistsException("Задача \"" + task.getName() + "\" уже запланирована");
+		}
+		var entry = entry(nextId, reminderEntity);
+		var record = record(OP_REMIND, entry);
+		record.set(OP_REMIND, mapper.valueToTree(reminderEntity));
+		write(record);
+		nextId++;
+		put(entry);
+		arm(entry);
+		snapshotIfDue();
+	}
+
+	@Override
+	public synchronized void addTasks(Collection<ITask> tasks) throws SchedulerException, JsonProcessingException {
+		List<Entry> entries = new ArrayList<>(tasks.size());
+		List<ObjectNode> records = new ArrayList<>(tasks.size());
+		long id = nextId;
+		for (var task : tasks) {
+			var entry = new Entry(id++, task, null, null, -1);
+			var record = record(OP_TASK, entry);
+			record.set(OP_TASK, mapper.valueToTree(task));
+			entries.add(entry);
+			records.add(record);
+		}
+		write(records);
+		nextId = id;
+		entries.forEach(this::put);
+		snapshotIfDue();
+	}
+
+	@Override
+	public synchronized void scheduleReminds(Collection<IReminderEntity> reminderEntities) throws SchedulerException,
+			JsonProcessingException {
+		Set<String> names = new HashSet<>();
+		for (var reminderEntity : reminderEntities) {
+			var task = reminderEntity.getTask();
+			var userId = task.getOwner().getId().toString();
+			var existing = find(userId, task.getName());
+			if ((existing != null && existing.remind != null) || !names.add(userId + "/" + task.getName())) {
+				throw new ObjectAlreadyExistsException("Задача \"" + task.getName() + "\" уже запланирована");
+			}
+		}
+		List<Entry> entries = new ArrayList<>(reminderEntities.size());
+		List<ObjectNode> records = new ArrayList<>(reminderEntities.size());
+		long id = nextId;
+		for (var reminderEntity : reminderEntities) {
+			var entry = entry(id++, reminderEntity);
+			var record = record(OP_REMIND, entry);
+			record.set(OP_REMIND, mapper.valueToTree(reminderEntity));
+			entries.add(entry);
+			records.add(record);
+		}
+		write(records);
+		nextId = id;
+		for (var entry : entries) {
+			put(entry);
+			arm(entry);
+		}
+		snapshotIfDue();
+	}
+
+	@Override
+	public synchronized List<ITask> getTaskList(String userId) {
+		List<ITask> tasks = new ArrayList<>();
+		var entries = byOwner.get(userId);
+		if (entries != null) {
+			entries.values().forEach(entry -> tasks.add(entry.task));
+		}
+		return tasks;
+	}
+
+	@Override
+	public synchronized List<IReminderEntity> getRemindsList(String userId) {
+		List<Entry> reminds = new ArrayList<>();
+		var entries = byOwner.get(userId);
+		if (entries != null) {
+			entries.values().stream().filter(entry -> entry.remind != null).forEach(reminds::add);
+		}
+		reminds.sort(Comparator.comparingLong((Entry entry) -> entry.deadlineMillis).thenComparingLong(entry -> entry.id));
+		List<IReminderEntity> result = new ArrayList<>(reminds.size());
+		reminds.forEach(entry -> result.add(entry.remind));
+		return result;
+	}
+
+	@Override
+	public ITask completeTask(ITask task) throws SchedulerException {
+		if (delete(task)) {
+			return task;
+		} else {
+			throw new NoSuchElementException("В списке задач такой задачи не обнаружено");
+		}
+	}
+
+	@Override
+	public IReminderEntity completeTask(IReminderEntity reminderEntity, ChronoUnit unit) throws SchedulerException {
+		if (delete(reminderEntity.getTask())) {
+			reminderEntity.complete(unit);
+			return reminderEntity;
+		} else {
+			throw new NoSuchElementException("В списке задач такой задачи не обнаружено");
+		}
+	}
+	/**
+	 * Удаляет задачу и отменяет ее таймеры
+	 * @param task Задача
+	 * @return false, если такой задачи не было
+	 * @throws SchedulerException
+	 */
+	protected synchronized boolean delete(ITask task) throws SchedulerException {
+		var userId = task.getOwner().getId().toString();
+		if (find(userId, task.getName()) == null) {
+			return false;
+		}
+		write(deleteRecord(task));
+		remove(userId, task.getName());
+		snapshotIfDue();
+		return true;
+	}
+	@Override
+	public synchronized List<ITask> completeTasks(Collection<ITask> tasks) throws SchedulerException {
+		List<ITask> completed = new ArrayList<>();
+		List<ObjectNode> records = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		for (var task : tasks) {
+			var userId = task.getOwner().getId().toString();
+			if (find(userId, task.getName()) != null && names.add(userId + "/" + task.getName())) {
+				records.add(deleteRecord(task));
+				completed.add(task);
+			}
+		}
+		write(records);
+		for (var task : completed) {
+			remove(task.getOwner().getId().toString(), task.getName());
+		}
+		snapshotIfDue();
+		return completed;
+	}
+
+	@Override
+	public synchronized List<ITask> completeTasksByTag(String userId, String tag) throws SchedulerException {
+		List<ITask> tasks = new ArrayList<>();
+		var entries = byOwner.get(userId);
+		if (entries != null) {
+			entries.values().stream()
+					.filter(entry -> entry.task.getTags() != null && entry.task.getTags().contains(tag))
+					.forEach(entry -> tasks.add(entry.task));
+		}
+		return completeTasks(tasks);
+	}
+	/**
+	 * Возвращает число ожидающих таймеров
+	 * @return Число таймеров
+	 */
+	public synchronized int pending() {
+		return wheel.size();
+	}
+	/**
+	 * Записывает снимок состояния и закрывает журнал. Срабатывания после закрытия не выполняются
+	 */
+	@Override
+	public void close() throws IOException {
+		ticker.shutdownNow();
+		synchronized (this) {
+			snapshot();
+			log.close();
+		}
+	}
+	/**
+	 * Продвигает колесо до текущего момента и отправляет сообщения сработавших таймеров. Срабатывания и удаление
+	 * исчерпанных напоминаний записываются в журнал до того, как они применяются к состоянию и отправляются сообщения:
+	 * после сбоя сообщение может не дойти, но не будет отправлено повторно. Если записать журнал не удалось, то состояние не
+	 * меняется, а таймеры ставятся снова и срабатывают на следующем такте
+	 */
+	protected void tick() {
+		List<String[]> messages = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			var fired = wheel.advance(now);
+			if (fired.isEmpty()) {
+				return;
+			}
+			// следующее срабатывание каждой сработавшей задачи: пропущенные срабатывания схлопываются в одно
+			Map<Entry, ReminderPlan.Fire> after = new LinkedHashMap<>();
+			List<String> kinds = new ArrayList<>(fired.size());
+			List<ObjectNode> records = new ArrayList<>(fired.size());
+			for (var firing : fired) {
+				var entry = firing.entry;
+				long at = Math.max(firing.scheduledMillis, now);
+				// опоздавшее срабатывание отправляет сообщение о последнем из пропущенных, как ReminderPlanTrigger
+				var latest = entry.plan.latest(at);
+				var kind = latest == null ? firing.kind : latest.getKind();
+				after.put(entry, entry.plan.next(at));
+				kinds.add(kind);
+				var record = record(OP_FIRED, entry);
+				record.put(KIND, kind);
+				record.put(AT, at);
+				records.add(record);
+			}
+			List<Entry> exhausted = new ArrayList<>();
+			for (var state : after.entrySet()) {
+				if (state.getValue() == null) {
+					exhausted.add(state.getKey());
+					records.add(deleteRecord(state.getKey().task));
+				}
+			}
+			try {
+				// всплеск срабатываний одного такта сбрасывается на диск одной записью
+				log.append(records);
+			} catch (IOException e) {
+				System.out.println(e.getMessage());
+				e.printStackTrace();
+				for (var firing : fired) {
+					firing.entry.timer = wheel.schedule(firing.scheduledMillis, firing);
+				}
+				return;
+			}
+			for (var state : after.entrySet()) {
+				state.getKey().next = state.getValue();
+			}
+			for (int i = 0; i < fired.size(); i++) {
+				var entry = fired.get(i).entry;
+				fireLag.observe(Math.max(0, now - fired.get(i).scheduledMillis), TimeUnit.MILLISECONDS);
+				arm(entry);
+				messages.add(new String[] {entry.task.getChatId(), DEADLINE.equals(kinds.get(i))
+						? TaskMessages.deadline(entry.remind) : TaskMessages.remindBeforeDeadline(entry.remind)});
+			}
+			for (var entry : exhausted) {
+				remove(entry.task.getOwner().getId().toString(), entry.task.getName());
+			}
+			try {
+				snapshotIfDue();
+			} catch (SchedulerException e) {
+				System.out.println(e.getMessage());
+				e.printStackTrace();
+			}
+		}
+		for (var message : messages) {
+			try {
+				sink.accept(message[0], message[1]);
+			} catch (RuntimeException e) {
+				System.out.println(e.getMessage());
+				e.printStackTrace();
+			}
+		}
+	}
+	/**
+	 * Применяет запись снимка или журнала к состоянию. Таймеры ставятся после воспроизведения всех записей
+	 * @param record Запись
+	 */
+	protected void apply(JsonNode record) {
+		try {
+			if (record.has(NEXT_ID)) {
+				nextId = Math.max(nextId, record.path(NEXT_ID).asLong());
+				return;
+			}
+			switch (record.path(OP).asText()) {
+				case OP_TASK: {
+					var task = mapper.treeToValue(record.path(OP_TASK), ITask.class);
+					put(new Entry(record.path(ID).asLong(), task, null, null, -1));
+					break;
+				}
+				case OP_REMIND: {
+					var remind = mapper.treeToValue(record.path(OP_REMIND), IReminderEntity.class);
+					var entry = entry(record.path(ID).asLong(), remind);
+					put(entry);
+					if (record.has(NEXT_FIRE)) {
+						long next = record.path(NEXT_FIRE).asLong();
+						entry.next = next < 0 ? null : entry.plan.next(next - 1);
+					} else if (record.has(NEXT)) {
+						entry.next = legacyNext(entry, record.path(NEXT).asLong(), record.path(BEFORE_FIRED).asInt());
+					}
+					break;
+				}
+				case OP_DELETE:
+					remove(record.path(OWNER).asText(), record.path(NAME).asText());
+					break;
+				case OP_FIRED: {
+					var entry = byId.get(record.path(ID).asLong());
+					if (entry != null && entry.plan != null) {
+						entry.next = entry.plan.next(record.path(AT).asLong());
+					}
+					break;
+				}
+				default:
+					System.out.println("Неизвестная запись журнала напоминаний: " + record);
+			}
+			nextId = Math.max(nextId, record.path(ID).asLong() + 1);
+		} catch (JsonProcessingException | RuntimeException e) {
+			System.out.println("Не удалось воспроизвести запись журнала напоминаний " + record + ": " + e.getMessage());
+		}
+	}
+	/**
+	 * Создает задачу напоминания с планом его срабатываний. Первое срабатывание - первое по плану
+	 * @param id Идентификатор задачи
+	 * @param remind Напоминание
+	 * @return Задача
+	 */
+	protected Entry entry(long id, IReminderEntity remind) {
+		var deadline = LocalDateTime.parse(remind.getScheduledTime(), formatter);
+		var plan = new ReminderPlan(deadline, zone, remind.getRepeatInterval(), remind.getRepeatIntervalUnit(),
+				remind.getMinutesBefore(), remind.getRemindTimes(), remind.getRemindTimesInterval());
+		var entry = new Entry(id, remind.getTask(), remind, plan, toMillis(deadline));
+		entry.next = plan.first();
+		return entry;
+	}
+	/**
+	 * Переводит состояние расписания из снимка прежней версии - следующий дедлайн и число отправленных напоминаний перед
+	 * ним - в следующее срабатывание плана
+	 * @param entry Задача
+	 * @param nextDeadline Следующее срабатывание дедлайна, или -1
+	 * @param beforeFired Сколько напоминаний перед дедлайном уже отправлено
+	 * @return Срабатывание, или null, если срабатываний больше нет
+	 */
+	protected ReminderPlan.Fire legacyNext(Entry entry, long nextDeadline, int beforeFired) {
+		long at = nextDeadline;
+		if (beforeFired < entry.plan.getNudges()) {
+			long nudge = entry.plan.nudge(beforeFired);
+			at = at < 0 ? nudge : Math.min(at, nudge);
+		}
+		return at < 0 ? null : entry.plan.next(at - 1);
+	}
+	/**
+	 * Ставит таймер задачи на ее следующее срабатывание
+	 * @param entry Задача
+	 */
+	protected void arm(Entry entry) {
+		if (entry.remind == null) {
+			return;
+		}
+		var next = entry.next;
+		entry.timer = next == null ? null
+				: wheel.schedule(next.getMillis(), new Firing(entry, next.getKind(), next.getMillis()));
+	}
+
+	protected Entry find(String userId, String name) {
+		var entries = byOwner.get(userId);
+		return entries == null ? null : entries.get(name);
+	}
+	/**
+	 * Кладет задачу в индексы, заменяя задачу владельца с тем же именем
+	 * @param entry Задача
+	 */
+	protected void put(Entry entry) {
+		var userId = entry.task.getOwner().getId().toString();
+		remove(userId, entry.task.getName());
+		byOwner.computeIfAbsent(userId, k -> new TreeMap<>()).put(entry.task.getName(), entry);
+		byId.put(entry.id, entry);
+	}
+
+	protected void remove(String userId, String name) {
+		var entries = byOwner.get(userId);
+		if (entries == null) {
+			return;
+		}
+		var entry = entries.remove(name);
+		if (entries.isEmpty()) {
+			byOwner.remove(userId);
+		}
+		if (entry != null) {
+			byId.remove(entry.id);
+			wheel.cancel(entry.timer);
+		}
+	}
+
+	protected ObjectNode record(String op, Entry entry) {
+		var record = mapper.createObjectNode();
+		record.put(OP, op);
+		record.put(ID, entry.id);
+		return record;
+	}
+
+	protected ObjectNode deleteRecord(ITask task) {
+		var record = mapper.createObjectNode();
+		record.put(OP, OP_DELETE);
+		record.put(OWNER, task.getOwner().getId().toString());
+		record.put(NAME, task.getName());
+		return record;
+	}
+	/**
+	 * Записывает изменение в журнал. Состояние меняется только после успешной записи
+	 * @param record Запись
+	 * @throws SchedulerException
+	 */
+	protected void write(ObjectNode record) throws SchedulerException {
+		write(List.of(record));
+	}
+	/**
+	 * Записывает изменения в журнал одним сбросом на диск
+	 * @param records Записи
+	 * @throws SchedulerException
+	 */
+	protected void write(List<ObjectNode> records) throws SchedulerException {
+		try {
+			log.append(records);
+		} catch (IOException e) {
+			throw new SchedulerException("Не удалось записать журнал напоминаний", e);
+		}
+	}
+	/**
+	 * Пишет снимок, когда записей журнала после прошлого снимка набирается snapshotEvery. Вызывается после того, как
+	 * изменение применено к состоянию: снимок должен включать все записи журнала до своего номера
+	 * @throws SchedulerException
+	 */
+	protected void snapshotIfDue() throws SchedulerException {
+		if (log.sinceSnapshot() < snapshotEvery) {
+			return;
+		}
+		try {
+			snapshot();
+		} catch (IOException e) {
+			throw new SchedulerException("Не удалось записать снимок напоминаний", e);
+		}
+	}
+
+	protected void snapshot() throws IOException {
+		var header = mapper.createObjectNode();
+		header.put(NEXT_ID, nextId);
+		Iterator<Entry> entries = byId.values().iterator();
+		log.snapshot(header, new Iterator<ObjectNode>() {
+
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public ObjectNode next() {
+				var entry = entries.next();
+				if (entry.remind == null) {
+					var record = record(OP_TASK, entry);
+					record.set(OP_TASK, mapper.valueToTree(entry.task));
+					return record;
+				}
+				var record = record(OP_REMIND, entry);
+				record.set(OP_REMIND, mapper.valueToTree(entry.remind));
+				record.put(NEXT_FIRE, entry.next == null ? -1 : entry.next.getMillis());
+				return record;
+			}
+		});
+	}
+
+	protected long toMillis(LocalDateTime dateTime) {
+		return dateTime.atZone(zone).toInstant().toEpochMilli();
+	}
+}
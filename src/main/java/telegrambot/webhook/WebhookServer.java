@@ -0,0 +1,102 @@
+package telegrambot.webhook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Встроенный HTTP-сервер, принимающий обновления от Telegram Bot API в режиме webhook. Тело каждого POST-запроса разбирается
+ * в объект Update и сразу передается получателю обновлений, после чего сервер отвечает, не дожидаясь обработки обновления.
+ * Если получатель отказался принять обновление (например, очереди переполнены), сервер отвечает 503, и Telegram повторит
+ * доставку позже
+ * @author borodatyidrug
+ *
+ */
+public class WebhookServer {
+
+	protected final HttpServer server;
+	protected final ExecutorService executor;
+	protected final ObjectMapper mapper;
+	protected final Predicate<Update> receiver;
+	protected final String path;
+
+	/**
+	 * Создает сервер. Сервер не принимает запросы до вызова start()
+	 * @param port Порт, на котором сервер принимает запросы
+	 * @param path Путь, по которому Telegram отправляет обновления. Путь стоит делать трудноугадываемым, т.к. по нему любой
+	 * может отправить боту поддельное обновление
+	 * @param threads Количество потоков, разбирающих запросы
+	 * @param receiver Получатель обновлений. Возвращает false, если принять обновление сейчас нельзя
+	 * @throws IOException Если порт занят
+	 */
+	public WebhookServer(int port, String path, int threads, Predicate<Update> receiver) throws IOException {
+		this.path = path;
+		this.receiver = receiver;
+		this.mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "webhook");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server.setExecutor(executor);
+		this.server.createContext(path, this::handle);
+	}
+	/**
+	 * Обрабатывает один запрос от Telegram
+	 * @param exchange Запрос и ответ
+	 * @throws IOException
+	 */
+	protected void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!exchange.getRequestURI().getPath().equals(path)) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			Update update;
+			try (InputStream body = exchange.getRequestBody()) {
+				update = mapper.readValue(body, Update.class);
+			} catch (IOException e) {
+				System.out.println("Не удалось разобрать обновление: " + e.getMessage());
+				exchange.sendResponseHeaders(400, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(receiver.test(update) ? 200 : 503, -1);
+		}
+	}
+	/**
+	 * Запускает прием запросов
+	 */
+	public void start() {
+		server.start();
+	}
+	/**
+	 * Возвращает порт, на котором сервер принимает запросы. Полезно, если сервер создан с портом 0
+	 * @return Номер порта
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	/**
+	 * Останавливает сервер, давая начатым запросам завершиться
+	 * @param delaySeconds Сколько секунд ждать завершения начатых запросов
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,75 @@
+package telegrambot.webparsers;
+
+import java.util.List;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.QueryParser;
+
+/**
+ * Конвейер извлечения блоков из разобранной страницы. Все зарегистрированные извлекатели выполняются за один обход
+ * дерева: каждый элемент проверяется селекторами тех блоков, которые еще не найдены, а обход останавливается, как только
+ * найдены все блоки. Селекторы разбираются один раз, при создании конвейера. Новый блок добавляется еще одним извлекателем,
+ * без повторной загрузки и повторного обхода страницы
+ * @param <B> Строитель результата разбора
+ * @author borodatyidrug
+ *
+ */
+public class BlockExtraction<B> {
+
+	protected final List<IBlockExtractor<B>> extractors;
+	protected final Evaluator[] evaluators;
+
+	/**
+	 * Создает конвейер
+	 * @param extractors Извлекатели блоков
+	 */
+	public BlockExtraction(List<IBlockExtractor<B>> extractors) {
+		this.extractors = List.copyOf(extractors);
+		this.evaluators = new Evaluator[extractors.size()];
+		for (int i = 0; i < evaluators.length; i++) {
+			evaluators[i] = QueryParser.parse(this.extractors.get(i).getSelector());
+		}
+	}
+	/**
+	 * Извлекает блоки из поддерева за один обход
+	 * @param root Корень поддерева, обычно - разобранная страница
+	 * @param builder Строитель результата разбора
+	 * @return Сколько блоков найдено
+	 */
+	public int extract(Element root, B builder) {
+		var found = new boolean[evaluators.length];
+		int[] remaining = {evaluators.length};
+		if (remaining[0] == 0) {
+			return 0;
+		}
+		NodeTraversor.filter(new NodeFilter() {
+
+			@Override
+			public FilterResult head(Node node, int depth) {
+				if (!(node instanceof Element element)) {
+					return FilterResult.SKIP_ENTIRELY;
+				}
+				for (int i = 0; i < evaluators.length; i++) {
+					if (!found[i] && evaluators[i].matches(root, element)) {
+						extractors.get(i).extract(element, builder);
+						found[i] = true;
+						if (--remaining[0] == 0) {
+							return FilterResult.STOP;
+						}
+					}
+				}
+				return FilterResult.CONTINUE;
+			}
+
+			@Override
+			public FilterResult tail(Node node, int depth) {
+				return FilterResult.CONTINUE;
+			}
+		}, root);
+		return evaluators.length - remaining[0];
+	}
+}
@@ -0,0 +1,201 @@
+package telegrambot.webparsers;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import telegrambot.metrics.Counter;
+import telegrambot.metrics.MetricsRegistry;
+
+/**
+ * Общий для всего процесса кэш содержимого страницы, которое меняется раз в сутки (например, календарь Azbyka.ru).
+ * Страница разбирается один раз, разобранное содержимое хранится до конца календарного дня. Первый запрос нового дня
+ * обновляет страницу и ждет обновления не дольше staleWaitMillis: вчерашнее содержимое отдается, только если загрузка не
+ * удалась или не уложилась в это время (тогда страница продолжает загружаться в фоне). Обновление - условным запросом
+ * (ETag, Last-Modified), и одновременные запросы обновления сливаются в одну загрузку. Без ограничения времени загрузки
+ * ждет только первый запрос после запуска бота, пока содержимого нет совсем. Ожидание - через getAsync(), не занимая поток
+ * вызывающего
+ * @param <T> Разобранное содержимое страницы; должно быть неизменяемым, так как отдается всем потокам
+ * @author borodatyidrug
+ *
+ */
+public class DailyContentCache<T> {
+	/**
+	 * После неудачной загрузки следующая - не раньше, чем через столько миллисекунд: запросы к недоступному сайту не
+	 * повторяются при каждой отправке
+	 */
+	public static final long DEFAULT_RETRY_MILLIS = 60_000;
+	/**
+	 * Сколько миллисекунд первый запрос нового дня ждет обновления, прежде чем получить вчерашнее содержимое
+	 */
+	public static final long DEFAULT_STALE_WAIT_MILLIS = 10_000;
+
+	/**
+	 * Разобранное содержимое и заголовки ответа, с которыми оно загружено
+	 */
+	protected static class Entry<T> {
+
+		protected final LocalDate day;
+		protected final T content;
+		protected final String etag;
+		protected final String lastModified;
+
+		protected Entry(LocalDate day, T content, String etag, String lastModified) {
+			this.day = day;
+			this.content = content;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+	}
+
+	protected final String url;
+	protected final IPageFetcher fetcher;
+	protected final IPageParser<T> parser;
+	protected final Executor executor;
+	protected final Supplier<LocalDate> today;
+	protected final long retryMillis;
+	protected final long staleWaitMillis;
+	protected volatile Entry<T> entry;
+	/**
+	 * Идущее обновление; null - обновление не идет
+	 */
+	protected CompletableFuture<T> refreshing;
+	protected volatile long retryAfter;
+	protected final Counter hits;
+	protected final Counter stale;
+	protected final Counter misses;
+	protected final Counter fetched;
+	protected final Counter notModified;
+	protected final Counter failed;
+
+	/**
+	 * Создает кэш
+	 * @param url Адрес страницы
+	 * @param fetcher Загрузчик страницы
+	 * @param parser Разбор страницы
+	 * @param executor Исполнитель, в котором загружается и разбирается страница
+	 * @param today Текущий календарный день
+	 * @param retryMillis Через сколько миллисекунд после неудачной загрузки повторять ее
+	 * @param staleWaitMillis Сколько миллисекунд первый запрос нового дня ждет обновления
+	 * @param metrics Реестр метрик
+	 */
+	public DailyContentCache(String url, IPageFetcher fetcher, IPageParser<T> parser, Executor executor,
+			Supplier<LocalDate> today, long retryMillis, long staleWaitMillis, MetricsRegistry metrics) {
+		this.url = url;
+		this.fetcher = fetcher;
+		this.parser = parser;
+		this.executor = executor;
+		this.today = today;
+		this.retryMillis = retryMillis;
+		this.staleWaitMillis = staleWaitMillis;
+		var requests = "web_cache_requests_total";
+		var help = "Запросы содержимого страницы из кэша: свежее, за прошлый день (с ожиданием обновления) и без содержимого";
+		hits = metrics.counter(requests, help, "url", url, "result", "hit");
+		stale = metrics.counter(requests, help, "url", url, "result", "stale");
+		misses = metrics.counter(requests, help, "url", url, "result", "miss");
+		var fetches = "web_cache_fetches_total";
+		help = "Загрузки страницы кэшем: с новым содержимым, без изменений (304) и неудачные";
+		fetched = metrics.counter(fetches, help, "url", url, "result", "fetched");
+		notModified = metrics.counter(fetches, help, "url", url, "result", "not_modified");
+		failed = metrics.counter(fetches, help, "url", url, "result", "failed");
+	}
+	/**
+	 * Возвращает содержимое страницы за текущий день, дожидаясь обновления в потоке вызывающего. См. getAsync()
+	 * @return Содержимое, или null, если его нет и загрузить страницу не удалось
+	 */
+	public T get() {
+		return getAsync().join();
+	}
+	/**
+	 * Возвращает содержимое страницы за текущий день. Если в кэше содержимое прошлого дня, то обновляет страницу: результат
+	 * завершается новым содержимым, а прошлым - только если загрузка не удалась или не уложилась в staleWaitMillis. Если
+	 * содержимого нет, то результат завершается по окончании загрузки. Результат не завершается исключением
+	 * @return Содержимое; null, если его нет и загрузить страницу не удалось
+	 */
+	public CompletableFuture<T> getAsync() {
+		var current = entry;
+		if (current != null && current.day.equals(today.get())) {
+			hits.inc();
+			return CompletableFuture.completedFuture(current.content);
+		}
+		var fallback = current == null ? null : current.content;
+		if (current == null) {
+			misses.inc();
+		} else {
+			stale.inc();
+		}
+		if (System.currentTimeMillis() < retryAfter) {
+			// сайт недавно не ответил: не спрашиваем его при каждой отправке
+			return CompletableFuture.completedFuture(fallback);
+		}
+		// отдельный результат: ограничение ожидания не должно завершать общее для всех обновление
+		var result = refresh().handle((content, e) -> e == null ? content : fallback);
+		return current == null ? result : result.completeOnTimeout(fallback, staleWaitMillis, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Начинает обновление содержимого, если оно еще не идет. Вызывается и при запуске, чтобы первый запрос не ждал сайта
+	 * @return Обновление, завершающееся новым содержимым
+	 */
+	public synchronized CompletableFuture<T> refresh() {
+		if (refreshing != null) {
+			return refreshing;
+		}
+		var started = new CompletableFuture<T>();
+		refreshing = started;
+		try {
+			executor.execute(() -> {
+				T loaded = null;
+				Exception error = null;
+				try {
+					loaded = load().content;
+				} catch (IOException | RuntimeException e) {
+					failed.inc();
+					retryAfter = System.currentTimeMillis() + retryMillis;
+					System.out.println("Не удалось загрузить " + url + ": " + e.getMessage());
+					error = e;
+				}
+				// снимается до завершения: дождавшийся обновления не должен снова получить уже завершенное
+				synchronized (this) {
+					refreshing = null;
+				}
+				if (error == null) {
+					started.complete(loaded);
+				} else {
+					started.completeExceptionally(error);
+				}
+			});
+		} catch (RuntimeException e) {
+			// исполнитель остановлен
+			refreshing = null;
+			started.completeExceptionally(e);
+		}
+		return started;
+	}
+	/**
+	 * Загружает страницу условным запросом и разбирает ее, если она изменилась
+	 * @return Новое содержимое
+	 * @throws IOException
+	 */
+	protected Entry<T> load() throws IOException {
+		var current = entry;
+		var day = today.get();
+		var page = current == null ? fetcher.fetch(url, null, null, parser)
+				: fetcher.fetch(url, current.etag, current.lastModified, parser);
+		Entry<T> loaded;
+		if (page == null) {
+			if (current == null) {
+				throw new IOException("Сервер ответил \"не изменилась\" на безусловный запрос " + url);
+			}
+			notModified.inc();
+			loaded = new Entry<>(day, current.content, current.etag, current.lastModified);
+		} else {
+			fetched.inc();
+			loaded = new Entry<>(day, page.getContent(), page.getEtag(), page.getLastModified());
+		}
+		entry = loaded;
+		return loaded;
+	}
+}
@@ -0,0 +1,32 @@
+package telegrambot.webparsers;
+
+/**
+ * Загруженная и разобранная страница и заголовки ответа, по которым следующая загрузка делается условным запросом
+ * @param <T> Результат разбора
+ * @author borodatyidrug
+ *
+ */
+public class FetchedPage<T> {
+
+	private final T content;
+	private final String etag;
+	private final String lastModified;
+
+	public FetchedPage(T content, String etag, String lastModified) {
+		this.content = content;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	public T getContent() {
+		return content;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+}
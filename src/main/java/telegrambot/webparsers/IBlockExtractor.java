@@ -0,0 +1,23 @@
+package telegrambot.webparsers;
+
+import org.jsoup.nodes.Element;
+
+/**
+ * Извлекает содержимое одного информационного блока страницы в строитель результата разбора
+ * @param <B> Строитель результата разбора
+ * @author borodatyidrug
+ *
+ */
+public interface IBlockExtractor<B> {
+	/**
+	 * Возвращает CSS-селектор корневого элемента блока. Извлекается первый подходящий элемент страницы
+	 * @return CSS-селектор
+	 */
+	String getSelector();
+	/**
+	 * Извлекает содержимое блока
+	 * @param block Корневой элемент блока
+	 * @param builder Строитель результата разбора
+	 */
+	void extract(Element block, B builder);
+}
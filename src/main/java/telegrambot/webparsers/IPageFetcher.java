@@ -0,0 +1,23 @@
+package telegrambot.webparsers;
+
+import java.io.IOException;
+
+/**
+ * Загрузчик веб-страниц с условными запросами: страница, не изменившаяся с прошлой загрузки, повторно не передается.
+ * Страница разбирается по мере загрузки, не собираясь в памяти целиком
+ * @author borodatyidrug
+ *
+ */
+public interface IPageFetcher {
+	/**
+	 * Загружает и разбирает страницу, если она изменилась с прошлой загрузки
+	 * @param <T> Результат разбора
+	 * @param url Адрес страницы
+	 * @param etag ETag прошлой загрузки (заголовок If-None-Match), или null
+	 * @param lastModified Last-Modified прошлой загрузки (заголовок If-Modified-Since), или null
+	 * @param parser Разбор страницы
+	 * @return Разобранная страница, или null, если сервер ответил, что она не изменилась (304 Not Modified)
+	 * @throws IOException Если страница не загружена
+	 */
+	<T> FetchedPage<T> fetch(String url, String etag, String lastModified, IPageParser<T> parser) throws IOException;
+}
@@ -0,0 +1,21 @@
+package telegrambot.webparsers;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Разбирает HTML страницы по мере его загрузки. Разбор может прекратить чтение, не дочитав страницу до конца
+ * @param <T> Результат разбора
+ * @author borodatyidrug
+ *
+ */
+public interface IPageParser<T> {
+	/**
+	 * Разбирает страницу
+	 * @param html HTML страницы
+	 * @param url Адрес страницы, относительно которого разрешаются ссылки
+	 * @return Результат разбора
+	 * @throws IOException Если страницу не удалось прочитать
+	 */
+	T parse(Reader html, String url) throws IOException;
+}
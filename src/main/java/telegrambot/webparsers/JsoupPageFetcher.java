@@ -0,0 +1,47 @@
+package telegrambot.webparsers;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+
+/**
+ * Загрузчик веб-страниц на Jsoup. Тело ответа передается разбору потоком
+ * @author borodatyidrug
+ *
+ */
+public class JsoupPageFetcher implements IPageFetcher {
+
+	protected static final int NOT_MODIFIED = 304;
+	protected static final int TIMEOUT_MILLIS = 30_000;
+
+	@Override
+	public <T> FetchedPage<T> fetch(String url, String etag, String lastModified, IPageParser<T> parser) throws IOException {
+		Connection connection = Jsoup.connect(url)
+				.timeout(TIMEOUT_MILLIS)
+				// ответы 304 и ошибки разбираются ниже, а не исключением Jsoup
+				.ignoreHttpErrors(true);
+		if (etag != null) {
+			connection.header("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			connection.header("If-Modified-Since", lastModified);
+		}
+		var response = connection.execute();
+		if (response.statusCode() == NOT_MODIFIED) {
+			return null;
+		}
+		if (response.statusCode() >= 400) {
+			throw new IOException("Страница " + url + " не загружена: HTTP " + response.statusCode() + " "
+					+ response.statusMessage());
+		}
+		var charset = response.charset() == null ? StandardCharsets.UTF_8 : Charset.forName(response.charset());
+		// тело ответа читает разбор; если он остановился раньше, то остаток страницы не скачивается
+		try (var body = new InputStreamReader(response.bodyStream(), charset)) {
+			return new FetchedPage<>(parser.parse(body, url), response.header("ETag"), response.header("Last-Modified"));
+		}
+	}
+}
@@ -0,0 +1,552 @@
+package telegrambot.webparsers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsoup.Jsoup;
+import org.jsoup.parser.Parser;
+
+/**
+ * Потоковое извлечение блоков: HTML читается порциями и разбирается на лексемы по мере чтения, без построения дерева всей
+ * страницы. Хранится только цепочка открытых элементов (имя, id и атрибуты) - по ней проверяются селекторы блоков. Исходный
+ * текст элемента, подошедшего под селектор еще не найденного блока, копируется до его закрывающего тега; только это поддерево
+ * и разбирается Jsoup и передается извлекателю. Чтение прекращается, как только найдены все блоки, - остаток страницы не
+ * читается и, при загрузке из сети, не скачивается.
+ * Селекторы - подмножество CSS: составные селекторы из имени тега (или *), .class, #id, [attr] и [attr=value], соединенные
+ * пробелом (потомок) или > (дочерний элемент). Разбор HTML упрощенный: незакрытые p, li, dt и dd закрываются так же, как в
+ * HTML, а закрывающий тег закрывает все элементы, открытые внутри одноименного
+ * @param <B> Строитель результата разбора
+ * @author borodatyidrug
+ *
+ */
+public class StreamingBlockExtraction<B> {
+
+	protected static final int BUFFER_SIZE = 8192;
+	/**
+	 * Элементы без закрывающего тега
+	 */
+	protected static final Set<String> VOID_ELEMENTS = Set.of("area", "base", "br", "col", "embed", "hr", "img", "input",
+			"link", "meta", "param", "source", "track", "wbr");
+	/**
+	 * Элементы, содержимое которых - текст, а не разметка
+	 */
+	protected static final Set<String> RAW_TEXT_ELEMENTS = Set.of("script", "style", "textarea", "title");
+	/**
+	 * Элементы, начало которых закрывает незакрытый абзац
+	 */
+	protected static final Set<String> CLOSE_P = Set.of("address", "article", "aside", "blockquote", "div", "dl", "fieldset",
+			"footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hr", "main", "nav", "ol", "p", "pre", "section",
+			"table", "ul");
+
+	/**
+	 * Составной селектор: тег, id, классы и атрибуты одного элемента, и как он связан с предыдущим составным селектором
+	 */
+	protected static class Compound {
+
+		protected String tag;
+		protected final List<String> classes = new ArrayList<>();
+		protected final Map<String, String> attributes = new HashMap<>();
+		/**
+		 * true - предыдущий составной селектор должен подойти родителю, false - любому предку
+		 */
+		protected boolean child;
+
+		protected boolean matches(Open element) {
+			if (tag != null && !tag.equals(element.name)) {
+				return false;
+			}
+			for (var name : classes) {
+				if (!element.hasClass(name)) {
+					return false;
+				}
+			}
+			for (var attribute : attributes.entrySet()) {
+				var value = element.attributes.get(attribute.getKey());
+				if (value == null || (attribute.getValue() != null && !attribute.getValue().equals(value))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Открытый элемент
+	 */
+	protected static class Open {
+
+		protected final String name;
+		protected final Map<String, String> attributes;
+		protected final Open parent;
+
+		protected Open(String name, Map<String, String> attributes, Open parent) {
+			this.name = name;
+			this.attributes = attributes;
+			this.parent = parent;
+		}
+
+		protected boolean hasClass(String className) {
+			var value = attributes.get("class");
+			if (value == null) {
+				return false;
+			}
+			// без split: класс проверяется у каждого открытого элемента страницы
+			for (int from = value.indexOf(className); from >= 0; from = value.indexOf(className, from + 1)) {
+				int end = from + className.length();
+				if ((from == 0 || Character.isWhitespace(value.charAt(from - 1)))
+						&& (end == value.length() || Character.isWhitespace(value.charAt(end)))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Копируемое поддерево найденного блока
+	 */
+	protected static class Capture {
+
+		protected final int extractor;
+		protected final Open root;
+		protected final StringBuilder html;
+
+		protected Capture(int extractor, Open root, String startTag) {
+			this.extractor = extractor;
+			this.root = root;
+			this.html = new StringBuilder(startTag);
+		}
+	}
+
+	/**
+	 * Состояние одного извлечения: читатель с буфером, открытые элементы и копируемые поддеревья
+	 */
+	protected class Run {
+
+		protected final Reader in;
+		protected final String baseUri;
+		protected final B builder;
+		protected final char[] buffer = new char[BUFFER_SIZE];
+		protected int position;
+		protected int limit;
+		protected final StringBuilder token = new StringBuilder();
+		/**
+		 * Имя тега или атрибута и значение атрибута: строки переиспользуются для всех лексем
+		 */
+		protected final StringBuilder identifier = new StringBuilder();
+		protected final StringBuilder value = new StringBuilder();
+		protected final boolean[] found = new boolean[selectors.size()];
+		protected int remaining = selectors.size();
+		protected final List<Capture> captures = new ArrayList<>();
+		protected Open current;
+
+		protected Run(Reader in, String baseUri, B builder) {
+			this.in = in;
+			this.baseUri = baseUri;
+			this.builder = builder;
+		}
+
+		protected int read() throws IOException {
+			if (position == limit) {
+				limit = in.read(buffer, 0, buffer.length);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position++];
+		}
+
+		protected int peek() throws IOException {
+			int c = read();
+			if (c >= 0) {
+				position--;
+			}
+			return c;
+		}
+		/**
+		 * Передает исходный текст всем копируемым поддеревьям
+		 */
+		protected void copy(CharSequence text) {
+			for (int i = 0; i < captures.size(); i++) {
+				captures.get(i).html.append(text);
+			}
+		}
+
+		protected void run() throws IOException {
+			int c;
+			while (remaining > 0 && (c = read()) >= 0) {
+				if (c != '<') {
+					for (int i = 0; i < captures.size(); i++) {
+						captures.get(i).html.append((char) c);
+					}
+					continue;
+				}
+				token.setLength(0);
+				token.append('<');
+				int next = peek();
+				if (next == '!') {
+					readComment();
+					copy(token);
+				} else if (next == '?') {
+					readUntil('>');
+					copy(token);
+				} else if (next == '/') {
+					read();
+					token.append('/');
+					var name = readName();
+					readUntil('>');
+					copy(token);
+					if (!name.isEmpty()) {
+						close(name);
+					}
+				} else if (Character.isLetter(next)) {
+					startTag();
+				} else {
+					copy(token);
+				}
+			}
+			// страница закончилась раньше, чем закрылись найденные блоки
+			while (current != null && !captures.isEmpty()) {
+				pop();
+			}
+		}
+
+		protected void readComment() throws IOException {
+			read();
+			token.append('!');
+			if (peek() == '-') {
+				int dashes = 0;
+				int c;
+				while ((c = read()) >= 0) {
+					token.append((char) c);
+					if (c == '>' && dashes >= 2 && token.length() > 5) {
+						return;
+					}
+					dashes = c == '-' ? dashes + 1 : 0;
+				}
+			} else {
+				readUntil('>');
+			}
+		}
+
+		protected void readUntil(char end) throws IOException {
+			int c;
+			while ((c = read()) >= 0) {
+				token.append((char) c);
+				if (c == end) {
+					return;
+				}
+			}
+		}
+
+		protected String readName() throws IOException {
+			identifier.setLength(0);
+			int c;
+			while ((c = peek()) >= 0 && !Character.isWhitespace(c) && c != '>' && c != '/') {
+				read();
+				token.append((char) c);
+				identifier.append(Character.toLowerCase((char) c));
+			}
+			return identifier.toString();
+		}
+
+		protected void startTag() throws IOException {
+			var name = readName();
+			Map<String, String> attributes = new HashMap<>();
+			boolean selfClosing = false;
+			int c;
+			while ((c = read()) >= 0) {
+				token.append((char) c);
+				if (c == '>') {
+					break;
+				}
+				if (Character.isWhitespace(c)) {
+					continue;
+				}
+				if (c == '/') {
+					selfClosing = peek() == '>';
+					continue;
+				}
+				// имя атрибута
+				identifier.setLength(0);
+				identifier.append(Character.toLowerCase((char) c));
+				while ((c = peek()) >= 0 && !Character.isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+					read();
+					token.append((char) c);
+					identifier.append(Character.toLowerCase((char) c));
+				}
+				var attribute = identifier.toString();
+				while ((c = peek()) >= 0 && Character.isWhitespace(c)) {
+					read();
+					token.append((char) c);
+				}
+				var attributeValue = "";
+				if (c == '=') {
+					read();
+					token.append('=');
+					while ((c = peek()) >= 0 && Character.isWhitespace(c)) {
+						read();
+						token.append((char) c);
+					}
+					attributeValue = readValue();
+				}
+				attributes.putIfAbsent(attribute, attributeValue);
+			}
+			// незакрытые элементы закрываются до начала нового: его тег не попадает в их поддеревья
+			if (("li".equals(name) || "dt".equals(name) || "dd".equals(name)) && current != null
+					&& (current.name.equals("li") || current.name.equals("dt") || current.name.equals("dd"))) {
+				pop();
+			}
+			if (CLOSE_P.contains(name) && current != null && current.name.equals("p")) {
+				pop();
+			}
+			copy(token);
+			var element = new Open(name, attributes, current);
+			for (int i = 0; i < selectors.size(); i++) {
+				if (!found[i] && matches(selectors.get(i), selectors.get(i).size() - 1, element)) {
+					found[i] = true;
+					captures.add(new Capture(i, element, token.toString()));
+				}
+			}
+			if (selfClosing || VOID_ELEMENTS.contains(name)) {
+				complete(element);
+				return;
+			}
+			current = element;
+			if (RAW_TEXT_ELEMENTS.contains(name)) {
+				rawText(name);
+			}
+		}
+
+		protected String readValue() throws IOException {
+			value.setLength(0);
+			int quote = peek();
+			int c;
+			if (quote == '"' || quote == '\'') {
+				token.append((char) read());
+				while ((c = read()) >= 0) {
+					token.append((char) c);
+					if (c == quote) {
+						break;
+					}
+					value.append((char) c);
+				}
+			} else {
+				while ((c = peek()) >= 0 && !Character.isWhitespace(c) && c != '>') {
+					read();
+					token.append((char) c);
+					value.append((char) c);
+				}
+			}
+			return value.indexOf("&") < 0 ? value.toString() : Parser.unescapeEntities(value.toString(), true);
+		}
+		/**
+		 * Читает текст элемента script, style, textarea или title до его закрывающего тега, не разбирая его как разметку.
+		 * Текст не накапливается: закрывающий тег распознается по мере чтения, а в копируемые поддеревья текст передается
+		 * посимвольно
+		 */
+		protected void rawText(String name) throws IOException {
+			var end = "</" + name;
+			// сколько символов закрывающего тега уже прочитано подряд
+			int matched = 0;
+			int c;
+			while ((c = read()) >= 0) {
+				for (int i = 0; i < captures.size(); i++) {
+					captures.get(i).html.append((char) c);
+				}
+				if (matched == end.length()) {
+					if (c == '>') {
+						pop();
+						return;
+					}
+					if (Character.isWhitespace(c) || c == '/') {
+						// остаток закрывающего тега
+						while ((c = read()) >= 0) {
+							for (int i = 0; i < captures.size(); i++) {
+								captures.get(i).html.append((char) c);
+							}
+							if (c == '>') {
+								break;
+							}
+						}
+						pop();
+						return;
+					}
+					matched = 0;
+				}
+				if (Character.toLowerCase((char) c) == end.charAt(matched)) {
+					matched++;
+				} else {
+					matched = c == '<' ? 1 : 0;
+				}
+			}
+		}
+
+		/**
+		 * Закрывает элемент name и все элементы, открытые внутри него. Закрывающий тег без открытого элемента пропускается
+		 */
+		protected void close(String name) {
+			for (var open = current; open != null; open = open.parent) {
+				if (open.name.equals(name)) {
+					while (current != open) {
+						pop();
+					}
+					pop();
+					return;
+				}
+			}
+		}
+
+		protected void pop() {
+			var closed = current;
+			current = closed.parent;
+			complete(closed);
+		}
+		/**
+		 * Если закрытый элемент - корень копируемого блока, то разбирает скопированное поддерево и передает его извлекателю
+		 */
+		protected void complete(Open closed) {
+			for (int i = 0; i < captures.size(); i++) {
+				var capture = captures.get(i);
+				if (capture.root == closed) {
+					captures.remove(i--);
+					var fragment = Jsoup.parseBodyFragment(capture.html.toString(), baseUri).body();
+					if (fragment.childrenSize() > 0) {
+						extractors.get(capture.extractor).extract(fragment.child(0), builder);
+					}
+					remaining--;
+				}
+			}
+		}
+	}
+
+	protected final List<IBlockExtractor<B>> extractors;
+	protected final List<List<Compound>> selectors;
+
+	/**
+	 * Создает потоковое извлечение
+	 * @param extractors Извлекатели блоков
+	 * @throws IllegalArgumentException Если селектор блока не входит в поддерживаемое подмножество CSS
+	 */
+	public StreamingBlockExtraction(List<IBlockExtractor<B>> extractors) {
+		this.extractors = List.copyOf(extractors);
+		this.selectors = new ArrayList<>();
+		for (var extractor : this.extractors) {
+			selectors.add(parse(extractor.getSelector()));
+		}
+	}
+	/**
+	 * Извлекает блоки, читая HTML, пока не найдены все блоки
+	 * @param in HTML страницы
+	 * @param baseUri Адрес страницы, относительно которого разрешаются ссылки
+	 * @param builder Строитель результата разбора
+	 * @return Сколько блоков найдено
+	 * @throws IOException
+	 */
+	public int extract(Reader in, String baseUri, B builder) throws IOException {
+		var run = new Run(in, baseUri, builder);
+		run.run();
+		return selectors.size() - run.remaining;
+	}
+	/**
+	 * Проверяет, подходит ли элемент под селектор, начиная с составного селектора index (справа налево)
+	 */
+	protected static boolean matches(List<Compound> selector, int index, Open element) {
+		var compound = selector.get(index);
+		if (!compound.matches(element)) {
+			return false;
+		}
+		if (index == 0) {
+			return true;
+		}
+		if (compound.child) {
+			return element.parent != null && matches(selector, index - 1, element.parent);
+		}
+		for (var ancestor = element.parent; ancestor != null; ancestor = ancestor.parent) {
+			if (matches(selector, index - 1, ancestor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Разбирает селектор в последовательность составных селекторов
+	 * @param selector CSS-селектор
+	 * @return Составные селекторы слева направо
+	 */
+	protected static List<Compound> parse(String selector) {
+		List<Compound> compounds = new ArrayList<>();
+		var text = selector.trim();
+		int i = 0;
+		boolean child = false;
+		while (i < text.length()) {
+			var compound = new Compound();
+			compound.child = child;
+			int start = i;
+			while (i < text.length() && !Character.isWhitespace(text.charAt(i)) && text.charAt(i) != '>') {
+				char c = text.charAt(i);
+				if (c == '.' || c == '#') {
+					int end = identifierEnd(text, i + 1);
+					var name = text.substring(i + 1, end);
+					if (c == '.') {
+						compound.classes.add(name);
+					} else {
+						compound.attributes.put("id", name);
+					}
+					i = end;
+				} else if (c == '[') {
+					int end = text.indexOf(']', i);
+					if (end < 0) {
+						throw new IllegalArgumentException("Не закрыта скобка в селекторе " + selector);
+					}
+					var condition = text.substring(i + 1, end);
+					int equals = condition.indexOf('=');
+					if (equals < 0) {
+						compound.attributes.put(condition.trim().toLowerCase(), null);
+					} else {
+						var value = condition.substring(equals + 1).trim();
+						if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')) {
+							value = value.substring(1, value.length() - 1);
+						}
+						compound.attributes.put(condition.substring(0, equals).trim().toLowerCase(), value);
+					}
+					i = end + 1;
+				} else if (i == start && c == '*') {
+					i++;
+				} else if (i == start && Character.isLetter(c)) {
+					int end = identifierEnd(text, i);
+					compound.tag = text.substring(i, end).toLowerCase();
+					i = end;
+				} else {
+					throw new IllegalArgumentException("Селектор " + selector + " не поддерживается потоковым извлечением");
+				}
+			}
+			compounds.add(compound);
+			child = false;
+			while (i < text.length() && (Character.isWhitespace(text.charAt(i)) || text.charAt(i) == '>')) {
+				child |= text.charAt(i) == '>';
+				i++;
+			}
+		}
+		if (compounds.isEmpty()) {
+			throw new IllegalArgumentException("Пустой селектор");
+		}
+		return compounds;
+	}
+
+	protected static int identifierEnd(String text, int from) {
+		int i = from;
+		while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '-'
+				|| text.charAt(i) == '_')) {
+			i++;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,121 @@
+package telegrambot.webparsers.azbykaru;
+
+/**
+ * Неизменяемый результат разбора страницы "Календарь" портала Azbyka.ru: цитата дня с автором и источником, притча дня и
+ * основы православия. Блок, которого не оказалось на странице, - null
+ * @author borodatyidrug
+ *
+ */
+public class AzbykaDay {
+
+	protected static final String EMPTY = "Содержание отсутствует. Вероятно, поменялась структура искомого блока HTML-кода, "
+			+ "или блок отсутствует. Бывает. :)";
+
+	private final String quote;
+	private final String author;
+	private final String sourceText;
+	private final String sourceUrl;
+	private final String parable;
+	private final String fundamentals;
+
+	protected AzbykaDay(Builder builder) {
+		this.quote = builder.quote;
+		this.author = builder.author;
+		this.sourceText = builder.sourceText;
+		this.sourceUrl = builder.sourceUrl;
+		this.parable = builder.parable;
+		this.fundamentals = builder.fundamentals;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public String getQuote() {
+		return quote;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	public String getSourceText() {
+		return sourceText;
+	}
+
+	public String getSourceUrl() {
+		return sourceUrl;
+	}
+
+	public String getParable() {
+		return parable;
+	}
+
+	public String getFundamentals() {
+		return fundamentals;
+	}
+	/**
+	 * Строит текст сообщения, которое бот отправляет в чат
+	 * @return Строка с текстом сформированного сообщения
+	 */
+	public String getText() {
+		return "ЦИТАТА ДНЯ (Azbyka.ru):\n\n"
+				+ (quote == null ? EMPTY : (quote + "\n\n"))
+				+ (author == null ? "" : (author + "\n"))
+				+ (sourceText == null ? "" : sourceText) + "\n"
+				+ (sourceUrl == null ? "" : sourceUrl) + "\n\n"
+				+ "ПРИТЧА ДНЯ:\n\n"
+				+ (parable == null ? EMPTY : (parable + "\n\n"))
+				+ "ОСНОВЫ ПРАВОСЛАВИЯ:\n\n"
+				+ (fundamentals == null ? EMPTY : (fundamentals + "\n\n"));
+	}
+	/**
+	 * Строитель результата разбора, заполняемый извлекателями блоков
+	 */
+	public static class Builder {
+
+		private String quote;
+		private String author;
+		private String sourceText;
+		private String sourceUrl;
+		private String parable;
+		private String fundamentals;
+
+		protected Builder() {
+		}
+
+		public Builder quote(String quote) {
+			this.quote = quote;
+			return this;
+		}
+
+		public Builder author(String author) {
+			this.author = author;
+			return this;
+		}
+
+		public Builder sourceText(String sourceText) {
+			this.sourceText = sourceText;
+			return this;
+		}
+
+		public Builder sourceUrl(String sourceUrl) {
+			this.sourceUrl = sourceUrl;
+			return this;
+		}
+
+		public Builder parable(String parable) {
+			this.parable = parable;
+			return this;
+		}
+
+		public Builder fundamentals(String fundamentals) {
+			this.fundamentals = fundamentals;
+			return this;
+		}
+
+		public AzbykaDay build() {
+			return new AzbykaDay(this);
+		}
+	}
+}
@@ -2,19 +2,122 @@ package telegrambot.webparsers.azbykaru;
 
 import org.jsoup.select.Elements;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import telegrambot.webparsers.BlockExtraction;
+import telegrambot.webparsers.IBlockExtractor;
+import telegrambot.webparsers.StreamingBlockExtraction;
 
 /**
  * Класс, предназначенный исключительно для парсинга определенных элементов (html блоков) сайта Azbyka.ru (православный сайт).
  * Принцип единственной ответственности ООП.
  * Парсинг производится с помощью библиотеки Jsoup, посредством определенного в ней html-парсера. Для парсинга используется
  * возможность применять синтаксис в стиле CSS-селекторов.
+ * Методы get...() разбирают по одному блоку и накапливают результат в объекте парсера; parseDay() извлекает все блоки
+ * страницы за один обход ее дерева в неизменяемый AzbykaDay, а streamDay() - то же, не строя дерево всей страницы.
  * @author borodatyidrug
  */
 public class AzbykaParser {
+    /**
+     * Блок "Цитата дня": цитата, автор, ссылка на источник и ее текст
+     */
+    public static class QuoteOfDay implements IBlockExtractor<AzbykaDay.Builder> {
+
+        @Override
+        public String getSelector() {
+            return "div.box div.quote-of-day";
+        }
+
+        @Override
+        public void extract(Element block, AzbykaDay.Builder builder) {
+            var quote = block.select("div > p").first();
+            if (quote != null) {
+                builder.quote(quote.text());
+            }
+            var author = block.select("p > em").first();
+            if (author != null) {
+                builder.author(author.ownText());
+            }
+            var source = block.select("a[href]");
+            builder.sourceUrl(source.attr("href"));
+            builder.sourceText(source.text());
+        }
+    }
+    /**
+     * Блок "Притча дня"
+     */
+    public static class ParableOfDay implements IBlockExtractor<AzbykaDay.Builder> {
+
+        @Override
+        public String getSelector() {
+            return "div[id=pritcha]";
+        }
+
+        @Override
+        public void extract(Element block, AzbykaDay.Builder builder) {
+            builder.parable(block.select("div > p").html());
+        }
+    }
+    /**
+     * Блок "Основы православия"
+     */
+    public static class Fundamentals implements IBlockExtractor<AzbykaDay.Builder> {
+
+        @Override
+        public String getSelector() {
+            return "div[id=osnovy]";
+        }
+
+        @Override
+        public void extract(Element block, AzbykaDay.Builder builder) {
+            builder.fundamentals(block.text());
+        }
+    }
+    /**
+     * Извлекатели блоков страницы "Календарь"
+     */
+    public static final List<IBlockExtractor<AzbykaDay.Builder>> DAY_EXTRACTORS = List.of(new QuoteOfDay(),
+            new ParableOfDay(), new Fundamentals());
+    /**
+     * Извлечение всех блоков страницы "Календарь" за один обход
+     */
+    public static final BlockExtraction<AzbykaDay.Builder> DAY_BLOCKS = new BlockExtraction<>(DAY_EXTRACTORS);
+    /**
+     * Потоковое извлечение всех блоков страницы "Календарь", без дерева всей страницы
+     */
+    public static final StreamingBlockExtraction<AzbykaDay.Builder> DAY_BLOCKS_STREAMING =
+            new StreamingBlockExtraction<>(DAY_EXTRACTORS);
+
+    /**
+     * Извлекает все блоки уже загруженной страницы "Календарь" за один обход ее дерева
+     * @param document Страница, блоки которой подлежат парсингу
+     * @return Результат разбора
+     */
+    public static AzbykaDay parseDay(Document document) {
+        var builder = AzbykaDay.builder();
+        DAY_BLOCKS.extract(document, builder);
+        return builder.build();
+    }
+    /**
+     * Извлекает все блоки страницы "Календарь" по мере ее чтения, не строя дерево всей страницы. Чтение прекращается, как
+     * только найдены все блоки
+     * @param html HTML страницы
+     * @param baseUri Адрес страницы
+     * @return Результат разбора
+     * @throws IOException
+     */
+    public static AzbykaDay streamDay(Reader html, String baseUri) throws IOException {
+        var builder = AzbykaDay.builder();
+        DAY_BLOCKS_STREAMING.extract(html, baseUri, builder);
+        return builder.build();
+    }
+
 	// Мапа для хранения необходимых элементов распарсенных блоков
     private final Map<String, String> map;
     private final String EMPTY = "Содержание отсутствует. Вероятно, поменялась структура искомого блока HTML-кода, "
@@ -31,38 +134,45 @@ public class AzbykaParser {
      */
     public AzbykaParser getQuoteOfDay(String url) {
         try {
-            Document document = Jsoup.connect(url).get();
-            Elements target = document.select("div.box").select("div.quote-of-day");
-            try {
-                String quote = target.select("div > p").first().text();
-                map.put("quote", quote);
-            } catch(NullPointerException e) {
-                System.out.println("Такого элемента - нет. В вывод добавлен не будет.");
-            }
-            try {
-                String author = target.select("p > em").first().ownText();
-                map.put("author", author);
-            } catch(NullPointerException e) {
-                System.out.println("Такого элемента - нет. В вывод добавлен не будет.");
-            }
-            try {
-                String refToSource = target.select("a[href]").attr("href");
-                map.put("refToSource", refToSource);
-            } catch(NullPointerException e) {
-                System.out.println("Такого элемента - нет. В вывод добавлен не будет.");
-            }
-            try {
-                String refToSourceText = target.select("a[href]").text();
-                map.put("refToSourceText", refToSourceText);
-            } catch(NullPointerException e) {
-                System.out.println("Такого элемента - нет. В вывод добавлен не будет.");
-            }
-            return this;
+            return getQuoteOfDay(Jsoup.connect(url).get());
         } catch (IOException e) {
             System.out.println(e.getMessage());
             return this;
         }
     }
+    /**
+     * Парсит информационный блок "Цитата дня" в уже загруженной странице "Календарь"
+     * @param document Страница, блоки которой подлежат парсингу
+     * @return Модифицированный объект этого класса
+     */
+    public AzbykaParser getQuoteOfDay(Document document) {
+        Elements target = document.select("div.box").select("div.quote-of-day");
+        try {
+            String quote = target.select("div > p").first().text();
+            map.put("quote", quote);
+        } catch(NullPointerException e) {
+            System.out.println("Такого элемента - нет. В вывод добавлен не будет.");
+        }
+        try {
+            String author = target.select("p > em").first().ownText();
+            map.put("author", author);
+        } catch(NullPointerException e) {
+            System.out.println("Такого элемента - нет. В вывод добавлен не будет.");
+        }
+        try {
+            String refToSource = target.select("a[href]").attr("href");
+            map.put("refToSource", refToSource);
+        } catch(NullPointerException e) {
+            System.out.println("Такого элемента - нет. В вывод добавлен не будет.");
+        }
+        try {
+            String refToSourceText = target.select("a[href]").text();
+            map.put("refToSourceText", refToSourceText);
+        } catch(NullPointerException e) {
+            System.out.println("Такого элемента - нет. В вывод добавлен не будет.");
+        }
+        return this;
+    }
     /**
      * Парсит информационный блок "Притча дня" на странице "Календарь"
      * @param url Ссылка на страницу, блоки которой подлежат парсингу
@@ -70,13 +180,7 @@ public class AzbykaParser {
      */
     public AzbykaParser getParableOfDay(String url) {
         try {
-            Document document = Jsoup.connect(url).get();
-            String text = document
-                    .select("div[id=pritcha]")
-                    .select("div > p")
-                    .html();
-            map.put("parableOfDay", text);
-            return this;
+            return getParableOfDay(Jsoup.connect(url).get());
         } catch (IOException e) {
             System.out.println(e.getMessage());
             return this;
@@ -90,18 +194,38 @@ public class AzbykaParser {
      */
     public AzbykaParser getFundamentals(String url) {
         try {
-            Document document = Jsoup.connect(url).get();
-            StringBuilder sb = new StringBuilder();
-            document.select("div[id=osnovy]")
-                    .eachText()
-                    .forEach(s -> sb.append(s));
-            map.put("fundamentals", sb.toString());
-            return this;
+            return getFundamentals(Jsoup.connect(url).get());
         } catch (IOException e) {
             System.out.println(e.getMessage());
             return this;
         }
     }
+    /**
+     * Парсит информационный блок "Притча дня" в уже загруженной странице "Календарь"
+     * @param document Страница, блоки которой подлежат парсингу
+     * @return Модифицированный объект этого класса
+     */
+    public AzbykaParser getParableOfDay(Document document) {
+        String text = document
+                .select("div[id=pritcha]")
+                .select("div > p")
+                .html();
+        map.put("parableOfDay", text);
+        return this;
+    }
+    /**
+     * Парсит информационный блок "Основы православия" в уже загруженной странице "Календарь"
+     * @param document Страница, блоки которой подлежат парсингу
+     * @return Модифицированный объект этого класса
+     */
+    public AzbykaParser getFundamentals(Document document) {
+        StringBuilder sb = new StringBuilder();
+        document.select("div[id=osnovy]")
+                .eachText()
+                .forEach(s -> sb.append(s));
+        map.put("fundamentals", sb.toString());
+        return this;
+    }
     /**
      * Строит строку, содержащую весь необходимый текст с распарсенных информационных блоков для вставки его в качестве текста сообщения,
      * которое бот отправляет в чат
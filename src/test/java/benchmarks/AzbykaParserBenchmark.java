@@ -0,0 +1,95 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import telegrambot.webparsers.azbykaru.AzbykaParser;
+
+/**
+ * Извлечение блоков "Цитата дня", "Притча дня" и "Основы православия" из сохраненной копии страницы календаря. productionPath
+ * повторяет то, что AzbykaRu делал при каждой отправке до кэша содержимого: страница разбирается трижды, по разу на блок.
+ * singleParse - один разбор страницы и отдельные выборки для каждого блока. pipeline - то, что теперь делает кэш раз в
+ * сутки: один разбор и все блоки за один обход дерева. extractOnly и extractPipeline измеряют только выборку блоков из уже
+ * разобранной страницы
+ * @author borodatyidrug
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AzbykaParserBenchmark {
+
+	public static final String FIXTURE = "/benchmarks/azbyka-days.html";
+	protected static final String BASE_URI = "https://azbyka.ru/days/";
+
+	protected String html;
+	protected Document document;
+
+	public static String fixture() throws IOException {
+		try (InputStream in = AzbykaParserBenchmark.class.getResourceAsStream(FIXTURE)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		html = fixture();
+		document = Jsoup.parse(html, BASE_URI);
+	}
+
+	@Benchmark
+	public String productionPath() {
+		return new AzbykaParser()
+				.getQuoteOfDay(Jsoup.parse(html, BASE_URI))
+				.getParableOfDay(Jsoup.parse(html, BASE_URI))
+				.getFundamentals(Jsoup.parse(html, BASE_URI))
+				.getText();
+	}
+
+	@Benchmark
+	public String singleParse() {
+		var parsed = Jsoup.parse(html, BASE_URI);
+		return new AzbykaParser()
+				.getQuoteOfDay(parsed)
+				.getParableOfDay(parsed)
+				.getFundamentals(parsed)
+				.getText();
+	}
+
+	@Benchmark
+	public String pipeline() {
+		return AzbykaParser.parseDay(Jsoup.parse(html, BASE_URI)).getText();
+	}
+
+	@Benchmark
+	public String extractPipeline() {
+		return AzbykaParser.parseDay(document).getText();
+	}
+
+	@Benchmark
+	public String extractOnly() {
+		return new AzbykaParser()
+				.getQuoteOfDay(document)
+				.getParableOfDay(document)
+				.getFundamentals(document)
+				.getText();
+	}
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Сравнивает результаты прогона JMH (-rf json) с зафиксированной в репозитории базовой линией. Регрессией считается ухудшение
+ * основной метрики (время или пропускная способность) или объема памяти, выделяемой на одну операцию (gc.alloc.rate.norm из
+ * -prof gc), больше чем на заданный процент. Завершается с кодом 1, если найдена хотя бы одна регрессия.
+ * Аргументы: путь к базовой линии, путь к результатам, допустимое ухудшение в процентах
+ * @author borodatyidrug
+ *
+ */
+public class BaselineComparator {
+
+	protected static final String ALLOC_NORM = "·gc.alloc.rate.norm";
+
+	public static void main(String[] args) throws IOException {
+		var baselineFile = new File(args[0]);
+		var resultFile = new File(args[1]);
+		double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+		if (!baselineFile.exists()) {
+			System.out.println("Базовая линия " + baselineFile + " не найдена. Чтобы зафиксировать ее, скопируйте " + resultFile
+					+ " в " + baselineFile);
+			return;
+		}
+		var mapper = new ObjectMapper();
+		var baseline = index(mapper.readTree(baselineFile));
+		var result = index(mapper.readTree(resultFile));
+		int regressions = 0;
+		for (var entry : result.entrySet()) {
+			var before = baseline.get(entry.getKey());
+			if (before == null) {
+				System.out.println("NEW        " + entry.getKey());
+				continue;
+			}
+			var after = entry.getValue();
+			boolean higherIsBetter = "thrpt".equals(after.path("mode").asText());
+			double scoreChange = change(before.path("primaryMetric").path("score").asDouble(),
+					after.path("primaryMetric").path("score").asDouble(), higherIsBetter);
+			double allocChange = change(before.path("secondaryMetrics").path(ALLOC_NORM).path("score").asDouble(),
+					after.path("secondaryMetrics").path(ALLOC_NORM).path("score").asDouble(), false);
+			boolean regressed = scoreChange > tolerance || allocChange > tolerance;
+			if (regressed) {
+				regressions++;
+			}
+			System.out.println(String.format("%-10s %s: score %+.1f%%, alloc/op %+.1f%%",
+					regressed ? "REGRESSION" : "OK", entry.getKey(), scoreChange, allocChange));
+		}
+		if (regressions > 0) {
+			System.out.println("Регрессий: " + regressions + " (допустимо ухудшение до " + tolerance + "%)");
+			System.exit(1);
+		}
+	}
+	/**
+	 * Индексирует результаты по имени бенчмарка и значениям его параметров
+	 */
+	protected static Map<String, JsonNode> index(JsonNode results) {
+		Map<String, JsonNode> index = new LinkedHashMap<>();
+		for (var result : results) {
+			var key = result.path("benchmark").asText();
+			if (result.has("params")) {
+				key += " " + result.get("params").toString();
+			}
+			index.put(key, result);
+		}
+		return index;
+	}
+	/**
+	 * Возвращает ухудшение в процентах: положительное - стало хуже, отрицательное - лучше
+	 */
+	protected static double change(double before, double after, boolean higherIsBetter) {
+		if (before == 0) {
+			return 0;
+		}
+		double change = (after - before) / before * 100;
+		return higherIsBetter ? -change : change;
+	}
+}
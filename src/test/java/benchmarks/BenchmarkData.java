@@ -0,0 +1,133 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.DriverManager;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.quartz.SchedulerException;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.ITask;
+import telegrambot.todos.ITaskRepository;
+import telegrambot.todos.JdbcTaskRepository;
+import telegrambot.todos.Reminder;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.Task;
+
+/**
+ * Общие данные для бенчмарков: задачи и напоминания, похожие на создаваемые пользователями, и планировщик Quartz с хранилищем
+ * заданий в памяти
+ * @author borodatyidrug
+ *
+ */
+public class BenchmarkData {
+
+	public static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT);
+
+	/**
+	 * Reminder, открывающий бенчмаркам свои protected-методы построения сообщений
+	 */
+	public static class BenchmarkReminder extends Reminder {
+
+		public BenchmarkReminder(String propertiesPath, ITaskRepository repository) throws SchedulerException {
+			super(propertiesPath, Reminder.DEFAULT_CACHE_USERS, repository);
+		}
+
+		public String deadlineMessage(IReminderEntity reminderEntity) {
+			return buildDeadlineMessage(reminderEntity);
+		}
+
+		public String taskMessage(ITask task) {
+			return buildTaskMessage(task);
+		}
+
+		public void invalidateCache(String userId) {
+			invalidate(userId);
+		}
+
+		public int jobCount() throws SchedulerException {
+			return scheduler.getJobKeys(GroupMatcher.anyJobGroup()).size();
+		}
+
+		public void shutdown() throws SchedulerException {
+			scheduler.shutdown();
+		}
+	}
+
+	public static User user(long id) {
+		return new User(id, "Антон", false, "Антонов", "@onton", "ru", false, false, false);
+	}
+
+	public static ITask task(long userId, int i) {
+		return new Task(Long.toString(userId), user(userId), "Задача номер " + i,
+				"Описание задачи номер " + i + ": купить хлеба, молока и не забыть позвонить маме", Set.of("личное", "дом"));
+	}
+
+	public static IReminderEntity remind(ITask task, LocalDateTime when) {
+		return new ReminderEntity(task, when.format(FORMATTER), 1, ChronoUnit.DAYS, 15, 1, 0,
+				LocalDateTime.now().format(FORMATTER));
+	}
+	/**
+	 * Возвращает напоминания, запланированные на случайные моменты в течение ближайшего года
+	 * @param size Количество напоминаний
+	 * @param seed Начальное значение генератора, чтобы прогоны были сравнимы
+	 * @return Список напоминаний
+	 */
+	public static List<IReminderEntity> reminds(int size, long seed) {
+		var random = new Random(seed);
+		var now = LocalDateTime.now().withSecond(0).withNano(0);
+		List<IReminderEntity> result = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			result.add(remind(task(random.nextInt(1000), i), now.plusMinutes(1 + random.nextInt(365 * 24 * 60))));
+		}
+		return result;
+	}
+	/**
+	 * Создает и запускает планировщик с хранилищем заданий в памяти. У каждого планировщика - свое имя, т.к. Quartz не
+	 * допускает двух планировщиков с одним именем в одной JVM
+	 * @return Планировщик
+	 * @throws IOException
+	 * @throws SchedulerException
+	 */
+	public static BenchmarkReminder inMemoryReminder() throws IOException, SchedulerException {
+		return inMemoryReminder(inMemoryRepository());
+	}
+	/**
+	 * Создает и запускает планировщик с хранилищем заданий в памяти и заданным хранилищем задач
+	 * @param repository Хранилище задач
+	 * @return Планировщик
+	 * @throws IOException
+	 * @throws SchedulerException
+	 */
+	public static BenchmarkReminder inMemoryReminder(ITaskRepository repository) throws IOException, SchedulerException {
+		var properties = File.createTempFile("quartz-benchmark", ".properties");
+		properties.deleteOnExit();
+		Files.writeString(properties.toPath(), String.join("\n",
+				"org.quartz.scheduler.instanceName: Benchmark-" + UUID.randomUUID(),
+				"org.quartz.threadPool.class: org.quartz.simpl.SimpleThreadPool",
+				"org.quartz.threadPool.threadCount: 1",
+				"org.quartz.jobStore.class: org.quartz.simpl.RAMJobStore",
+				"org.quartz.scheduler.skipUpdateCheck: true"));
+		return new BenchmarkReminder(properties.getAbsolutePath(), repository);
+	}
+	/**
+	 * Возвращает хранилище задач во встраиваемой базе данных H2 в памяти. Каждый вызов создает отдельную базу
+	 * @return Хранилище задач
+	 */
+	public static ITaskRepository inMemoryRepository() {
+		var url = "jdbc:h2:mem:tasks-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+		return new JdbcTaskRepository(() -> DriverManager.getConnection(url));
+	}
+}
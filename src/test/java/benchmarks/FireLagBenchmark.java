@@ -0,0 +1,142 @@
+package benchmarks;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.tools.RunScript;
+import org.quartz.Job;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.Trigger;
+import org.quartz.impl.StdSchedulerFactory;
+
+import telegrambot.todos.SchedulerProfile;
+
+/**
+ * Опоздание срабатывания при всплеске напоминаний: count триггеров (по-умолчанию 10000) на один и тот же момент, как у
+ * напоминаний, запланированных на одну минуту. Планировщик - JobStoreTX над встраиваемой H2 в памяти с настройками
+ * quartz.properties бота (5 потоков, источник данных на 30 соединений), поправленными каждым из профилей SchedulerProfile.
+ * Опоздание задания - время от запланированного момента до начала его выполнения; выводятся перцентили и время разбора всплеска.
+ * Это не бенчмарк JMH: запуск - main, аргументы - количество триггеров и профили, например
+ * java -cp ... benchmarks.FireLagBenchmark 10000 STANDARD HIGH_THROUGHPUT
+ * @author borodatyidrug
+ *
+ */
+public class FireLagBenchmark {
+
+	/**
+	 * Задание, которое только записывает свое опоздание
+	 */
+	public static class LagJob implements Job {
+
+		@Override
+		public void execute(JobExecutionContext context) {
+			long lag = System.currentTimeMillis() - Math.max(context.getScheduledFireTime().getTime(), released);
+			int i = fired.getAndIncrement();
+			if (i < lags.length) {
+				lags[i] = lag;
+			}
+			done.countDown();
+		}
+	}
+
+	protected static final long LEAD_MILLIS = 2000;
+	protected static final long TIMEOUT_MINUTES = 10;
+
+	protected static volatile long[] lags;
+	protected static volatile long released;
+	protected static volatile CountDownLatch done;
+	protected static final AtomicInteger fired = new AtomicInteger();
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		var profiles = args.length > 1 ? Arrays.stream(args, 1, args.length).map(SchedulerProfile::valueOf)
+				.toArray(SchedulerProfile[]::new) : SchedulerProfile.values();
+		System.out.println("Процессоров: " + Runtime.getRuntime().availableProcessors() + ", триггеров: " + count);
+		for (var profile : profiles) {
+			System.out.println(profile + ": " + run(profile, count));
+		}
+	}
+	/**
+	 * Планирует count заданий на один момент, запускает планировщик и ждет, пока все они выполнятся
+	 * @param profile Профиль планировщика
+	 * @param count Количество триггеров
+	 * @return Отчет: перцентили опоздания и время разбора всплеска
+	 * @throws Exception
+	 */
+	public static String run(SchedulerProfile profile, int count) throws Exception {
+		var url = "jdbc:h2:mem:quartz-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+		try (var connection = DriverManager.getConnection(url);
+				var script = new InputStreamReader(
+						StdSchedulerFactory.class.getResourceAsStream("/org/quartz/impl/jdbcjobstore/tables_h2.sql"),
+						StandardCharsets.UTF_8)) {
+			RunScript.execute(connection, script);
+		}
+		var properties = new Properties();
+		properties.setProperty("org.quartz.scheduler.instanceName", "FireLag-" + profile);
+		properties.setProperty("org.quartz.scheduler.skipUpdateCheck", "true");
+		properties.setProperty("org.quartz.threadPool.class", "org.quartz.simpl.SimpleThreadPool");
+		properties.setProperty("org.quartz.threadPool.threadCount", "5");
+		properties.setProperty("org.quartz.jobStore.misfireThreshold", "120000");
+		properties.setProperty("org.quartz.jobStore.class", "org.quartz.impl.jdbcjobstore.JobStoreTX");
+		properties.setProperty("org.quartz.jobStore.driverDelegateClass", "org.quartz.impl.jdbcjobstore.StdJDBCDelegate");
+		properties.setProperty("org.quartz.jobStore.useProperties", "true");
+		properties.setProperty("org.quartz.jobStore.dataSource", "db");
+		properties.setProperty("org.quartz.dataSource.db.driver", "org.h2.Driver");
+		properties.setProperty("org.quartz.dataSource.db.URL", url);
+		properties.setProperty("org.quartz.dataSource.db.maxConnections", "30");
+		var scheduler = new StdSchedulerFactory(profile.apply(properties)).getScheduler();
+		try {
+			lags = new long[count];
+			fired.set(0);
+			done = new CountDownLatch(count);
+			released = 0;
+			var due = new Date(System.currentTimeMillis() + LEAD_MILLIS);
+			Map<JobDetail, Set<? extends Trigger>> jobs = new HashMap<>();
+			for (int i = 0; i < count; i++) {
+				var group = Integer.toString(i % 1000);
+				jobs.put(newJob(LagJob.class).withIdentity("job-" + i, group).build(),
+						Set.of(newTrigger().withIdentity("trigger-" + i, group).startAt(due).build()));
+			}
+			// планировщик не запущен, пока задания сохраняются: иначе всплеск разбирался бы по мере сохранения
+			scheduler.scheduleJobs(jobs, false);
+			long wait = due.getTime() - System.currentTimeMillis();
+			if (wait > 0) {
+				Thread.sleep(wait);
+			}
+			// если сохранение заняло больше LEAD_MILLIS, опоздание считается от запуска планировщика, а не от due
+			released = System.currentTimeMillis();
+			scheduler.start();
+			if (!done.await(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+				return "не дождались: выполнено " + fired.get() + " из " + count;
+			}
+			long drained = System.currentTimeMillis() - released;
+			var sorted = lags.clone();
+			Arrays.sort(sorted);
+			return String.format("потоков=%s, опоздание мс: p50=%d p90=%d p99=%d max=%d, всплеск разобран за %d мс",
+					scheduler.getMetaData().getThreadPoolSize(), percentile(sorted, 50), percentile(sorted, 90),
+					percentile(sorted, 99), sorted[sorted.length - 1], drained);
+		} finally {
+			scheduler.shutdown(false);
+		}
+	}
+
+	protected static long percentile(long[] sorted, double p) {
+		int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+}
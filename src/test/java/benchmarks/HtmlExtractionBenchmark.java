@@ -0,0 +1,138 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import telegrambot.webparsers.azbykaru.AzbykaDay;
+import telegrambot.webparsers.azbykaru.AzbykaParser;
+
+/**
+ * Извлечение блоков страницы "Календарь" деревом всей страницы (dom) и потоком (streaming), из сохраненной копии страницы
+ * (saved) и из нее же, дополненной после блоков еще padding записями календаря (heavy): потоковое извлечение дочитывает
+ * страницу только до последнего нужного блока. Время и выделенную на операцию память (-prof gc, gc.alloc.rate.norm) дает
+ * JMH. Пиковый объем кучи за одно извлечение JMH не измеряет - его выводит main, например
+ * java -XX:+UseSerialGC -Xmn512k -cp ... benchmarks.HtmlExtractionBenchmark 200
+ * Маленькое молодое поколение собирается часто, поэтому пик отражает живые данные извлечения, а не накопившийся мусор
+ * @author borodatyidrug
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HtmlExtractionBenchmark {
+
+	protected static final String BASE_URI = "https://azbyka.ru/days/";
+	/**
+	 * Сколько записей календаря добавляется в тяжелую страницу
+	 */
+	protected static final int PADDING = 2000;
+
+	@Param({"saved", "heavy"})
+	public String page;
+
+	protected String html;
+
+	/**
+	 * Возвращает страницу: сохраненную копию или тяжелую - с PADDING дополнительными записями календаря перед </body>
+	 * @param page saved или heavy
+	 * @return HTML страницы
+	 * @throws IOException
+	 */
+	public static String page(String page) throws IOException {
+		var html = AzbykaParserBenchmark.fixture();
+		if (!"heavy".equals(page)) {
+			return html;
+		}
+		int end = html.lastIndexOf("</body>");
+		var padding = new StringBuilder();
+		for (int i = 0; i < PADDING; i++) {
+			padding.append("<div class=\"box day-block\" id=\"extra-").append(i).append("\"><h3>Запись ").append(i)
+					.append("</h3><div class=\"text\"><p>Текст записи календаря, которая не нужна боту.</p>")
+					.append("<p><a href=\"/days/extra-").append(i).append("\">Подробнее</a></p></div></div>\n");
+		}
+		return html.substring(0, end) + padding + html.substring(end);
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		html = page(page);
+	}
+
+	@Benchmark
+	public AzbykaDay dom() {
+		return AzbykaParser.parseDay(Parser.htmlParser().parseInput(new StringReader(html), BASE_URI));
+	}
+
+	@Benchmark
+	public AzbykaDay streaming() throws IOException {
+		return AzbykaParser.streamDay(new StringReader(html), BASE_URI);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		for (var page : new String[] {"saved", "heavy"}) {
+			var html = page(page);
+			System.out.println(page + " (" + html.length() + " символов): dom - " + peakHeap(runs,
+					() -> AzbykaParser.parseDay(Parser.htmlParser().parseInput(new StringReader(html), BASE_URI)))
+					+ ", streaming - " + peakHeap(runs, () -> AzbykaParser.streamDay(new StringReader(html), BASE_URI)));
+		}
+	}
+
+	protected interface Extraction {
+		AzbykaDay run() throws IOException;
+	}
+	/**
+	 * Измеряет, на сколько байт пик занятой кучи за одно извлечение превышает занятую кучу перед ним
+	 * @param runs Сколько извлечений
+	 * @param extraction Извлечение
+	 * @return Медиана и максимум по извлечениям, КиБ
+	 * @throws IOException
+	 */
+	protected static String peakHeap(int runs, Extraction extraction) throws IOException {
+		var pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+				.filter(pool -> pool.getType() == MemoryType.HEAP)
+				.toArray(MemoryPoolMXBean[]::new);
+		// прогрев: классы загружены, код скомпилирован
+		for (int i = 0; i < 500; i++) {
+			extraction.run();
+		}
+		long[] peaks = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			System.gc();
+			long before = 0;
+			for (var pool : pools) {
+				pool.resetPeakUsage();
+				before += pool.getUsage().getUsed();
+			}
+			extraction.run();
+			long peak = 0;
+			for (var pool : pools) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+			peaks[i] = Math.max(0, peak - before);
+		}
+		Arrays.sort(peaks);
+		return "медиана " + peaks[runs / 2] / 1024 + " КиБ, максимум " + peaks[runs - 1] / 1024 + " КиБ";
+	}
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.ITask;
+
+/**
+ * Сериализация и десериализация Task и ReminderEntity тем же способом, каким Reminder кладет их в JobDataMap и достает обратно
+ * @author borodatyidrug
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonBenchmark {
+
+	protected ObjectMapper mapper;
+	protected ITask task;
+	protected IReminderEntity remind;
+	protected String taskJson;
+	protected String remindJson;
+
+	@Setup
+	public void setUp() throws Exception {
+		mapper = new ObjectMapper();
+		task = BenchmarkData.task(42, 1);
+		remind = BenchmarkData.remind(task, LocalDateTime.now().plusDays(1));
+		taskJson = mapper.writeValueAsString(task);
+		remindJson = mapper.writeValueAsString(remind);
+	}
+
+	@Benchmark
+	public String writeTask() throws Exception {
+		return mapper.writeValueAsString(task);
+	}
+
+	@Benchmark
+	public ITask readTask() throws Exception {
+		return mapper.readValue(taskJson, ITask.class);
+	}
+
+	@Benchmark
+	public String writeReminderEntity() throws Exception {
+		return mapper.writeValueAsString(remind);
+	}
+
+	@Benchmark
+	public IReminderEntity readReminderEntity() throws Exception {
+		return mapper.readValue(remindJson, IReminderEntity.class);
+	}
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.ITask;
+
+/**
+ * Построение текстов сообщений о задаче и о наступившем дедлайне - то, что происходит при каждом срабатывании напоминания
+ * @author borodatyidrug
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageBenchmark {
+
+	protected BenchmarkData.BenchmarkReminder reminder;
+	protected ITask task;
+	protected IReminderEntity remind;
+
+	@Setup
+	public void setUp() throws Exception {
+		reminder = BenchmarkData.inMemoryReminder();
+		task = BenchmarkData.task(42, 1);
+		remind = BenchmarkData.remind(task, LocalDateTime.now().plusDays(1));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		reminder.shutdown();
+	}
+
+	@Benchmark
+	public String buildDeadlineMessage() {
+		return reminder.deadlineMessage(remind);
+	}
+
+	@Benchmark
+	public String buildTaskMessage() {
+		return reminder.taskMessage(task);
+	}
+}
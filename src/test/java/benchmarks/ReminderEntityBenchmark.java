@@ -0,0 +1,72 @@
+package benchmarks;
+
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.ITask;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.ReminderEntityBuilder;
+
+/**
+ * Сортировка больших списков напоминаний (ReminderEntity.compareTo) и сборка напоминания строителем
+ * @author borodatyidrug
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReminderEntityBenchmark {
+
+	@Param({"1000", "10000"})
+	public int size;
+
+	protected List<ReminderEntity> reminds;
+	protected ITask task;
+
+	@Setup
+	public void setUp() {
+		reminds = new ArrayList<>(size);
+		for (IReminderEntity r : BenchmarkData.reminds(size, 7)) {
+			reminds.add((ReminderEntity) r);
+		}
+		task = BenchmarkData.task(42, 1);
+	}
+
+	@Benchmark
+	public List<ReminderEntity> sortByScheduledTime() {
+		var copy = new ArrayList<>(reminds);
+		Collections.sort(copy);
+		return copy;
+	}
+
+	@Benchmark
+	public IReminderEntity build() {
+		return new ReminderEntityBuilder()
+				.setTask(task)
+				.repeatByInterval(1)
+				.repeatByIntervalUnits(ChronoUnit.DAYS)
+				.remindBeforeMinutes(15)
+				.remindBeforeTimes(1)
+				.fixTaskCreationTime()
+				.build();
+	}
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.ITask;
+
+/**
+ * Reminder.getTaskList и getRemindsList на планировщике с хранилищем заданий в памяти. listTaskCold - то, что делает /listtask
+ * после изменения заданий пользователя: перебор его заданий и десериализация их JSON без учета обращений к базе данных.
+ * listTaskCached и отдельные списки - повторный запрос, который обслуживает кэш. Кроме заданий пользователя в хранилище
+ * лежат задания других пользователей
+ * @author borodatyidrug
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TaskListBenchmark {
+
+	protected static final long USER_ID = 42;
+	protected static final int OTHER_USERS = 100;
+	protected static final int OTHER_USER_TASKS = 10;
+
+	@Param({"10", "100"})
+	public int tasksPerUser;
+
+	protected BenchmarkData.BenchmarkReminder reminder;
+	protected String userId;
+
+	@Setup
+	public void setUp() throws Exception {
+		reminder = BenchmarkData.inMemoryReminder();
+		userId = Long.toString(USER_ID);
+		var when = LocalDateTime.now().plusDays(30);
+		for (int i = 0; i < tasksPerUser; i++) {
+			reminder.addTask(BenchmarkData.task(USER_ID, i));
+			reminder.scheduleRemind(BenchmarkData.remind(BenchmarkData.task(USER_ID, tasksPerUser + i), when.plusMinutes(i)));
+		}
+		for (int u = 1; u <= OTHER_USERS; u++) {
+			for (int i = 0; i < OTHER_USER_TASKS; i++) {
+				reminder.addTask(BenchmarkData.task(USER_ID + u, i));
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		reminder.shutdown();
+	}
+
+	@Benchmark
+	public void listTaskCold(Blackhole blackhole) throws Exception {
+		reminder.invalidateCache(userId);
+		blackhole.consume(reminder.getTaskList(userId));
+		blackhole.consume(reminder.getRemindsList(userId));
+	}
+
+	@Benchmark
+	public void listTaskCached(Blackhole blackhole) throws Exception {
+		blackhole.consume(reminder.getTaskList(userId));
+		blackhole.consume(reminder.getRemindsList(userId));
+	}
+
+	@Benchmark
+	public List<ITask> getTaskList() throws Exception {
+		return reminder.getTaskList(userId);
+	}
+
+	@Benchmark
+	public List<IReminderEntity> getRemindsList() throws Exception {
+		return reminder.getRemindsList(userId);
+	}
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import telegrambot.todos.TimingWheel;
+
+/**
+ * Постановка и отмена таймера в колесе, в котором уже ждут pending таймеров со сроками от секунды до года. Время операции
+ * не должно зависеть от pending: именно это позволяет WheelReminder держать в памяти миллионы напоминаний
+ * @author borodatyidrug
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TimingWheelBenchmark {
+
+	protected static final long TICK_MILLIS = 1000;
+	protected static final long YEAR_MILLIS = 365L * 24 * 3600 * 1000;
+
+	@Param({"1000", "1000000"})
+	public int pending;
+
+	protected TimingWheel<Long> wheel;
+	protected long[] deadlines;
+	protected int next;
+
+	@Setup
+	public void setUp() {
+		var random = new Random(42);
+		long now = System.currentTimeMillis();
+		wheel = new TimingWheel<>(TICK_MILLIS, now);
+		for (int i = 0; i < pending; i++) {
+			long deadline = now + TICK_MILLIS + (long) (random.nextDouble() * YEAR_MILLIS);
+			wheel.schedule(deadline, deadline);
+		}
+		deadlines = new long[1 << 16];
+		for (int i = 0; i < deadlines.length; i++) {
+			deadlines[i] = now + TICK_MILLIS + (long) (random.nextDouble() * YEAR_MILLIS);
+		}
+	}
+
+	@Benchmark
+	public boolean scheduleAndCancel() {
+		long deadline = deadlines[next++ & (deadlines.length - 1)];
+		return wheel.cancel(wheel.schedule(deadline, deadline));
+	}
+}
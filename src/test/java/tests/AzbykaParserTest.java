@@ -0,0 +1,57 @@
+package tests;
+
+import java.io.StringReader;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import benchmarks.AzbykaParserBenchmark;
+import telegrambot.webparsers.azbykaru.AzbykaDay;
+import telegrambot.webparsers.azbykaru.AzbykaParser;
+
+public class AzbykaParserTest {
+
+    public static final String BASE_URI = "https://azbyka.ru/days/";
+
+    @Test
+    public void pipelineMatchesBlockByBlockParsing() throws Exception {
+        var document = Jsoup.parse(AzbykaParserBenchmark.fixture(), BASE_URI);
+        var day = AzbykaParser.parseDay(document);
+        assertTrue(day.getQuote().startsWith("Быть если мне раз где им как что только."), day.getQuote());
+        assertEquals("Свт. Игнатий (Брянчанинов)", day.getAuthor());
+        assertTrue(day.getSourceUrl().startsWith("https://azbyka.ru/otechnik/"), day.getSourceUrl());
+        assertFalse(day.getParable().isEmpty());
+        assertFalse(day.getFundamentals().isEmpty());
+        var expected = new AzbykaParser()
+                .getQuoteOfDay(document)
+                .getParableOfDay(document)
+                .getFundamentals(document)
+                .getText();
+        assertEquals(expected, day.getText());
+    }
+
+    @Test
+    public void streamingMatchesDom() throws Exception {
+        var html = AzbykaParserBenchmark.fixture();
+        var dom = AzbykaParser.parseDay(Jsoup.parse(html, BASE_URI));
+        var streamed = AzbykaParser.streamDay(new StringReader(html), BASE_URI);
+        assertEquals(dom.getQuote(), streamed.getQuote());
+        assertEquals(dom.getAuthor(), streamed.getAuthor());
+        assertEquals(dom.getSourceUrl(), streamed.getSourceUrl());
+        assertEquals(dom.getSourceText(), streamed.getSourceText());
+        assertEquals(dom.getParable(), streamed.getParable());
+        assertEquals(dom.getFundamentals(), streamed.getFundamentals());
+        assertEquals(dom.getText(), streamed.getText());
+    }
+
+    @Test
+    public void missingBlockIsNull() {
+        var document = Jsoup.parse("<div id=\"osnovy\"><p>Основы</p></div><div class=\"quote-of-day\"><p>Не в div.box</p></div>",
+                BASE_URI);
+        var day = AzbykaParser.parseDay(document);
+        assertNull(day.getQuote());
+        assertNull(day.getParable());
+        assertEquals("Основы", day.getFundamentals());
+        assertTrue(day.getText().contains("ПРИТЧА ДНЯ:\n\nСодержание отсутствует."), day.getText());
+        assertEquals(1, AzbykaParser.DAY_BLOCKS.extract(document, AzbykaDay.builder()));
+    }
+}
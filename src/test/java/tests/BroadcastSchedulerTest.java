@@ -0,0 +1,189 @@
+package tests;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import telegrambot.metrics.MetricsRegistry;
+import telegrambot.outbound.BroadcastScheduler;
+import telegrambot.outbound.IMessageSender;
+
+public class BroadcastSchedulerTest {
+
+    /**
+     * Конвейер исходящих сообщений, который завершает отправки в своем потоке и запоминает, сколько сообщений находилось в
+     * нем одновременно. Сообщения в чаты с нечетными номерами не отправляются, если failOdd
+     */
+    public static class SlowSender implements IMessageSender {
+
+        public final List<SendMessage> sent = Collections.synchronizedList(new ArrayList<>());
+        public final ExecutorService executor = Executors.newFixedThreadPool(4);
+        public final AtomicInteger inFlight = new AtomicInteger();
+        public final AtomicInteger maxInFlight = new AtomicInteger();
+        public volatile boolean failOdd;
+        public volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Override
+        public CompletableFuture<Message> send(SendMessage message) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            var result = new CompletableFuture<Message>();
+            executor.execute(() -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                sent.add(message);
+                if (failOdd && Long.parseLong(message.getChatId()) % 2 == 1) {
+                    result.completeExceptionally(new IllegalStateException("Чат недоступен"));
+                } else {
+                    result.complete(null);
+                }
+            });
+            return result;
+        }
+
+        @Override
+        public <T extends Serializable> CompletableFuture<T> send(String chatId, BotApiMethod<T> method) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public ScheduledExecutorService scheduler;
+    public SlowSender sender;
+    public AtomicInteger renders;
+    public BroadcastScheduler broadcasts;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = Executors.newScheduledThreadPool(2);
+        sender = new SlowSender();
+        renders = new AtomicInteger();
+        broadcasts = new BroadcastScheduler("test", scheduler, sender,
+                () -> CompletableFuture.completedFuture("Цитата дня " + renders.incrementAndGet()), 50, new MetricsRegistry());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+        sender.executor.shutdownNow();
+    }
+
+    public void awaitSent(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((sender.sent.size() < count || !broadcasts.active().isEmpty()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void chatsOfOneMomentShareOneRenderAndWindow() throws Exception {
+        var when = LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(300));
+        for (int i = 0; i < 5000; i++) {
+            broadcasts.subscribeOnce(Integer.toString(i), when);
+        }
+        assertEquals(1, broadcasts.groupCount());
+        assertEquals(5000, broadcasts.subscriptions());
+        awaitSent(5000);
+        assertEquals(5000, sender.sent.size());
+        assertEquals(1, renders.get());
+        assertTrue(sender.maxInFlight.get() <= 50, "в конвейере одновременно " + sender.maxInFlight.get());
+        var chats = new HashSet<String>();
+        for (var message : sender.sent) {
+            chats.add(message.getChatId());
+            assertEquals("Цитата дня 1", message.getText());
+        }
+        assertEquals(5000, chats.size());
+        // разовая группа после рассылки удаляется
+        assertEquals(0, broadcasts.groupCount());
+        assertEquals(0, broadcasts.subscriptions());
+        assertEquals(0, broadcasts.remaining());
+    }
+
+    @Test
+    public void repeatingSubscriptionsAreGroupedByPeriodAndPhase() {
+        var start = LocalDateTime.now().plusHours(1);
+        broadcasts.subscribeRepeating("1", start, 24);
+        // на сутки позже - те же моменты отправки
+        broadcasts.subscribeRepeating("2", start.plusDays(1), 24);
+        broadcasts.subscribeRepeating("3", start.plusHours(1), 24);
+        broadcasts.subscribeOnce("4", start);
+        assertEquals(3, broadcasts.groupCount());
+        assertEquals(4, broadcasts.subscriptions());
+        // повторная подписка чата переносит его в другую группу
+        broadcasts.subscribeRepeating("3", start, 24);
+        assertEquals(2, broadcasts.groupCount());
+        assertEquals(4, broadcasts.subscriptions());
+        assertTrue(broadcasts.unsubscribe("1"));
+        assertTrue(broadcasts.unsubscribe("2"));
+        assertTrue(broadcasts.unsubscribe("3"));
+        assertFalse(broadcasts.unsubscribe("3"));
+        assertEquals(1, broadcasts.groupCount());
+        assertTrue(broadcasts.unsubscribe("4"));
+        assertEquals(0, broadcasts.groupCount());
+    }
+
+    @Test
+    public void failedSendsAreCountedAndDoNotStopBroadcast() throws Exception {
+        sender.failOdd = true;
+        sender.gate = new CountDownLatch(1);
+        var when = LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        for (int i = 0; i < 200; i++) {
+            broadcasts.subscribeOnce(Integer.toString(i), when);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (broadcasts.active().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        var broadcast = broadcasts.active().get(0);
+        assertEquals(200, broadcast.getTotal());
+        assertEquals(200, broadcasts.remaining());
+        sender.gate.countDown();
+        broadcast.getDone().get(10, TimeUnit.SECONDS);
+        assertEquals(100, broadcast.getSent());
+        assertEquals(100, broadcast.getFailed());
+        assertEquals(0, broadcast.getRemaining());
+        assertEquals(200, sender.sent.size());
+    }
+
+    @Test
+    public void pendingRenderDoesNotHoldSchedulerThread() throws Exception {
+        scheduler.shutdownNow();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        var pages = new ArrayList<CompletableFuture<String>>();
+        broadcasts = new BroadcastScheduler("test", scheduler, sender, () -> {
+            // первая сборка ждет страницу, вторая готова сразу
+            var page = pages.isEmpty() ? new CompletableFuture<String>() : CompletableFuture.completedFuture("Вторая");
+            pages.add(page);
+            return page;
+        }, 50, new MetricsRegistry());
+        var now = LocalDateTime.now();
+        broadcasts.subscribeOnce("1", now.plusNanos(TimeUnit.MILLISECONDS.toNanos(100)));
+        broadcasts.subscribeOnce("2", now.plusNanos(TimeUnit.MILLISECONDS.toNanos(200)));
+        awaitSent(1);
+        assertEquals(1, sender.sent.size());
+        assertEquals("2", sender.sent.get(0).getChatId());
+        assertEquals("Вторая", sender.sent.get(0).getText());
+        pages.get(0).complete("Первая");
+        awaitSent(2);
+        assertEquals(2, sender.sent.size());
+        assertEquals("Первая", sender.sent.get(1).getText());
+    }
+}
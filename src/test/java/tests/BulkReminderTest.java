@@ -0,0 +1,152 @@
+package tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.quartz.ObjectAlreadyExistsException;
+import org.quartz.SchedulerException;
+import benchmarks.BenchmarkData;
+import telegrambot.todos.IReminder;
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.ITask;
+import telegrambot.todos.JdbcTaskRepository;
+import telegrambot.todos.Task;
+import telegrambot.todos.WheelReminder;
+
+public class BulkReminderTest {
+
+    public BenchmarkData.BenchmarkReminder quartz;
+    public WheelReminder wheel;
+    public File dir;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        quartz = BenchmarkData.inMemoryReminder();
+        dir = Files.createTempDirectory("bulk-reminder").toFile();
+        wheel = new WheelReminder(dir, 10, 1000, (chatId, text) -> {});
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        quartz.shutdown();
+        wheel.close();
+        for (var file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public static List<IReminderEntity> chores(int count) {
+        var when = LocalDateTime.now().plusDays(1);
+        List<IReminderEntity> reminds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            reminds.add(TaskRepositoryTest.remind(1, "Дело " + i, when.plusMinutes(i)));
+        }
+        return reminds;
+    }
+
+    @Test
+    public void remindsAreScheduledAndCompletedInBulk() throws Exception {
+        for (IReminder reminder : new IReminder[] {quartz, wheel}) {
+            reminder.scheduleReminds(chores(500));
+            reminder.addTasks(List.of(ReminderCacheTest.task(1, "Купить хлеба"), ReminderCacheTest.task(2, "Купить молока")));
+            assertEquals(501, reminder.getTaskList("1").size());
+            assertEquals(500, reminder.getRemindsList("1").size());
+            assertEquals("Дело 0", reminder.getRemindsList("1").get(0).getTask().getName());
+            List<ITask> done = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                done.add(ReminderCacheTest.task(1, "Дело " + i));
+            }
+            done.add(ReminderCacheTest.task(1, "Нет такой"));
+            assertEquals(100, reminder.completeTasks(done).size());
+            assertEquals(400, reminder.getRemindsList("1").size());
+            assertTrue(reminder.completeTasks(done).isEmpty());
+        }
+        assertEquals(400, wheel.pending());
+    }
+
+    @Test
+    public void batchWithTakenNameSchedulesNothing() throws Exception {
+        for (IReminder reminder : new IReminder[] {quartz, wheel}) {
+            reminder.scheduleRemind(TaskRepositoryTest.remind(1, "Дело 5", LocalDateTime.now().plusDays(3)));
+            assertThrows(ObjectAlreadyExistsException.class, () -> reminder.scheduleReminds(chores(10)));
+            assertEquals(1, reminder.getRemindsList("1").size());
+            var twice = new ArrayList<>(chores(3));
+            twice.addAll(chores(1));
+            assertThrows(ObjectAlreadyExistsException.class, () -> reminder.scheduleReminds(twice));
+            assertEquals(1, reminder.getTaskList("1").size());
+        }
+    }
+
+    @Test
+    public void remindNamedLikeSimpleTaskDoesNotReplaceIt() throws Exception {
+        // у простой задачи нет задания Quartz: занятость имени проверяется по хранилищу задач
+        quartz.addTask(ReminderCacheTest.task(1, "Дело 5"));
+        assertThrows(ObjectAlreadyExistsException.class, () -> quartz.scheduleReminds(chores(10)));
+        assertThrows(ObjectAlreadyExistsException.class,
+                () -> quartz.scheduleRemind(TaskRepositoryTest.remind(1, "Дело 5", LocalDateTime.now().plusDays(3))));
+        assertEquals(1, quartz.getTaskList("1").size());
+        assertEquals("Дело 5", quartz.getTaskList("1").get(0).getName());
+        assertEquals(0, quartz.getRemindsList("1").size());
+    }
+
+    @Test
+    public void tasksAreCompletedByTag() throws Exception {
+        for (IReminder reminder : new IReminder[] {quartz, wheel}) {
+            var owner = ReminderCacheTest.task(1, "").getOwner();
+            reminder.addTasks(List.of(new Task("1", owner, "Отчет", "Сдать отчет", Set.of("работа")),
+                    new Task("1", owner, "Письмо", "Ответить", Set.of("работа", "срочно")),
+                    ReminderCacheTest.task(1, "Купить хлеба")));
+            reminder.scheduleReminds(List.of(TaskRepositoryTest.remind(1, "Совещание", LocalDateTime.now().plusDays(1))));
+            assertEquals(2, reminder.completeTasksByTag("1", "работа").size());
+            assertEquals(2, reminder.getTaskList("1").size());
+            // у задачи напоминания тоже тег "дом"
+            assertEquals(2, reminder.completeTasksByTag("1", "дом").size());
+            assertTrue(reminder.getTaskList("1").isEmpty());
+            assertTrue(reminder.getRemindsList("1").isEmpty());
+        }
+    }
+
+    @Test
+    public void failedTaskDeletionLeavesNoOrphanReminders() throws Exception {
+        var url = "jdbc:h2:mem:tasks-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        var failing = new AtomicBoolean(true);
+        var repository = new JdbcTaskRepository(() -> DriverManager.getConnection(url)) {
+
+            @Override
+            public boolean[] deleteAll(List<ITask> tasks) throws SQLException {
+                if (failing.getAndSet(false)) {
+                    throw new SQLException("соединение потеряно");
+                }
+                return super.deleteAll(tasks);
+            }
+        };
+        var reminder = BenchmarkData.inMemoryReminder(repository);
+        try {
+            reminder.scheduleReminds(chores(3));
+            List<ITask> done = new ArrayList<>();
+            for (var remind : reminder.getRemindsList("1")) {
+                done.add(remind.getTask());
+            }
+            assertThrows(SchedulerException.class, () -> reminder.completeTasks(done));
+            // напоминания уже сняты, а задачи остались в списке: повторное удаление их завершает
+            assertEquals(0, reminder.jobCount());
+            assertEquals(3, reminder.getRemindsList("1").size());
+            assertEquals(3, reminder.completeTasks(done).size());
+            assertTrue(reminder.getRemindsList("1").isEmpty());
+        } finally {
+            reminder.shutdown();
+        }
+    }
+}
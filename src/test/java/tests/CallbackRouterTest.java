@@ -0,0 +1,177 @@
+package tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+import telegrambot.commands.CallbackRouter;
+import telegrambot.commands.ICallbackHandlerCommand;
+import telegrambot.sessions.DialogSession;
+import telegrambot.sessions.ISessionStore;
+import telegrambot.sessions.SessionKey;
+import telegrambot.sessions.SessionStore;
+
+public class CallbackRouterTest {
+
+    /**
+     * Хранилище сессий с ручными часами, которое может придержать уведомления о закрытии сессий, как будто они опоздали
+     */
+    public static class ManualStore extends SessionStore<DialogSession> {
+
+        public long clock;
+        public boolean deferClosed;
+        public final List<DialogSession> deferred = new ArrayList<>();
+
+        public ManualStore() {
+            super(60, TimeUnit.SECONDS, 100);
+        }
+
+        @Override
+        protected long now() {
+            return clock;
+        }
+
+        @Override
+        protected void fireClosed(List<DialogSession> closed) {
+            if (deferClosed) {
+                deferred.addAll(closed);
+            } else {
+                super.fireClosed(closed);
+            }
+        }
+
+        public void releaseClosed() {
+            deferClosed = false;
+            super.fireClosed(new ArrayList<>(deferred));
+            deferred.clear();
+        }
+    }
+
+    public static class FakeCommand implements ICallbackHandlerCommand {
+
+        public final String identifier;
+        public final ManualStore store = new ManualStore();
+
+        public FakeCommand(String identifier) {
+            this.identifier = identifier;
+        }
+
+        @Override
+        public boolean catched(Update update) {
+            return false;
+        }
+
+        @Override
+        public SendMessage getAnswer(Update update) {
+            return new SendMessage();
+        }
+
+        @Override
+        public ISessionStore<?> getSessionStore() {
+            return store;
+        }
+
+        @Override
+        public String getCommandIdentifier() {
+            return identifier;
+        }
+    }
+
+    public static final SessionKey KEY = new SessionKey("7", "42");
+
+    public CallbackRouter router;
+    public FakeCommand tasks;
+    public FakeCommand azbyka;
+
+    @BeforeEach
+    public void setUp() {
+        router = new CallbackRouter();
+        tasks = new FakeCommand("tasks");
+        azbyka = new FakeCommand("azbyka");
+        router.register(tasks);
+        router.register(azbyka);
+    }
+
+    public static Message message(String text) {
+        var message = new Message();
+        message.setFrom(new User(7L, "Иван", false));
+        message.setChat(new Chat(42L, "private"));
+        message.setText(text);
+        return message;
+    }
+
+    public static Update text(String text) {
+        var update = new Update();
+        update.setMessage(message(text));
+        return update;
+    }
+
+    public static Update callback(String data) {
+        var query = new CallbackQuery();
+        query.setFrom(new User(7L, "Иван", false));
+        query.setMessage(message(""));
+        query.setData(data);
+        var update = new Update();
+        update.setCallbackQuery(query);
+        return update;
+    }
+
+    @Test
+    public void callbackIsRoutedByCommandPrefix() {
+        tasks.store.open(new DialogSession(KEY));
+        assertSame(tasks, router.route(callback("Command[tasks]next")));
+        // у бот-команды нет диалога с пользователем в этом чате
+        assertNull(router.route(callback("Command[azbyka]today")));
+        assertNull(router.route(callback("Command[unknown]x")));
+        assertNull(router.route(callback("Command[tasks")));
+        assertNull(router.route(callback("next")));
+    }
+
+    @Test
+    public void messageGoesToLastOpenedDialogAndFallsBackWhenItCloses() {
+        assertNull(router.route(text("купить хлеб")));
+        tasks.store.open(new DialogSession(KEY));
+        azbyka.store.open(new DialogSession(KEY));
+        assertSame(azbyka, router.route(text("купить хлеб")));
+        azbyka.store.close(KEY);
+        assertSame(tasks, router.route(text("купить хлеб")));
+        tasks.store.close(KEY);
+        assertNull(router.route(text("купить хлеб")));
+        assertEquals(0, router.activeDialogCount());
+    }
+
+    @Test
+    public void expiredDialogIsNoLongerRouted() {
+        tasks.store.open(new DialogSession(KEY));
+        tasks.store.clock = TimeUnit.SECONDS.toMillis(61);
+        assertNull(router.route(callback("Command[tasks]next")));
+        assertEquals(1, tasks.store.evictExpired());
+        assertNull(router.route(text("купить хлеб")));
+        assertEquals(0, router.activeDialogCount());
+    }
+
+    @Test
+    public void lateCloseNoticeKeepsNewerDialog() {
+        var stale = tasks.store.open(new DialogSession(KEY));
+        tasks.store.clock = TimeUnit.SECONDS.toMillis(61);
+        tasks.store.deferClosed = true;
+        assertEquals(1, tasks.store.evictExpired());
+        // пока уведомление о вытеснении старой сессии в пути, пользователь открывает с той же командой новый диалог
+        var fresh = tasks.store.open(new DialogSession(KEY));
+        assertNotSame(stale, fresh);
+        tasks.store.releaseClosed();
+        assertSame(tasks, router.route(text("купить хлеб")));
+        assertSame(tasks, router.route(callback("Command[tasks]next")));
+        assertEquals(1, router.activeDialogCount());
+        tasks.store.close(KEY);
+        assertNull(router.route(text("купить хлеб")));
+    }
+}
@@ -0,0 +1,289 @@
+package tests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.h2.tools.Server;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.SchedulerException;
+import org.quartz.impl.jdbcjobstore.JobStoreTX;
+import telegrambot.cluster.DatabaseLease;
+import telegrambot.cluster.UpdateStreamOwner;
+import telegrambot.istorage.JdbcSubscriptionStore;
+import telegrambot.metrics.MetricsRegistry;
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.JdbcTaskRepository;
+import telegrambot.todos.QuartzCluster;
+import telegrambot.todos.Reminder;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.SchedulerProfile;
+
+/**
+ * Несколько экземпляров бота в режиме кластера с общей базой данных H2, доступной по TCP. Экземпляры Quartz в кластере
+ * должны иметь одно имя планировщика, а в одной JVM имя планировщика уникально, поэтому экземпляры - отдельные процессы
+ */
+public class ClusterTest {
+
+    public static final String READY = "READY";
+    public static final int NODES = 3;
+    public static final int USERS = 30;
+    public static final int REMINDS_PER_USER = 10;
+
+    /**
+     * Экземпляр планировщика кластера. Вместо отправки сообщения задание записывает в общую базу данных, какой экземпляр
+     * его выполнил
+     */
+    public static class Node extends Reminder {
+
+        public Node(String propertiesPath, String url) throws SchedulerException {
+            super(propertiesPath, SchedulerProfile.STANDARD, new QuartzCluster(1000), 1000,
+                    new JdbcTaskRepository(() -> DriverManager.getConnection(url, "sa", "")));
+        }
+
+        public void recordFiresAs(String url, String nodeName) throws SchedulerException {
+            scheduler.setJobFactory((bundle, target) -> context -> {
+                try (Connection connection = DriverManager.getConnection(url, "sa", "");
+                        var insert = connection.prepareStatement("INSERT INTO cluster_fires (job, node) VALUES (?, ?)")) {
+                    insert.setString(1, context.getJobDetail().getKey().toString());
+                    insert.setString(2, nodeName);
+                    insert.executeUpdate();
+                    // отправка сообщения занимает время: пока экземпляр занят, триггеры забирают остальные
+                    Thread.sleep(20);
+                } catch (SQLException | InterruptedException e) {
+                    throw new JobExecutionException(e);
+                }
+            });
+        }
+
+        /**
+         * Удаляет задание так, как это делает Quartz после последнего срабатывания его триггера на другом экземпляре
+         */
+        public void dropJob(String name, String userId) throws SchedulerException {
+            scheduler.deleteJob(new JobKey(name, userId));
+        }
+
+        public void standby() throws SchedulerException {
+            scheduler.standby();
+        }
+
+        public void shutdown() throws SchedulerException {
+            scheduler.shutdown(true);
+        }
+
+        public static void main(String[] args) throws Exception {
+            var node = new Node(properties(args[0]).getAbsolutePath(), args[0]);
+            node.recordFiresAs(args[0], args[1]);
+            System.out.println(READY);
+            System.out.flush();
+            // экземпляр работает, пока тест не закроет его стандартный ввод
+            while (System.in.read() != -1) {
+            }
+            node.shutdown();
+        }
+    }
+
+    public static File properties(String url) throws Exception {
+        var file = File.createTempFile("quartz-cluster", ".properties");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), String.join("\n",
+                "org.quartz.scheduler.instanceName: ClusterTest",
+                "org.quartz.scheduler.skipUpdateCheck: true",
+                "org.quartz.threadPool.class: org.quartz.simpl.SimpleThreadPool",
+                "org.quartz.threadPool.threadCount: 2",
+                "org.quartz.jobStore.class: " + JobStoreTX.class.getName(),
+                "org.quartz.jobStore.driverDelegateClass: org.quartz.impl.jdbcjobstore.StdJDBCDelegate",
+                "org.quartz.jobStore.useProperties: true",
+                "org.quartz.jobStore.misfireThreshold: 120000",
+                "org.quartz.jobStore.dataSource: cluster",
+                "org.quartz.dataSource.cluster.driver: org.h2.Driver",
+                "org.quartz.dataSource.cluster.URL: " + url,
+                "org.quartz.dataSource.cluster.user: sa",
+                "org.quartz.dataSource.cluster.password: ",
+                "org.quartz.dataSource.cluster.maxConnections: 5"));
+        return file;
+    }
+
+    public static void createSchema(String url) throws Exception {
+        String script;
+        try (var in = JobStoreTX.class.getClassLoader().getResourceAsStream("org/quartz/impl/jdbcjobstore/tables_h2.sql")) {
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        var sql = new StringBuilder();
+        for (var line : script.split("\n")) {
+            if (!line.trim().startsWith("--")) {
+                sql.append(line).append('\n');
+            }
+        }
+        try (Connection connection = DriverManager.getConnection(url, "sa", ""); var statement = connection.createStatement()) {
+            for (var ddl : sql.toString().split(";")) {
+                if (!ddl.isBlank()) {
+                    // тип IMAGE встраиваемая H2 2.x понимает только в режиме совместимости с MS SQL Server
+                    statement.execute(ddl.replace(" IMAGE ", " BLOB "));
+                }
+            }
+            statement.execute("CREATE TABLE cluster_fires (job VARCHAR(512) NOT NULL, node VARCHAR(64) NOT NULL)");
+        }
+        new JdbcTaskRepository(() -> DriverManager.getConnection(url, "sa", "")).initialize();
+    }
+
+    public static int freePort() throws Exception {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static long count(String url, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+                var rows = connection.createStatement().executeQuery(sql)) {
+            rows.next();
+            return rows.getLong(1);
+        }
+    }
+
+    @Test
+    public void eachReminderFiresExactlyOnceAcrossNodes() throws Exception {
+        var server = Server.createTcpServer("-tcpPort", Integer.toString(freePort()), "-ifNotExists").start();
+        var url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:cluster-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        List<Process> processes = new ArrayList<>();
+        Node client = null;
+        try {
+            createSchema(url);
+            var ready = new CountDownLatch(NODES);
+            var java = new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+            for (int i = 0; i < NODES; i++) {
+                var process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Node.class.getName(), url,
+                        "node-" + i).redirectErrorStream(true).start();
+                processes.add(process);
+                var reader = new Thread(() -> {
+                    try (var lines = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                        String line;
+                        while ((line = lines.readLine()) != null) {
+                            if (READY.equals(line)) {
+                                ready.countDown();
+                            }
+                        }
+                    } catch (Exception e) {
+                        // процесс завершился
+                    }
+                });
+                reader.setDaemon(true);
+                reader.start();
+            }
+            assertTrue(ready.await(60, TimeUnit.SECONDS), "экземпляры не запустились");
+            // этот экземпляр только планирует напоминания и сам их не выполняет
+            client = new Node(properties(url).getAbsolutePath(), url);
+            client.standby();
+            var when = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).format(TaskRepositoryTest.FORMATTER);
+            List<IReminderEntity> reminds = new ArrayList<>();
+            for (int user = 1; user <= USERS; user++) {
+                for (int i = 0; i < REMINDS_PER_USER; i++) {
+                    reminds.add(new ReminderEntity(ReminderCacheTest.task(user, "Дело " + i), when, 0, ChronoUnit.DAYS, 0, 0, 0,
+                            when));
+                }
+            }
+            client.scheduleReminds(reminds);
+            int total = USERS * REMINDS_PER_USER;
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(90);
+            while (count(url, "SELECT COUNT(*) FROM cluster_fires") < total && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            // повторные срабатывания, если бы они были, успели бы появиться
+            Thread.sleep(2000);
+            assertEquals(total, count(url, "SELECT COUNT(*) FROM cluster_fires"));
+            assertEquals(total, count(url, "SELECT COUNT(DISTINCT job) FROM cluster_fires"));
+            assertTrue(count(url, "SELECT COUNT(DISTINCT node) FROM cluster_fires") >= 2, "срабатывания не распределились");
+            assertEquals(NODES + 1, count(url, "SELECT COUNT(*) FROM QRTZ_SCHEDULER_STATE"));
+        } finally {
+            if (client != null) {
+                client.shutdown();
+            }
+            for (var process : processes) {
+                process.getOutputStream().close();
+            }
+            for (var process : processes) {
+                if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+            server.stop();
+        }
+    }
+
+    @Test
+    public void onlyOneNodeOwnsUpdateStream() throws Exception {
+        var url = "jdbc:h2:mem:leases-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        var first = new DatabaseLease(() -> DriverManager.getConnection(url), "telegram-updates", "first", 300);
+        var second = new DatabaseLease(() -> DriverManager.getConnection(url), "telegram-updates", "second", 300);
+        first.initialize();
+        second.initialize();
+        assertTrue(first.tryAcquire());
+        assertFalse(second.tryAcquire());
+        assertTrue(first.tryAcquire());
+        Thread.sleep(400);
+        // аренда истекла без продления
+        assertTrue(second.tryAcquire());
+        assertFalse(first.tryAcquire());
+        var owner = new UpdateStreamOwner(second, new MetricsRegistry());
+        assertTrue(owner.acquire());
+        owner.release();
+        assertFalse(owner.isOwner());
+        assertTrue(first.tryAcquire());
+    }
+
+    @Test
+    public void listsSeeReminderDeletedByAnotherNode() throws Exception {
+        var url = "jdbc:h2:mem:cluster-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        createSchema(url);
+        var node = new Node(properties(url).getAbsolutePath(), url);
+        try {
+            node.standby();
+            var when = LocalDateTime.now().plusDays(1).truncatedTo(ChronoUnit.MINUTES).format(TaskRepositoryTest.FORMATTER);
+            var remind = new ReminderEntity(ReminderCacheTest.task(1, "Разовое"), when, 0, ChronoUnit.DAYS, 0, 0, 0, when);
+            node.scheduleRemind(remind);
+            assertEquals(1, node.getRemindsList("1").size());
+            // последнее срабатывание выполнил другой экземпляр: он удалил задачу из общего хранилища
+            new JdbcTaskRepository(() -> DriverManager.getConnection(url, "sa", "")).delete("1", "Разовое");
+            node.dropJob("Разовое", "1");
+            assertTrue(node.getRemindsList("1").isEmpty());
+            assertThrows(NoSuchElementException.class, () -> node.completeTask(remind, ChronoUnit.HOURS));
+        } finally {
+            node.shutdown();
+        }
+    }
+
+    @Test
+    public void subscriptionsSurviveChangeOfUpdateStreamOwner() throws Exception {
+        var url = "jdbc:h2:mem:subscriptions-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        var first = new JdbcSubscriptionStore(() -> DriverManager.getConnection(url));
+        assertTrue(first.initialize());
+        first.put("1", Map.of("type", "repeat", "when", "2024-01-01T08:00", "period", "24"));
+        first.put("2", Map.of("type", "one-time", "when", "2024-01-02T09:30"));
+        first.put("1", Map.of("type", "repeat", "when", "2024-01-01T08:00", "period", "12"));
+        assertTrue(first.remove("2"));
+        assertFalse(first.remove("2"));
+        // аренду получил другой экземпляр: он читает подписки из общей базы
+        var second = new JdbcSubscriptionStore(() -> DriverManager.getConnection(url));
+        assertFalse(second.initialize());
+        assertEquals(1, second.size());
+        assertEquals("12", second.get("1").get("period"));
+        assertNull(second.get("2"));
+    }
+}
@@ -0,0 +1,159 @@
+package tests;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.metrics.MetricsRegistry;
+import telegrambot.webparsers.DailyContentCache;
+import telegrambot.webparsers.FetchedPage;
+import telegrambot.webparsers.IPageFetcher;
+import telegrambot.webparsers.IPageParser;
+
+public class DailyContentCacheTest {
+
+    /**
+     * Сайт, страница которого меняется, когда тест меняет html. Отвечает 304 на запрос с ETag текущей страницы
+     */
+    public static class FakeSite implements IPageFetcher {
+
+        public volatile String html = "<p>Первый день</p>";
+        public volatile boolean down;
+        public volatile CountDownLatch gate = new CountDownLatch(0);
+        public final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public <T> FetchedPage<T> fetch(String url, String etag, String lastModified, IPageParser<T> parser)
+                throws IOException {
+            requests.add(etag == null ? "unconditional" : etag);
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (down) {
+                throw new IOException("Сайт недоступен");
+            }
+            var current = Integer.toString(html.hashCode());
+            return current.equals(etag) ? null : new FetchedPage<>(parser.parse(new StringReader(html), url), current, null);
+        }
+    }
+
+    public ExecutorService executor;
+    public FakeSite site;
+    public AtomicReference<LocalDate> today;
+    public List<String> parsed;
+    public DailyContentCache<String> cache;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        site = new FakeSite();
+        today = new AtomicReference<>(LocalDate.of(2024, 1, 1));
+        parsed = Collections.synchronizedList(new ArrayList<>());
+        cache = new DailyContentCache<>("https://example.org/days/", site, (in, url) -> {
+            var html = new BufferedReader(in).readLine();
+            parsed.add(html);
+            return html.toUpperCase();
+        }, executor, today::get, 60_000, 500, new MetricsRegistry());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void awaitContent(String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!expected.equals(cache.get()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, cache.get());
+    }
+
+    @Test
+    public void concurrentMissesShareOneFetch() throws Exception {
+        site.gate = new CountDownLatch(1);
+        var readers = Executors.newFixedThreadPool(10);
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 10; i++) {
+            readers.execute(() -> results.add(cache.get()));
+        }
+        Thread.sleep(200);
+        site.gate.countDown();
+        readers.shutdown();
+        assertTrue(readers.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, site.requests.size());
+        assertEquals(1, parsed.size());
+        assertEquals(Collections.nCopies(10, "<P>ПЕРВЫЙ ДЕНЬ</P>"), results);
+        // в тот же день - без запросов к сайту
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("<P>ПЕРВЫЙ ДЕНЬ</P>", cache.get());
+        }
+        assertEquals(1, site.requests.size());
+    }
+
+    @Test
+    public void newDayWaitsForNewContent() throws Exception {
+        assertEquals("<P>ПЕРВЫЙ ДЕНЬ</P>", cache.get());
+        today.set(today.get().plusDays(1));
+        site.html = "<p>Второй день</p>";
+        // первый запрос нового дня получает уже новое содержимое, а не вчерашнее
+        assertEquals("<P>ВТОРОЙ ДЕНЬ</P>", cache.get());
+        assertEquals(2, site.requests.size());
+        // обновление - условным запросом с ETag вчерашней страницы
+        assertEquals(Integer.toString("<p>Первый день</p>".hashCode()), site.requests.get(1));
+        // на третий день страница не изменилась: ответ 304, и повторно она не разбирается
+        today.set(today.get().plusDays(1));
+        assertEquals("<P>ВТОРОЙ ДЕНЬ</P>", cache.get());
+        assertEquals(3, site.requests.size());
+        assertEquals(2, parsed.size());
+        // в тот же день - без запросов к сайту
+        cache.get();
+        assertEquals(3, site.requests.size());
+    }
+
+    @Test
+    public void slowSiteOnNewDayServesStaleAfterBoundedWait() throws Exception {
+        cache.get();
+        today.set(today.get().plusDays(1));
+        site.html = "<p>Второй день</p>";
+        site.gate = new CountDownLatch(1);
+        long started = System.nanoTime();
+        var pending = cache.getAsync();
+        assertFalse(pending.isDone());
+        assertEquals("<P>ПЕРВЫЙ ДЕНЬ</P>", pending.get(5, TimeUnit.SECONDS));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertTrue(waited >= 400 && waited < 3000, "ожидание " + waited + " мс");
+        // загрузка продолжается в фоне, и следующий запрос получает новое содержимое
+        site.gate.countDown();
+        awaitContent("<P>ВТОРОЙ ДЕНЬ</P>");
+        assertEquals(2, site.requests.size());
+    }
+
+    @Test
+    public void unavailableSiteIsNotAskedOnEverySend() throws Exception {
+        cache.get();
+        today.set(today.get().plusDays(1));
+        site.down = true;
+        assertEquals("<P>ПЕРВЫЙ ДЕНЬ</P>", cache.get());
+        Thread.sleep(200);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("<P>ПЕРВЫЙ ДЕНЬ</P>", cache.get());
+        }
+        Thread.sleep(200);
+        assertEquals(2, site.requests.size());
+    }
+}
@@ -0,0 +1,59 @@
+package tests;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.telegram.telegrambots.meta.api.objects.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.JobPayload;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.Task;
+import telegrambot.todos.TaskMessages;
+
+public class JobPayloadTest {
+
+    public static IReminderEntity remind() {
+        var user = new User(4305204398687L, "Антон", false, "Антонов", "@onton", "ru", false, false, false);
+        var task = new Task("4305204398687", user, "Позвонить маме", "Спросить про дачу", Set.of("семья", "дом"));
+        var when = LocalDateTime.now().plusDays(1).format(TaskRepositoryTest.FORMATTER);
+        return new ReminderEntity(task, when, 1, ChronoUnit.DAYS, 15, 3, 5, when);
+    }
+
+    @Test
+    public void payloadIsRenderedAtFireTime() throws Exception {
+        var remind = remind();
+        var deadline = JobPayload.decode(new JobPayload(JobPayload.DEADLINE, 42, remind).encode());
+        assertEquals(42, deadline.getTaskId());
+        assertEquals("4305204398687", deadline.getChatId());
+        assertEquals(Long.valueOf(4305204398687L), deadline.getRemind().getTask().getOwner().getId());
+        assertEquals(remind.getTask().getTags(), deadline.getRemind().getTask().getTags());
+        assertEquals(TaskMessages.deadline(remind), deadline.render());
+        assertEquals(TaskMessages.remindBeforeDeadline(remind), deadline.render(JobPayload.REMIND_BEFORE));
+        var before = JobPayload.decode(new JobPayload(JobPayload.REMIND_BEFORE, 42, remind).encode());
+        assertEquals(TaskMessages.remindBeforeDeadline(remind), before.render());
+    }
+
+    @Test
+    public void payloadIsSeveralTimesSmallerThanLegacyJobData() throws Exception {
+        var remind = remind();
+        var mapper = new ObjectMapper();
+        int legacy = TaskMessages.deadline(remind).length() + mapper.writeValueAsString(remind.getTask()).length()
+                + mapper.writeValueAsString(remind).length();
+        int compact = new JobPayload(JobPayload.DEADLINE, 42, remind).encode().length();
+        assertTrue(compact * 3 < legacy, "compact=" + compact + " legacy=" + legacy);
+    }
+
+    @Test
+    public void newerVersionIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> JobPayload.decode("{\"v\":" + (JobPayload.VERSION + 1) + ",\"k\":\"d\"}"));
+    }
+
+    @Test
+    public void unknownKindIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new JobPayload("x", 1, remind()));
+    }
+}
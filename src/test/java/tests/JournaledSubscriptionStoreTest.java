@@ -0,0 +1,178 @@
+package tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.istorage.JournalFile;
+import telegrambot.istorage.JournaledSubscriptionStore;
+import telegrambot.istorage.JournaledSubscriptionStore.FsyncPolicy;
+
+public class JournaledSubscriptionStoreTest {
+
+    /**
+     * Хранилище, в котором следующая запись в журнал обрывается на середине строки, как при нехватке места на диске
+     */
+    public static class TearingStore extends JournaledSubscriptionStore {
+
+        public TearingStore(File dir) throws IOException {
+            super(dir, null, FsyncPolicy.ALWAYS, 1000, 1000);
+        }
+
+        public void tearNextWrite() throws IOException {
+            long length = log.length();
+            log.close();
+            log = new JournalFile(new FileOutputStream(segmentFile(segment), true) {
+
+                public boolean tear = true;
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (tear) {
+                        // дальше журнал пишется как обычно
+                        tear = false;
+                        super.write(b, off, len / 2);
+                        throw new IOException("No space left on device");
+                    }
+                    super.write(b, off, len);
+                }
+            }, length);
+        }
+    }
+
+    public File dir;
+    public File legacy;
+    public JournaledSubscriptionStore store;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("subscriptions").toFile();
+        legacy = new File(dir, "config");
+        store = open(1000);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        store.close();
+        for (var file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public JournaledSubscriptionStore open(int compactMin) throws Exception {
+        return new JournaledSubscriptionStore(dir, legacy, FsyncPolicy.ALWAYS, 1000, compactMin);
+    }
+
+    public static Map<String, String> repeat(String when, long period) {
+        return Map.of("type", "repeat", "when", when, "period", Long.toString(period));
+    }
+
+    public int segments() {
+        return dir.list((d, name) -> name.endsWith(".log")).length;
+    }
+
+    @Test
+    public void subscriptionsSurviveRestart() throws Exception {
+        store.put("1", repeat("2024-01-01T08:00", 24));
+        store.put("2", Map.of("type", "one-time", "when", "2024-01-02T09:30"));
+        store.put("3", repeat("2024-01-01T07:00", 12));
+        assertTrue(store.remove("2"));
+        assertFalse(store.remove("2"));
+        store.put("3", repeat("2024-01-01T07:00", 6));
+        var journal = new File(dir, "subscriptions.1.log");
+        long length = journal.length();
+        // чтение не пишет в журнал
+        assertEquals("24", store.get("1").get("period"));
+        assertNull(store.get("2"));
+        assertEquals(length, journal.length());
+        store.close();
+        store = open(1000);
+        assertEquals(2, store.size());
+        assertEquals(repeat("2024-01-01T08:00", 24), store.get("1"));
+        assertEquals(repeat("2024-01-01T07:00", 6), store.get("3"));
+        assertNull(store.get("2"));
+    }
+
+    @Test
+    public void compactionKeepsStateAndDropsCoveredSegments() throws Exception {
+        store.close();
+        store = open(10);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                store.put(Integer.toString(i), repeat("2024-01-01T08:00", round + 1));
+            }
+            for (int i = 0; i < 100; i += 10) {
+                store.remove(Integer.toString(i));
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (segments() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(new File(dir, JournaledSubscriptionStore.SNAPSHOT_FILE).exists());
+        assertTrue(segments() <= 2, "сегментов журнала " + segments());
+        assertTrue(store.sinceSnapshot() < 100);
+        store.close();
+        store = open(10);
+        assertEquals(90, store.size());
+        assertNull(store.get("0"));
+        assertEquals(repeat("2024-01-01T08:00", 5), store.get("99"));
+    }
+
+    @Test
+    public void tornJournalTailIsDiscarded() throws Exception {
+        store.put("1", repeat("2024-01-01T08:00", 24));
+        store.close();
+        try (var out = new FileOutputStream(new File(dir, "subscriptions.1.log"), true)) {
+            out.write("{\"op\":\"start\",\"chat\":\"2\",\"subscr".getBytes(StandardCharsets.UTF_8));
+        }
+        store = open(1000);
+        assertEquals(1, store.size());
+        store.put("2", repeat("2024-01-01T09:00", 24));
+        store.close();
+        store = open(1000);
+        assertEquals(2, store.size());
+        assertEquals("2024-01-01T09:00", store.get("2").get("when"));
+    }
+
+    @Test
+    public void failedAppendLeavesNoTornLine() throws Exception {
+        store.close();
+        var tearing = new TearingStore(dir);
+        store = tearing;
+        store.put("1", repeat("2024-01-01T08:00", 24));
+        tearing.tearNextWrite();
+        assertThrows(IOException.class, () -> store.put("2", repeat("2024-01-01T09:00", 24)));
+        assertNull(store.get("2"));
+        // следующая запись не склеивается с обрывком, и после перезапуска видны обе целые записи
+        store.put("3", repeat("2024-01-01T10:00", 24));
+        store.close();
+        store = open(1000);
+        assertEquals(2, store.size());
+        assertNull(store.get("2"));
+        assertEquals("2024-01-01T10:00", store.get("3").get("when"));
+    }
+
+    @Test
+    public void legacyConfigIsImportedOnce() throws Exception {
+        store.close();
+        for (var file : dir.listFiles()) {
+            file.delete();
+        }
+        Files.writeString(legacy.toPath(), "{\"5\":{\"type\":\"repeat\",\"when\":\"2024-01-01T08:00\",\"period\":\"24\"}}");
+        store = open(1000);
+        assertEquals(repeat("2024-01-01T08:00", 24), store.get("5"));
+        assertFalse(legacy.exists());
+        store.remove("5");
+        store.close();
+        store = open(1000);
+        assertEquals(0, store.size());
+    }
+}
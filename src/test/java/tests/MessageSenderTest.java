@@ -0,0 +1,122 @@
+package tests;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import telegrambot.metrics.MetricsRegistry;
+import telegrambot.outbound.MessageSender;
+import telegrambot.outbound.TokenBucket;
+
+public class MessageSenderTest {
+
+    /**
+     * Отправитель, который ничего не отправляет, а только запоминает момент каждого запроса
+     */
+    public static class RecordingSender extends DefaultAbsSender {
+
+        public final List<Long> sentAt = Collections.synchronizedList(new ArrayList<>());
+
+        public RecordingSender() {
+            super(new DefaultBotOptions());
+        }
+
+        @Override
+        public String getBotToken() {
+            return "test";
+        }
+
+        @Override
+        public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) throws TelegramApiException {
+            sentAt.add(System.nanoTime());
+            return null;
+        }
+    }
+
+    public static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    public MessageSender sender;
+
+    @AfterEach
+    public void tearDown() {
+        if (sender != null) {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void bucketAllowsBurstThenPacesAtRate() {
+        var bucket = new TokenBucket(3, 10, 0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.delay(0));
+            bucket.take();
+        }
+        // следующий жетон появится через 1/10 секунды
+        assertEquals(SECOND / 10, bucket.delay(0));
+        assertTrue(bucket.delay(SECOND / 20) > 0);
+        assertEquals(0, bucket.delay(SECOND / 10));
+        bucket.take();
+        assertEquals(SECOND / 10, bucket.delay(SECOND / 10));
+        assertFalse(bucket.isFull(SECOND / 10));
+    }
+
+    @Test
+    public void bucketDoesNotOverfillWhenIdle() {
+        var bucket = new TokenBucket(2, 10, 0);
+        assertTrue(bucket.isFull(10 * SECOND));
+        bucket.take();
+        bucket.take();
+        assertTrue(bucket.delay(10 * SECOND) > 0);
+        assertTrue(bucket.isFull(11 * SECOND));
+        // простой не копит жетонов больше вместимости ведра
+        bucket.take();
+        bucket.take();
+        assertTrue(bucket.delay(11 * SECOND) > 0);
+    }
+
+    @Test
+    public void messagesToOneChatArePacedByChatRate() throws Exception {
+        var recording = new RecordingSender();
+        // в чат - 2 сообщения подряд, затем 20 в секунду
+        sender = new MessageSender(recording, 1000, 20, 2, 4, 1, 100, new MetricsRegistry());
+        List<CompletableFuture<?>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            var message = new SendMessage("42", "сообщение " + i);
+            results.add(sender.send(message));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        assertEquals(8, recording.sentAt.size());
+        long first = recording.sentAt.get(0);
+        // после всплеска из двух сообщений остальные шесть идут не чаще 20 в секунду
+        long elapsed = recording.sentAt.get(7) - first;
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(280), "8 сообщений за " + elapsed / 1_000_000 + " мс");
+        for (int i = 3; i < 8; i++) {
+            long gap = recording.sentAt.get(i) - recording.sentAt.get(i - 1);
+            assertTrue(gap >= TimeUnit.MILLISECONDS.toNanos(40), "пауза перед сообщением " + i + ": " + gap / 1_000_000 + " мс");
+        }
+    }
+
+    @Test
+    public void differentChatsAreNotPacedByEachOther() throws Exception {
+        var recording = new RecordingSender();
+        sender = new MessageSender(recording, 1000, 1, 1, 4, 1, 100, new MetricsRegistry());
+        List<CompletableFuture<?>> results = new ArrayList<>();
+        for (int chat = 0; chat < 8; chat++) {
+            results.add(sender.send(new SendMessage(Integer.toString(chat), "сообщение")));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        // по одному сообщению в чат укладывается во всплеск каждого чата, и 1 сообщение в секунду на чат их не задерживает
+        long elapsed = Collections.max(recording.sentAt) - Collections.min(recording.sentAt);
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(500), "8 сообщений за " + elapsed / 1_000_000 + " мс");
+    }
+}
@@ -0,0 +1,71 @@
+package tests;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.metrics.MetricsRegistry;
+import telegrambot.metrics.MetricsServer;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void counterAndGaugeAreScraped() {
+        var registry = new MetricsRegistry();
+        var routed = registry.counter("bot_callbacks_routed_total", "routed");
+        routed.inc();
+        routed.add(2);
+        registry.gauge("bot_active_dialogs", "dialogs", () -> 7);
+        var text = registry.scrape();
+        assertTrue(text.contains("# TYPE bot_callbacks_routed_total counter\n"));
+        assertTrue(text.contains("bot_callbacks_routed_total 3\n"));
+        assertTrue(text.contains("bot_active_dialogs 7\n"));
+    }
+
+    @Test
+    public void sameNameAndLabelsReturnSameMetric() {
+        var registry = new MetricsRegistry();
+        assertSame(registry.counter("errors_total", "errors", "reason", "client"),
+                registry.counter("errors_total", "errors", "reason", "client"));
+        assertNotSame(registry.counter("errors_total", "errors", "reason", "client"),
+                registry.counter("errors_total", "errors", "reason", "server"));
+        assertThrows(IllegalArgumentException.class, () -> registry.histogram("errors_total", "errors"));
+    }
+
+    @Test
+    public void histogramBucketsAreCumulative() {
+        var registry = new MetricsRegistry();
+        var histogram = registry.histogram("bot_update_handling_seconds", "handling", new double[] {0.01, 0.1},
+                "command", "newtask");
+        histogram.observe(5, TimeUnit.MILLISECONDS);
+        histogram.observe(50, TimeUnit.MILLISECONDS);
+        histogram.observe(2, TimeUnit.SECONDS);
+        var text = registry.scrape();
+        assertTrue(text.contains("bot_update_handling_seconds_bucket{command=\"newtask\",le=\"0.01\"} 1\n"));
+        assertTrue(text.contains("bot_update_handling_seconds_bucket{command=\"newtask\",le=\"0.1\"} 2\n"));
+        assertTrue(text.contains("bot_update_handling_seconds_bucket{command=\"newtask\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("bot_update_handling_seconds_sum{command=\"newtask\"} 2.055\n"));
+        assertTrue(text.contains("bot_update_handling_seconds_count{command=\"newtask\"} 3\n"));
+    }
+
+    @Test
+    public void serverExposesMetrics() throws Exception {
+        var registry = new MetricsRegistry();
+        registry.counter("outbound_send_errors_total", "errors", "reason", "rate_limited").inc();
+        var server = new MetricsServer("127.0.0.1", 0, registry);
+        server.start();
+        try {
+            var response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+            assertTrue(response.body().contains("outbound_send_errors_total{reason=\"rate_limited\"} 1\n"));
+        } finally {
+            server.stop();
+        }
+    }
+}
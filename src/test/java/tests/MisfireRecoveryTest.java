@@ -0,0 +1,152 @@
+package tests;
+
+import java.sql.DriverManager;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.quartz.SchedulerException;
+import org.quartz.TriggerKey;
+import telegrambot.metrics.MetricsRegistry;
+import telegrambot.todos.JdbcTaskRepository;
+import telegrambot.todos.MisfireRecovery;
+import telegrambot.todos.Reminder;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.SchedulerProfile;
+
+public class MisfireRecoveryTest {
+
+    /**
+     * Reminder с JDBC-хранилищем заданий, планировщик которого не выполняет задания: бот "не работает"
+     */
+    public static class StoppedReminder extends Reminder {
+
+        public StoppedReminder(String propertiesPath, String url, MisfireRecovery recovery) throws SchedulerException {
+            super(propertiesPath, SchedulerProfile.STANDARD, null, recovery, 1000,
+                    new JdbcTaskRepository(() -> DriverManager.getConnection(url, "sa", "")));
+            scheduler.setJobFactory((bundle, target) -> context -> {});
+            scheduler.standby();
+        }
+
+        public long nextFireTime(String userId, String taskName) throws SchedulerException {
+            var trigger = scheduler.getTrigger(new TriggerKey(TRIGGER_PREFIX + "-" + taskName, userId));
+            return trigger == null ? -1 : trigger.getNextFireTime().getTime();
+        }
+
+        public void shutdown() throws SchedulerException {
+            scheduler.shutdown(true);
+        }
+    }
+
+    public record Notice(String chatId, String text, long sentAt) {}
+
+    public ScheduledExecutorService executor;
+    public List<Notice> notices;
+    public String url;
+    public String propertiesPath;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        notices = Collections.synchronizedList(new ArrayList<>());
+        url = "jdbc:h2:mem:recovery-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        ClusterTest.createSchema(url);
+        propertiesPath = ClusterTest.properties(url).getAbsolutePath();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public MisfireRecovery recovery(double rate, int minBacklog) {
+        return new MisfireRecovery(executor, rate, minBacklog,
+                (chatId, text) -> notices.add(new Notice(chatId, text, System.currentTimeMillis())), new MetricsRegistry());
+    }
+
+    /**
+     * Планирует напоминания, дедлайны которых прошли, пока бот не работал
+     * @param count Сколько напоминаний: i-е пропущено на i часов раньше первого
+     */
+    public void scheduleMissed(int count, LocalDateTime firstMissed) throws Exception {
+        var reminder = new StoppedReminder(propertiesPath, url, null);
+        try {
+            for (int i = 0; i < count; i++) {
+                var at = firstMissed.minusHours(i).format(TaskRepositoryTest.FORMATTER);
+                // каждое повторяется каждые 10 минут
+                reminder.scheduleRemind(new ReminderEntity(ReminderCacheTest.task(i + 1, "Дело " + i), at, 10,
+                        ChronoUnit.MINUTES, 0, 0, 0, at));
+            }
+            // разовое напоминание
+            var at = firstMissed.format(TaskRepositoryTest.FORMATTER);
+            reminder.scheduleRemind(new ReminderEntity(ReminderCacheTest.task(100, "Разовое"), at, 0, null, 0, 0, 0, at));
+        } finally {
+            reminder.shutdown();
+        }
+    }
+
+    public void awaitNotices(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (notices.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void backlogIsCollapsedAndSentMostOverdueFirst() throws Exception {
+        var firstMissed = LocalDateTime.now().minusHours(1).truncatedTo(ChronoUnit.MINUTES);
+        scheduleMissed(5, firstMissed);
+        var recovery = recovery(20, 3);
+        long started = System.currentTimeMillis();
+        var reminder = new StoppedReminder(propertiesPath, url, recovery);
+        try {
+            awaitNotices(6);
+            assertEquals(6, notices.size());
+            // сначала самые просроченные: "Дело 4" пропущено раньше всех (название задачи в сообщении - прописными)
+            assertTrue(notices.get(0).text().contains("ДЕЛО 4"), notices.get(0).text());
+            assertEquals("5", notices.get(0).chatId());
+            // каждое периодическое напоминание - одно сообщение с числом пропущенных срабатываний
+            int times = (int) (ChronoUnit.MINUTES.between(firstMissed.minusHours(4), LocalDateTime.now()) / 10) + 1;
+            assertTrue(notices.get(0).text().contains("(" + times + " раз)"), notices.get(0).text());
+            var once = notices.stream().filter(notice -> notice.text().contains("РАЗОВОЕ")).findFirst().orElseThrow();
+            assertFalse(once.text().contains(" раз)"), once.text());
+            // сообщения отправляются не чаще 20 в секунду
+            assertTrue(notices.get(5).sentAt() - started >= 5 * 50 - 10);
+            // триггеры переведены на будущее, разовое напоминание снято
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 5; i++) {
+                long next = reminder.nextFireTime(Integer.toString(i + 1), "Дело " + i);
+                assertTrue(next > started && next <= now + 10 * 60_000, "Дело " + i);
+            }
+            assertEquals(-1, reminder.nextFireTime("100", "Разовое"));
+            // вместе с триггером удалена и задача: в списке ее больше нет
+            assertTrue(reminder.getRemindsList("100").isEmpty());
+            assertEquals(0, recovery.pending());
+        } finally {
+            reminder.shutdown();
+        }
+    }
+
+    @Test
+    public void smallBacklogIsLeftToQuartz() throws Exception {
+        var firstMissed = LocalDateTime.now().minusHours(1).truncatedTo(ChronoUnit.MINUTES);
+        scheduleMissed(2, firstMissed);
+        var reminder = new StoppedReminder(propertiesPath, url, recovery(20, 10));
+        try {
+            Thread.sleep(200);
+            assertTrue(notices.isEmpty());
+            // пропущенное выполняет Quartz при запуске: срабатывание сейчас, а не следующее по плану
+            assertTrue(reminder.nextFireTime("1", "Дело 0") <= System.currentTimeMillis());
+        } finally {
+            reminder.shutdown();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package tests;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import telegrambot.metrics.MetricsRegistry;
+import telegrambot.outbound.IMessageSender;
+import telegrambot.outbound.NotificationCoalescer;
+
+public class NotificationCoalescerTest {
+
+    /**
+     * Конвейер исходящих сообщений, который только запоминает сообщения
+     */
+    public static class RecordingSender implements IMessageSender {
+
+        public final List<SendMessage> sent = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public CompletableFuture<Message> send(SendMessage message) {
+            sent.add(message);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public <T extends Serializable> CompletableFuture<T> send(String chatId, BotApiMethod<T> method) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public ScheduledExecutorService scheduler;
+    public RecordingSender sender;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        sender = new RecordingSender();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    public void awaitSent(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sender.sent.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void burstOfOneChatIsSentAsOneMessage() throws Exception {
+        var coalescer = new NotificationCoalescer(sender, scheduler, 200, NotificationCoalescer.TELEGRAM_MAX_LENGTH,
+                new MetricsRegistry());
+        for (int i = 0; i < 20; i++) {
+            coalescer.accept("1", "Дело " + i);
+            coalescer.accept("2", "Дело " + i);
+        }
+        assertTrue(sender.sent.isEmpty());
+        awaitSent(2);
+        Thread.sleep(300);
+        assertEquals(2, sender.sent.size());
+        var text = sender.sent.get(0).getText();
+        assertTrue(text.startsWith("Дело 0\n\nДело 1\n\n"), text);
+        assertTrue(text.endsWith("Дело 19"), text);
+        // следующее уведомление открывает новое окно
+        coalescer.accept("1", "Еще дело");
+        awaitSent(3);
+        assertEquals("Еще дело", sender.sent.get(2).getText());
+    }
+
+    @Test
+    public void messageDoesNotExceedMaxLength() throws Exception {
+        var coalescer = new NotificationCoalescer(sender, scheduler, 60_000, 100, new MetricsRegistry());
+        var text = "x".repeat(30);
+        for (int i = 0; i < 10; i++) {
+            coalescer.accept("1", text);
+        }
+        // в сообщение помещаются три уведомления с разделителями: 30 * 3 + 2 * 2 = 94
+        assertEquals(3, sender.sent.size());
+        for (var message : sender.sent) {
+            assertEquals(94, message.getText().length());
+        }
+        coalescer.flushAll();
+        assertEquals(4, sender.sent.size());
+        assertEquals(text, sender.sent.get(3).getText());
+    }
+
+    @Test
+    public void zeroWindowSendsImmediately() {
+        var coalescer = new NotificationCoalescer(sender, scheduler, 0, NotificationCoalescer.TELEGRAM_MAX_LENGTH,
+                new MetricsRegistry());
+        coalescer.accept("1", "Первое");
+        coalescer.accept("1", "Второе");
+        assertEquals(2, sender.sent.size());
+    }
+}
@@ -0,0 +1,159 @@
+package tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.quartz.SchedulerException;
+import org.telegram.telegrambots.meta.api.objects.User;
+import benchmarks.BenchmarkData;
+import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.todos.ITask;
+import telegrambot.todos.JdbcTaskRepository;
+import telegrambot.todos.Reminder;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.Task;
+
+public class ReminderCacheTest {
+
+    /**
+     * Reminder с хранилищами заданий и задач в памяти, считающий загрузки списков из хранилища и срабатывания заданий
+     * (вместо отправки сообщений)
+     */
+    public static class CountingReminder extends Reminder {
+
+        public int loads;
+        public final AtomicInteger fires = new AtomicInteger();
+
+        public CountingReminder(String propertiesPath, int cacheUsers) throws org.quartz.SchedulerException {
+            super(propertiesPath, cacheUsers, BenchmarkData.inMemoryRepository());
+            scheduler.setJobFactory((bundle, target) -> context -> fires.incrementAndGet());
+        }
+
+        @Override
+        protected UserLists load(String userId) throws org.quartz.SchedulerException,
+                com.fasterxml.jackson.core.JsonProcessingException {
+            loads++;
+            return super.load(userId);
+        }
+
+        public void shutdown() throws Exception {
+            scheduler.shutdown();
+        }
+    }
+
+    public CountingReminder reminder;
+    public File properties;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        properties = File.createTempFile("quartz-test", ".properties");
+        Files.writeString(properties.toPath(), String.join("\n",
+                "org.quartz.scheduler.instanceName: Test-" + UUID.randomUUID(),
+                "org.quartz.threadPool.class: org.quartz.simpl.SimpleThreadPool",
+                "org.quartz.threadPool.threadCount: 1",
+                "org.quartz.jobStore.class: org.quartz.simpl.RAMJobStore",
+                "org.quartz.scheduler.skipUpdateCheck: true"));
+        reminder = new CountingReminder(properties.getAbsolutePath(), 1);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        reminder.shutdown();
+        properties.delete();
+    }
+
+    public static ITask task(long userId, String name) {
+        var user = new User(userId, "Антон", false, "Антонов", "@onton", "ru", false, false, false);
+        return new Task(Long.toString(userId), user, name, "Описание", Set.of("дом"));
+    }
+
+    @Test
+    public void repeatedRequestsAreServedFromCache() throws Exception {
+        reminder.addTask(task(1, "Купить хлеба"));
+        assertEquals(1, reminder.getTaskList("1").size());
+        assertEquals(0, reminder.getRemindsList("1").size());
+        assertEquals(1, reminder.getTaskList("1").size());
+        assertEquals(1, reminder.loads);
+    }
+
+    @Test
+    public void everyChangeInvalidatesUserLists() throws Exception {
+        var bread = task(1, "Купить хлеба");
+        reminder.addTask(bread);
+        assertEquals(1, reminder.getTaskList("1").size());
+        var when = LocalDateTime.now().plusDays(1).format(DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT));
+        var remind = new ReminderEntity(task(1, "Позвонить маме"), when, 0, ChronoUnit.DAYS, 0, 0, 0, when);
+        reminder.scheduleRemind(remind);
+        assertEquals(2, reminder.getTaskList("1").size());
+        assertEquals(1, reminder.getRemindsList("1").size());
+        reminder.completeTask(bread);
+        assertEquals(1, reminder.getTaskList("1").size());
+        reminder.completeTask(reminder.getRemindsList("1").get(0).getTask());
+        assertEquals(0, reminder.getTaskList("1").size());
+        assertEquals(0, reminder.getRemindsList("1").size());
+        assertEquals(4, reminder.loads);
+    }
+
+    @Test
+    public void returnedListsDoNotChangeCache() throws Exception {
+        reminder.addTask(task(1, "Купить хлеба"));
+        reminder.getTaskList("1").clear();
+        assertEquals(1, reminder.getTaskList("1").size());
+    }
+
+    @Test
+    public void leastRecentlyUsedUserIsEvicted() throws Exception {
+        reminder.addTask(task(1, "Купить хлеба"));
+        reminder.addTask(task(2, "Купить молока"));
+        reminder.getTaskList("1");
+        reminder.getTaskList("2");
+        reminder.getTaskList("1");
+        assertEquals(3, reminder.loads);
+    }
+
+    @Test
+    public void firedOneTimeRemindLeavesListsAndFreesName() throws Exception {
+        // дедлайн - текущая минута, т.е. уже наступил: триггер срабатывает сразу и больше не сработает
+        var now = LocalDateTime.now().format(DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT));
+        reminder.scheduleRemind(new ReminderEntity(task(1, "Позвонить маме"), now, 0, ChronoUnit.DAYS, 0, 0, 0, now));
+        var later = LocalDateTime.now().plusDays(1).format(DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT));
+        reminder.scheduleRemind(new ReminderEntity(task(1, "Полить цветы"), later, 0, ChronoUnit.DAYS, 0, 0, 0, later));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (reminder.getRemindsList("1").size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, reminder.fires.get());
+        assertEquals(1, reminder.getRemindsList("1").size());
+        assertEquals("Полить цветы", reminder.getRemindsList("1").get(0).getTask().getName());
+        assertEquals(1, reminder.getTaskList("1").size());
+        // имя выполненного напоминания свободно
+        reminder.scheduleRemind(new ReminderEntity(task(1, "Позвонить маме"), later, 0, ChronoUnit.DAYS, 0, 0, 0, later));
+        assertEquals(2, reminder.getRemindsList("1").size());
+    }
+
+    @Test
+    public void unavailableRepositoryFailsStart() throws Exception {
+        var other = File.createTempFile("quartz-test", ".properties");
+        try {
+            Files.writeString(other.toPath(), Files.readString(properties.toPath())
+                    .replaceFirst("instanceName: .*", "instanceName: Test-" + UUID.randomUUID()));
+            var repository = new JdbcTaskRepository(() -> {
+                throw new SQLException("база данных недоступна");
+            });
+            var e = assertThrows(SchedulerException.class, () -> new Reminder(other.getAbsolutePath(), 1, repository));
+            assertTrue(e.getCause() instanceof SQLException);
+        } finally {
+            other.delete();
+        }
+    }
+}
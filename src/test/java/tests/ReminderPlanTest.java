@@ -0,0 +1,176 @@
+package tests;
+
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.DriverManager;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.quartz.JobKey;
+import org.quartz.SchedulerException;
+import org.quartz.TriggerKey;
+import org.quartz.spi.OperableTrigger;
+import telegrambot.todos.JdbcTaskRepository;
+import telegrambot.todos.JobPayload;
+import telegrambot.todos.Reminder;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.ReminderPlan;
+import telegrambot.todos.ReminderPlanTrigger;
+import telegrambot.todos.SchedulerProfile;
+
+public class ReminderPlanTest {
+
+    public static final ZoneId ZONE = ZoneId.systemDefault();
+    public static final LocalDateTime WHEN = LocalDateTime.of(2024, 1, 31, 9, 0);
+
+    /**
+     * Reminder с JDBC-хранилищем заданий, который вместо отправки сообщений запоминает виды срабатываний
+     */
+    public static class RecordingReminder extends Reminder {
+
+        public final List<String> kinds = Collections.synchronizedList(new ArrayList<>());
+
+        public RecordingReminder(String propertiesPath, String url) throws SchedulerException {
+            super(propertiesPath, SchedulerProfile.STANDARD, 1000, new JdbcTaskRepository(() -> DriverManager.getConnection(url,
+                    "sa", "")));
+            scheduler.setJobFactory((bundle, target) -> context -> kinds.add(
+                    ((ReminderPlanTrigger) context.getTrigger()).getFiredKind()));
+        }
+
+        public OperableTrigger trigger(String userId, String taskName) throws SchedulerException {
+            return (OperableTrigger) scheduler.getTrigger(new TriggerKey(TRIGGER_PREFIX + "-" + taskName, userId));
+        }
+
+        public int triggersOfJob(String userId, String taskName) throws SchedulerException {
+            return scheduler.getTriggersOfJob(new JobKey(taskName, userId)).size();
+        }
+
+        public void shutdown() throws SchedulerException {
+            scheduler.shutdown(true);
+        }
+    }
+
+    public static long millis(LocalDateTime time) {
+        return time.atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    public static List<ReminderPlan.Fire> fires(ReminderPlan plan, int count) {
+        List<ReminderPlan.Fire> fires = new ArrayList<>();
+        var fire = plan.first();
+        while (fire != null && fires.size() < count) {
+            fires.add(fire);
+            fire = plan.next(fire.getMillis());
+        }
+        return fires;
+    }
+
+    @Test
+    public void nudgesPrecedeDeadlineAndStopAtIt() {
+        // прежний триггер с withRepeatCount(5) напоминал бы "заранее" и после дедлайна: в 9:10 и 9:20
+        var fires = fires(new ReminderPlan(WHEN, ZONE, 1, ChronoUnit.HOURS, 30, 5, 10), 6);
+        assertEquals(millis(WHEN.minusMinutes(30)), fires.get(0).getMillis());
+        assertEquals(millis(WHEN.minusMinutes(20)), fires.get(1).getMillis());
+        assertEquals(millis(WHEN.minusMinutes(10)), fires.get(2).getMillis());
+        assertEquals(millis(WHEN), fires.get(3).getMillis());
+        assertEquals(millis(WHEN.plusHours(1)), fires.get(4).getMillis());
+        assertEquals(millis(WHEN.plusHours(2)), fires.get(5).getMillis());
+        for (int i = 0; i < fires.size(); i++) {
+            assertEquals(i < 3 ? JobPayload.REMIND_BEFORE : JobPayload.DEADLINE, fires.get(i).getKind());
+        }
+    }
+
+    @Test
+    public void oneShotPlanEndsWithDeadline() {
+        var plan = new ReminderPlan(WHEN, ZONE, 0, null, 15, 1, 0);
+        var fires = fires(plan, 10);
+        assertEquals(2, fires.size());
+        assertEquals(JobPayload.REMIND_BEFORE, fires.get(0).getKind());
+        assertEquals(millis(WHEN), plan.last().getMillis());
+        assertNull(plan.next(millis(WHEN)));
+    }
+
+    @Test
+    public void monthsAreAddedByCalendar() {
+        var plan = new ReminderPlan(WHEN, ZONE, 1, ChronoUnit.MONTHS, 0, 0, 0);
+        var fires = fires(plan, 4);
+        assertEquals(millis(WHEN), fires.get(0).getMillis());
+        assertEquals(millis(LocalDateTime.of(2024, 2, 29, 9, 0)), fires.get(1).getMillis());
+        assertEquals(millis(LocalDateTime.of(2024, 3, 31, 9, 0)), fires.get(2).getMillis());
+        assertEquals(millis(LocalDateTime.of(2024, 4, 30, 9, 0)), fires.get(3).getMillis());
+        // через пять лет - без перебора всех промежуточных месяцев
+        var later = millis(LocalDateTime.of(2029, 3, 15, 0, 0));
+        assertEquals(millis(LocalDateTime.of(2029, 3, 31, 9, 0)), plan.next(later).getMillis());
+        assertEquals(millis(LocalDateTime.of(2029, 2, 28, 9, 0)), plan.latest(later).getMillis());
+        assertNull(plan.latest(millis(WHEN) - 1));
+    }
+
+    @Test
+    public void missedFiresCollapseIntoOneWithKindOfTheLatest() {
+        var when = LocalDateTime.now(ZONE).truncatedTo(ChronoUnit.MINUTES);
+        // пропущены все три напоминания заранее, дедлайн еще впереди
+        var trigger = new ReminderPlanTrigger(millis(when.plusMinutes(5)), ZONE.getId(), 1, ChronoUnit.DAYS, 30, 2, 10);
+        trigger.computeFirstFireTime(null);
+        assertEquals(JobPayload.REMIND_BEFORE, trigger.getNextKind());
+        trigger.updateAfterMisfire(null);
+        assertEquals(JobPayload.REMIND_BEFORE, trigger.getNextKind());
+        trigger.triggered(null);
+        assertEquals(JobPayload.REMIND_BEFORE, trigger.getFiredKind());
+        assertEquals(millis(when.plusMinutes(5)), trigger.getNextFireTime().getTime());
+        assertEquals(JobPayload.DEADLINE, trigger.getNextKind());
+        // пропущены напоминания и сам дедлайн
+        trigger = new ReminderPlanTrigger(millis(when.minusMinutes(5)), ZONE.getId(), 1, ChronoUnit.DAYS, 30, 2, 10);
+        trigger.computeFirstFireTime(null);
+        trigger.updateAfterMisfire(null);
+        trigger.triggered(null);
+        assertEquals(JobPayload.DEADLINE, trigger.getFiredKind());
+        assertEquals(millis(when.minusMinutes(5).plusDays(1)), trigger.getNextFireTime().getTime());
+    }
+
+    @Test
+    public void reminderIsOneJobAndOneTriggerRowInJdbcStore() throws Exception {
+        var url = "jdbc:h2:mem:plan-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        ClusterTest.createSchema(url);
+        var properties = ClusterTest.properties(url);
+        // JDBC-хранилище ищет пропущенные триггеры раз в порог пропуска: секунда вместо двух минут
+        Files.writeString(properties.toPath(), "\norg.quartz.jobStore.misfireThreshold: 1000", StandardOpenOption.APPEND);
+        var reminder = new RecordingReminder(properties.getAbsolutePath(), url);
+        try {
+            var tomorrow = LocalDateTime.now().plusDays(1).truncatedTo(ChronoUnit.MINUTES);
+            reminder.scheduleRemind(TaskRepositoryTest.remind(1, "Позвонить маме", tomorrow));
+            // дедлайн пропущен три минуты назад и повторяется каждый день
+            var missed = LocalDateTime.now().minusMinutes(3).truncatedTo(ChronoUnit.MINUTES);
+            var at = missed.format(TaskRepositoryTest.FORMATTER);
+            reminder.scheduleRemind(new ReminderEntity(ReminderCacheTest.task(1, "Полить цветы"), at, 1, ChronoUnit.DAYS, 15, 1, 0,
+                    at));
+            assertEquals(2, ClusterTest.count(url, "SELECT COUNT(*) FROM QRTZ_JOB_DETAILS"));
+            assertEquals(2, ClusterTest.count(url, "SELECT COUNT(*) FROM QRTZ_TRIGGERS WHERE TRIGGER_TYPE = 'REMPLAN'"));
+            assertEquals(2, ClusterTest.count(url, "SELECT COUNT(*) FROM QRTZ_SIMPROP_TRIGGERS"));
+            assertEquals(0, ClusterTest.count(url, "SELECT COUNT(*) FROM QRTZ_BLOB_TRIGGERS"));
+            assertEquals(1, reminder.triggersOfJob("1", "Позвонить маме"));
+            // напоминание о приближении дедлайна - за 15 минут, план и вид следующего срабатывания читаются из базы
+            var trigger = reminder.trigger("1", "Позвонить маме");
+            assertTrue(trigger instanceof ReminderPlanTrigger);
+            assertEquals(JobPayload.REMIND_BEFORE, ((ReminderPlanTrigger) trigger).getNextKind());
+            assertEquals(millis(tomorrow.minusMinutes(15)), trigger.getNextFireTime().getTime());
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (reminder.kinds.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(List.of(JobPayload.DEADLINE), reminder.kinds);
+            trigger = reminder.trigger("1", "Полить цветы");
+            assertEquals(JobPayload.DEADLINE, ((ReminderPlanTrigger) trigger).getNextKind());
+            assertEquals(millis(missed.plusDays(1)), trigger.getNextFireTime().getTime());
+            reminder.completeTask(ReminderCacheTest.task(1, "Позвонить маме"));
+            assertEquals(1, ClusterTest.count(url, "SELECT COUNT(*) FROM QRTZ_SIMPROP_TRIGGERS"));
+        } finally {
+            reminder.shutdown();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package tests;
+
+import java.util.Properties;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.quartz.impl.StdSchedulerFactory;
+import telegrambot.todos.SchedulerProfile;
+
+public class SchedulerProfileTest {
+
+    public static Properties jdbc() {
+        var properties = new Properties();
+        properties.setProperty("org.quartz.threadPool.threadCount", "5");
+        properties.setProperty("org.quartz.jobStore.class", "org.quartz.impl.jdbcjobstore.JobStoreTX");
+        properties.setProperty("org.quartz.jobStore.dataSource", "db");
+        properties.setProperty("org.quartz.dataSource.db.driver", "org.postgresql.Driver");
+        properties.setProperty("org.quartz.dataSource.db.maxConnections", "30");
+        return properties;
+    }
+
+    @Test
+    public void standardProfileKeepsSettings() {
+        assertEquals(jdbc(), SchedulerProfile.STANDARD.apply(jdbc()));
+    }
+
+    @Test
+    public void highThroughputProfileBatchesAndPoolsJdbcStore() {
+        var tuned = SchedulerProfile.HIGH_THROUGHPUT.apply(jdbc());
+        int threads = SchedulerProfile.threadCount(Runtime.getRuntime().availableProcessors());
+        assertTrue(threads >= 8);
+        assertEquals(Integer.toString(threads), tuned.getProperty("org.quartz.threadPool.threadCount"));
+        assertEquals(Integer.toString(threads), tuned.getProperty("org.quartz.scheduler.batchTriggerAcquisitionMaxCount"));
+        assertEquals(Long.toString(SchedulerProfile.FIRE_AHEAD_MILLIS),
+                tuned.getProperty("org.quartz.scheduler.batchTriggerAcquisitionFireAheadTimeWindow"));
+        assertEquals("true", tuned.getProperty("org.quartz.jobStore.acquireTriggersWithinLock"));
+        assertEquals("hikaricp", tuned.getProperty("org.quartz.dataSource.db.provider"));
+        assertEquals(Integer.toString(Math.max(30, threads + 3)), tuned.getProperty("org.quartz.dataSource.db.maxConnections"));
+        assertEquals(Integer.toString(threads + 3), SchedulerProfile.HIGH_THROUGHPUT.apply(withMaxConnections(1))
+                .getProperty("org.quartz.dataSource.db.maxConnections"));
+    }
+
+    public static Properties withMaxConnections(int maxConnections) {
+        var properties = jdbc();
+        properties.setProperty("org.quartz.dataSource.db.maxConnections", Integer.toString(maxConnections));
+        return properties;
+    }
+
+    @Test
+    public void highThroughputProfileWorksWithRamStore() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("org.quartz.scheduler.instanceName", "Test-" + UUID.randomUUID());
+        properties.setProperty("org.quartz.threadPool.class", "org.quartz.simpl.SimpleThreadPool");
+        properties.setProperty("org.quartz.threadPool.threadCount", "1");
+        properties.setProperty("org.quartz.jobStore.class", "org.quartz.simpl.RAMJobStore");
+        properties.setProperty("org.quartz.scheduler.skipUpdateCheck", "true");
+        var tuned = SchedulerProfile.HIGH_THROUGHPUT.apply(properties);
+        assertNull(tuned.getProperty("org.quartz.jobStore.acquireTriggersWithinLock"));
+        var scheduler = new StdSchedulerFactory(tuned).getScheduler();
+        try {
+            assertTrue(scheduler.getMetaData().getThreadPoolSize() >= 8);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
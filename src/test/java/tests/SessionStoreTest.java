@@ -0,0 +1,103 @@
+package tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.sessions.DialogSession;
+import telegrambot.sessions.ISessionListener;
+import telegrambot.sessions.SessionKey;
+import telegrambot.sessions.SessionStore;
+
+public class SessionStoreTest {
+
+    /**
+     * Хранилище сессий с ручными часами
+     */
+    public static class ManualClockStore extends SessionStore<DialogSession> {
+
+        public long clock;
+
+        public ManualClockStore(int maxSize) {
+            super(10, TimeUnit.SECONDS, maxSize);
+        }
+
+        @Override
+        protected long now() {
+            return clock;
+        }
+    }
+
+    public ManualClockStore store;
+    public List<DialogSession> closed;
+
+    @BeforeEach
+    public void setUp() {
+        store = new ManualClockStore(3);
+        closed = new ArrayList<>();
+        store.addListener(new ISessionListener() {
+
+            @Override
+            public void sessionOpened(DialogSession session) {
+            }
+
+            @Override
+            public void sessionClosed(DialogSession session) {
+                closed.add(session);
+            }
+        });
+    }
+
+    public static SessionKey key(int user) {
+        return new SessionKey(Integer.toString(user), "42");
+    }
+
+    @Test
+    public void idleSessionExpiresAndAccessExtendsIt() {
+        var first = store.open(new DialogSession(key(1)));
+        store.open(new DialogSession(key(2)));
+        store.clock = 6000;
+        // обращение продлевает жизнь сессии, проверка наличия - нет
+        assertSame(first, store.get(key(1)));
+        assertTrue(store.contains(key(2)));
+        store.clock = 11000;
+        assertFalse(store.contains(key(2)));
+        assertNull(store.get(key(2)));
+        assertSame(first, store.get(key(1)));
+        assertEquals(1, store.size());
+        assertEquals(1, closed.size());
+        assertEquals(key(2), closed.get(0).getKey());
+        store.clock = 30000;
+        assertEquals(1, store.evictExpired());
+        assertEquals(0, store.size());
+        assertSame(first, closed.get(1));
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionIsEvictedOverMaxSize() {
+        var first = store.open(new DialogSession(key(1)));
+        var second = store.open(new DialogSession(key(2)));
+        store.open(new DialogSession(key(3)));
+        store.get(key(1));
+        store.open(new DialogSession(key(4)));
+        assertEquals(3, store.size());
+        assertEquals(List.of(second), closed);
+        assertSame(first, store.get(key(1)));
+        assertNull(store.get(key(2)));
+    }
+
+    @Test
+    public void reopeningReplacesAndClosesPreviousSession() {
+        var previous = store.open(new DialogSession(key(1)));
+        var current = store.open(new DialogSession(key(1)));
+        assertEquals(1, store.size());
+        assertEquals(List.of(previous), closed);
+        assertSame(current, store.get(key(1)));
+        assertSame(current, store.close(key(1)));
+        assertNull(store.close(key(1)));
+        assertEquals(List.of(previous, current), closed);
+        assertEquals(0, store.evictExpired());
+    }
+}
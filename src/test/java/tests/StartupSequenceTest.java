@@ -0,0 +1,44 @@
+package tests;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.familyassistant.StartupSequence;
+import telegrambot.metrics.MetricsRegistry;
+
+public class StartupSequenceTest {
+
+    @Test
+    public void slowPhaseDoesNotBlockCaller() throws Exception {
+        var metrics = new MetricsRegistry();
+        var startup = new StartupSequence(metrics);
+        var release = new CountDownLatch(1);
+        var quartz = startup.start("quartz", () -> release.await(10, TimeUnit.SECONDS));
+        startup.run("commands", () -> {});
+        assertFalse(quartz.isDone());
+        release.countDown();
+        startup.whenAll().get(10, TimeUnit.SECONDS);
+        assertTrue(quartz.get());
+        var report = startup.report();
+        assertTrue(report.indexOf("commands") < report.indexOf("quartz"));
+        assertTrue(metrics.scrape().contains("bot_startup_phase_seconds{phase=\"quartz\"}"));
+    }
+
+    @Test
+    public void independentPhasesRunInParallel() throws Exception {
+        var startup = new StartupSequence(new MetricsRegistry());
+        var both = new CountDownLatch(2);
+        var first = startup.start("first", () -> {
+            both.countDown();
+            return both.await(10, TimeUnit.SECONDS);
+        });
+        var second = startup.start("second", () -> {
+            both.countDown();
+            return both.await(10, TimeUnit.SECONDS);
+        });
+        startup.whenAll().get(10, TimeUnit.SECONDS);
+        assertTrue(first.get());
+        assertTrue(second.get());
+    }
+}
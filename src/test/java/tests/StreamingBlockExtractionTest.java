@@ -0,0 +1,103 @@
+package tests;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.webparsers.IBlockExtractor;
+import telegrambot.webparsers.StreamingBlockExtraction;
+
+public class StreamingBlockExtractionTest {
+
+    /**
+     * Извлекатель, записывающий текст блока по селектору
+     */
+    public static class TextOf implements IBlockExtractor<Map<String, String>> {
+
+        public final String selector;
+
+        public TextOf(String selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public String getSelector() {
+            return selector;
+        }
+
+        @Override
+        public void extract(Element block, Map<String, String> builder) {
+            builder.put(selector, block.text());
+        }
+    }
+
+    /**
+     * Читатель, считающий прочитанные символы
+     */
+    public static class CountingReader extends StringReader {
+
+        public int read;
+
+        public CountingReader(String s) {
+            super(s);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            read += Math.max(n, 0);
+            return n;
+        }
+    }
+
+    public static Map<String, String> extract(String html, String... selectors) throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        List<IBlockExtractor<Map<String, String>>> extractors = new ArrayList<>();
+        for (var selector : selectors) {
+            extractors.add(new TextOf(selector));
+        }
+        new StreamingBlockExtraction<>(extractors).extract(new StringReader(html), "https://example.org/", result);
+        return result;
+    }
+
+    @Test
+    public void markupInCommentsScriptsAndAttributesIsNotMistakenForBlocks() throws IOException {
+        var html = "<html><head><script>if (a < b) document.write('<div id=\"x\">скрипт</div>');</script></head><body>"
+                + "<!-- <div id=\"x\">комментарий</div> -->"
+                + "<div title=\"a > b\" id=\"x\">Блок <b>x</b></div></body></html>";
+        assertEquals(Map.of("#x", "Блок x"), extract(html, "#x"));
+    }
+
+    @Test
+    public void descendantChildAndAttributeSelectors() throws IOException {
+        var html = "<div class=\"box day\"><section><div class=\"quote\"><p>Вложенная</p></div></section>"
+                + "<div class=\"quote\"><p>Дочерняя</div></div><div data-kind='parable'>Притча</div>";
+        var result = extract(html, "div.box div.quote", "div.box > div.quote", "div[data-kind=parable]");
+        assertEquals("Вложенная", result.get("div.box div.quote"));
+        // незакрытый p закрывается вместе с div
+        assertEquals("Дочерняя", result.get("div.box > div.quote"));
+        assertEquals("Притча", result.get("div[data-kind=parable]"));
+    }
+
+    @Test
+    public void readingStopsWhenAllBlocksAreFound() throws IOException {
+        var tail = "<p>Остаток страницы</p>".repeat(10_000);
+        var html = "<div id=\"a\">A</div><div id=\"b\">B <br> <img src=\"x.png\"/></div>" + tail;
+        var in = new CountingReader(html);
+        Map<String, String> result = new LinkedHashMap<>();
+        List<IBlockExtractor<Map<String, String>>> extractors = List.of(new TextOf("#a"), new TextOf("#b"));
+        assertEquals(2, new StreamingBlockExtraction<>(extractors).extract(in, "https://example.org/", result));
+        assertEquals("B", result.get("#b"));
+        assertTrue(in.read < html.length() / 10, "прочитано " + in.read + " из " + html.length());
+    }
+
+    @Test
+    public void unsupportedSelectorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> extract("<p></p>", "div:has(p)"));
+    }
+}
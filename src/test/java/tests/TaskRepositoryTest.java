@@ -0,0 +1,129 @@
+package tests;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import benchmarks.BenchmarkData;
+import telegrambot.familyassistant.FamilyAssistantBot;
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.ITask;
+import telegrambot.todos.ITaskRepository;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.Task;
+
+public class TaskRepositoryTest {
+
+    public static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT);
+
+    public ITaskRepository repository;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        repository = BenchmarkData.inMemoryRepository();
+        assertTrue(repository.initialize());
+    }
+
+    public static IReminderEntity remind(long userId, String name, LocalDateTime when) {
+        return new ReminderEntity(ReminderCacheTest.task(userId, name), when.format(FORMATTER), 2, ChronoUnit.HOURS, 15, 3, 10,
+                LocalDateTime.now().format(FORMATTER));
+    }
+
+    @Test
+    public void schemaIsCreatedOnce() throws Exception {
+        assertFalse(repository.initialize());
+    }
+
+    @Test
+    public void savedTaskIsReadBack() throws Exception {
+        var when = LocalDateTime.now().plusDays(1).withSecond(0).withNano(0);
+        var remind = remind(1, "Позвонить маме", when);
+        assertTrue(repository.save(remind.getTask(), remind) > 0);
+        var reminds = repository.findReminds("1");
+        assertEquals(1, reminds.size());
+        var read = reminds.get(0);
+        assertEquals(remind.getScheduledTime(), read.getScheduledTime());
+        assertEquals(2, read.getRepeatInterval());
+        assertEquals(ChronoUnit.HOURS, read.getRepeatIntervalUnit());
+        assertEquals(15, read.getMinutesBefore());
+        assertEquals(3, read.getRemindTimes());
+        assertEquals(10, read.getRemindTimesInterval());
+        assertEquals("Позвонить маме", read.getTask().getName());
+        assertEquals("Описание", read.getTask().getDescription());
+        assertEquals("1", read.getTask().getChatId());
+        assertEquals(Set.of("дом"), read.getTask().getTags());
+        assertEquals("Антон", read.getTask().getOwner().getFirstName());
+    }
+
+    @Test
+    public void taskWithSameNameIsReplaced() throws Exception {
+        repository.save(ReminderCacheTest.task(1, "Купить хлеба"), null);
+        var remind = remind(1, "Купить хлеба", LocalDateTime.now().plusDays(1));
+        repository.save(remind.getTask(), remind);
+        assertEquals(1, repository.findTasks("1").size());
+        assertEquals(1, repository.findReminds("1").size());
+    }
+
+    @Test
+    public void remindsAreOrderedByDeadlineAndSeparatedByOwner() throws Exception {
+        var now = LocalDateTime.now();
+        for (var remind : new IReminderEntity[] {remind(1, "Послезавтра", now.plusDays(2)), remind(1, "Завтра", now.plusDays(1)),
+                remind(2, "Чужая", now.plusHours(1))}) {
+            repository.save(remind.getTask(), remind);
+        }
+        repository.save(ReminderCacheTest.task(1, "Без срока"), null);
+        var reminds = repository.findReminds("1");
+        assertEquals(2, reminds.size());
+        assertEquals("Завтра", reminds.get(0).getTask().getName());
+        assertEquals("Послезавтра", reminds.get(1).getTask().getName());
+        assertEquals(3, repository.findTasks("1").size());
+        assertEquals(1, repository.findTasks("2").size());
+    }
+
+    @Test
+    public void tasksAreFoundByTagAndDeletedWithTags() throws Exception {
+        repository.save(ReminderCacheTest.task(1, "Купить хлеба"), null);
+        var work = new Task("1", ReminderCacheTest.task(1, "").getOwner(), "Отчет", "Сдать отчет",
+                Set.of("работа", "срочно"));
+        repository.save(work, null);
+        assertEquals(1, repository.findTasksByTag("1", "работа").size());
+        assertEquals(Set.of("работа", "срочно"), repository.findTasksByTag("1", "срочно").get(0).getTags());
+        assertTrue(repository.delete("1", "Отчет"));
+        assertFalse(repository.delete("1", "Отчет"));
+        assertTrue(repository.findTasksByTag("1", "работа").isEmpty());
+        assertEquals(1, repository.findTasks("1").size());
+    }
+
+    @Test
+    public void batchIsSavedAndDeletedInOneTransaction() throws Exception {
+        var when = LocalDateTime.now().plusDays(1);
+        repository.save(ReminderCacheTest.task(1, "Купить хлеба"), null);
+        var tasks = new ArrayList<ITask>();
+        var reminds = new ArrayList<IReminderEntity>();
+        for (int i = 0; i < 50; i++) {
+            var remind = remind(1 + i % 2, "Дело " + i, when.plusMinutes(i));
+            tasks.add(remind.getTask());
+            reminds.add(remind);
+        }
+        // замена существующей задачи и повтор имени внутри пакета: остается последняя
+        tasks.add(ReminderCacheTest.task(1, "Купить хлеба"));
+        reminds.add(remind(1, "Купить хлеба", when));
+        tasks.add(ReminderCacheTest.task(1, "Дело 0"));
+        reminds.add(null);
+        long[] ids = repository.saveAll(tasks, reminds);
+        assertEquals(52, ids.length);
+        assertEquals(ids[0], ids[51]);
+        assertEquals(26, repository.findTasks("1").size());
+        assertEquals(25, repository.findReminds("1").size());
+        assertEquals(26, repository.findTasksByTag("1", "дом").size());
+        boolean[] deleted = repository.deleteAll(List.of(tasks.get(0), tasks.get(1), tasks.get(0)));
+        assertArrayEquals(new boolean[] {true, true, false}, deleted);
+        assertEquals(25, repository.findTasks("1").size());
+        assertEquals(24, repository.findTasks("2").size());
+    }
+}
@@ -0,0 +1,80 @@
+package tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.todos.TimingWheel;
+
+public class TimingWheelTest {
+
+    @Test
+    public void timersFireInDeadlineOrderAndNotEarly() {
+        var wheel = new TimingWheel<Long>(10, 0);
+        var random = new Random(42);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            // сроки на всех уровнях колеса: от одного такта до нескольких месяцев
+            long deadline = 1 + (long) Math.pow(10, 1 + random.nextDouble() * 9);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+        assertEquals(10000, wheel.size());
+        long now = 0;
+        long last = -1;
+        int fired = 0;
+        long max = deadlines.stream().mapToLong(Long::longValue).max().getAsLong();
+        while (now < max + 10) {
+            now += 1 + random.nextInt(1000000);
+            for (var deadline : wheel.advance(now)) {
+                assertTrue(deadline <= now, "сработал раньше срока");
+                assertTrue(deadline > now - 1000010, "сработал позже следующего продвижения");
+                assertTrue((deadline + 9) / 10 >= (last + 9) / 10, "порядок сроков нарушен");
+                last = deadline;
+                fired++;
+            }
+        }
+        assertEquals(10000, fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void eachTickFiresExactlyItsTimers() {
+        var wheel = new TimingWheel<Long>(1, 1000);
+        for (long deadline = 1001; deadline <= 1001 + 70000; deadline += 7) {
+            wheel.schedule(deadline, deadline);
+        }
+        for (long now = 1001; now <= 1001 + 70000; now++) {
+            var fired = wheel.advance(now);
+            if ((now - 1001) % 7 == 0) {
+                assertEquals(List.of(now), fired);
+            } else {
+                assertTrue(fired.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void cancelledTimerDoesNotFire() {
+        var wheel = new TimingWheel<String>(1000, 0);
+        var kept = wheel.schedule(5000, "kept");
+        var cancelled = wheel.schedule(5000, "cancelled");
+        var far = wheel.schedule(100000000, "far");
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        assertTrue(wheel.cancel(far));
+        assertEquals(1, wheel.size());
+        assertEquals(List.of("kept"), wheel.advance(200000000));
+        assertFalse(kept.isPending());
+        assertFalse(wheel.cancel(kept));
+    }
+
+    @Test
+    public void overdueTimerFiresOnNextTick() {
+        var wheel = new TimingWheel<String>(1000, 10000);
+        wheel.schedule(0, "overdue");
+        assertTrue(wheel.advance(10999).isEmpty());
+        assertEquals(List.of("overdue"), wheel.advance(11000));
+    }
+}
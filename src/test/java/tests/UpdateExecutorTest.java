@@ -0,0 +1,101 @@
+package tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.dispatch.UpdateExecutor;
+
+public class UpdateExecutorTest {
+
+    public UpdateExecutor executor;
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        executor.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void concurrencyIsBoundedAcrossChats() throws Exception {
+        executor = new UpdateExecutor(2, 10, 100);
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var done = new CountDownLatch(10);
+        for (int chat = 0; chat < 10; chat++) {
+            assertTrue(executor.submit(Integer.toString(chat), () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            }));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+        assertEquals(0, executor.pendingCount());
+    }
+
+    @Test
+    public void updatesOfOneChatRunInOrder() throws Exception {
+        executor = new UpdateExecutor(4, 1000, 1000);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        var done = new CountDownLatch(200);
+        for (int i = 0; i < 200; i++) {
+            int n = i;
+            assertTrue(executor.submit("42", () -> {
+                order.add(n);
+                done.countDown();
+            }));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, order);
+    }
+
+    @Test
+    public void overflowingQueuesRejectUpdates() throws Exception {
+        executor = new UpdateExecutor(1, 2, 3);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var ran = new AtomicInteger();
+        assertTrue(executor.submit("a", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.incrementAndGet();
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // очередь чата "a" вмещает два обновления
+        assertTrue(executor.submit("a", ran::incrementAndGet));
+        assertTrue(executor.submit("a", ran::incrementAndGet));
+        assertFalse(executor.submit("a", ran::incrementAndGet));
+        // общая очередь вмещает три обновления
+        assertTrue(executor.submit("b", ran::incrementAndGet));
+        assertFalse(executor.submit("c", ran::incrementAndGet));
+        assertEquals(3, executor.pendingCount());
+        assertEquals(2, executor.rejectedCount());
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ran.get() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, ran.get());
+        assertEquals(0, executor.pendingCount());
+        // после разгрузки очереди снова принимают обновления
+        assertTrue(executor.submit("c", ran::incrementAndGet));
+    }
+}
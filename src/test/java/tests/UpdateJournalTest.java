@@ -0,0 +1,107 @@
+package tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.dispatch.UpdateJournal;
+
+public class UpdateJournalTest {
+
+    public File file;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        file = Files.createTempFile("updateJournal", "").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void duplicateIsRejected() {
+        var journal = new UpdateJournal(file, 100);
+        assertTrue(journal.begin(10));
+        assertFalse(journal.begin(10));
+        journal.complete(10);
+        assertFalse(journal.begin(10));
+        assertTrue(journal.begin(11));
+    }
+
+    @Test
+    public void watermarkStopsBeforeOldestUnfinishedUpdate() {
+        var journal = new UpdateJournal(file, 100);
+        journal.begin(1);
+        journal.begin(2);
+        journal.begin(3);
+        journal.complete(1);
+        journal.complete(3);
+        assertEquals(1, journal.watermark());
+        journal.complete(2);
+        assertEquals(3, journal.watermark());
+    }
+
+    @Test
+    public void stateSurvivesRestart() throws Exception {
+        var journal = new UpdateJournal(file, 100);
+        journal.begin(1);
+        journal.begin(2);
+        journal.begin(3);
+        journal.complete(1);
+        journal.complete(3);
+        journal.flush();
+        var restarted = new UpdateJournal(file, 100);
+        assertEquals(1, restarted.watermark());
+        assertFalse(restarted.begin(1));
+        // обновление 2 не было обработано до остановки: его нужно обработать после перезапуска
+        assertTrue(restarted.begin(2));
+        assertFalse(restarted.begin(3));
+        restarted.complete(2);
+        assertEquals(2, restarted.watermark());
+    }
+
+    @Test
+    public void updatesOlderThanWindowAreRejected() {
+        var journal = new UpdateJournal(file, 2);
+        journal.begin(1);
+        journal.begin(2);
+        journal.begin(3);
+        assertFalse(journal.begin(1));
+        assertTrue(journal.begin(4));
+    }
+
+    @Test
+    public void windowOverflowDoesNotPassUnfinishedUpdate() throws Exception {
+        var journal = new UpdateJournal(file, 2);
+        journal.begin(1);
+        journal.begin(2);
+        journal.complete(2);
+        journal.begin(3);
+        journal.complete(3);
+        journal.begin(4);
+        journal.complete(4);
+        // 1 и 2 вытеснены из окна, но 1 еще обрабатывается
+        assertEquals(0, journal.watermark());
+        assertFalse(journal.begin(1));
+        journal.flush();
+        var restarted = new UpdateJournal(file, 2);
+        assertTrue(restarted.begin(1));
+        journal.complete(1);
+        assertEquals(4, journal.watermark());
+        assertFalse(journal.begin(1));
+        assertFalse(journal.begin(2));
+    }
+
+    @Test
+    public void abortedUpdateCanBeRedelivered() {
+        var journal = new UpdateJournal(file, 100);
+        journal.begin(5);
+        journal.abort(5);
+        assertEquals(-1, journal.watermark());
+        assertTrue(journal.begin(5));
+    }
+}
@@ -0,0 +1,73 @@
+package tests;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import telegrambot.webhook.WebhookServer;
+
+public class WebhookServerTest {
+
+    public WebhookServer server;
+    public HttpClient client;
+    public List<Update> received;
+    public boolean accept;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        received = new CopyOnWriteArrayList<>();
+        accept = true;
+        server = new WebhookServer(0, "/telegram", 2, update -> {
+            if (accept) {
+                received.add(update);
+            }
+            return accept;
+        });
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    public HttpResponse<Void> post(String path, String body) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    @Test
+    public void testSyntheticUpdateIsParsedAndPassed() throws Exception {
+        var body = "{\"update_id\":42,\"message\":{\"message_id\":7,\"date\":1700000000,"
+                + "\"chat\":{\"id\":100,\"type\":\"private\"},\"from\":{\"id\":200,\"is_bot\":false,\"first_name\":\"Test\"},"
+                + "\"text\":\"/azbyka\",\"some_future_field\":1}}";
+        assertEquals(200, post("/telegram", body).statusCode());
+        assertEquals(1, received.size());
+        assertEquals(42, received.get(0).getUpdateId().intValue());
+        assertEquals(100L, received.get(0).getMessage().getChatId().longValue());
+        assertEquals("/azbyka", received.get(0).getMessage().getText());
+    }
+
+    @Test
+    public void testRejectedUpdateAsksTelegramToRetry() throws Exception {
+        accept = false;
+        assertEquals(503, post("/telegram", "{\"update_id\":1}").statusCode());
+    }
+
+    @Test
+    public void testMalformedBodyAndWrongPath() throws Exception {
+        assertEquals(400, post("/telegram", "not json").statusCode());
+        assertEquals(404, post("/telegram/other", "{\"update_id\":1}").statusCode());
+        assertTrue(received.isEmpty());
+    }
+}
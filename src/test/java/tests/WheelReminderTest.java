@@ -0,0 +1,163 @@
+package tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.quartz.ObjectAlreadyExistsException;
+import telegrambot.todos.IReminderEntity;
+import telegrambot.todos.ReminderEntity;
+import telegrambot.todos.ReminderLog;
+import telegrambot.todos.TaskMessages;
+import telegrambot.todos.WheelReminder;
+
+public class WheelReminderTest {
+
+    public File dir;
+    public List<String> sent;
+    public WheelReminder reminder;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("wheel-reminder").toFile();
+        sent = new CopyOnWriteArrayList<>();
+        reminder = open(1000);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        reminder.close();
+        for (var file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public WheelReminder open(int snapshotEvery) throws Exception {
+        return new WheelReminder(dir, 10, snapshotEvery, (chatId, text) -> sent.add(chatId + ": " + text));
+    }
+
+    public static IReminderEntity remind(long userId, String name, LocalDateTime when, int minutesBefore) {
+        return new ReminderEntity(ReminderCacheTest.task(userId, name), when.format(TaskRepositoryTest.FORMATTER), 0,
+                ChronoUnit.DAYS, minutesBefore, 1, 0, LocalDateTime.now().format(TaskRepositoryTest.FORMATTER));
+    }
+
+    public void awaitSent(int count) throws InterruptedException {
+        for (int i = 0; i < 200 && sent.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, sent.size());
+    }
+
+    @Test
+    public void listsAreServedFromMemory() throws Exception {
+        var now = LocalDateTime.now();
+        reminder.addTask(ReminderCacheTest.task(1, "Купить хлеба"));
+        reminder.scheduleRemind(remind(1, "Послезавтра", now.plusDays(2), 0));
+        reminder.scheduleRemind(remind(1, "Завтра", now.plusDays(1), 30));
+        reminder.scheduleRemind(remind(2, "Чужая", now.plusDays(1), 0));
+        assertEquals(3, reminder.getTaskList("1").size());
+        var reminds = reminder.getRemindsList("1");
+        assertEquals("Завтра", reminds.get(0).getTask().getName());
+        assertEquals("Послезавтра", reminds.get(1).getTask().getName());
+        // у напоминания один таймер - на следующее срабатывание, в т.ч. напоминание заранее
+        assertEquals(3, reminder.pending());
+        assertThrows(ObjectAlreadyExistsException.class, () -> reminder.scheduleRemind(remind(1, "Завтра", now.plusDays(3), 0)));
+        reminder.completeTask(reminds.get(0).getTask());
+        assertEquals(2, reminder.pending());
+        assertEquals(2, reminder.getTaskList("1").size());
+    }
+
+    @Test
+    public void overdueRemindFiresOnceAcrossRestart() throws Exception {
+        reminder.scheduleRemind(remind(1, "Позвонить маме", LocalDateTime.now().minusMinutes(1), 0));
+        awaitSent(1);
+        assertTrue(sent.get(0).startsWith("1: "));
+        assertTrue(sent.get(0).contains("ПОЗВОНИТЬ МАМЕ"));
+        reminder.close();
+        reminder = open(1000);
+        Thread.sleep(100);
+        assertEquals(1, sent.size());
+        // у разового напоминания срабатываний больше нет: оно удалено и из списков, и из снимка
+        assertEquals(0, reminder.getRemindsList("1").size());
+        assertEquals(0, reminder.getTaskList("1").size());
+        assertEquals(0, reminder.pending());
+    }
+
+    @Test
+    public void stateIsRestoredFromSnapshotAndLog() throws Exception {
+        reminder.close();
+        // снимок пишется каждые 3 записи, так что часть состояния - в снимке, часть - в журнале
+        reminder = open(3);
+        var now = LocalDateTime.now();
+        for (int i = 0; i < 10; i++) {
+            reminder.scheduleRemind(remind(1, "Задача " + i, now.plusDays(1 + i), 15));
+        }
+        reminder.addTask(ReminderCacheTest.task(1, "Без срока"));
+        reminder.completeTask(ReminderCacheTest.task(1, "Задача 3"));
+        reminder.completeTask(ReminderCacheTest.task(1, "Задача 4"));
+        var tasks = reminder.getTaskList("1");
+        var reminds = reminder.getRemindsList("1");
+        // имитация сбоя: журнал не закрывается и снимок при закрытии не пишется
+        reminder = open(3);
+        assertEquals(tasks, reminder.getTaskList("1"));
+        assertEquals(reminds, reminder.getRemindsList("1"));
+        assertEquals(8, reminder.pending());
+        reminder.addTask(ReminderCacheTest.task(1, "После перезапуска"));
+        assertEquals(10, reminder.getTaskList("1").size());
+    }
+
+    @Test
+    public void tornLogTailIsDiscarded() throws Exception {
+        reminder.addTask(ReminderCacheTest.task(1, "Купить хлеба"));
+        reminder.close();
+        try (var out = new FileOutputStream(new File(dir, ReminderLog.LOG_FILE), true)) {
+            out.write("{\"op\":\"task\",\"id\":7,\"ta".getBytes());
+        }
+        reminder = open(1000);
+        assertEquals(1, reminder.getTaskList("1").size());
+        reminder.addTask(ReminderCacheTest.task(1, "Купить молока"));
+        reminder.close();
+        reminder = open(1000);
+        assertEquals(2, reminder.getTaskList("1").size());
+    }
+
+    @Test
+    public void firedOneTimeRemindIsRemovedFromLog() throws Exception {
+        reminder.scheduleRemind(remind(1, "Позвонить маме", LocalDateTime.now().minusMinutes(1), 0));
+        reminder.scheduleRemind(remind(1, "Полить цветы", LocalDateTime.now().plusDays(1), 0));
+        awaitSent(1);
+        assertEquals(1, reminder.getRemindsList("1").size());
+        // имитация сбоя: снимок не пишется, и удаление восстанавливается из журнала
+        reminder = open(1000);
+        Thread.sleep(100);
+        assertEquals(1, sent.size());
+        assertEquals(1, reminder.getRemindsList("1").size());
+        assertEquals("Полить цветы", reminder.getRemindsList("1").get(0).getTask().getName());
+        // имя выполненного напоминания свободно
+        reminder.scheduleRemind(remind(1, "Позвонить маме", LocalDateTime.now().plusDays(1), 0));
+        assertEquals(2, reminder.getRemindsList("1").size());
+    }
+
+    @Test
+    public void overdueNudgesCollapseIntoDeadline() throws Exception {
+        // напоминания заранее - за 30 и за 10 минут; третье пришлось бы на 10 минут после дедлайна и не планируется
+        var remind = new ReminderEntity(ReminderCacheTest.task(1, "Позвонить маме"),
+                LocalDateTime.now().minusMinutes(1).format(TaskRepositoryTest.FORMATTER), 0, ChronoUnit.DAYS, 30, 2, 20,
+                LocalDateTime.now().format(TaskRepositoryTest.FORMATTER));
+        reminder.scheduleRemind(remind);
+        awaitSent(1);
+        Thread.sleep(100);
+        // все пропущенные срабатывания - одно сообщение о дедлайне
+        assertEquals(List.of("1: " + TaskMessages.deadline(remind)), sent);
+        assertEquals(0, reminder.pending());
+        assertTrue(reminder.getRemindsList("1").isEmpty());
+    }
+}
@@ -0,0 +1,378 @@
+package tests.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Заглушка Telegram Bot API, работающая в том же процессе, что и бот. Понимает getUpdates (с длительным опросом), sendMessage,
+ * editMessageText, answerCallbackQuery, а также служебные deleteWebhook и getMe, которые библиотека вызывает при регистрации
+ * бота. Синтетические обновления ставятся в очередь методом inject() и выдаются боту с заданной частотой. Каждый исходящий
+ * запрос бота передается слушателю
+ * @author borodatyidrug
+ *
+ */
+public class FakeBotApiServer {
+
+	/**
+	 * Запрос бота, принятый заглушкой
+	 */
+	public static class Outgoing {
+
+		public final String method;
+		public final long chatId;
+		public final String text;
+		/**
+		 * Момент (System.nanoTime()), когда боту было выдано последнее обновление этого чата
+		 */
+		public final long deliveredAt;
+		public final long receivedAt;
+
+		public Outgoing(String method, long chatId, String text, long deliveredAt, long receivedAt) {
+			this.method = method;
+			this.chatId = chatId;
+			this.text = text;
+			this.deliveredAt = deliveredAt;
+			this.receivedAt = receivedAt;
+		}
+	}
+
+	protected static final long TICK_MILLIS = 5;
+
+	protected final HttpServer server;
+	protected final ExecutorService executor;
+	protected final ScheduledExecutorService ticker;
+	protected final ObjectMapper mapper;
+	protected final String pathPrefix;
+	protected final double injectRate;
+	/**
+	 * Обновления, ожидающие своей очереди на выдачу
+	 */
+	protected final ConcurrentLinkedQueue<ObjectNode> injected;
+	/**
+	 * Обновления, которые можно выдать боту, но получение которых бот еще не подтвердил смещением offset
+	 */
+	protected final ArrayDeque<ObjectNode> available;
+	protected final Map<Long, Long> deliveredAt;
+	protected final Map<String, AtomicLong> methodCounts;
+	protected final AtomicLong messageIds;
+	protected final AtomicLong apiErrors;
+	protected long nextUpdateId;
+	protected double credit;
+	protected long lastTick;
+	protected volatile Consumer<Outgoing> listener;
+	protected volatile boolean running;
+
+	/**
+	 * Создает заглушку
+	 * @param port Порт, 0 - любой свободный
+	 * @param token Bot-token, который ожидается в адресе запроса
+	 * @param injectRate Сколько обновлений в секунду выдавать боту. 0 - без ограничения
+	 * @throws IOException Если порт занят
+	 */
+	public FakeBotApiServer(int port, String token, double injectRate) throws IOException {
+		this.mapper = new ObjectMapper();
+		this.pathPrefix = "/bot" + token + "/";
+		this.injectRate = injectRate;
+		this.injected = new ConcurrentLinkedQueue<>();
+		this.available = new ArrayDeque<>();
+		this.deliveredAt = new ConcurrentHashMap<>();
+		this.methodCounts = new ConcurrentHashMap<>();
+		this.messageIds = new AtomicLong();
+		this.apiErrors = new AtomicLong();
+		this.nextUpdateId = 1;
+		this.listener = o -> {};
+		// без TCP_NODELAY ответ, записанный двумя порциями (заголовки и тело), задерживается на десятки миллисекунд алгоритмом Нейгла
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		this.executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "fake-bot-api");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "fake-bot-api-ticker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server.setExecutor(executor);
+		this.server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		running = true;
+		lastTick = System.nanoTime();
+		server.start();
+		ticker.scheduleAtFixedRate(this::release, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() {
+		running = false;
+		synchronized (available) {
+			available.notifyAll();
+		}
+		ticker.shutdownNow();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	/**
+	 * Возвращает адрес, который нужно передать боту в DefaultBotOptions.setBaseUrl()
+	 * @return Базовый адрес Bot API
+	 */
+	public String getBaseUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/bot";
+	}
+
+	public void setListener(Consumer<Outgoing> listener) {
+		this.listener = listener;
+	}
+	/**
+	 * Ставит синтетическое обновление в очередь на выдачу боту. update_id присваивается при выдаче
+	 * @param update Обновление без update_id
+	 */
+	public void inject(ObjectNode update) {
+		injected.add(update);
+	}
+	/**
+	 * Возвращает количество вызовов каждого метода Bot API
+	 * @return Мапа: имя метода - количество вызовов
+	 */
+	public Map<String, AtomicLong> getMethodCounts() {
+		return methodCounts;
+	}
+	/**
+	 * Возвращает количество запросов, на которые заглушка ответила ошибкой
+	 * @return Количество ошибок
+	 */
+	public long getApiErrors() {
+		return apiErrors.get();
+	}
+	/**
+	 * Создает обновление с текстовым сообщением пользователя в его личном чате с ботом. Текст, начинающийся с "/", размечается
+	 * как команда
+	 * @param userId Идентификатор пользователя, он же - идентификатор чата
+	 * @param text Текст сообщения
+	 * @return Обновление без update_id
+	 */
+	public ObjectNode textUpdate(long userId, String text) {
+		var update = mapper.createObjectNode();
+		var message = update.putObject("message");
+		fillMessage(message, userId, text);
+		message.set("from", user(userId));
+		if (text.startsWith("/")) {
+			var entity = message.putArray("entities").addObject();
+			entity.put("type", "bot_command");
+			entity.put("offset", 0);
+			entity.put("length", text.indexOf(' ') < 0 ? text.length() : text.indexOf(' '));
+		}
+		return update;
+	}
+	/**
+	 * Создает обновление с нажатием пользователем inline-кнопки под сообщением бота
+	 * @param userId Идентификатор пользователя, он же - идентификатор чата
+	 * @param data callbackData кнопки
+	 * @return Обновление без update_id
+	 */
+	public ObjectNode callbackUpdate(long userId, String data) {
+		var update = mapper.createObjectNode();
+		var query = update.putObject("callback_query");
+		query.put("id", Long.toString(messageIds.incrementAndGet()));
+		query.set("from", user(userId));
+		query.put("chat_instance", Long.toString(userId));
+		query.put("data", data);
+		fillMessage(query.putObject("message"), userId, "menu");
+		return update;
+	}
+
+	protected ObjectNode user(long userId) {
+		var user = mapper.createObjectNode();
+		user.put("id", userId);
+		user.put("is_bot", false);
+		user.put("first_name", "User" + userId);
+		return user;
+	}
+
+	protected void fillMessage(ObjectNode message, long chatId, String text) {
+		message.put("message_id", messageIds.incrementAndGet());
+		message.put("date", System.currentTimeMillis() / 1000);
+		var chat = message.putObject("chat");
+		chat.put("id", chatId);
+		chat.put("type", "private");
+		message.put("text", text);
+	}
+	/**
+	 * Переносит обновления из очереди ожидания в очередь выдачи с заданной частотой
+	 */
+	protected void release() {
+		long now = System.nanoTime();
+		int count;
+		if (injectRate <= 0) {
+			count = Integer.MAX_VALUE;
+		} else {
+			credit = Math.min(credit + injectRate * (now - lastTick) / 1e9, Math.max(1, injectRate));
+			count = (int) credit;
+			credit -= count;
+		}
+		lastTick = now;
+		boolean released = false;
+		synchronized (available) {
+			ObjectNode update;
+			while (count-- > 0 && (update = injected.poll()) != null) {
+				update.put("update_id", nextUpdateId++);
+				available.add(update);
+				released = true;
+			}
+			if (released) {
+				available.notifyAll();
+			}
+		}
+	}
+
+	protected void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			var path = exchange.getRequestURI().getPath();
+			if (!path.startsWith(pathPrefix)) {
+				error(exchange, 401, "Unauthorized");
+				return;
+			}
+			// имена методов Bot API не зависят от регистра, библиотека, например, вызывает "getupdates"
+			var method = path.substring(pathPrefix.length()).toLowerCase();
+			methodCounts.computeIfAbsent(method, k -> new AtomicLong()).incrementAndGet();
+			JsonNode body;
+			try (InputStream in = exchange.getRequestBody()) {
+				var bytes = in.readAllBytes();
+				body = bytes.length == 0 ? mapper.createObjectNode() : mapper.readTree(bytes);
+			}
+			switch (method) {
+				case "getupdates":
+					ok(exchange, getUpdates(body.path("offset").asLong(0), body.path("limit").asInt(100),
+							body.path("timeout").asInt(0)));
+					break;
+				case "sendmessage":
+				case "editmessagetext":
+					var text = body.path("text").asText("");
+					if (text.isBlank()) {
+						error(exchange, 400, "Bad Request: message text is empty");
+						return;
+					}
+					var chatId = body.path("chat_id").asLong();
+					var message = mapper.createObjectNode();
+					fillMessage(message, chatId, text);
+					ok(exchange, message);
+					notify(method.equals("sendmessage") ? "sendMessage" : "editMessageText", chatId, text);
+					break;
+				case "answercallbackquery":
+					ok(exchange, mapper.getNodeFactory().booleanNode(true));
+					notify("answerCallbackQuery", 0, body.path("text").asText(""));
+					break;
+				case "deletewebhook":
+				case "setwebhook":
+					ok(exchange, mapper.getNodeFactory().booleanNode(true));
+					break;
+				case "getme":
+					var me = user(0);
+					me.put("is_bot", true);
+					me.put("username", "bd_FamilyAssistantBot");
+					ok(exchange, me);
+					break;
+				default:
+					error(exchange, 404, "Not Found: method " + method);
+			}
+		}
+	}
+	/**
+	 * Выдает обновления начиная с offset, ожидая их появления не дольше timeout секунд
+	 */
+	protected JsonNode getUpdates(long offset, int limit, int timeout) {
+		var result = mapper.createArrayNode();
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+		List<ObjectNode> batch = new ArrayList<>();
+		synchronized (available) {
+			while (!available.isEmpty() && available.peek().get("update_id").asLong() < offset) {
+				available.poll();
+			}
+			long remains;
+			while (available.isEmpty() && running && (remains = deadline - System.currentTimeMillis()) > 0) {
+				try {
+					available.wait(remains);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			for (var update : available) {
+				if (batch.size() >= limit) {
+					break;
+				}
+				batch.add(update);
+			}
+		}
+		long now = System.nanoTime();
+		for (var update : batch) {
+			var chat = update.has("message") ? update.get("message").get("chat")
+					: update.get("callback_query").get("message").get("chat");
+			deliveredAt.putIfAbsent(chat.get("id").asLong(), now);
+			result.add(update);
+		}
+		return result;
+	}
+	/**
+	 * Отмечает, что ответ бота в этот чат получен, и следующее обновление чата будет отсчитывать задержку заново
+	 */
+	protected void notify(String method, long chatId, String text) {
+		long now = System.nanoTime();
+		Long delivered = deliveredAt.get(chatId);
+		listener.accept(new Outgoing(method, chatId, text, delivered == null ? now : delivered, now));
+	}
+	/**
+	 * Сбрасывает момент выдачи последнего обновления чата. Вызывается драйвером перед отправкой следующего шага сценария
+	 * @param chatId Идентификатор чата
+	 */
+	public void resetDelivery(long chatId) {
+		deliveredAt.remove(chatId);
+	}
+
+	protected void ok(HttpExchange exchange, JsonNode result) throws IOException {
+		var response = mapper.createObjectNode();
+		response.put("ok", true);
+		response.set("result", result);
+		write(exchange, 200, response);
+	}
+
+	protected void error(HttpExchange exchange, int code, String description) throws IOException {
+		apiErrors.incrementAndGet();
+		var response = mapper.createObjectNode();
+		response.put("ok", false);
+		response.put("error_code", code);
+		response.put("description", description);
+		write(exchange, code, response);
+	}
+
+	protected void write(HttpExchange exchange, int code, JsonNode response) throws IOException {
+		var bytes = mapper.writeValueAsBytes(response);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package tests.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.BotSession;
+import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import telegrambot.commands.CallbackOrientedBotCommand;
+import telegrambot.familyassistant.FamilyAssistantBot;
+
+/**
+ * Нагрузочный драйвер: каждый из заданного числа синтетических пользователей проходит полный сценарий
+ * /newtask - имя - планирование - срок - готово - /listtask через заглушку Telegram Bot API. Следующий шаг сценария пользователь
+ * делает только после того, как получит все ожидаемые ответы бота на предыдущий. Задержка шага - время от выдачи обновления
+ * боту до получения заглушкой последнего ответа бота на это обновление. Запуск из командной строки:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=tests.load.LoadDriver -Dexec.args="2000 0",
+ * где аргументы - количество пользователей и сколько обновлений в секунду выдавать боту (0 - без ограничения)
+ * @author borodatyidrug
+ *
+ */
+public class LoadDriver {
+
+	public static final String TOKEN = "123456:LOAD-TEST";
+	protected static final String LOAD_TEST_DIR = "/target/load-test";
+
+	/**
+	 * Шаг сценария: обновление, которое отправляет пользователь, количество ответов бота, которых нужно дождаться, и фрагмент
+	 * текста, который должен встретиться хотя бы в одном из ответов
+	 */
+	protected static class Step {
+
+		protected final String name;
+		protected final LongFunction<ObjectNode> update;
+		protected final int replies;
+		protected final String mustContain;
+
+		protected Step(String name, LongFunction<ObjectNode> update, int replies, String mustContain) {
+			this.name = name;
+			this.update = update;
+			this.replies = replies;
+			this.mustContain = mustContain;
+		}
+	}
+	/**
+	 * Состояние сценария одного пользователя
+	 */
+	protected static class Flow {
+
+		protected final long userId;
+		protected int step;
+		protected int awaiting;
+		protected boolean matched;
+		protected boolean finished;
+		protected long stepStartedAt;
+
+		protected Flow(long userId) {
+			this.userId = userId;
+		}
+	}
+	/**
+	 * Результаты прогона
+	 */
+	public static class Report {
+
+		public final int users;
+		public final long completed;
+		public final long failed;
+		public final long updates;
+		public final long replies;
+		public final double seconds;
+		public final long[] latenciesMicros;
+		public final Map<String, Long> errors;
+
+		protected Report(int users, long completed, long failed, long updates, long replies, double seconds, long[] latenciesMicros,
+				Map<String, Long> errors) {
+			this.users = users;
+			this.completed = completed;
+			this.failed = failed;
+			this.updates = updates;
+			this.replies = replies;
+			this.seconds = seconds;
+			this.latenciesMicros = latenciesMicros;
+			this.errors = errors;
+		}
+		/**
+		 * Возвращает перцентиль задержки шага
+		 * @param p Перцентиль, от 0 до 100
+		 * @return Задержка в миллисекундах
+		 */
+		public double percentileMillis(double p) {
+			if (latenciesMicros.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(p / 100 * latenciesMicros.length) - 1;
+			return latenciesMicros[Math.max(0, Math.min(index, latenciesMicros.length - 1))] / 1000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("users=%d completed=%d failed=%d time=%.2fs%n"
+					+ "throughput: %.1f flows/s, %.1f updates/s, %.1f replies/s%n"
+					+ "step latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n"
+					+ "errors: %s",
+					users, completed, failed, seconds,
+					completed / seconds, updates / seconds, replies / seconds,
+					percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(99.9), percentileMillis(100),
+					errors);
+		}
+	}
+
+	protected final FakeBotApiServer api;
+	protected final List<Step> script;
+	protected final Map<Long, Flow> flows;
+	protected final ConcurrentLinkedQueue<Long> latencies;
+	protected final Map<String, AtomicLong> errors;
+	protected final AtomicLong completed;
+	protected final AtomicLong failed;
+	protected final AtomicLong updates;
+	protected final AtomicLong replies;
+	protected final long stepTimeoutNanos;
+	protected CountDownLatch finished;
+
+	/**
+	 * Создает драйвер
+	 * @param api Заглушка Telegram Bot API, к которой подключен бот
+	 * @param stepTimeout Сколько ждать ответов бота на один шаг, прежде чем считать сценарий пользователя проваленным
+	 * @param unit Единица измерения stepTimeout
+	 */
+	public LoadDriver(FakeBotApiServer api, long stepTimeout, TimeUnit unit) {
+		this.api = api;
+		this.stepTimeoutNanos = unit.toNanos(stepTimeout);
+		this.flows = new ConcurrentHashMap<>();
+		this.latencies = new ConcurrentLinkedQueue<>();
+		this.errors = new ConcurrentHashMap<>();
+		this.completed = new AtomicLong();
+		this.failed = new AtomicLong();
+		this.updates = new AtomicLong();
+		this.replies = new AtomicLong();
+		var addTask = CallbackOrientedBotCommand.PREFIX_OPEN + "newtask" + CallbackOrientedBotCommand.PREFIX_CLOSE;
+		var formatter = DateTimeFormatter.ofPattern(FamilyAssistantBot.DATE_TIME_FORMAT);
+		this.script = List.of(
+				new Step("newtask", u -> api.textUpdate(u, "/newtask"), 1, null),
+				new Step("name", u -> api.callbackUpdate(u, addTask + "name"), 1, null),
+				new Step("name-input", u -> api.textUpdate(u, "load-task-" + u), 1, null),
+				new Step("schedule", u -> api.callbackUpdate(u, addTask + "schedule"), 1, null),
+				new Step("schedule-at", u -> api.callbackUpdate(u, addTask + "schedule-at"), 1, null),
+				new Step("schedule-at-input", u -> api.textUpdate(u, LocalDateTime.now().plusDays(1).format(formatter)), 1, null),
+				new Step("done-scheduling", u -> api.callbackUpdate(u, addTask + "done-scheduling"), 1,
+						"Готово! Ваша задача создана, запланирована и добавлена в ваш список!"),
+				new Step("listtask", u -> api.textUpdate(u, "/listtask"), 2, "запланированных напоминаний"));
+	}
+	/**
+	 * Прогоняет сценарий для заданного числа пользователей и ждет, пока каждый из них не закончит его или не провалит
+	 * @param users Количество пользователей
+	 * @param firstUserId Идентификатор первого пользователя, остальные идут подряд
+	 * @param timeout Сколько ждать окончания всего прогона
+	 * @param unit Единица измерения timeout
+	 * @return Результаты прогона
+	 * @throws InterruptedException
+	 */
+	public Report run(int users, long firstUserId, long timeout, TimeUnit unit) throws InterruptedException {
+		finished = new CountDownLatch(users);
+		api.setListener(this::onReply);
+		long started = System.nanoTime();
+		for (long u = firstUserId; u < firstUserId + users; u++) {
+			var flow = new Flow(u);
+			flows.put(u, flow);
+			synchronized (flow) {
+				send(flow);
+			}
+		}
+		long deadline = started + unit.toNanos(timeout);
+		while (!finished.await(100, TimeUnit.MILLISECONDS)) {
+			long now = System.nanoTime();
+			for (var flow : flows.values()) {
+				synchronized (flow) {
+					if (!flow.finished && (now - flow.stepStartedAt > stepTimeoutNanos || now > deadline)) {
+						fail(flow, "timeout at " + script.get(flow.step).name);
+					}
+				}
+			}
+		}
+		double seconds = (System.nanoTime() - started) / 1e9;
+		long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+		Arrays.sort(sorted);
+		Map<String, Long> errorCounts = new TreeMap<>();
+		errors.forEach((k, v) -> errorCounts.put(k, v.get()));
+		if (api.getApiErrors() > 0) {
+			errorCounts.put("api errors", api.getApiErrors());
+		}
+		return new Report(users, completed.get(), failed.get(), updates.get(), replies.get(), seconds, sorted, errorCounts);
+	}
+	/**
+	 * Отправляет боту обновление текущего шага сценария. Вызывается под блокировкой flow
+	 */
+	protected void send(Flow flow) {
+		var step = script.get(flow.step);
+		flow.awaiting = step.replies;
+		flow.matched = step.mustContain == null;
+		flow.stepStartedAt = System.nanoTime();
+		api.resetDelivery(flow.userId);
+		api.inject(step.update.apply(flow.userId));
+		updates.incrementAndGet();
+	}
+
+	protected void onReply(FakeBotApiServer.Outgoing reply) {
+		if (!"sendMessage".equals(reply.method) && !"editMessageText".equals(reply.method)) {
+			return;
+		}
+		replies.incrementAndGet();
+		var flow = flows.get(reply.chatId);
+		if (flow == null) {
+			error("reply to unknown chat");
+			return;
+		}
+		synchronized (flow) {
+			if (flow.finished || flow.awaiting == 0) {
+				error("unexpected reply");
+				return;
+			}
+			var step = script.get(flow.step);
+			if (!flow.matched && reply.text.contains(step.mustContain)) {
+				flow.matched = true;
+			}
+			if (--flow.awaiting > 0) {
+				return;
+			}
+			latencies.add(TimeUnit.NANOSECONDS.toMicros(reply.receivedAt - reply.deliveredAt));
+			if (!flow.matched) {
+				fail(flow, "unexpected reply at " + step.name);
+			} else if (++flow.step == script.size()) {
+				flow.finished = true;
+				completed.incrementAndGet();
+				finished.countDown();
+			} else {
+				send(flow);
+			}
+		}
+	}
+
+	protected void fail(Flow flow, String reason) {
+		flow.finished = true;
+		failed.incrementAndGet();
+		error(reason);
+		finished.countDown();
+	}
+
+	protected void error(String reason) {
+		errors.computeIfAbsent(reason, k -> new AtomicLong()).incrementAndGet();
+	}
+	/**
+	 * Готовит файлы конфигурации для бота под нагрузочный тест: Quartz хранит задания в памяти, ограничения частоты исходящих
+	 * сообщений сняты, т.к. проверяется производительность самого бота, а не ограничения Telegram
+	 * @return Путь к файлу конфигурации бота
+	 * @throws IOException
+	 */
+	public static String writeConfig() throws IOException {
+		var workingDir = FamilyAssistantBot.getWorkingDir();
+		var dir = new File(workingDir + LOAD_TEST_DIR);
+		dir.mkdirs();
+		var quartz = new File(dir, "quartz.properties");
+		Files.writeString(quartz.toPath(), String.join("\n",
+				"org.quartz.scheduler.instanceName: LoadTestScheduler",
+				"org.quartz.threadPool.class: org.quartz.simpl.SimpleThreadPool",
+				"org.quartz.threadPool.threadCount: 5",
+				"org.quartz.jobStore.class: org.quartz.simpl.RAMJobStore",
+				"org.quartz.scheduler.skipUpdateCheck: true"));
+		Map<String, String> config = new TreeMap<>();
+		config.put("azbykaRuPath", LOAD_TEST_DIR + "/azbykaRu");
+		config.put(FamilyAssistantBot.QUARTZ_PROPERTIES, LOAD_TEST_DIR + "/quartz.properties");
+		// RAMJobStore не регистрирует источник данных, поэтому задачи хранятся во встраиваемой базе в памяти
+		config.put(FamilyAssistantBot.TASK_DATABASE_URL, "jdbc:h2:mem:loadTestTasks;DB_CLOSE_DELAY=-1");
+		config.put(FamilyAssistantBot.OUTBOUND_GLOBAL_RATE, "1000000");
+		config.put(FamilyAssistantBot.OUTBOUND_CHAT_RATE, "1000000");
+		config.put(FamilyAssistantBot.OUTBOUND_CHAT_BURST, "1000");
+		config.put(FamilyAssistantBot.OUTBOUND_WORKERS, "32");
+		// заглушка нумерует обновления заново при каждом запуске, поэтому журнал прошлого прогона отсеял бы их как повторы
+		config.put(FamilyAssistantBot.UPDATE_JOURNAL_PATH, LOAD_TEST_DIR + "/updateJournal");
+		new File(dir, "updateJournal").delete();
+		var file = new File(dir, "config");
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(fos, config);
+		}
+		return file.getAbsolutePath();
+	}
+	/**
+	 * Создает бота, направленного к заглушке, и запускает для него сессию длительного опроса
+	 * @param api Заглушка Telegram Bot API
+	 * @return Сессия длительного опроса, которую нужно остановить по окончании теста
+	 * @throws IOException
+	 * @throws TelegramApiException
+	 */
+	public static BotSession startBot(FakeBotApiServer api) throws IOException, TelegramApiException {
+		var options = new DefaultBotOptions();
+		options.setBaseUrl(api.getBaseUrl());
+		options.setGetUpdatesTimeout(1);
+		options.setMaxThreads(32);
+		var bot = new FamilyAssistantBot(options, TOKEN, writeConfig());
+		return new TelegramBotsApi(DefaultBotSession.class).registerBot(bot);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		double rate = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+		var api = new FakeBotApiServer(0, TOKEN, rate);
+		api.start();
+		var session = startBot(api);
+		try {
+			var report = new LoadDriver(api, 30, TimeUnit.SECONDS).run(users, 1_000_000, 10, TimeUnit.MINUTES);
+			System.out.println(report);
+			System.out.println("Bot API calls: " + api.getMethodCounts());
+		} finally {
+			session.stop();
+			api.stop();
+		}
+		System.exit(0);
+	}
+}
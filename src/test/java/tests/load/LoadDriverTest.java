@@ -0,0 +1,59 @@
+package tests.load;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import telegrambot.familyassistant.FamilyAssistantBot;
+
+/**
+ * Нагрузочный тест идет несколько минут, поэтому в обычный прогон mvn test не входит: mvn -P load-test test
+ */
+@Tag("load")
+public class LoadDriverTest {
+
+    public static final int USERS = 200;
+    /**
+     * Шагов в сценарии пользователя и ответов бота на них: на /listtask бот отвечает двумя сообщениями
+     */
+    public static final int STEPS = 8;
+    public static final int REPLIES = 9;
+
+    @Test
+    public void testScriptedFlowsCompleteAgainstFakeApi() throws Exception {
+        var api = new FakeBotApiServer(0, LoadDriver.TOKEN, 0);
+        api.start();
+        var session = LoadDriver.startBot(api);
+        try {
+            var report = new LoadDriver(api, 30, TimeUnit.SECONDS).run(USERS, 2_000_000, 2, TimeUnit.MINUTES);
+            assertEquals(USERS, report.completed, report.toString());
+            assertEquals(0, report.failed, report.toString());
+            assertTrue(report.errors.isEmpty(), report.errors.toString());
+            assertEquals((long) USERS * STEPS, report.updates, report.toString());
+            assertEquals((long) USERS * REPLIES, report.replies, report.toString());
+            // задержка измерена для каждого шага каждого пользователя
+            assertEquals(USERS * STEPS, report.latenciesMicros.length);
+            assertTrue(report.percentileMillis(50) <= report.percentileMillis(99), report.toString());
+            assertTrue(report.percentileMillis(100) < TimeUnit.SECONDS.toMillis(30), report.toString());
+            assertEquals(0, api.getApiErrors());
+        } finally {
+            session.stop();
+            api.stop();
+            deleteRecursively(Path.of(FamilyAssistantBot.getWorkingDir() + LoadDriver.LOAD_TEST_DIR));
+        }
+    }
+
+    public static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}